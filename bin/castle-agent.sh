@@ -0,0 +1,238 @@
+#!/usr/bin/env bash
+# Licensed to the Apache Software Foundation (ASF) under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# The ASF licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Supervises the daemons which castle starts on a node.  Castle runs this from
+# /mnt/castle/src/bin, over the node's shared ssh connection.
+#
+# Usage:
+#   castle-agent.sh start <name> <pid-file> <log-file> <max-restarts> <command...>
+#       Stop any earlier copy of the daemon, and then run the command under a
+#       supervisor, which keeps its pid in the pid file and appends its output
+#       to the log file.  If the command exits
+#       when it was not asked to stop, the supervisor starts it again, at most
+#       max-restarts times.
+#   castle-agent.sh stop <name> <timeout-seconds> [<pattern>]
+#       Send the daemon SIGTERM, and SIGKILL if it is still running after the
+#       timeout.  Prints how long the daemon took to exit.  If the agent has no
+#       record of the daemon, for example because it was started before the
+#       agent was installed, the processes whose command line matches the
+#       pattern are stopped instead.
+#   castle-agent.sh signal <name> <signal>
+#       Send the daemon a signal.
+#   castle-agent.sh status
+#       Print one line per daemon: its name, state, pid, last exit code, and
+#       the number of times it was restarted.  The state is running,
+#       restarting, stopped, or exited.  Unknown pids and exit codes are "-".
+#
+# Apart from the pid file, the state of each daemon is kept in files under
+# ${CASTLE_AGENT_ROOT}/<name>.
+
+AGENT_ROOT="${CASTLE_AGENT_ROOT:-/mnt/castle/agent}"
+SCRIPT_PATH="$(cd "$(dirname "${0}")" && pwd)/$(basename "${0}")"
+
+die() {
+    echo "castle-agent: $*" >&2
+    exit 1
+}
+
+alive() {
+    [[ -n "${1}" ]] && kill -0 "${1}" 2>/dev/null
+}
+
+read_file() {
+    cat "${1}" 2>/dev/null
+}
+
+now_ms() {
+    date +%s%3N
+}
+
+daemon_pid() {
+    read_file "$(read_file "${1}/pid-file")"
+}
+
+# The supervisor deletes its pid file when it exits, so this does not have to
+# wait for the exited supervisor to be reaped.
+supervisor_alive() {
+    [[ -e "${1}/supervisor" ]] && alive "$(read_file "${1}/supervisor")"
+}
+
+ensure_root() {
+    mkdir -p "${AGENT_ROOT}" 2>/dev/null && [[ -w "${AGENT_ROOT}" ]] && return 0
+    sudo mkdir -p "${AGENT_ROOT}" && sudo chown "$(whoami)" "${AGENT_ROOT}"
+}
+
+supervise() {
+    local dir="${AGENT_ROOT}/${1}"
+    local command pid_file log max_restarts pid code restarts=0 backoff=1 tick
+    echo "$$" > "${dir}/supervisor"
+    command="$(read_file "${dir}/command")"
+    pid_file="$(read_file "${dir}/pid-file")"
+    log="$(read_file "${dir}/log")"
+    max_restarts="$(read_file "${dir}/max-restarts")"
+    while [[ ! -e "${dir}/stopping" ]]; do
+        # The subshell execs the command, so its pid is the daemon's pid.
+        ( eval "exec ${command}" ) >> "${log}" 2>&1 < /dev/null &
+        pid=$!
+        echo "${pid}" > "${pid_file}.tmp" && mv -f "${pid_file}.tmp" "${pid_file}"
+        wait "${pid}"
+        code=$?
+        echo "${code}" > "${dir}/exit"
+        rm -f "${pid_file}"
+        [[ -e "${dir}/stopping" || ${restarts} -ge ${max_restarts} ]] && break
+        restarts=$(( restarts + 1 ))
+        echo "${restarts}" > "${dir}/restarts"
+        # Back off before restarting, but stop waiting as soon as we are asked to stop.
+        for (( tick = 0; tick < backoff * 10; tick++ )); do
+            [[ -e "${dir}/stopping" ]] && break
+            sleep 0.1
+        done
+        backoff=$(( backoff * 2 > 30 ? 30 : backoff * 2 ))
+    done
+    rm -f "${dir}/supervisor"
+}
+
+# Print the pids of the processes whose command line matches a pattern, apart
+# from this script and the shells which ran it.
+stray_pids() {
+    ps -eo pid=,args= | awk -v pattern="${1}" '$0 ~ pattern && !/castle-agent/ { print $1 }'
+}
+
+stop_strays() {
+    local name="${1}" timeout="${2}" pattern="${3}" pids first killed="" tick start
+    pids="$(stray_pids "${pattern}")"
+    [[ -n "${pids}" ]] || return 0
+    first="${pids%%$'\n'*}"
+    start="$(now_ms)"
+    kill -TERM ${pids} 2>/dev/null
+    for (( tick = 0; tick < timeout * 10; tick++ )); do
+        [[ -n "$(stray_pids "${pattern}")" ]] || break
+        sleep 0.1
+    done
+    pids="$(stray_pids "${pattern}")"
+    if [[ -n "${pids}" ]]; then
+        kill -KILL ${pids} 2>/dev/null
+        killed=1
+    fi
+    echo "${name}: stopped pid ${first} in $(( $(now_ms) - start )) ms${killed:+ after SIGKILL}"
+}
+
+stop_daemon() {
+    local name="${1}" timeout="${2}" pattern="${3}" dir="${AGENT_ROOT}/${1}"
+    local pid signalled="" killed="" forced="" tick=0 start
+    local deadline=$(( timeout * 10 ))
+    if [[ ! -d "${dir}" ]]; then
+        [[ -z "${pattern}" ]] || stop_strays "${name}" "${timeout}" "${pattern}"
+        return 0
+    fi
+    start="$(now_ms)"
+    touch "${dir}/stopping"
+    while true; do
+        pid="$(daemon_pid "${dir}")"
+        if alive "${pid}"; then
+            if [[ "${signalled}" != "${pid}" ]]; then
+                kill -TERM "${pid}" 2>/dev/null
+                signalled="${pid}"
+            fi
+        elif ! supervisor_alive "${dir}"; then
+            break
+        fi
+        if [[ ${tick} -ge ${deadline} ]]; then
+            if [[ -n "${forced}" ]]; then
+                kill -KILL "$(read_file "${dir}/supervisor")" 2>/dev/null
+                break
+            fi
+            if alive "${pid}"; then
+                kill -KILL "${pid}" 2>/dev/null
+                killed=1
+            fi
+            # Give the supervisor a moment to notice that the daemon has exited.
+            forced=1
+            deadline=$(( tick + 50 ))
+        fi
+        sleep 0.1
+        tick=$(( tick + 1 ))
+    done
+    rm -f "$(read_file "${dir}/pid-file")" "${dir}/supervisor"
+    if [[ -n "${signalled}" ]]; then
+        echo "${name}: stopped pid ${signalled} in $(( $(now_ms) - start )) ms${killed:+ after SIGKILL}"
+    fi
+    return 0
+}
+
+start_daemon() {
+    local name="${1}" pid_file="${2}" log="${3}" max_restarts="${4}" dir="${AGENT_ROOT}/${1}" tick
+    shift 4 || die "start: expected a name, pid file, log file, and restart count"
+    [[ $# -gt 0 ]] || die "start: no command was given for ${name}"
+    ensure_root || die "unable to create ${AGENT_ROOT}"
+    stop_daemon "${name}" 30
+    rm -rf "${dir}" && mkdir -p "${dir}" || die "unable to create ${dir}"
+    printf '%q ' "$@" > "${dir}/command"
+    echo "${pid_file}" > "${dir}/pid-file"
+    echo "${log}" > "${dir}/log"
+    echo "${max_restarts}" > "${dir}/max-restarts"
+    echo 0 > "${dir}/restarts"
+    setsid nohup bash "${SCRIPT_PATH}" supervise "${name}" < /dev/null > /dev/null 2>&1 &
+    for (( tick = 0; tick < 100; tick++ )); do
+        [[ -s "${pid_file}" || -s "${dir}/exit" ]] && break
+        sleep 0.1
+    done
+    [[ -s "${pid_file}" ]] || die "${name} did not start; see ${log}"
+    echo "${name}: started pid $(read_file "${pid_file}")"
+}
+
+signal_daemon() {
+    local name="${1}" signal="${2}" pid
+    pid="$(daemon_pid "${AGENT_ROOT}/${name}")"
+    alive "${pid}" || die "${name} is not running"
+    kill -s "${signal}" "${pid}"
+}
+
+status() {
+    local dir name state pid code restarts
+    for dir in "${AGENT_ROOT}"/*/; do
+        [[ -d "${dir}" ]] || continue
+        dir="${dir%/}"
+        name="$(basename "${dir}")"
+        pid="$(daemon_pid "${dir}")"
+        if alive "${pid}"; then
+            state=running
+        else
+            pid=""
+            if supervisor_alive "${dir}"; then
+                state=restarting
+            elif [[ -e "${dir}/stopping" ]]; then
+                state=stopped
+            else
+                state=exited
+            fi
+        fi
+        code="$(read_file "${dir}/exit")"
+        restarts="$(read_file "${dir}/restarts")"
+        echo "${name} ${state} ${pid:--} ${code:--} ${restarts:-0}"
+    done
+}
+
+COMMAND="${1}"
+shift
+case "${COMMAND}" in
+    start) start_daemon "$@";;
+    stop) [[ $# -eq 2 || $# -eq 3 ]] || die "stop: expected a name, a timeout, and an optional pattern"; stop_daemon "$@";;
+    signal) [[ $# -eq 2 ]] || die "signal: expected a name and a signal"; signal_daemon "$@";;
+    status) status;;
+    supervise) supervise "$@";;
+    *) die "unknown command '${COMMAND}'.  Expected start, stop, signal, or status.";;
+esac
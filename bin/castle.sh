@@ -14,5 +14,63 @@
 # See the License for the specific language governing permissions and
 # limitations under the License.
 
+# Find the working directory, so that we can look for a running castle daemon.
+find_working_directory() {
+    local dir="${CASTLE_WORKING_DIRECTORY}"
+    while [[ $# -gt 0 ]]; do
+        case "${1}" in
+            -w|--working-directory) dir="${2}"; shift;;
+            --working-directory=*) dir="${1#--working-directory=}";;
+            -c|--cluster|--cluster=*) return 1;;
+            *$'\n'*) return 1;;
+        esac
+        shift
+    done
+    [[ -n "${dir}" ]] || return 1
+    echo "${dir}"
+}
+
+# Return true if the environment variable named by the argument is set to true.
+env_true() {
+    case "${!1}" in
+        [Tt][Rr][Uu][Ee]) return 0;;
+        *) return 1;;
+    esac
+}
+
+# Forward our arguments to the castle daemon, if one is serving the working directory.
+# Requests which pass a cluster file are not forwarded, since the daemon already has
+# its cluster loaded.  The daemon does not see our environment, so CASTLE_VERBOSE and
+# CASTLE_FORCE are passed as -v and -f.  See CastleServe for a description of the
+# protocol.
+forward_to_daemon() {
+    local dir port token line
+    local -a args=()
+    dir="$(find_working_directory "${@}")" || return 1
+    [[ -r "${dir}/castle.serve" ]] || return 1
+    read -r port token < "${dir}/castle.serve" || return 1
+    env_true CASTLE_VERBOSE && args+=(-v)
+    env_true CASTLE_FORCE && args+=(-f)
+    args+=("${@}")
+    { exec 3<>"/dev/tcp/127.0.0.1/${port}"; } 2>/dev/null || return 1
+    {
+        printf '%s\n%d\n' "${token}" "${#args[@]}"
+        for arg in "${args[@]}"; do
+            printf '%s\n' "${arg}"
+        done
+    } >&3
+    while IFS= read -r line <&3; do
+        case "${line}" in
+            "o "*) printf '%s\n' "${line#o }";;
+            "x "*) exit "${line#x }";;
+            "l") exec 3<&-; return 1;;
+        esac
+    done
+    echo "Lost the connection to the castle daemon." >&2
+    exit 102
+}
+
+forward_to_daemon "${@}"
+
 export CLASS="io.confluent.castle.tool.CastleTool"
 exec "$(dirname "$0")"/run-class.sh ${@}
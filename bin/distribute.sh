@@ -0,0 +1,97 @@
+#!/usr/bin/env bash
+# Licensed to the Apache Software Foundation (ASF) under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# The ASF licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Copies the castle source directories from this node to other castle nodes.
+# The cluster uses this when it sets sourceDistribution to "tree".  This node
+# splits the other nodes into two halves, and copies the directories to the
+# first node of each half.  That node then runs this script for the rest of
+# its half.  The directories therefore reach every node after a number of hops
+# which grows with the logarithm of the number of nodes.
+#
+# Usage: distribute.sh <this node's name> <marker file> <directory>...
+#
+# The marker file is copied after the directories, so that a node only has the
+# marker once it has a complete copy.
+#
+# Reads from stdin:
+#   One line per node to copy to, containing its name and address.
+#
+# Writes one line per copy: "hop", the name of the sending node, the name of
+# the receiving node, the exit code, the time taken in milliseconds, and the
+# number of bytes sent.
+
+SCRIPT_PATH="${0}"
+SSH_OPTS=(-o BatchMode=yes -o StrictHostKeyChecking=no
+    -o UserKnownHostsFile=/dev/null -o LogLevel=ERROR)
+
+[[ $# -ge 3 ]] || { echo "usage: ${0} <self> <marker> <directory>..." >&2; exit 1; }
+SELF_NAME="${1}"
+MARKER="${2}"
+shift 2
+DIRS=("$@")
+NODES=()
+while read -r LINE; do
+    [[ -n "${LINE}" ]] && NODES+=("${LINE}")
+done
+NUM_NODES=${#NODES[@]}
+[[ ${NUM_NODES} -gt 0 ]] || exit 0
+
+WORK_DIR="$(mktemp -d)" || exit 1
+trap 'rm -rf "${WORK_DIR}"' EXIT
+
+# Copy the directories and then the marker file to a node.  Prints the number
+# of bytes which rsync sent.  Fails without copying the marker if any rsync
+# fails, including a partial transfer.
+push() {
+    local ADDRESS="${1}" BYTES=0 SENT DIR
+    ssh "${SSH_OPTS[@]}" "${ADDRESS}" sudo mkdir -p "${DIRS[@]}" "&&" \
+        sudo chown -R '`whoami`' "${DIRS[@]}" < /dev/null || return 1
+    for DIR in "${DIRS[@]}"; do
+        SENT=$(set -o pipefail
+            rsync -a --delete --stats --exclude="/$(basename "${MARKER}")" \
+                -e "ssh ${SSH_OPTS[*]}" "${DIR}/" "${ADDRESS}:${DIR}/" < /dev/null |
+                awk -F': ' '/^Total bytes sent/ { gsub(/,/, "", $2); print $2 }') || return 1
+        BYTES=$(( BYTES + ${SENT:-0} ))
+    done
+    ssh "${SSH_OPTS[@]}" "${ADDRESS}" "cat > '${MARKER}'" < "${MARKER}" || return 1
+    echo "${BYTES}"
+}
+
+HALF=$(( (NUM_NODES + 1) / 2 ))
+PIDS=()
+for START in 0 ${HALF}; do
+    [[ ${START} -lt ${NUM_NODES} ]] || continue
+    GROUP_NODES=("${NODES[@]:START:HALF}")
+    printf '%s\n' "${GROUP_NODES[@]:1}" > "${WORK_DIR}/rest.${START}"
+    read -r CHILD_NAME CHILD_ADDRESS <<< "${GROUP_NODES[0]}"
+    (
+        BEGIN_MS=$(date +%s%3N)
+        BYTES=$(push "${CHILD_ADDRESS}")
+        STATUS=$?
+        END_MS=$(date +%s%3N)
+        echo "hop ${SELF_NAME} ${CHILD_NAME} ${STATUS} $(( END_MS - BEGIN_MS )) ${BYTES:-0}"
+        if [[ ${STATUS} -eq 0 && -s "${WORK_DIR}/rest.${START}" ]]; then
+            ssh "${SSH_OPTS[@]}" "${CHILD_ADDRESS}" bash "${SCRIPT_PATH}" "${CHILD_NAME}" \
+                "${MARKER}" "${DIRS[@]}" < "${WORK_DIR}/rest.${START}"
+        fi
+    ) > "${WORK_DIR}/result.${START}" 2>/dev/null &
+    PIDS+=($!)
+done
+
+for PID in "${PIDS[@]}"; do
+    wait "${PID}"
+done
+cat "${WORK_DIR}"/result.*
@@ -0,0 +1,113 @@
+#!/usr/bin/env bash
+# Licensed to the Apache Software Foundation (ASF) under one or more
+# contributor license agreements.  See the NOTICE file distributed with
+# this work for additional information regarding copyright ownership.
+# The ASF licenses this file to You under the Apache License, Version 2.0
+# (the "License"); you may not use this file except in compliance with
+# the License.  You may obtain a copy of the License at
+#
+#    http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Runs a command on a tree of castle nodes.  "castle ssh" uses this when the
+# cluster sets sshFanOut.  This node runs the command itself, and splits the
+# other nodes into sshFanOut groups.  The first node in each group runs this
+# script in turn for the rest of its group.
+#
+# Reads from stdin:
+#   The fan-out degree.
+#   The command to run, base64-encoded.
+#   One line per node, containing its name and address.  The first line is this node.
+#
+# Writes one line per distinct result: the exit code, "o" followed by the
+# base64-encoded output, and a comma-separated list of the nodes which had
+# that result.  Nodes with identical results share one line.
+
+SCRIPT_PATH="${0}"
+SSH_OPTS=(-o BatchMode=yes -o StrictHostKeyChecking=no
+    -o UserKnownHostsFile=/dev/null -o LogLevel=ERROR)
+
+read -r FANOUT || exit 1
+read -r COMMAND_B64 || exit 1
+read -r SELF_NAME SELF_ADDRESS || exit 1
+NODES=()
+while read -r LINE; do
+    [[ -n "${LINE}" ]] && NODES+=("${LINE}")
+done
+
+WORK_DIR="$(mktemp -d)" || exit 1
+trap 'rm -rf "${WORK_DIR}"' EXIT
+
+# Start the subtrees first, so that they run while we run the command here.
+NUM_NODES=${#NODES[@]}
+NUM_GROUPS=$(( FANOUT < NUM_NODES ? FANOUT : NUM_NODES ))
+PIDS=()
+if [[ ${NUM_GROUPS} -gt 0 ]]; then
+    GROUP_SIZE=$(( (NUM_NODES + NUM_GROUPS - 1) / NUM_GROUPS ))
+    for (( GROUP = 0; GROUP * GROUP_SIZE < NUM_NODES; GROUP++ )); do
+        START=$(( GROUP * GROUP_SIZE ))
+        GROUP_NODES=("${NODES[@]:START:GROUP_SIZE}")
+        {
+            echo "${FANOUT}"
+            echo "${COMMAND_B64}"
+            printf '%s\n' "${GROUP_NODES[@]}"
+        } > "${WORK_DIR}/spec.${GROUP}"
+        read -r RELAY_NAME RELAY_ADDRESS <<< "${GROUP_NODES[0]}"
+        (
+            ssh "${SSH_OPTS[@]}" "${RELAY_ADDRESS}" bash "${SCRIPT_PATH}" \
+                < "${WORK_DIR}/spec.${GROUP}" > "${WORK_DIR}/result.${GROUP}" 2>/dev/null
+            # Report the nodes of the group which are not in the result as failed.
+            # That is the whole group if we could not reach the relay.
+            MISSING="$(printf '%s\n' "${GROUP_NODES[@]}" | \
+                awk -v result="${WORK_DIR}/result.${GROUP}" '
+                BEGIN {
+                    while ((getline line < result) > 0) {
+                        split(line, fields, " ")
+                        n = split(fields[3], names, ",")
+                        for (i = 1; i <= n; i++) seen[names[i]] = 1
+                    }
+                }
+                !($1 in seen) { print $1 }' | paste -sd, -)"
+            if [[ -n "${MISSING}" ]]; then
+                if [[ -s "${WORK_DIR}/result.${GROUP}" ]]; then
+                    MESSAGE="No result was received from these nodes through ${RELAY_NAME}."
+                else
+                    MESSAGE="Unable to reach ${RELAY_NAME} from ${SELF_NAME}."
+                fi
+                OUTPUT="$(printf '%s\n' "${MESSAGE}" | base64 -w0)"
+                echo "255 o${OUTPUT} ${MISSING}" >> "${WORK_DIR}/result.${GROUP}"
+            fi
+        ) &
+        PIDS+=($!)
+    done
+fi
+
+COMMAND="$(printf '%s' "${COMMAND_B64}" | base64 -d)"
+bash -c "${COMMAND}" < /dev/null > "${WORK_DIR}/output" 2>&1
+echo "$? o$(base64 -w0 < "${WORK_DIR}/output") ${SELF_NAME}" > "${WORK_DIR}/result.self"
+
+for PID in "${PIDS[@]}"; do
+    wait "${PID}"
+done
+
+# Merge the lines which have the same exit code and output.
+cat "${WORK_DIR}"/result.* | awk '
+{
+    key = $1 " " $2
+    if (key in names) {
+        names[key] = names[key] "," $3
+    } else {
+        names[key] = $3
+        keys[count++] = key
+    }
+}
+END {
+    for (i = 0; i < count; i++) {
+        print keys[i], names[keys[i]]
+    }
+}'
@@ -17,18 +17,12 @@
 SCRIPT_DIR="$(dirname "$0")"
 CASTLE_BIN="${SCRIPT_DIR}/castle.sh"
 
-CASTLE_WAIT_POLL=${CASTLE_WAIT_POLL:-3}
-while true; do
-    "${CASTLE_BIN}" "${@}"
-    STATUS=$?
-    if [[ ${STATUS} != 100 ]]; then
-        if [[ ${STATUS} == 0 ]]; then
-            echo "=============== SUCCEEDED ==============="
-            exit 0
-        else
-            echo "=============== FAILED WITH STATUS ${STATUS} ==============="
-            exit "${STATUS}"
-        fi
-    fi
-    sleep "${CASTLE_WAIT_POLL}"
-done
+# Wait for the given status targets to finish.  The watch target does the polling.
+"${CASTLE_BIN}" "${@}" watch
+STATUS=$?
+if [[ ${STATUS} == 0 ]]; then
+    echo "=============== SUCCEEDED ==============="
+else
+    echo "=============== FAILED WITH STATUS ${STATUS} ==============="
+fi
+exit "${STATUS}"
@@ -88,6 +88,91 @@ public abstract class Action {
         return initialDelayMs;
     }
 
+    /**
+     * Get an estimate of how long the call method takes, in milliseconds.
+     *
+     * The scheduler uses this to find the critical path through the actions
+     * it runs.  Actions which do significant work should override this.
+     */
+    public long estimatedDurationMs() {
+        return 0;
+    }
+
+    /**
+     * Get the longest time in milliseconds that the call method may run before the
+     * scheduler interrupts it, or 0 if there is no limit.  Interrupting an action
+     * cancels the command which it is running.
+     */
+    public long timeoutMs() {
+        return 0;
+    }
+
+    /**
+     * Get how many times the scheduler should retry the call method if it fails
+     * or times out.
+     */
+    public int maxRetries() {
+        return 0;
+    }
+
+    /**
+     * Get how long to wait before the first retry, in milliseconds.  The wait
+     * doubles after each failed attempt.
+     */
+    public long retryBackoffMs() {
+        return 1000;
+    }
+
+    /**
+     * Return true if the scheduler may start a second copy of the call method once
+     * the first has run for longer than 95% of the recent runs of this action type.
+     * Whichever copy finishes first wins, and the other is cancelled.  Only actions
+     * which are safe to run twice at once should return true.
+     *
+     * @param cluster       The cluster.
+     */
+    public boolean hedge(CastleCluster cluster) {
+        return false;
+    }
+
+    /**
+     * Return true if this action only inspects the node, without changing it.
+     * Before and after the scheduler runs any other action on a node, it drops
+     * the node's cached probe results.
+     */
+    public boolean readOnly() {
+        return false;
+    }
+
+    /**
+     * Get a probe which passes once the service started by this action is ready, or
+     * null if the action is complete as soon as the call method returns.  The
+     * scheduler waits for the probe before running the actions which come after
+     * this one.  The wait counts towards the action's timeout.
+     */
+    public ReadinessProbe readinessProbe(CastleCluster cluster, CastleNode node) {
+        return null;
+    }
+
+    /**
+     * Get a hash of everything which determines the result of this action.
+     *
+     * If the action journal shows that this action already completed with the
+     * same input hash, and stillValid returns true, the scheduler will skip it.
+     * Actions which return null are always run.
+     */
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        return null;
+    }
+
+    /**
+     * Check whether the result of an earlier run of this action is still in place.
+     * This is only called when the input hash has not changed.
+     */
+    public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+        return true;
+    }
+
     /**
      * Return the action IDs that this Action should contain.
      */
@@ -0,0 +1,229 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.type.TypeReference;
+import io.confluent.castle.tool.CastleTool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Records how long each type of action took to run in previous runs.
+ *
+ * The statistics are stored in the working directory.  The scheduler uses them
+ * in place of Action#estimatedDurationMs when it finds the critical path, and the
+ * plan target uses them to simulate a run.
+ */
+public class ActionDurations {
+    public static final String DURATIONS_FILE_NAME = "durations.json";
+
+    /**
+     * The maximum number of samples to average over.  Once we have this many
+     * samples, older runs are gradually forgotten.
+     */
+    private static final int MAX_SAMPLES = 10;
+
+    /**
+     * The number of recent durations to keep for computing percentiles.
+     */
+    private static final int MAX_RECENT = 100;
+
+    /**
+     * The minimum number of recent durations needed to compute a percentile.
+     */
+    private static final int MIN_RECENT_FOR_PERCENTILE = 5;
+
+    public static class Stats {
+        private final int count;
+        private final long meanMs;
+        private final long maxMs;
+        private final List<Long> recentMs;
+
+        public Stats(int count, long meanMs, long maxMs) {
+            this(count, meanMs, maxMs, null);
+        }
+
+        @JsonCreator
+        public Stats(@JsonProperty("count") int count,
+                     @JsonProperty("meanMs") long meanMs,
+                     @JsonProperty("maxMs") long maxMs,
+                     @JsonProperty("recentMs") List<Long> recentMs) {
+            this.count = count;
+            this.meanMs = meanMs;
+            this.maxMs = maxMs;
+            this.recentMs = Collections.unmodifiableList((recentMs == null) ?
+                new ArrayList<Long>() : new ArrayList<>(recentMs));
+        }
+
+        @JsonProperty
+        public int count() {
+            return count;
+        }
+
+        @JsonProperty
+        public long meanMs() {
+            return meanMs;
+        }
+
+        @JsonProperty
+        public long maxMs() {
+            return maxMs;
+        }
+
+        /**
+         * The most recent durations, oldest first.
+         */
+        @JsonProperty
+        public List<Long> recentMs() {
+            return recentMs;
+        }
+
+        /**
+         * Get the 95th percentile of the recent durations, or -1 if there are too
+         * few of them to say.
+         */
+        public long p95Ms() {
+            if (recentMs.size() < MIN_RECENT_FOR_PERCENTILE) {
+                return -1;
+            }
+            List<Long> sorted = new ArrayList<>(recentMs);
+            Collections.sort(sorted);
+            int rank = (int) Math.ceil(0.95 * sorted.size());
+            return sorted.get(rank - 1);
+        }
+
+        Stats add(long durationMs) {
+            int newCount = Math.min(count + 1, MAX_SAMPLES);
+            long newMeanMs = meanMs + (durationMs - meanMs) / newCount;
+            List<Long> newRecentMs = new ArrayList<>(recentMs);
+            newRecentMs.add(durationMs);
+            if (newRecentMs.size() > MAX_RECENT) {
+                newRecentMs.remove(0);
+            }
+            return new Stats(newCount, newMeanMs, Math.max(maxMs, durationMs), newRecentMs);
+        }
+    }
+
+    /**
+     * The path to the durations file, or null if the statistics are only kept in memory.
+     */
+    private final String path;
+
+    /**
+     * Maps action types to their statistics.
+     */
+    private final TreeMap<String, Stats> stats;
+
+    /**
+     * True if there are statistics which have not been saved yet.
+     */
+    private boolean dirty = false;
+
+    /**
+     * Load the statistics from a file.  If the file does not exist, we start out
+     * with no statistics.
+     *
+     * @param path      The path to the durations file.
+     * @return          The statistics.
+     */
+    public static ActionDurations load(String path) throws IOException {
+        TreeMap<String, Stats> stats = new TreeMap<>();
+        if (new File(path).exists()) {
+            Map<String, Stats> map = CastleTool.JSON_SERDE.readValue(new File(path),
+                new TypeReference<Map<String, Stats>>() { });
+            stats.putAll(map);
+        }
+        return new ActionDurations(path, stats);
+    }
+
+    public ActionDurations(String path, Map<String, Stats> stats) {
+        this.path = path;
+        this.stats = new TreeMap<>(stats);
+    }
+
+    /**
+     * Get the statistics for an action type, or null if we have none.
+     */
+    public synchronized Stats get(String type) {
+        return stats.get(type);
+    }
+
+    /**
+     * Get our best estimate of how long an action will take to run.  This is the
+     * mean of the previous runs, if there were any, or the action's own estimate
+     * otherwise.
+     */
+    public synchronized long estimateMs(Action action) {
+        Stats actionStats = stats.get(action.id().type());
+        if (actionStats == null) {
+            return action.estimatedDurationMs();
+        }
+        return actionStats.meanMs();
+    }
+
+    /**
+     * Get the 95th percentile of the recent durations of an action type, or -1 if
+     * we do not have enough history.  This includes actions which finished earlier
+     * in the current run.
+     */
+    public synchronized long p95Ms(String type) {
+        Stats actionStats = stats.get(type);
+        return (actionStats == null) ? -1 : actionStats.p95Ms();
+    }
+
+    /**
+     * Record how long an action took to run.
+     *
+     * @param type          The action type.
+     * @param durationMs    The time the action took.
+     */
+    public synchronized void record(String type, long durationMs) {
+        Stats actionStats = stats.get(type);
+        if (actionStats == null) {
+            actionStats = new Stats(0, 0, 0);
+        }
+        stats.put(type, actionStats.add(durationMs));
+        dirty = true;
+    }
+
+    /**
+     * Write out the statistics, if there is anything new to write.
+     */
+    public synchronized void save() throws IOException {
+        if ((path == null) || (!dirty)) {
+            return;
+        }
+        Path target = Paths.get(path);
+        Path tmp = Paths.get(path + ".tmp");
+        CastleTool.JSON_SERDE.writeValue(tmp.toFile(), stats);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+}
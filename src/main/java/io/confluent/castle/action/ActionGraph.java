@@ -0,0 +1,577 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The dependency graph of the actions which a scheduler will run.
+ *
+ * Every action is interned to a dense integer index, assigned in ActionId order,
+ * so that the scheduler can keep its per-action state in arrays and follow edges
+ * without hashing.  Dependencies are stored as adjacency arrays, plus an in-degree
+ * count for each action.
+ *
+ * Dependencies on global-scope targets, such as "start the brokers after
+ * zooKeeperStart", are not expanded into an edge for each pair of nodes.  Instead,
+ * each action type has a list of the actions of that type, and a list of the actions
+ * which are waiting for all of them.  The number of edges therefore grows linearly
+ * with the number of nodes.
+ */
+final class ActionGraph {
+    static final int NONE = -1;
+
+    private static final long UNKNOWN = -1;
+
+    private static final long IN_PROGRESS = -2;
+
+    private static final int[] EMPTY = new int[0];
+
+    private final Action[] actions;
+
+    private final Map<ActionId, Integer> indices;
+
+    private final String[] nodeNames;
+
+    /**
+     * Maps each action to the index of the node it runs on.
+     */
+    private final int[] node;
+
+    /**
+     * Maps each action to the index of its type.
+     */
+    private final int[] type;
+
+    /**
+     * The actions which contain each action.
+     */
+    private final int[][] parents;
+
+    /**
+     * The actions which each action contains.
+     */
+    private final int[][] children;
+
+    /**
+     * The actions which must wait for each action to complete.  This only includes
+     * dependencies on targets with a scope.
+     */
+    private final int[][] comesBefore;
+
+    /**
+     * The number of actions or action types which each action must wait for
+     * before it can start.
+     */
+    private final int[] numComesAfter;
+
+    /**
+     * The actions of each type.
+     */
+    private final int[][] typeMembers;
+
+    /**
+     * The actions which must wait for every action of each type to complete.
+     */
+    private final int[][] typeWaiters;
+
+    /**
+     * The target actions which are not contained in any other action.
+     */
+    private final int[] initiallyRunnable;
+
+    /**
+     * The estimated time that each action's call method will take.
+     */
+    private final long[] estimatedMs;
+
+    /**
+     * The critical path weight of each action.  This is the estimated time from when
+     * the action starts running until everything which depends on it has completed.
+     */
+    private final long[] weightMs;
+
+    /**
+     * The estimated time from the completion of each action until the end of the run.
+     */
+    private final long[] completeTailMs;
+
+    /**
+     * The largest weight of any action in typeWaiters, for each type.
+     */
+    private final long[] waitersWeightMs;
+
+    /**
+     * The action in typeWaiters with the largest weight, for each type.
+     */
+    private final int[] heaviestWaiter;
+
+    /**
+     * The critical path which we predict, from the start of the run to the end.
+     */
+    private final List<ActionId> predictedPath;
+
+    /**
+     * Orders action indices by descending critical path weight.  Ties are broken by
+     * index, which is the same as ActionId order.
+     */
+    private final Comparator<Integer> priorityOrder = new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+            return comparePriority(a, b);
+        }
+    };
+
+    /**
+     * Create an action graph.
+     *
+     * @param universe          All the actions which will be run.
+     * @param targetActions     The actions which were requested.
+     * @param nodeNames         The names of all the cluster nodes.
+     * @param durations         The estimated action durations.
+     */
+    ActionGraph(Collection<Action> universe, Set<ActionId> targetActions,
+                Collection<String> nodeNames, ActionDurations durations) {
+        List<Action> sorted = new ArrayList<>(universe);
+        Collections.sort(sorted, new Comparator<Action>() {
+            @Override
+            public int compare(Action a, Action b) {
+                return a.id().toString().compareTo(b.id().toString());
+            }
+        });
+        int size = sorted.size();
+        this.actions = sorted.toArray(new Action[size]);
+        this.indices = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            indices.put(actions[i].id(), i);
+        }
+        this.nodeNames = nodeNames.toArray(new String[nodeNames.size()]);
+        Map<String, Integer> nodeIndices = new HashMap<>();
+        for (int n = 0; n < this.nodeNames.length; n++) {
+            nodeIndices.put(this.nodeNames[n], n);
+        }
+        Map<String, Integer> typeIndices = new HashMap<>();
+        this.node = new int[size];
+        this.type = new int[size];
+        for (int i = 0; i < size; i++) {
+            ActionId id = actions[i].id();
+            Integer n = nodeIndices.get(id.scope());
+            if (n == null) {
+                throw new RuntimeException("Action " + id + " is not on any cluster node.");
+            }
+            node[i] = n;
+            Integer t = typeIndices.get(id.type());
+            if (t == null) {
+                t = typeIndices.size();
+                typeIndices.put(id.type(), t);
+            }
+            type[i] = t;
+        }
+        int numTypes = typeIndices.size();
+
+        // Find the containment edges.
+        this.children = new int[size][];
+        int[] numParents = new int[size];
+        for (int i = 0; i < size; i++) {
+            int[] found = new int[actions[i].contains().size()];
+            int numFound = 0;
+            for (ActionId containedId : actions[i].containedIds()) {
+                Integer child = indices.get(containedId);
+                if (child != null) {
+                    found[numFound++] = child;
+                    numParents[child]++;
+                }
+            }
+            children[i] = trim(found, numFound);
+        }
+        this.parents = new int[size][];
+        for (int i = 0; i < size; i++) {
+            parents[i] = (numParents[i] == 0) ? EMPTY : new int[numParents[i]];
+            numParents[i] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int child : children[i]) {
+                parents[child][numParents[child]++] = i;
+            }
+        }
+
+        // Find the members of each type.
+        int[] numMembers = new int[numTypes];
+        for (int i = 0; i < size; i++) {
+            numMembers[type[i]]++;
+        }
+        this.typeMembers = new int[numTypes][];
+        for (int t = 0; t < numTypes; t++) {
+            typeMembers[t] = new int[numMembers[t]];
+            numMembers[t] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            typeMembers[type[i]][numMembers[type[i]]++] = i;
+        }
+
+        // Find the ordering edges.  Global-scope targets become type waiters, rather
+        // than edges from every action of that type.
+        this.numComesAfter = new int[size];
+        int[] numComesBefore = new int[size];
+        int[] numWaiters = new int[numTypes];
+        int[][] scopedAfter = new int[size][];
+        int[][] globalAfter = new int[size][];
+        for (int i = 0; i < size; i++) {
+            Set<TargetId> targets = actions[i].comesAfter();
+            int[] scoped = new int[targets.size()];
+            int numScoped = 0;
+            int[] global = new int[targets.size()];
+            int numGlobal = 0;
+            for (TargetId targetId : targets) {
+                if (targetId.hasGlobalScope()) {
+                    Integer t = typeIndices.get(targetId.type());
+                    if (t != null) {
+                        global[numGlobal++] = t;
+                        numWaiters[t]++;
+                    }
+                } else {
+                    Integer before = indices.get(new ActionId(targetId.type(), targetId.scope()));
+                    if (before != null) {
+                        scoped[numScoped++] = before;
+                        numComesBefore[before]++;
+                    }
+                }
+            }
+            scopedAfter[i] = trim(scoped, numScoped);
+            globalAfter[i] = trim(global, numGlobal);
+            numComesAfter[i] = numScoped + numGlobal;
+        }
+        this.comesBefore = new int[size][];
+        for (int i = 0; i < size; i++) {
+            comesBefore[i] = (numComesBefore[i] == 0) ? EMPTY : new int[numComesBefore[i]];
+            numComesBefore[i] = 0;
+        }
+        this.typeWaiters = new int[numTypes][];
+        for (int t = 0; t < numTypes; t++) {
+            typeWaiters[t] = (numWaiters[t] == 0) ? EMPTY : new int[numWaiters[t]];
+            numWaiters[t] = 0;
+        }
+        for (int i = 0; i < size; i++) {
+            for (int before : scopedAfter[i]) {
+                comesBefore[before][numComesBefore[before]++] = i;
+            }
+            for (int t : globalAfter[i]) {
+                typeWaiters[t][numWaiters[t]++] = i;
+            }
+        }
+
+        // Find the actions which can start right away.
+        int[] runnable = new int[targetActions.size()];
+        int numRunnable = 0;
+        for (ActionId id : targetActions) {
+            Integer i = indices.get(id);
+            if ((i != null) && (parents[i].length == 0)) {
+                runnable[numRunnable++] = i;
+            }
+        }
+        this.initiallyRunnable = trim(runnable, numRunnable);
+        if ((numRunnable == 0) && (size > 0)) {
+            throw new RuntimeException("No tasks can be executed!  Check " +
+                "for circular dependencies.");
+        }
+
+        this.estimatedMs = new long[size];
+        for (int i = 0; i < size; i++) {
+            estimatedMs[i] = durations.estimateMs(actions[i]);
+        }
+        this.weightMs = new long[size];
+        this.completeTailMs = new long[size];
+        this.waitersWeightMs = new long[numTypes];
+        this.heaviestWaiter = new int[numTypes];
+        Arrays.fill(weightMs, UNKNOWN);
+        Arrays.fill(completeTailMs, UNKNOWN);
+        Arrays.fill(waitersWeightMs, UNKNOWN);
+        Arrays.fill(heaviestWaiter, NONE);
+        for (int i = 0; i < size; i++) {
+            startTail(i);
+        }
+        this.predictedPath = findCriticalPath();
+
+        // Now that we know the weights, put each adjacency list in priority order,
+        // so that the heaviest actions are scheduled first when there is a tie.
+        for (int i = 0; i < size; i++) {
+            sortByPriority(parents[i]);
+            sortByPriority(children[i]);
+            sortByPriority(comesBefore[i]);
+        }
+        for (int t = 0; t < numTypes; t++) {
+            sortByPriority(typeWaiters[t]);
+        }
+        sortByPriority(initiallyRunnable);
+    }
+
+    private void sortByPriority(int[] array) {
+        if (array.length < 2) {
+            return;
+        }
+        Integer[] boxed = new Integer[array.length];
+        for (int i = 0; i < array.length; i++) {
+            boxed[i] = array[i];
+        }
+        Arrays.sort(boxed, priorityOrder);
+        for (int i = 0; i < array.length; i++) {
+            array[i] = boxed[i];
+        }
+    }
+
+    private static int[] trim(int[] array, int length) {
+        if (length == 0) {
+            return EMPTY;
+        }
+        return (length == array.length) ? array : Arrays.copyOf(array, length);
+    }
+
+    int size() {
+        return actions.length;
+    }
+
+    Action action(int index) {
+        return actions[index];
+    }
+
+    ActionId id(int index) {
+        return actions[index].id();
+    }
+
+    /**
+     * Get the index of an action, or NONE if it is not in the graph.
+     */
+    int index(ActionId id) {
+        Integer index = indices.get(id);
+        return (index == null) ? NONE : index;
+    }
+
+    int numNodes() {
+        return nodeNames.length;
+    }
+
+    String nodeName(int nodeIndex) {
+        return nodeNames[nodeIndex];
+    }
+
+    int node(int index) {
+        return node[index];
+    }
+
+    int numTypes() {
+        return typeMembers.length;
+    }
+
+    int type(int index) {
+        return type[index];
+    }
+
+    int[] parents(int index) {
+        return parents[index];
+    }
+
+    int[] children(int index) {
+        return children[index];
+    }
+
+    int[] comesBefore(int index) {
+        return comesBefore[index];
+    }
+
+    int numComesAfter(int index) {
+        return numComesAfter[index];
+    }
+
+    int[] typeMembers(int typeIndex) {
+        return typeMembers[typeIndex];
+    }
+
+    int[] typeWaiters(int typeIndex) {
+        return typeWaiters[typeIndex];
+    }
+
+    int[] initiallyRunnable() {
+        return initiallyRunnable;
+    }
+
+    long estimatedMs(int index) {
+        return estimatedMs[index];
+    }
+
+    long weightMs(int index) {
+        return weightMs[index];
+    }
+
+    List<ActionId> predictedPath() {
+        return predictedPath;
+    }
+
+    /**
+     * Compare two actions by priority.  Heavier actions come first.
+     */
+    int comparePriority(int a, int b) {
+        int cmp = Long.compare(weightMs[b], weightMs[a]);
+        if (cmp != 0) {
+            return cmp;
+        }
+        return Integer.compare(a, b);
+    }
+
+    /**
+     * Each action has three events: start, finish (the call method has returned), and
+     * complete (all of the children have completed as well).  Children start after
+     * their parent finishes, parents complete after their children complete, and
+     * actions start after the actions they come after have completed.
+     */
+    private long startTail(int i) {
+        if (weightMs[i] == IN_PROGRESS) {
+            throw new RuntimeException("Circular dependency involving " + id(i));
+        } else if (weightMs[i] == UNKNOWN) {
+            weightMs[i] = IN_PROGRESS;
+            weightMs[i] = actions[i].initialDelayMs() + estimatedMs[i] + finishTail(i);
+        }
+        return weightMs[i];
+    }
+
+    private long finishTail(int i) {
+        long tail = completeTail(i);
+        for (int child : children[i]) {
+            tail = Math.max(tail, startTail(child));
+        }
+        return tail;
+    }
+
+    private long completeTail(int i) {
+        if (completeTailMs[i] == IN_PROGRESS) {
+            throw new RuntimeException("Circular dependency involving " + id(i));
+        } else if (completeTailMs[i] == UNKNOWN) {
+            completeTailMs[i] = IN_PROGRESS;
+            long tail = 0;
+            for (int parent : parents[i]) {
+                tail = Math.max(tail, completeTail(parent));
+            }
+            for (int after : comesBefore[i]) {
+                tail = Math.max(tail, startTail(after));
+            }
+            tail = Math.max(tail, waitersTail(type[i]));
+            completeTailMs[i] = tail;
+        }
+        return completeTailMs[i];
+    }
+
+    private long waitersTail(int t) {
+        if (waitersWeightMs[t] == IN_PROGRESS) {
+            throw new RuntimeException("Circular dependency involving " +
+                "the actions waiting for " + actions[typeMembers[t][0]].id().type());
+        } else if (waitersWeightMs[t] == UNKNOWN) {
+            waitersWeightMs[t] = IN_PROGRESS;
+            long tail = 0;
+            int heaviest = NONE;
+            for (int waiter : typeWaiters[t]) {
+                long waiterTail = startTail(waiter);
+                if ((heaviest == NONE) || (waiterTail > tail)) {
+                    tail = waiterTail;
+                    heaviest = waiter;
+                }
+            }
+            waitersWeightMs[t] = tail;
+            heaviestWaiter[t] = heaviest;
+        }
+        return waitersWeightMs[t];
+    }
+
+    /**
+     * Find the predicted critical path, by starting at the heaviest runnable action,
+     * and following the heaviest edge out of each event until we reach the end.
+     */
+    private List<ActionId> findCriticalPath() {
+        List<ActionId> path = new ArrayList<>();
+        if (initiallyRunnable.length == 0) {
+            return path;
+        }
+        int root = initiallyRunnable[0];
+        for (int i : initiallyRunnable) {
+            if (comparePriority(i, root) < 0) {
+                root = i;
+            }
+        }
+        boolean[] onPath = new boolean[actions.length];
+        int cur = root;
+        ActionScheduler.ActionEvent event = ActionScheduler.ActionEvent.START;
+        while (true) {
+            if (event == ActionScheduler.ActionEvent.START) {
+                if (!onPath[cur]) {
+                    onPath[cur] = true;
+                    path.add(id(cur));
+                }
+                event = ActionScheduler.ActionEvent.FINISH;
+            } else if (event == ActionScheduler.ActionEvent.FINISH) {
+                int next = NONE;
+                long nextTail = completeTailMs[cur];
+                for (int child : children[cur]) {
+                    if (weightMs[child] > nextTail) {
+                        next = child;
+                        nextTail = weightMs[child];
+                    }
+                }
+                if (next == NONE) {
+                    event = ActionScheduler.ActionEvent.COMPLETE;
+                } else {
+                    cur = next;
+                    event = ActionScheduler.ActionEvent.START;
+                }
+            } else {
+                int next = NONE;
+                ActionScheduler.ActionEvent nextEvent = null;
+                long nextTail = 0;
+                for (int parent : parents[cur]) {
+                    if (completeTailMs[parent] > nextTail) {
+                        next = parent;
+                        nextEvent = ActionScheduler.ActionEvent.COMPLETE;
+                        nextTail = completeTailMs[parent];
+                    }
+                }
+                for (int after : comesBefore[cur]) {
+                    if (weightMs[after] > nextTail) {
+                        next = after;
+                        nextEvent = ActionScheduler.ActionEvent.START;
+                        nextTail = weightMs[after];
+                    }
+                }
+                int waiter = heaviestWaiter[type[cur]];
+                if ((waiter != NONE) && (weightMs[waiter] > nextTail)) {
+                    next = waiter;
+                    nextEvent = ActionScheduler.ActionEvent.START;
+                }
+                if (next == NONE) {
+                    return path;
+                }
+                cur = next;
+                event = nextEvent;
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.role.UplinkRole;
+import io.confluent.castle.tool.CastleTool;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records which actions have completed, and what their inputs were.
+ *
+ * The journal is stored in the working directory.  When an action declares an
+ * input hash, and the journal shows that the action already completed with the
+ * same input hash, the scheduler can skip the action.
+ */
+public class ActionJournal {
+    public static final String JOURNAL_FILE_NAME = "journal.json";
+
+    /**
+     * The path to the journal file, or null if the journal is only kept in memory.
+     */
+    private final String path;
+
+    /**
+     * Maps action IDs to the input hashes they completed with.
+     */
+    private final TreeMap<String, String> entries;
+
+    /**
+     * Caches the hashes of directory trees.  We only compute these once per run.
+     */
+    private final Map<String, String> treeHashes = new ConcurrentHashMap<>();
+
+    /**
+     * Load the journal from a file.  If the file does not exist, the journal starts out empty.
+     *
+     * @param path      The path to the journal file.
+     * @return          The journal.
+     */
+    public static ActionJournal load(String path) throws IOException {
+        TreeMap<String, String> entries = new TreeMap<>();
+        if (new File(path).exists()) {
+            Map<String, String> map = CastleTool.JSON_SERDE.readValue(new File(path),
+                new TypeReference<Map<String, String>>() { });
+            entries.putAll(map);
+        }
+        return new ActionJournal(path, entries);
+    }
+
+    public ActionJournal(String path, Map<String, String> entries) {
+        this.path = path;
+        this.entries = new TreeMap<>(entries);
+    }
+
+    /**
+     * Get the input hash that an action last completed with, or null if there is none.
+     */
+    public synchronized String get(ActionId id) {
+        return entries.get(id.toString());
+    }
+
+    /**
+     * Record that an action has completed.
+     *
+     * @param id            The action ID.
+     * @param inputHash     The hash of the action's inputs.
+     */
+    public synchronized void record(ActionId id, String inputHash) throws IOException {
+        entries.put(id.toString(), inputHash);
+        write();
+    }
+
+    /**
+     * Remove all the journal entries for a node.  This should be called when the
+     * node is destroyed, since nothing that we did on it is still there.
+     *
+     * @param nodeName      The node name.
+     */
+    public synchronized void invalidateNode(String nodeName) throws IOException {
+        boolean changed = false;
+        for (Iterator<String> iter = entries.keySet().iterator(); iter.hasNext(); ) {
+            String id = iter.next();
+            if (id.endsWith(":" + nodeName)) {
+                iter.remove();
+                changed = true;
+            }
+        }
+        if (changed) {
+            write();
+        }
+    }
+
+    /**
+     * Remove all journal entries.
+     */
+    public synchronized void clear() throws IOException {
+        entries.clear();
+        write();
+    }
+
+    private void write() throws IOException {
+        if (path == null) {
+            return;
+        }
+        Path target = Paths.get(path);
+        Path tmp = Paths.get(path + ".tmp");
+        CastleTool.JSON_SERDE.writeValue(tmp.toFile(), entries);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Hash a directory tree.
+     *
+     * We hash the relative path, size, and modification time of each file, rather
+     * than the file contents.  This is the same information rsync uses to decide
+     * what to transfer.
+     *
+     * @param root      The root of the tree.
+     * @return          The hash.
+     */
+    public String treeHash(String root) throws IOException {
+        if (root == null || !new File(root).exists()) {
+            return "";
+        }
+        String hash = treeHashes.get(root);
+        if (hash != null) {
+            return hash;
+        }
+        final Path rootPath = Paths.get(root);
+        final List<String> lines = new ArrayList<>();
+        Files.walkFileTree(rootPath, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                lines.add(String.format("%s %d %d", rootPath.relativize(file),
+                    attrs.size(), attrs.lastModifiedTime().toMillis()));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(lines);
+        hash = hash(lines.toArray(new String[0]));
+        treeHashes.put(root, hash);
+        return hash;
+    }
+
+    /**
+     * Get the JSON form of a role.  Map entries are sorted, so that the same role
+     * always produces the same string.
+     */
+    public static String roleJson(Role role) throws IOException {
+        if (role == null) {
+            return "";
+        }
+        return CastleTool.JSON_SERDE.writer().
+            with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS).
+            writeValueAsString(role);
+    }
+
+    /**
+     * Get the JSON form of a node's uplink role.  This identifies the machine
+     * that the node is running on.  If the node is destroyed and brought up again,
+     * this will change.
+     */
+    public static String uplinkJson(CastleNode node) throws IOException {
+        for (Role role : node.roles().values()) {
+            if (role instanceof UplinkRole) {
+                return roleJson(role);
+            }
+        }
+        return "";
+    }
+
+    /**
+     * Compute a SHA-256 hash of some strings.
+     */
+    public static String hash(String... inputs) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        for (String input : inputs) {
+            digest.update(input.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+        }
+        StringBuilder bld = new StringBuilder();
+        for (byte b : digest.digest()) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+}
@@ -22,17 +22,23 @@ public final class ActionPaths {
 
     public static final String CASTLE_ROOT = "/mnt/castle";
     public static final String CASTLE_SRC = CASTLE_ROOT + "/src";
+    public static final String SOURCE_HASH = CASTLE_SRC + "/.source-hash";
+    public static final String CASTLE_AGENT_SCRIPT = CASTLE_SRC + "/bin/castle-agent.sh";
     public static final String JMX_DUMPER_START_SCRIPT = CASTLE_SRC + "/bin/jmx_dumper.sh";
     public static final String JMX_DUMPER_ROOT = "/mnt/jmx";
     public static final String JMX_DUMPER_PROPERTIES = JMX_DUMPER_ROOT  + "/jmx.conf";
+    public static final String JMX_DUMPER_PID = JMX_DUMPER_ROOT + "/jmx-dumper.pid";
     public static final String JMX_DUMPER_LOGS = LOGS_ROOT + "/jmx";
 
     public static final String KAFKA_ROOT = "/mnt/kafka";
     public static final String KAFKA_SRC = KAFKA_ROOT + "/src";
+    public static final String KAFKA_ARTIFACTS = KAFKA_ROOT + "/artifacts";
+    public static final String KAFKA_ARTIFACT_HASH = KAFKA_SRC + "/.artifact-hash";
     public static final String KAFKA_START_SCRIPT = KAFKA_SRC + "/bin/kafka-server-start.sh";
     public static final String KAFKA_CONF = KAFKA_ROOT + "/conf";
     public static final String KAFKA_BROKER_PROPERTIES = KAFKA_CONF + "/broker.properties";
     public static final String KAFKA_BROKER_LOG4J = KAFKA_CONF + "/log4j.properties";
+    public static final String KAFKA_BROKER_PID = KAFKA_ROOT + "/broker.pid";
     public static final String KAFKA_OPLOGS = KAFKA_ROOT + "/oplogs";
     public static final String KAFKA_LOGS = LOGS_ROOT + "/kafka";
 
@@ -41,6 +47,7 @@ public final class ActionPaths {
     public static final String ZK_START_SCRIPT = KAFKA_SRC + "/bin/zookeeper-server-start.sh";
     public static final String ZK_PROPERTIES = ZK_CONF + "/zookeeper.properties";
     public static final String ZK_LOG4J = ZK_CONF + "/log4j.properties";
+    public static final String ZK_PID = ZK_ROOT + "/zookeeper.pid";
     public static final String ZK_OPLOGS = ZK_ROOT + "/oplogs";
     public static final String ZK_LOGS = LOGS_ROOT + "/zookeeper";
 
@@ -50,6 +57,7 @@ public final class ActionPaths {
     public static final String TROGDOR_CONF_SUFFIX = "/conf";
     public static final String TROGDOR_PROPERTIES_SUFFIX = "/trogdor.conf";
     public static final String TROGDOR_LOG4J_SUFFIX = "/log4j.properties";
+    public static final String TROGDOR_PID_SUFFIX = ".pid";
 
     public static final String COLLECTD_ROOT = "/mnt/collectd";
     public static final String COLLECTD_PROPERTIES = COLLECTD_ROOT + "/collectd.conf";
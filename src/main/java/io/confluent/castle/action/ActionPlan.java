@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The result of simulating a run of the action scheduler.
+ */
+public final class ActionPlan {
+    /**
+     * An action on the critical path, with its simulated timings.
+     */
+    public static final class Step {
+        private final ActionId id;
+        private final long startMs;
+        private final long finishMs;
+        private final long completeMs;
+
+        Step(ActionId id, long startMs, long finishMs, long completeMs) {
+            this.id = id;
+            this.startMs = startMs;
+            this.finishMs = finishMs;
+            this.completeMs = completeMs;
+        }
+
+        public ActionId id() {
+            return id;
+        }
+
+        /**
+         * The time when the action started running.
+         */
+        public long startMs() {
+            return startMs;
+        }
+
+        /**
+         * The time when the action's call method returned.
+         */
+        public long finishMs() {
+            return finishMs;
+        }
+
+        /**
+         * The time when the action and all of its children completed.
+         */
+        public long completeMs() {
+            return completeMs;
+        }
+    }
+
+    private final long makespanMs;
+    private final List<Step> criticalPath;
+    private final Map<String, Long> nodeBusyMs;
+
+    ActionPlan(long makespanMs, List<Step> criticalPath, Map<String, Long> nodeBusyMs) {
+        this.makespanMs = makespanMs;
+        this.criticalPath = Collections.unmodifiableList(new ArrayList<>(criticalPath));
+        this.nodeBusyMs = Collections.unmodifiableMap(new TreeMap<>(nodeBusyMs));
+    }
+
+    /**
+     * The predicted time from the start of the run until the last action completes.
+     */
+    public long makespanMs() {
+        return makespanMs;
+    }
+
+    /**
+     * The chain of actions which determined the makespan, in the order they ran.
+     */
+    public List<Step> criticalPath() {
+        return criticalPath;
+    }
+
+    /**
+     * Maps node names to the total time that node spent running actions.
+     */
+    public Map<String, Long> nodeBusyMs() {
+        return nodeBusyMs;
+    }
+
+    /**
+     * Get the node which spent the most time running actions, or null if there
+     * are no nodes.
+     */
+    public String busiestNode() {
+        String busiest = null;
+        long busiestMs = -1;
+        for (Map.Entry<String, Long> entry : nodeBusyMs.entrySet()) {
+            if (entry.getValue() > busiestMs) {
+                busiest = entry.getKey();
+                busiestMs = entry.getValue();
+            }
+        }
+        return busiest;
+    }
+};
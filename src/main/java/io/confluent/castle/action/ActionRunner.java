@@ -0,0 +1,348 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleLog;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Calls an action, applying its timeout, retry, and hedging policies.
+ *
+ * Each attempt first checks the action journal, and skips the call if the action
+ * already completed with the same inputs and its result is still in place.  This
+ * check may run remote commands, or even build Kafka, so it is covered by the
+ * action's timeout and retries too.
+ *
+ * The first copy of each attempt runs in the calling thread.  Timeouts and hedges
+ * are triggered from the watchdog executor.  A timeout interrupts every copy which
+ * is still running, which makes NodeShellRunner kill the command it is waiting for.
+ */
+final class ActionRunner {
+    /**
+     * The longest we will ever wait between retries.
+     */
+    private static final long MAX_BACKOFF_MS = 300000;
+
+    private final CastleCluster cluster;
+    private final CastleNode node;
+    private final Action action;
+    private final ScheduledExecutorService watchdog;
+    private final ExecutorService hedgeExecutor;
+
+    /**
+     * The input hash of the action, as computed by the last attempt.  This is only
+     * accessed from the calling thread.
+     */
+    private String inputHash = null;
+
+    /**
+     * True if the last attempt skipped the call.  This is only accessed from the
+     * calling thread.
+     */
+    private boolean skipped = false;
+
+    /**
+     * How long the copy which succeeded took to call the action and wait for it to
+     * be ready, or -1 if the call was skipped.  This is only accessed from the
+     * calling thread.
+     */
+    private long callMs = -1;
+
+    ActionRunner(CastleCluster cluster, CastleNode node, Action action,
+                 ScheduledExecutorService watchdog, ExecutorService hedgeExecutor) {
+        this.cluster = cluster;
+        this.node = node;
+        this.action = action;
+        this.watchdog = watchdog;
+        this.hedgeExecutor = hedgeExecutor;
+    }
+
+    /**
+     * Call the action until it succeeds, or until we run out of retries.
+     */
+    void run() throws Throwable {
+        int maxAttempts = 1 + Math.max(0, action.maxRetries());
+        for (int attempt = 1; ; attempt++) {
+            try {
+                Attempt current = new Attempt();
+                current.run();
+                callMs = current.succeededMs();
+                return;
+            } catch (InterruptedException e) {
+                // The scheduler is shutting down.
+                throw e;
+            } catch (Throwable e) {
+                if (attempt >= maxAttempts) {
+                    throw e;
+                }
+                long backoffMs = backoffMs(action.retryBackoffMs(), attempt);
+                CastleLog.printToAll(String.format("*** %s failed on attempt %d of %d: %s.  " +
+                    "Retrying in %d ms.%n", action.id(), attempt, maxAttempts, e, backoffMs),
+                    node.log(), cluster.clusterLog());
+                Thread.sleep(backoffMs);
+            }
+        }
+    }
+
+    /**
+     * Get the input hash of the action, or null if it has none.
+     */
+    String inputHash() {
+        return inputHash;
+    }
+
+    /**
+     * Return true if the call was skipped, because the journal showed that the
+     * action had already completed with the same inputs.
+     */
+    boolean skipped() {
+        return skipped;
+    }
+
+    /**
+     * Get how long the successful call took, including the wait for readiness.  This
+     * does not include failed attempts, backoff, or the wait before a hedged copy
+     * started, so it is what we record in the action durations.
+     *
+     * @return      The duration in milliseconds, or -1 if the call was skipped.
+     */
+    long callMs() {
+        return callMs;
+    }
+
+    /**
+     * Check the journal, and return true if the call can be skipped.
+     */
+    private boolean checkJournal() throws Throwable {
+        String prevAction = CastleLog.setCurrentAction(action.id().toString());
+        try {
+            inputHash = action.inputHash(cluster, node);
+            skipped = inputHash != null &&
+                inputHash.equals(cluster.journal().get(action.id())) &&
+                action.stillValid(cluster, node);
+            return skipped;
+        } finally {
+            CastleLog.setCurrentAction(prevAction);
+        }
+    }
+
+    /**
+     * Call the action, and then wait for its readiness probe to pass, if it has one.
+     *
+     * @return      How long the call and the wait took, in milliseconds.
+     */
+    private long callAndAwaitReady() throws Throwable {
+        String prevAction = CastleLog.setCurrentAction(action.id().toString());
+        try {
+            long startMs = System.currentTimeMillis();
+            action.call(cluster, node);
+            ReadinessProbe probe = action.readinessProbe(cluster, node);
+            if (probe != null) {
+                probe.await(node);
+            }
+            return System.currentTimeMillis() - startMs;
+        } finally {
+            CastleLog.setCurrentAction(prevAction);
+        }
+    }
+
+    /**
+     * Get the time to wait after a failed attempt.
+     *
+     * @param initialMs     The time to wait after the first attempt.
+     * @param attempt       The number of the attempt which failed, starting at 1.
+     */
+    static long backoffMs(long initialMs, int attempt) {
+        long backoffMs = Math.max(0, initialMs);
+        for (int i = 1; (i < attempt) && (backoffMs < MAX_BACKOFF_MS); i++) {
+            backoffMs *= 2;
+        }
+        return Math.min(backoffMs, MAX_BACKOFF_MS);
+    }
+
+    /**
+     * One attempt at calling the action, made up of the first copy and possibly a
+     * hedged copy.  The synchronized methods are called from the calling thread,
+     * the watchdog, and the hedge executor.
+     */
+    private final class Attempt {
+        private final Thread primaryThread = Thread.currentThread();
+        private boolean primaryRunning = true;
+        private boolean primaryInterrupted = false;
+        private Future<?> hedgeFuture = null;
+        private boolean hedgeRunning = false;
+        private Throwable hedgeFailure = null;
+        private boolean hedgeSucceeded = false;
+        private boolean timedOut = false;
+        private long succeededMs = -1;
+
+        /**
+         * True once the outcome of the attempt has been decided.
+         */
+        private boolean done = false;
+
+        void run() throws Throwable {
+            ScheduledFuture<?> timeoutFuture = null;
+            ScheduledFuture<?> startHedgeFuture = null;
+            if (action.timeoutMs() > 0) {
+                timeoutFuture = watchdog.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeout();
+                    }
+                }, action.timeoutMs(), TimeUnit.MILLISECONDS);
+            }
+            Throwable failure = null;
+            long durationMs = -1;
+            try {
+                if (!checkJournal()) {
+                    CastleLog.debugToAll(String.format("** Running %s", action.id()),
+                        node.log(), cluster.clusterLog());
+                    // Only the call is hedged, so the hedge timer starts after the check.
+                    final long hedgeAfterMs = action.hedge(cluster) ?
+                        cluster.durations().p95Ms(action.id().type()) : -1;
+                    if (hedgeAfterMs > 0) {
+                        startHedgeFuture = watchdog.schedule(new Runnable() {
+                            @Override
+                            public void run() {
+                                startHedge(hedgeAfterMs);
+                            }
+                        }, hedgeAfterMs, TimeUnit.MILLISECONDS);
+                    }
+                    durationMs = callAndAwaitReady();
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                if (startHedgeFuture != null) {
+                    startHedgeFuture.cancel(false);
+                }
+            }
+            try {
+                primaryFinished(failure, durationMs);
+            } finally {
+                if (timeoutFuture != null) {
+                    timeoutFuture.cancel(false);
+                }
+            }
+        }
+
+        synchronized long succeededMs() {
+            return succeededMs;
+        }
+
+        private synchronized void primaryFinished(Throwable failure,
+                                                  long durationMs) throws Throwable {
+            primaryRunning = false;
+            if (primaryInterrupted) {
+                // Clear the interrupt that we sent, if the call did not consume it.
+                Thread.interrupted();
+            }
+            if (failure == null) {
+                // The call succeeded, even if the timeout fired just as it returned.
+                done = true;
+                succeededMs = durationMs;
+                if (hedgeFuture != null) {
+                    hedgeFuture.cancel(true);
+                }
+                return;
+            }
+            while (hedgeRunning && (!done)) {
+                wait();
+            }
+            if (hedgeSucceeded) {
+                CastleLog.printToAll(String.format("*** The hedged copy of %s finished first.%n",
+                    action.id()), node.log(), cluster.clusterLog());
+                return;
+            }
+            if (timedOut) {
+                throw new TimeoutException(action.id() + " timed out after " +
+                    action.timeoutMs() + " ms.");
+            }
+            if (hedgeFailure != null) {
+                failure.addSuppressed(hedgeFailure);
+            }
+            throw failure;
+        }
+
+        private synchronized void timeout() {
+            if (done) {
+                return;
+            }
+            timedOut = true;
+            done = true;
+            CastleLog.printToAll(String.format("*** %s timed out after %d ms.  Cancelling it.%n",
+                action.id(), action.timeoutMs()), node.log(), cluster.clusterLog());
+            if (primaryRunning) {
+                primaryInterrupted = true;
+                primaryThread.interrupt();
+            }
+            if (hedgeFuture != null) {
+                hedgeFuture.cancel(true);
+            }
+            notifyAll();
+        }
+
+        private synchronized void startHedge(long hedgeAfterMs) {
+            if (done || (!primaryRunning)) {
+                return;
+            }
+            CastleLog.printToAll(String.format("*** %s has run for longer than the p95 of %d ms.  " +
+                "Starting a hedged copy.%n", action.id(), hedgeAfterMs),
+                node.log(), cluster.clusterLog());
+            hedgeRunning = true;
+            hedgeFuture = hedgeExecutor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    Throwable failure = null;
+                    long durationMs = -1;
+                    try {
+                        durationMs = callAndAwaitReady();
+                    } catch (Throwable e) {
+                        failure = e;
+                    }
+                    hedgeFinished(failure, durationMs);
+                }
+            });
+        }
+
+        private synchronized void hedgeFinished(Throwable failure, long durationMs) {
+            hedgeRunning = false;
+            if (failure != null) {
+                hedgeFailure = failure;
+            } else if (!done) {
+                hedgeSucceeded = true;
+                done = true;
+                succeededMs = durationMs;
+                if (primaryRunning) {
+                    primaryInterrupted = true;
+                    primaryThread.interrupt();
+                }
+            }
+            notifyAll();
+        }
+    }
+}
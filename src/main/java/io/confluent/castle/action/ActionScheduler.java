@@ -19,22 +19,33 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleTrace;
 
+import java.lang.reflect.Method;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -83,15 +94,36 @@ public final class ActionScheduler implements AutoCloseable {
             return this;
         }
 
-        public ActionScheduler build() {
+        public ActionScheduler build() throws Exception {
             Set<ActionId> targetActions = findTargetActions();
-            Map<ActionId, ActionData> universe = findUniverse(targetActions);
+            Map<ActionId, Action> universe = findUniverse(targetActions);
             if (log.isDebugEnabled()) {
                 log.debug("Building scheduler with targetActions {}, universe {}",
                     CastleUtil.join(targetActions, ", "),
                     CastleUtil.join(universe.keySet(), ", "));
             }
-            return new ActionScheduler(cluster, targetActions, universe);
+            return new ActionScheduler(cluster, createGraph(targetActions, universe));
+        }
+
+        /**
+         * Simulate running the target actions, without running any of them.
+         *
+         * Each action is assumed to take as long as it took on average in previous
+         * runs, or its estimatedDurationMs if it has never run.
+         *
+         * @return      The simulated plan.
+         */
+        public ActionPlan plan() throws Exception {
+            Set<ActionId> targetActions = findTargetActions();
+            Map<ActionId, Action> universe = findUniverse(targetActions);
+            return new Simulation(createGraph(targetActions, universe),
+                cluster.conf().maxConcurrentActions()).run();
+        }
+
+        private ActionGraph createGraph(Set<ActionId> targetActions,
+                                        Map<ActionId, Action> universe) {
+            return new ActionGraph(universe.values(), targetActions,
+                cluster.nodes().keySet(), cluster.durations());
         }
 
         private Set<ActionId> findTargetActions() {
@@ -130,9 +162,9 @@ public final class ActionScheduler implements AutoCloseable {
             return targetActions;
         }
 
-        private Map<ActionId, ActionData> findUniverse(Set<ActionId> targetActions) {
+        private Map<ActionId, Action> findUniverse(Set<ActionId> targetActions) {
             // Create an action universe with the targets, plus everything they contain.
-            Map<ActionId, ActionData> universe = new HashMap<>();
+            Map<ActionId, Action> universe = new HashMap<>();
             Deque<ActionId> toAdd = new ArrayDeque<>(targetActions);
             while (true) {
                 ActionId id = toAdd.poll();
@@ -142,117 +174,376 @@ public final class ActionScheduler implements AutoCloseable {
                 if (!universe.containsKey(id)) {
                     Action action = actions.get(id);
                     if (action != null) {
-                        universe.put(id, new ActionData(action));
+                        universe.put(id, action);
                         for (String type : action.contains()) {
                             toAdd.add(new ActionId(type, id.scope()));
                         }
                     }
                 }
             }
-            for (ActionData actionData : universe.values()) {
-                for (ActionId containedId : actionData.action.containedIds()) {
-                    ActionData childData = universe.get(containedId);
-                    if (childData != null) {
-                        actionData.children.add(containedId);
-                        childData.parents.add(actionData.action.id());
-                    }
+            return universe;
+        }
+    }
+
+    /**
+     * The state of one run through an action graph.
+     *
+     * Rather than removing IDs from sets as actions complete, we count down the
+     * number of children and predecessors that each action is still waiting for.
+     * Both the scheduler and the plan simulation extend this class.  They decide
+     * what it means to schedule an action, and what happens once it completes.
+     */
+    private abstract static class RunState {
+        final ActionGraph graph;
+        final ActionData[] data;
+
+        /**
+         * The number of actions of each type which have not completed yet.
+         */
+        private final int[] typeRemaining;
+
+        int numCompleted = 0;
+
+        RunState(ActionGraph graph) {
+            this.graph = graph;
+            this.data = new ActionData[graph.size()];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = new ActionData(graph, i);
+            }
+            this.typeRemaining = new int[graph.numTypes()];
+            for (int t = 0; t < typeRemaining.length; t++) {
+                typeRemaining[t] = graph.typeMembers(t).length;
+            }
+        }
+
+        /**
+         * Called when an action is runnable and everything it comes after has completed.
+         */
+        abstract void schedule(ActionData actionData);
+
+        /**
+         * Called when an action becomes runnable.
+         */
+        void runnable(ActionData actionData) {
+        }
+
+        /**
+         * Called when an action has completed.
+         */
+        void completed(ActionData actionData) {
+        }
+
+        /**
+         * Make the target actions runnable.
+         */
+        final void start() {
+            for (int index : graph.initiallyRunnable()) {
+                makeRunnable(data[index]);
+            }
+        }
+
+        private void makeRunnable(ActionData actionData) {
+            actionData.state = ActionState.RUNNABLE;
+            runnable(actionData);
+            maybeSchedule(actionData);
+        }
+
+        private void maybeSchedule(ActionData actionData) {
+            if (actionData.state != ActionState.RUNNABLE) {
+                log.trace("Can't schedule {} because it is in state {}",
+                    graph.id(actionData.index), actionData.state);
+                return;
+            }
+            if (actionData.pendingComesAfter > 0) {
+                log.trace("Can't schedule {} until {} other action(s) complete",
+                    graph.id(actionData.index), actionData.pendingComesAfter);
+                return;
+            }
+            actionData.state = ActionState.EXECUTING;
+            schedule(actionData);
+        }
+
+        /**
+         * Finish running an action, once its call method has returned.
+         */
+        final void finish(ActionData actionData, long nowMs) {
+            if (actionData.state != ActionState.EXECUTING) {
+                throw new RuntimeException("Unable to finish " + graph.id(actionData.index) +
+                    ", which is not in EXECUTING state.");
+            }
+            actionData.state = ActionState.WAITING_FOR_CHILDREN;
+            actionData.finishMs = nowMs;
+            for (int child : graph.children(actionData.index)) {
+                ActionData childData = data[child];
+                if (childData.state == ActionState.PENDING) {
+                    log.trace("Setting state for child action {} to RUNNABLE", graph.id(child));
+                    childData.startBlocker = actionData.index;
+                    childData.startBlockerCompleted = false;
+                    makeRunnable(childData);
                 }
-                // Convert "ALL" target IDs into concrete action IDs.
-                Set<ActionId> beforeIds = TargetId.actionIds(actionData.action.comesAfter(),
-                    cluster.nodes().keySet());
-                for (ActionId beforeId : beforeIds) {
-                    ActionData beforeData = universe.get(beforeId);
-                    if (beforeData != null) {
-                        actionData.comesAfter.add(beforeId);
-                        beforeData.comesBefore.add(actionData.action.id());
-                    }
+            }
+            maybeComplete(actionData, nowMs);
+        }
+
+        private void maybeComplete(ActionData actionData, long nowMs) {
+            if ((actionData.state != ActionState.WAITING_FOR_CHILDREN) ||
+                    (actionData.pendingChildren > 0)) {
+                return;
+            }
+            actionData.state = ActionState.COMPLETED;
+            actionData.completeMs = nowMs;
+            numCompleted++;
+            completed(actionData);
+            for (int parent : graph.parents(actionData.index)) {
+                ActionData parentData = data[parent];
+                parentData.pendingChildren--;
+                parentData.completeBlocker = actionData.index;
+                maybeComplete(parentData, nowMs);
+            }
+            for (int after : graph.comesBefore(actionData.index)) {
+                comesAfterCompleted(data[after], actionData);
+            }
+            int type = graph.type(actionData.index);
+            typeRemaining[type]--;
+            if (typeRemaining[type] == 0) {
+                for (int waiter : graph.typeWaiters(type)) {
+                    comesAfterCompleted(data[waiter], actionData);
                 }
             }
-            boolean canStart = false;
-            for (ActionId id : targetActions) {
-                ActionData actionData = universe.get(id);
-                if (actionData.parents.isEmpty()) {
-                    actionData.state = ActionState.RUNNABLE;
-                    canStart = true;
+        }
+
+        private void comesAfterCompleted(ActionData afterData, ActionData actionData) {
+            afterData.pendingComesAfter--;
+            afterData.startBlocker = actionData.index;
+            afterData.startBlockerCompleted = true;
+            maybeSchedule(afterData);
+        }
+
+        /**
+         * Walk backwards from the last action to complete, following whatever each
+         * action was waiting for last.
+         */
+        final List<ActionId> findActualPath(int last) {
+            List<ActionId> path = new ArrayList<>();
+            boolean[] onPath = new boolean[data.length];
+            ActionData cur = data[last];
+            ActionEvent event = ActionEvent.COMPLETE;
+            for (int i = 0; i < 3 * data.length; i++) {
+                if (event == ActionEvent.COMPLETE) {
+                    if ((cur.completeBlocker != ActionGraph.NONE) &&
+                            (data[cur.completeBlocker].completeMs > cur.finishMs)) {
+                        cur = data[cur.completeBlocker];
+                    } else {
+                        event = ActionEvent.START;
+                    }
+                } else {
+                    if (!onPath[cur.index]) {
+                        onPath[cur.index] = true;
+                        path.add(graph.id(cur.index));
+                    }
+                    if (cur.startBlocker == ActionGraph.NONE) {
+                        break;
+                    }
+                    event = cur.startBlockerCompleted ? ActionEvent.COMPLETE : ActionEvent.START;
+                    cur = data[cur.startBlocker];
                 }
             }
-            if ((!canStart) && (!universe.isEmpty())) {
-                throw new RuntimeException("No tasks can be executed!  Check " +
-                    "for circular dependencies.");
+            Collections.reverse(path);
+            return path;
+        }
+    }
+
+    /**
+     * The state of the actions which this scheduler is running.  The methods of this
+     * class are called from the single-threaded schedulerExecutor.
+     */
+    private final class SchedulerState extends RunState {
+        SchedulerState(ActionGraph graph) {
+            super(graph);
+        }
+
+        @Override
+        void runnable(ActionData actionData) {
+            actionData.runnableUs = cluster.trace().nowUs();
+        }
+
+        @Override
+        void schedule(ActionData actionData) {
+            actionData.scheduledUs = cluster.trace().nowUs();
+            Action action = graph.action(actionData.index);
+            if (action.initialDelayMs() > 0) {
+                log.debug("Scheduling {} in {} ms", action.id(), action.initialDelayMs());
+                schedulerExecutor.schedule(new EnqueueAction(actionData),
+                    action.initialDelayMs(), TimeUnit.MILLISECONDS);
+            } else {
+                log.debug("Scheduling {}", action.id());
+                new EnqueueAction(actionData).run();
+            }
+        }
+
+        @Override
+        void completed(ActionData actionData) {
+            ActionId id = graph.id(actionData.index);
+            CastleLog.debugToAll(String.format("** Finished %s", id),
+                cluster.nodes().get(id.scope()).log(), cluster.clusterLog());
+            traceAction(actionData, cluster.trace().nowUs());
+            if (numCompleted == graph.size()) {
+                lastCompleted = actionData.index;
+            }
+        }
+    }
+
+    /**
+     * Starts running the target actions.  This runnable takes place in the context of
+     * the single-threaded schedulerExecutor, and can access all scheduler fields.
+     */
+    private final class StartActions implements Runnable {
+        @Override
+        public void run() {
+            try {
+                state.start();
+            } catch (Throwable throwable) {
+                cluster.clusterLog().error("** StartActions got fatal exception", throwable);
+                shutdownFuture.completeExceptionally(throwable);
             }
-            return universe;
         }
     }
 
     /**
-     * Schedules an action, if the action is scheduleable.  This runnable takes
-     * place in the context of the single-threaded schedulerExecutor, and can access
-     * all scheduler fields.
+     * Adds an action to the ready queue of its node.  This runnable takes place in
+     * the context of the single-threaded schedulerExecutor, and can access all
+     * scheduler fields.
+     *
+     * We don't hand the action to the action executor right away.  Instead, we submit
+     * a DispatchActions runnable, which will run after any other actions which became
+     * ready at the same time have been queued.  That way, the node always gets the
+     * heaviest action that is ready, rather than the first one we happened to see.
      */
-    private final class MaybeSchedule implements Runnable {
-        private final ActionId actionId;
+    private final class EnqueueAction implements Runnable {
+        private final ActionData actionData;
 
-        MaybeSchedule(ActionId actionId) {
-            this.actionId = actionId;
+        EnqueueAction(ActionData actionData) {
+            this.actionData = actionData;
         }
 
         @Override
         public void run() {
             try {
-                ActionData actionData = universe.get(actionId);
-                if (actionData.state != ActionState.RUNNABLE) {
-                    log.trace("Can't schedule {} because it is in state {}",
-                        actionId, actionData.state);
-                    return;
-                }
-                if (!actionData.comesAfter.isEmpty()) {
-                    log.trace("Must complete {} before starting {}",
-                        CastleUtil.join(actionData.comesAfter, ", "), actionId);
-                    return;
-                }
-                actionData.state = ActionState.EXECUTING;
-                if (actionData.action.initialDelayMs() > 0) {
-                    log.debug("Scheduling {} in {} ms", actionId, actionData.action.initialDelayMs());
-                    nodeExecutors.get(actionId.scope()).schedule(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())),
-                        actionData.action.initialDelayMs(), TimeUnit.MILLISECONDS);
-                } else {
-                    log.debug("Scheduling {}", actionId);
-                    nodeExecutors.get(actionId.scope()).submit(
-                        new ExecuteAction(actionData.action, cluster.nodes().get(actionId.scope())));
+                int node = graph.node(actionData.index);
+                actionData.enqueuedUs = cluster.trace().nowUs();
+                readyQueues.get(node).add(actionData);
+                schedulerExecutor.submit(new DispatchActions(node));
+            } catch (Throwable throwable) {
+                cluster.clusterLog().error("** EnqueueAction got fatal exception", throwable);
+                shutdownFuture.completeExceptionally(throwable);
+            }
+        }
+    }
+
+    /**
+     * Hands the highest-weight ready action on a node to the action executor, if the
+     * node is idle.  This runnable takes place in the context of the single-threaded
+     * schedulerExecutor, and can access all scheduler fields.
+     */
+    private final class DispatchActions implements Runnable {
+        private final int node;
+
+        DispatchActions(int node) {
+            this.node = node;
+        }
+
+        @Override
+        public void run() {
+            try {
+                dispatch(node);
+            } catch (Throwable throwable) {
+                cluster.clusterLog().error("** DispatchActions got fatal exception", throwable);
+                shutdownFuture.completeExceptionally(throwable);
+            }
+        }
+    }
+
+    /**
+     * Dispatches actions on nodes which were starved by maxConcurrentActions, for as
+     * long as there is room.  This runnable takes place in the context of the
+     * single-threaded schedulerExecutor, and can access all scheduler fields.
+     */
+    private final class DispatchStarvedNodes implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while ((!starvedNodes.isEmpty()) && (!atMaxConcurrentActions())) {
+                    Integer node = starvedNodes.iterator().next();
+                    starvedNodes.remove(node);
+                    dispatch(node);
                 }
             } catch (Throwable throwable) {
-                cluster.clusterLog().error("** MaybeSchedule got fatal exception", throwable);
+                cluster.clusterLog().error("** DispatchStarvedNodes got fatal exception", throwable);
                 shutdownFuture.completeExceptionally(throwable);
             }
         }
     }
 
     /**
-     #* Executes an Action.  Because this takes place in the context of a node executor.
-     * It cannot access ActionScheduler fields directly.
+     * Executes an Action.  Because this takes place in the context of the action
+     * executor, it cannot access ActionScheduler fields directly.
      */
     private final class ExecuteAction implements Runnable {
+        private final int index;
         private final Action action;
         private final CastleNode node;
 
-        ExecuteAction(Action action, CastleNode node) {
+        ExecuteAction(int index, Action action, CastleNode node) {
+            this.index = index;
             this.action = action;
             this.node = node;
         }
 
         @Override
         public void run() {
+            String prevAction = CastleLog.setCurrentAction(action.id().toString());
             try {
-                CastleLog.debugToAll(String.format("** Running %s", action.id()),
-                    node.log(), cluster.clusterLog());
-                action.call(cluster, node);
-                schedulerExecutor.submit(new FinishRunningAction(action));
+                long startUs = cluster.trace().nowUs();
+                long callStartMs = System.currentTimeMillis();
+                ActionRunner runner =
+                    new ActionRunner(cluster, node, action, schedulerExecutor, hedgeExecutor);
+                if (!action.readOnly()) {
+                    cluster.probeCache().invalidate(node.nodeName());
+                }
+                try {
+                    runner.run();
+                } finally {
+                    if (!action.readOnly()) {
+                        cluster.probeCache().invalidate(node.nodeName());
+                    }
+                }
+                if (runner.skipped()) {
+                    CastleLog.printToAll(String.format("*** Skipping %s, because its " +
+                        "inputs have not changed since it last ran.%n", action.id()),
+                        node.log(), cluster.clusterLog());
+                    cluster.trace().span(node.nodeName(), "action", action.id().toString(),
+                        startUs, cluster.trace().nowUs(), Collections.singletonMap("skipped", "true"));
+                } else {
+                    // Only the successful call goes into the durations, since they
+                    // predict how long the action takes when it works.
+                    cluster.durations().record(action.id().type(), runner.callMs());
+                    long totalMs = System.currentTimeMillis() - callStartMs;
+                    node.log().record(null, null, totalMs,
+                        String.format("** Completed %s in %d ms%n", action.id(), totalMs));
+                    if (runner.inputHash() != null) {
+                        cluster.journal().record(action.id(), runner.inputHash());
+                    }
+                    cluster.trace().span(node.nodeName(), "action", action.id().toString(),
+                        startUs, cluster.trace().nowUs(), null);
+                }
+                schedulerExecutor.submit(new FinishRunningAction(index));
             } catch (Throwable throwable) {
                 String msg = "** ExecuteAction " + action.id() + " failed";
                 node.log().error(msg, throwable);
                 cluster.clusterLog().error(msg, throwable);
                 shutdownFuture.completeExceptionally(throwable);
+            } finally {
+                CastleLog.setCurrentAction(prevAction);
             }
         }
     }
@@ -263,31 +554,26 @@ public final class ActionScheduler implements AutoCloseable {
      * and can access all scheduler fields.
      */
     private final class FinishRunningAction implements Runnable {
-        private final Action action;
+        private final int index;
 
-        FinishRunningAction(Action action) {
-            this.action = action;
+        FinishRunningAction(int index) {
+            this.index = index;
         }
 
         @Override
         public void run() {
             try {
-                ActionData actionData = universe.get(action.id());
-                if (actionData.state != ActionState.EXECUTING) {
-                    throw new RuntimeException("FinishRunningAction invoked for " + action.id() +
-                        ", which is not in EXECUTING state.");
-                }
-                actionData.state = ActionState.WAITING_FOR_CHILDREN;
-                for (ActionId childId : actionData.children) {
-                    ActionData childData = universe.get(childId);
-                    if (childData.state == ActionState.PENDING) {
-                        log.trace("Setting state for child action {} to RUNNABLE", childId);
-                        childData.state = ActionState.RUNNABLE;
-                        schedulerExecutor.submit(new MaybeSchedule(childId));
-                    }
-                }
-                if (actionData.children.isEmpty()) {
-                    schedulerExecutor.submit(new MaybeCompleteAction(action.id()));
+                ActionData actionData = state.data[index];
+                int node = graph.node(index);
+                actionData.finishUs = cluster.trace().nowUs();
+                busyNodes[node] = false;
+                numBusyNodes--;
+                state.finish(actionData, System.currentTimeMillis());
+                schedulerExecutor.submit(new DispatchStarvedNodes());
+                schedulerExecutor.submit(new DispatchActions(node));
+                if (lastCompleted != ActionGraph.NONE) {
+                    logCriticalPaths();
+                    CastleUtil.completeNull(shutdownFuture);
                 }
             } catch (Throwable throwable) {
                 cluster.clusterLog().error("** FinishRunningAction got fatal exception", throwable);
@@ -297,60 +583,179 @@ public final class ActionScheduler implements AutoCloseable {
     }
 
     /**
-     * Complete an action if possible.  This runnable takes place in the context of the
-     * single-threaded schedulerExecutor, and can access all scheduler fields.
+     * A discrete-event simulation of the scheduler.
+     *
+     * This follows the same rules as the scheduler itself.  Each node runs one
+     * action at a time, in critical path order.  No more than maxConcurrentActions
+     * actions run at once.  Actions wait out their initial delay before they are
+     * queued on their node.  Instead of calling the actions, we advance the clock
+     * by their estimated durations.
      */
-    private final class MaybeCompleteAction implements Runnable {
-        private final ActionId actionId;
+    private static final class Simulation extends RunState {
+        private final int maxConcurrentActions;
+        private final PriorityQueue<SimulationEvent> events =
+            new PriorityQueue<>(11, SIMULATION_ORDER);
+        private final List<PriorityQueue<ActionData>> readyQueues = new ArrayList<>();
 
-        MaybeCompleteAction(ActionId actionId) {
-            this.actionId = actionId;
+        /**
+         * The actions at the head of the ready queues of idle nodes.  Entries go stale
+         * when the node becomes busy or gets a heavier action, and are skipped.
+         */
+        private final PriorityQueue<ActionData> idleHeads =
+            new PriorityQueue<>(11, PRIORITY_ORDER);
+        private final boolean[] running;
+        private final long[] readyMs;
+        private final long[] startMs;
+        private final long[] busyMs;
+        private int numRunning = 0;
+        private long nextSequence = 0;
+        private long nowMs = 0;
+
+        /**
+         * The last action which finished running, or NONE if none has yet.
+         */
+        private int lastFinished = ActionGraph.NONE;
+
+        Simulation(ActionGraph graph, int maxConcurrentActions) {
+            super(graph);
+            this.maxConcurrentActions = maxConcurrentActions;
+            for (int n = 0; n < graph.numNodes(); n++) {
+                readyQueues.add(new PriorityQueue<>(11, PRIORITY_ORDER));
+            }
+            this.running = new boolean[graph.numNodes()];
+            this.readyMs = new long[graph.size()];
+            this.startMs = new long[graph.size()];
+            this.busyMs = new long[graph.numNodes()];
         }
 
-        @Override
-        public void run() {
-            try {
-                ActionData actionData = universe.get(actionId);
-                if (actionData.state != ActionState.WAITING_FOR_CHILDREN) {
-                    log.trace("Can't complete {} because it is not in WAITING_FOR_CHILDREN state.",
-                        actionId);
-                    return;
+        ActionPlan run() {
+            start();
+            while (!events.isEmpty()) {
+                SimulationEvent event = events.poll();
+                nowMs = event.timeMs;
+                if (event.finish) {
+                    int index = event.actionData.index;
+                    int node = graph.node(index);
+                    running[node] = false;
+                    numRunning--;
+                    busyMs[node] += nowMs - startMs[index];
+                    lastFinished = index;
+                    finish(event.actionData, nowMs);
+                    addIdleHead(node);
+                } else {
+                    enqueue(event.actionData);
                 }
-                if (!actionData.children.isEmpty()) {
-                    log.trace("Can't complete {} yet.  Waiting for children: {}",
-                        actionId, CastleUtil.join(actionData.children, ","));
-                    return;
+                dispatch();
+            }
+            ActionData last = null;
+            for (ActionData actionData : data) {
+                if (actionData.state != ActionState.COMPLETED) {
+                    throw new RuntimeException("Unable to simulate " + graph.id(actionData.index) +
+                        ".  Check for circular dependencies.");
                 }
-                CastleLog.debugToAll(String.format("** Finished %s", actionId),
-                    cluster.nodes().get(actionId.scope()).log(), cluster.clusterLog());
-                actionData.state = ActionState.COMPLETED;
-                numCompleted++;
-                for (Iterator<ActionId> iter = actionData.parents.iterator(); iter.hasNext(); ) {
-                    ActionId parentId = iter.next();
-                    ActionData parentData = universe.get(parentId);
-                    parentData.children.remove(actionId);
-                    if (parentData.state == ActionState.WAITING_FOR_CHILDREN) {
-                        schedulerExecutor.submit(new MaybeCompleteAction(parentId));
-                    }
-                    iter.remove();
+                if ((last == null) || (actionData.completeMs > last.completeMs)) {
+                    last = actionData;
                 }
-                for (Iterator<ActionId> iter = actionData.comesBefore.iterator(); iter.hasNext(); ) {
-                    ActionId afterId = iter.next();
-                    ActionData afterData = universe.get(afterId);
-                    afterData.comesAfter.remove(actionId);
-                    schedulerExecutor.submit(new MaybeSchedule(afterId));
-                    iter.remove();
+            }
+            Map<String, Long> nodeBusyMs = new TreeMap<>();
+            for (int n = 0; n < busyMs.length; n++) {
+                nodeBusyMs.put(graph.nodeName(n), busyMs[n]);
+            }
+            List<ActionPlan.Step> steps = new ArrayList<>();
+            if (last == null) {
+                return new ActionPlan(0, steps, nodeBusyMs);
+            }
+            for (ActionId id : findActualPath(last.index)) {
+                int index = graph.index(id);
+                steps.add(new ActionPlan.Step(id, startMs[index],
+                    data[index].finishMs, data[index].completeMs));
+            }
+            return new ActionPlan(last.completeMs, steps, nodeBusyMs);
+        }
+
+        @Override
+        void schedule(ActionData actionData) {
+            events.add(new SimulationEvent(
+                nowMs + graph.action(actionData.index).initialDelayMs(),
+                nextSequence++, actionData, false));
+        }
+
+        private void enqueue(ActionData actionData) {
+            readyMs[actionData.index] = nowMs;
+            int node = graph.node(actionData.index);
+            readyQueues.get(node).add(actionData);
+            addIdleHead(node);
+        }
+
+        private void addIdleHead(int node) {
+            ActionData head = readyQueues.get(node).peek();
+            if ((head != null) && (!running[node])) {
+                idleHeads.add(head);
+            }
+        }
+
+        private void dispatch() {
+            while ((maxConcurrentActions <= 0) || (numRunning < maxConcurrentActions)) {
+                ActionData next = idleHeads.poll();
+                if (next == null) {
+                    return;
                 }
-                if (numCompleted == universe.size()) {
-                    CastleUtil.completeNull(shutdownFuture);
+                int index = next.index;
+                int node = graph.node(index);
+                PriorityQueue<ActionData> readyQueue = readyQueues.get(node);
+                if (running[node] || (readyQueue.peek() != next)) {
+                    continue;
                 }
-            } catch (Throwable throwable) {
-                cluster.clusterLog().error("** MaybeCompleteAction got fatal exception", throwable);
-                shutdownFuture.completeExceptionally(throwable);
+                readyQueue.poll();
+                running[node] = true;
+                numRunning++;
+                startMs[index] = nowMs;
+                // If we had to wait for a node or for a free slot, whatever just
+                // finished running is what we were waiting for.
+                if ((readyMs[index] < nowMs) && (lastFinished != ActionGraph.NONE)) {
+                    next.startBlocker = lastFinished;
+                    next.startBlockerCompleted = false;
+                }
+                events.add(new SimulationEvent(nowMs + graph.estimatedMs(index),
+                    nextSequence++, next, true));
             }
         }
     }
 
+    private static final class SimulationEvent {
+        private final long timeMs;
+        private final long sequence;
+        private final ActionData actionData;
+
+        /**
+         * True if this is the end of the action's call method; false if this is
+         * the end of its initial delay.
+         */
+        private final boolean finish;
+
+        SimulationEvent(long timeMs, long sequence, ActionData actionData, boolean finish) {
+            this.timeMs = timeMs;
+            this.sequence = sequence;
+            this.actionData = actionData;
+            this.finish = finish;
+        }
+    }
+
+    /**
+     * Orders simulation events by time.  Events which happen at the same time are
+     * handled in the order they were created.
+     */
+    private static final Comparator<SimulationEvent> SIMULATION_ORDER = new Comparator<SimulationEvent>() {
+        @Override
+        public int compare(SimulationEvent a, SimulationEvent b) {
+            int cmp = Long.compare(a.timeMs, b.timeMs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Long.compare(a.sequence, b.sequence);
+        }
+    };
+
     enum ActionState {
         PENDING,
         RUNNABLE,
@@ -359,16 +764,85 @@ public final class ActionScheduler implements AutoCloseable {
         COMPLETED;
     }
 
+    enum ActionEvent {
+        START,
+        FINISH,
+        COMPLETE;
+    }
+
+    /**
+     * Orders actions by descending critical path weight.  Ties are broken by action
+     * index, which follows the action ID, so that the order is deterministic.
+     */
+    private static final Comparator<ActionData> PRIORITY_ORDER = new Comparator<ActionData>() {
+        @Override
+        public int compare(ActionData a, ActionData b) {
+            int cmp = Long.compare(b.weightMs, a.weightMs);
+            if (cmp != 0) {
+                return cmp;
+            }
+            return Integer.compare(a.index, b.index);
+        }
+    };
+
     private static class ActionData {
-        private final Action action;
+        /**
+         * The index of this action in the ActionGraph.
+         */
+        private final int index;
+
+        /**
+         * The critical path weight of this action.  Actions with higher weights
+         * are dispatched first.
+         */
+        private final long weightMs;
+
         private ActionState state = ActionState.PENDING;
-        private final Set<ActionId> comesBefore = new HashSet<>();
-        private final Set<ActionId> comesAfter = new HashSet<>();
-        private final Set<ActionId> parents = new HashSet<>();
-        private final Set<ActionId> children = new HashSet<>();
 
-        ActionData(Action action) {
-            this.action = action;
+        /**
+         * The number of actions and action types which must complete before this
+         * action can start.
+         */
+        private int pendingComesAfter;
+
+        /**
+         * The number of children which must complete before this action can complete.
+         */
+        private int pendingChildren;
+
+        private long finishMs = 0;
+        private long completeMs = 0;
+
+        /**
+         * Trace timestamps, in microseconds.  See CastleTrace#nowUs.
+         */
+        private long runnableUs = 0;
+        private long scheduledUs = 0;
+        private long enqueuedUs = 0;
+        private long dispatchedUs = 0;
+        private long finishUs = 0;
+
+        /**
+         * The last action which we were waiting for before we could start, or NONE.
+         */
+        private int startBlocker = ActionGraph.NONE;
+
+        /**
+         * True if we were waiting for startBlocker to complete; false if we were
+         * waiting for it to finish running its call method.
+         */
+        private boolean startBlockerCompleted = false;
+
+        /**
+         * The last child which we were waiting for before we could complete, or NONE.
+         */
+        private int completeBlocker = ActionGraph.NONE;
+
+        ActionData(ActionGraph graph, int index) {
+            this.index = index;
+            this.weightMs = graph.weightMs(index);
+            this.pendingComesAfter = graph.numComesAfter(index);
+            this.pendingChildren = graph.children(index).length;
         }
     }
 
@@ -380,12 +854,22 @@ public final class ActionScheduler implements AutoCloseable {
     /**
      * All actions which this scheduler will run.
      */
-    private final Map<ActionId, ActionData> universe;
+    private final ActionGraph graph;
+
+    /**
+     * The state of each action.
+     */
+    private final SchedulerState state;
 
     /**
-     * The number of completed actions.
+     * The time in milliseconds when the scheduler was created.
      */
-    private int numCompleted = 0;
+    private final long createdMs;
+
+    /**
+     * The last action to complete, or NONE if some actions have not completed yet.
+     */
+    private int lastCompleted = ActionGraph.NONE;
 
     /**
      * True if the scheduler has shut down.
@@ -395,35 +879,185 @@ public final class ActionScheduler implements AutoCloseable {
     /**
      * The single-threaded scheduler executor which coordinates running actions.
      */
-    private final ExecutorService schedulerExecutor;
+    private final ScheduledExecutorService schedulerExecutor;
+
+    /**
+     * The executor which runs the Action#call methods.  This is shared between all
+     * nodes.  We never hand it more than one action per node at a time.
+     */
+    private final ExecutorService actionExecutor;
+
+    /**
+     * The executor which runs hedged copies of slow actions.  See Action#hedge.
+     */
+    private final ExecutorService hedgeExecutor;
 
     /**
-     * A map from node names to executor services.
-     * Node executors run actions in separate threads.
+     * The maximum number of actions which can run at once, or 0 if there is no limit.
      */
-    private final Map<String, ScheduledExecutorService> nodeExecutors;
+    private final int maxConcurrentActions;
 
-    private ActionScheduler(CastleCluster cluster,
-                            Set<ActionId> targetActions,
-                            Map<ActionId, ActionData> universe) {
+    /**
+     * The actions which are ready to run on each node, ordered by critical path weight.
+     */
+    private final List<PriorityQueue<ActionData>> readyQueues;
+
+    /**
+     * True for each node which is currently running an action.
+     */
+    private final boolean[] busyNodes;
+
+    /**
+     * The number of nodes which are currently running an action.
+     */
+    private int numBusyNodes = 0;
+
+    /**
+     * The nodes which have ready actions, but which are waiting for other actions
+     * to finish because of maxConcurrentActions.  In FIFO order.
+     */
+    private final Set<Integer> starvedNodes;
+
+    private ActionScheduler(CastleCluster cluster, ActionGraph graph) throws Exception {
         this.cluster = cluster;
-        this.universe = universe;
+        this.graph = graph;
+        this.createdMs = System.currentTimeMillis();
         this.shutdownFuture = new CompletableFuture<>();
         this.schedulerExecutor = Executors.newSingleThreadScheduledExecutor(
             CastleUtil.createThreadFactory("ActionSchedulerThread", false));
-        this.nodeExecutors = new HashMap<>();
-        for (String nodeName : cluster.nodes().keySet()) {
-            this.nodeExecutors.put(nodeName, Executors.newSingleThreadScheduledExecutor(
-                CastleUtil.createThreadFactory(
-                    "ActionSchedulerNodeExecutor[" + nodeName + "]", false)));
+        this.actionExecutor = createActionExecutor(cluster.conf(), cluster.nodes().size());
+        this.hedgeExecutor = Executors.newCachedThreadPool(
+            CastleUtil.createThreadFactory("ActionSchedulerHedge%d", false));
+        this.maxConcurrentActions = cluster.conf().maxConcurrentActions();
+        this.readyQueues = new ArrayList<>(graph.numNodes());
+        for (int n = 0; n < graph.numNodes(); n++) {
+            this.readyQueues.add(new PriorityQueue<>(11, PRIORITY_ORDER));
         }
-        if (universe.isEmpty()) {
+        this.busyNodes = new boolean[graph.numNodes()];
+        this.starvedNodes = new LinkedHashSet<>();
+        this.state = new SchedulerState(graph);
+        cluster.probeCache().clear();
+        if (graph.size() == 0) {
             CastleUtil.completeNull(shutdownFuture);
         } else {
-            for (ActionId id : targetActions) {
-                schedulerExecutor.submit(new MaybeSchedule(id));
+            schedulerExecutor.submit(new StartActions());
+        }
+    }
+
+    /**
+     * Hand the highest-weight ready action on a node to the action executor.  If the
+     * node is already running something, we do nothing.  If too many actions are
+     * running on other nodes, the node waits in starvedNodes.  Must be called from
+     * the schedulerExecutor.
+     *
+     * @param node      The node index.
+     */
+    private void dispatch(int node) {
+        if (busyNodes[node]) {
+            return;
+        }
+        PriorityQueue<ActionData> readyQueue = readyQueues.get(node);
+        if (readyQueue.isEmpty()) {
+            return;
+        }
+        if (atMaxConcurrentActions()) {
+            log.trace("Can't dispatch an action on {} yet: {} actions are running.",
+                graph.nodeName(node), numBusyNodes);
+            starvedNodes.add(node);
+            return;
+        }
+        ActionData actionData = readyQueue.poll();
+        actionData.dispatchedUs = cluster.trace().nowUs();
+        starvedNodes.remove(node);
+        busyNodes[node] = true;
+        numBusyNodes++;
+        Action action = graph.action(actionData.index);
+        log.trace("Dispatching {} with weight {} ms", action.id(), actionData.weightMs);
+        actionExecutor.submit(new ExecuteAction(actionData.index, action,
+            cluster.nodes().get(graph.nodeName(node))));
+    }
+
+    /**
+     * Record the time an action spent in each state in the trace.  Each action gets
+     * its own track.  The time spent in Action#call is recorded separately, on the
+     * node's lane, so that it lines up with the commands that the action ran.
+     *
+     * @param actionData    The action, which must have just completed.
+     * @param completeUs    The time when the action completed.
+     */
+    private void traceAction(ActionData actionData, long completeUs) {
+        CastleTrace trace = cluster.trace();
+        Action action = graph.action(actionData.index);
+        String id = action.id().toString();
+        trace.asyncSpan("scheduler", id, id, actionData.runnableUs, completeUs);
+        trace.asyncSpan("scheduler", ActionState.RUNNABLE.name(), id,
+            actionData.runnableUs, actionData.scheduledUs);
+        if (action.initialDelayMs() > 0) {
+            trace.asyncSpan("scheduler", "initialDelay", id,
+                actionData.scheduledUs, actionData.enqueuedUs);
+        }
+        trace.asyncSpan("scheduler", "queued", id,
+            actionData.enqueuedUs, actionData.dispatchedUs);
+        trace.asyncSpan("scheduler", ActionState.EXECUTING.name(), id,
+            actionData.dispatchedUs, actionData.finishUs);
+        trace.asyncSpan("scheduler", ActionState.WAITING_FOR_CHILDREN.name(), id,
+            actionData.finishUs, completeUs);
+    }
+
+    private boolean atMaxConcurrentActions() {
+        return (maxConcurrentActions > 0) && (numBusyNodes >= maxConcurrentActions);
+    }
+
+    /**
+     * Create the executor which runs actions.
+     *
+     * Since most actions spend their time waiting for ssh, we use virtual threads
+     * if they were requested and the JVM supports them.  Otherwise, we use a pool of
+     * platform threads.  The pool never needs more threads than there are nodes, or
+     * than there are actions allowed to run at once.
+     *
+     * @param conf          The cluster configuration.
+     * @param numNodes      The number of nodes in the cluster.
+     * @return              The new executor.
+     */
+    static ExecutorService createActionExecutor(CastleClusterConf conf, int numNodes)
+            throws Exception {
+        if (conf.virtualThreads()) {
+            Method method = null;
+            try {
+                method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            } catch (NoSuchMethodException e) {
+                log.info("This JVM does not support virtual threads.  Using platform threads.");
             }
+            if (method != null) {
+                return (ExecutorService) method.invoke(null);
+            }
+        }
+        int numThreads = Math.max(1, numNodes);
+        if (conf.maxConcurrentActions() > 0) {
+            numThreads = Math.min(numThreads, conf.maxConcurrentActions());
         }
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+            CastleUtil.createThreadFactory("ActionSchedulerWorker%d", false));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Log the predicted critical path, and the critical path that we actually took.
+     */
+    private void logCriticalPaths() {
+        List<ActionId> predictedPath = graph.predictedPath();
+        long predictedMs = 0;
+        if (!predictedPath.isEmpty()) {
+            predictedMs = graph.weightMs(graph.index(predictedPath.get(0)));
+        }
+        cluster.clusterLog().debug("** Predicted critical path ({} ms): {}",
+            predictedMs, CastleUtil.join(predictedPath, " -> "));
+        cluster.clusterLog().debug("** Actual critical path ({} ms): {}",
+            state.data[lastCompleted].completeMs - createdMs,
+            CastleUtil.join(state.findActualPath(lastCompleted), " -> "));
     }
 
     /**
@@ -444,13 +1078,12 @@ public final class ActionScheduler implements AutoCloseable {
     public void close() throws Exception {
         shutdownFuture.completeExceptionally(
             new InterruptedException("The scheduler is shutting down."));
-        for (ExecutorService executorService : nodeExecutors.values()) {
-            executorService.shutdownNow();
-        }
-        for (ExecutorService executorService : nodeExecutors.values()) {
-            executorService.awaitTermination(1, TimeUnit.DAYS);
-        }
+        actionExecutor.shutdownNow();
+        actionExecutor.awaitTermination(1, TimeUnit.DAYS);
+        hedgeExecutor.shutdownNow();
+        hedgeExecutor.awaitTermination(1, TimeUnit.DAYS);
         schedulerExecutor.shutdownNow();
         schedulerExecutor.awaitTermination(1, TimeUnit.DAYS);
+        cluster.probeCache().clear();
     }
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.NodeShellRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+/**
+ * Finds the Kafka release tarball to ship to the nodes, and its content hash.
+ *
+ * The nodes keep the tarballs they have received under ActionPaths.KAFKA_ARTIFACTS,
+ * named by hash, so a node which already has the same build does not need a copy.
+ */
+public final class ArtifactCache {
+    /**
+     * The directory under the Kafka source directory which the releaseTarGz task
+     * writes the tarball to.
+     */
+    private static final String DISTRIBUTIONS_DIR = "core/build/distributions";
+
+    /**
+     * A Kafka release tarball on this machine.
+     */
+    public static final class Artifact {
+        private final String path;
+        private final String hash;
+
+        Artifact(String path, String hash) {
+            this.path = path;
+            this.hash = hash;
+        }
+
+        public String path() {
+            return path;
+        }
+
+        /**
+         * The SHA-256 hash of the contents of the tarball.
+         */
+        public String hash() {
+            return hash;
+        }
+
+        /**
+         * The path of this tarball in a node's artifact cache.
+         */
+        public String remotePath() {
+            return ActionPaths.KAFKA_ARTIFACTS + "/" + hash + ".tgz";
+        }
+    }
+
+    /**
+     * The artifact we found in this run, or null if we have not looked yet.
+     */
+    private Artifact artifact = null;
+
+    /**
+     * The path, size and modification time of the last file we hashed.  If these
+     * have not changed, we do not hash the file again.
+     */
+    private String hashedFileKey = "";
+
+    private String hashedFileHash = "";
+
+    /**
+     * Get the Kafka artifact.  The first caller in each run builds it if the cluster
+     * does not name one, and the other callers wait for it.
+     *
+     * @param cluster       The cluster.
+     * @param node          The node to log the build to.
+     */
+    public synchronized Artifact kafkaArtifact(CastleCluster cluster, CastleNode node)
+            throws Exception {
+        if (artifact != null) {
+            return artifact;
+        }
+        File file;
+        if (cluster.conf().kafkaArtifact().isEmpty()) {
+            cluster.conf().validateKafkaPath();
+            file = build(cluster.conf().kafkaPath(), node);
+        } else {
+            file = new File(cluster.conf().kafkaArtifact());
+            if (!file.isFile()) {
+                throw new RuntimeException("The current value of kafkaArtifact (" +
+                    cluster.conf().kafkaArtifact() + ") does not point to a valid file.");
+            }
+        }
+        String key = String.format("%s %d %d", file.getAbsolutePath(),
+            file.length(), file.lastModified());
+        if (!key.equals(hashedFileKey)) {
+            hashedFileHash = hashFile(file);
+            hashedFileKey = key;
+        }
+        artifact = new Artifact(file.getAbsolutePath(), hashedFileHash);
+        node.log().printf("*** Using Kafka artifact %s with hash %s%n",
+            artifact.path(), artifact.hash());
+        return artifact;
+    }
+
+    /**
+     * Forget the artifact we found, so that the next run builds it again.  We keep
+     * the hash, so that an unchanged tarball is not hashed again.
+     */
+    public synchronized void clear() {
+        artifact = null;
+    }
+
+    private static File build(String kafkaPath, CastleNode node) throws Exception {
+        int retCode = new NodeShellRunner(node, Arrays.asList(
+                kafkaPath + "/gradlew", "-p", kafkaPath, "-q", "releaseTarGz")).
+            setLogOutputOnSuccess(false).
+            setTraceName("gradlew releaseTarGz").
+            run();
+        if (retCode != 0) {
+            throw new RuntimeException("Unable to build a Kafka release tarball in " +
+                kafkaPath + ": gradlew exited with status " + retCode);
+        }
+        return newestTarball(new File(kafkaPath, DISTRIBUTIONS_DIR));
+    }
+
+    /**
+     * Find the most recently built release tarball in a directory.  The site docs
+     * tarball is not a release.
+     */
+    static File newestTarball(File dir) {
+        File[] files = dir.listFiles();
+        File newest = null;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("kafka_") && name.endsWith(".tgz") &&
+                        (!name.contains("site-docs")) &&
+                        ((newest == null) || (file.lastModified() > newest.lastModified()))) {
+                    newest = file;
+                }
+            }
+        }
+        if (newest == null) {
+            throw new RuntimeException("Unable to find a Kafka release tarball in " + dir);
+        }
+        return newest;
+    }
+
+    /**
+     * Compute the SHA-256 hash of the contents of a file.
+     */
+    static String hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream input = new DigestInputStream(Files.newInputStream(file.toPath()),
+                digest)) {
+            while (input.read(buffer) >= 0) {
+            }
+        }
+        StringBuilder bld = new StringBuilder();
+        for (byte b : digest.digest()) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+}
@@ -39,6 +39,7 @@ public final class AwsDestroyAction extends Action {
     }
 
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        cluster.journal().invalidateNode(node.nodeName());
         if (!node.uplink().started()) {
             node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
             return;
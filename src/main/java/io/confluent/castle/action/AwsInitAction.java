@@ -45,6 +45,11 @@ public final class AwsInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 90000;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (node.uplink().started()) {
@@ -22,15 +22,10 @@ import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.BrokerRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.KAFKA_CONF;
 import static io.confluent.castle.action.ActionPaths.KAFKA_OPLOGS;
@@ -56,30 +51,43 @@ public final class BrokerStartAction extends Action {
         this.role = Objects.requireNonNull(role);
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 10000;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        return ActionJournal.hash(ActionJournal.uplinkJson(node),
+            cluster.journal().treeHash(cluster.conf().kafkaPath()),
+            String.join(" ", createRunDaemonCommandLine(cluster)),
+            brokerConfig(cluster, node),
+            brokerLog4j());
+    }
+
+    @Override
+    public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+        return readinessProbe(cluster, node).isReady(node);
+    }
+
+    @Override
+    public ReadinessProbe readinessProbe(CastleCluster cluster, CastleNode node) {
+        return ReadinessProbe.all(ReadinessProbe.portOpen(BrokerRole.PORT),
+            ReadinessProbe.brokerRegistered(cluster.getZooKeeperConnectString(),
+                getBrokerId(cluster, node)));
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeBrokerConfig(cluster, node);
-            log4jFile = writeBrokerLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, KAFKA_CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.KAFKA_BROKER_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(KAFKA_CLASS_NAME)).run();
-            }
-        });
+        node.uplink().command().batch().
+            args(CastleAgent.stopArgs(CastleAgent.BROKER, KAFKA_CLASS_NAME)).
+            args(createSetupPathsCommandLine()).
+            writeFile(ActionPaths.KAFKA_BROKER_PROPERTIES,
+                brokerConfig(cluster, node).getBytes(StandardCharsets.UTF_8), 0644).
+            writeFile(ActionPaths.KAFKA_BROKER_LOG4J,
+                brokerLog4j().getBytes(StandardCharsets.UTF_8), 0644).
+            args(createRunDaemonCommandLine(cluster)).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -89,14 +97,13 @@ public final class BrokerStartAction extends Action {
             "sudo", "chown", "`whoami`", KAFKA_ROOT, KAFKA_OPLOGS, KAFKA_LOGS, KAFKA_CONF};
     }
 
-    public String[] createRunDaemonCommandLine() {
-        return new String[]{"-n", "--", "nohup", "env",
+    public String[] createRunDaemonCommandLine(CastleCluster cluster) {
+        return CastleAgent.startArgs(cluster, CastleAgent.BROKER, ActionPaths.KAFKA_BROKER_PID,
+            ActionPaths.KAFKA_LOGS + "/stdout-stderr.txt", "env",
             "JMX_PORT=9192",
             "KAFKA_JVM_PERFORMANCE_OPTS='" + role.jvmOptions() + "'",
-            "KAFKA_LOG4J_OPTS='-Dlog4j.configuration=file:" + ActionPaths.KAFKA_BROKER_LOG4J + "' ",
-            ActionPaths.KAFKA_START_SCRIPT, ActionPaths.KAFKA_BROKER_PROPERTIES,
-            ">" + ActionPaths.KAFKA_LOGS + "/stdout-stderr.txt", "2>&1", "</dev/null", "&"
-        };
+            "KAFKA_LOG4J_OPTS='-Dlog4j.configuration=file:" + ActionPaths.KAFKA_BROKER_LOG4J + "'",
+            ActionPaths.KAFKA_START_SCRIPT, ActionPaths.KAFKA_BROKER_PROPERTIES);
     }
 
     private Map<String, String> getDefaultConf() {
@@ -115,98 +122,63 @@ public final class BrokerStartAction extends Action {
         return defaultConf;
     }
 
-    private File writeBrokerConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
+    private String brokerConfig(CastleCluster cluster, CastleNode node) {
         Map<String, String> effectiveConf = CastleUtil.mergeConfig(role.conf(), getDefaultConf());
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("broker.id=%d%n", getBrokerId(cluster, node)));
-            osw.write(String.format("listeners=%s://:9092%n", role.externalAuth()));
-            osw.write(String.format("advertised.listeners=%s://:9092%n", role.externalAuth()));
-            osw.write(String.format("inter.broker.listener.name=%s%n", role.externalAuth()));
-            osw.write(String.format("advertised.host.name=%s%n",
-                node.uplink().internalDns()));
-            osw.write(String.format("log.dirs=%s%n", KAFKA_OPLOGS));
-            osw.write(String.format("zookeeper.connect=%s%n", cluster.getZooKeeperConnectString()));
-            for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
-                osw.write(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
-            }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("broker.id=%d%n", getBrokerId(cluster, node)));
+        bld.append(String.format("listeners=%s://:%d%n", role.externalAuth(), BrokerRole.PORT));
+        bld.append(String.format("advertised.listeners=%s://:%d%n", role.externalAuth(),
+            BrokerRole.PORT));
+        bld.append(String.format("inter.broker.listener.name=%s%n", role.externalAuth()));
+        bld.append(String.format("advertised.host.name=%s%n",
+            node.uplink().internalDns()));
+        bld.append(String.format("log.dirs=%s%n", KAFKA_OPLOGS));
+        bld.append(String.format("zookeeper.connect=%s%n", cluster.getZooKeeperConnectString()));
+        for (Map.Entry<String, String> entry : effectiveConf.entrySet()) {
+            bld.append(String.format("%s=%s%n", entry.getKey(), entry.getValue()));
         }
+        return bld.toString();
     }
 
-    File writeBrokerLog4j(CastleCluster cluster,  CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(), String.format("broker-log4j-%d.properties",
-                node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
-            osw.write(String.format("%n"));
-            writeDailyRollingFileAppender(osw, "kafkaAppender", "server.log");
-            writeDailyRollingFileAppender(osw, "stateChangeAppender", "state-change.log");
-            writeDailyRollingFileAppender(osw, "requestAppender", "kafka-request.log");
-            writeDailyRollingFileAppender(osw, "cleanerAppender", "log-cleaner.log");
-            writeDailyRollingFileAppender(osw, "controllerAppender", "controller.log");
-            writeDailyRollingFileAppender(osw, "authorizerAppender", "kafka-authorizer.log");
-            osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.kafka=INFO%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.request.logger=WARN, requestAppender%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.controller=TRACE, controllerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.controller=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.log.LogCleaner=INFO, cleanerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.log.LogCleaner=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.state.change.logger=TRACE, stateChangeAppender%n"));
-            osw.write(String.format("log4j.additivity.state.change.logger=false%n"));
-            osw.write(String.format("%n"));
-            osw.write(String.format("log4j.logger.kafka.authorizer.logger=INFO, authorizerAppender%n"));
-            osw.write(String.format("log4j.additivity.kafka.authorizer.logger=false%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker log4j file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker log4j file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    static String brokerLog4j() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
+        bld.append(String.format("%n"));
+        writeDailyRollingFileAppender(bld, "kafkaAppender", "server.log");
+        writeDailyRollingFileAppender(bld, "stateChangeAppender", "state-change.log");
+        writeDailyRollingFileAppender(bld, "requestAppender", "kafka-request.log");
+        writeDailyRollingFileAppender(bld, "cleanerAppender", "log-cleaner.log");
+        writeDailyRollingFileAppender(bld, "controllerAppender", "controller.log");
+        writeDailyRollingFileAppender(bld, "authorizerAppender", "kafka-authorizer.log");
+        bld.append(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.kafka=INFO%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.request.logger=WARN, requestAppender%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.controller=TRACE, controllerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.controller=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.log.LogCleaner=INFO, cleanerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.log.LogCleaner=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.state.change.logger=TRACE, stateChangeAppender%n"));
+        bld.append(String.format("log4j.additivity.state.change.logger=false%n"));
+        bld.append(String.format("%n"));
+        bld.append(String.format("log4j.logger.kafka.authorizer.logger=INFO, authorizerAppender%n"));
+        bld.append(String.format("log4j.additivity.kafka.authorizer.logger=false%n"));
+        return bld.toString();
     }
 
-    static void writeDailyRollingFileAppender(OutputStreamWriter osw, String appender,
-                                              String logName) throws IOException {
-        osw.write(String.format("log4j.appender.%s=org.apache.log4j.DailyRollingFileAppender%n", appender));
-        osw.write(String.format("log4j.appender.%s.DatePattern='.'yyyy-MM-dd-HH%n", appender));
-        osw.write(String.format("log4j.appender.%s.File=%s/%s%n", appender, KAFKA_LOGS, logName));
-        osw.write(String.format("log4j.appender.%s.layout=org.apache.log4j.PatternLayout%n", appender));
-        osw.write(String.format("log4j.appender.%s.layout.ConversionPattern=%s%n",
+    static void writeDailyRollingFileAppender(StringBuilder bld, String appender,
+                                              String logName) {
+        bld.append(String.format("log4j.appender.%s=org.apache.log4j.DailyRollingFileAppender%n", appender));
+        bld.append(String.format("log4j.appender.%s.DatePattern='.'yyyy-MM-dd-HH%n", appender));
+        bld.append(String.format("log4j.appender.%s.File=%s/%s%n", appender, KAFKA_LOGS, logName));
+        bld.append(String.format("log4j.appender.%s.layout=org.apache.log4j.PatternLayout%n", appender));
+        bld.append(String.format("log4j.appender.%s.layout.ConversionPattern=%s%n",
             appender, "[%d] %p %m (%c)%n"));
     }
 
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.BrokerRole;
 
 /**
@@ -43,6 +42,6 @@ public final class BrokerStopAction extends Action {
             node.log().printf("*** Skipping brokerStop, because the node is not running.%n");
             return;
         }
-        CastleUtil.killJavaProcess(cluster, node, BrokerRole.KAFKA_CLASS_NAME, true);
+        CastleAgent.stop(cluster, node, CastleAgent.BROKER, BrokerRole.KAFKA_CLASS_NAME);
     }
 }
@@ -0,0 +1,308 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.ProbeCache;
+import io.confluent.castle.common.CastleUtil;
+import io.confluent.castle.tool.CastleReturnCode;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static io.confluent.castle.action.ActionPaths.CASTLE_AGENT_SCRIPT;
+
+/**
+ * Runs daemons under bin/castle-agent.sh, which supervises them on the node.
+ *
+ * The agent keeps the pid of each daemon in a pid file under the daemon's root,
+ * records its last exit code, and restarts daemons which crash, up to
+ * CastleClusterConf#daemonRestarts times.  Status checks and stops signal the
+ * recorded pid, so they take one short shell command over the node's shared ssh
+ * connection, rather than a JVM as jcmd does.  Daemons which the agent has no
+ * record of, such as ones started before the agent was installed, are found by
+ * their command line instead.
+ */
+public final class CastleAgent {
+    public static final String BROKER = "broker";
+    public static final String ZOOKEEPER = "zookeeper";
+    public static final String JMX_DUMPER = "jmx-dumper";
+
+    /**
+     * How long a stop waits after SIGTERM before sending SIGKILL.
+     */
+    static final int STOP_TIMEOUT_SECONDS = 30;
+
+    private static final Pattern STOPPED_PATTERN = Pattern.compile(
+        "^\\S+: stopped pid (\\d+) in (\\d+) ms( after SIGKILL)?$", Pattern.MULTILINE);
+
+    static final String PS_SEPARATOR = "@@castle-ps";
+
+    /**
+     * The command which prints the agent status, then PS_SEPARATOR, then the output
+     * of ps.  All the status checks on a node in a run share one listing.
+     */
+    static final String[] STATUS_ARGS = new String[] {"-n", "--",
+        "bash", CASTLE_AGENT_SCRIPT, "status", "2>/dev/null", ";",
+        "echo", PS_SEPARATOR, ";", "ps", "-eo", "pid,args"};
+
+    /**
+     * How a daemon stopped, as reported by the agent.
+     */
+    static final class Stopped {
+        private final String pid;
+        private final long durationMs;
+        private final boolean killed;
+
+        Stopped(String pid, long durationMs, boolean killed) {
+            this.pid = pid;
+            this.durationMs = durationMs;
+            this.killed = killed;
+        }
+
+        String pid() {
+            return pid;
+        }
+
+        long durationMs() {
+            return durationMs;
+        }
+
+        boolean killed() {
+            return killed;
+        }
+    }
+
+    /**
+     * The state of a daemon, as reported by the agent.
+     */
+    static final class DaemonState {
+        private final String state;
+        private final String pid;
+        private final String exitCode;
+        private final int restarts;
+
+        DaemonState(String state, String pid, String exitCode, int restarts) {
+            this.state = state;
+            this.pid = pid;
+            this.exitCode = exitCode;
+            this.restarts = restarts;
+        }
+
+        String state() {
+            return state;
+        }
+
+        String pid() {
+            return pid;
+        }
+
+        String exitCode() {
+            return exitCode;
+        }
+
+        int restarts() {
+            return restarts;
+        }
+    }
+
+    /**
+     * Get the command which starts a daemon under the agent.  The agent first stops
+     * any earlier copy of the daemon which it is supervising.
+     *
+     * @param cluster       The castle cluster.
+     * @param name          The name of the daemon.
+     * @param pidPath       The file which the agent keeps the daemon's pid in.
+     * @param logPath       The file which the daemon's output is appended to.
+     * @param command       The command which runs the daemon in the foreground.
+     */
+    public static String[] startArgs(CastleCluster cluster, String name, String pidPath,
+                                     String logPath, String... command) {
+        List<String> args = new ArrayList<>(Arrays.asList("-n", "--",
+            "bash", CASTLE_AGENT_SCRIPT, "start", name, pidPath, logPath,
+            String.valueOf(cluster.conf().daemonRestarts())));
+        args.addAll(Arrays.asList(command));
+        return args.toArray(new String[0]);
+    }
+
+    /**
+     * Get the command which stops a daemon.  The agent sends the recorded pid
+     * SIGTERM, and then SIGKILL if the daemon has not exited after
+     * STOP_TIMEOUT_SECONDS.  If the agent has no record of the daemon, it does the
+     * same to any process whose command line matches the pattern.
+     *
+     * @param name              The name of the daemon.
+     * @param processPattern    A pattern used to search for the process.
+     */
+    public static String[] stopArgs(String name, String processPattern) {
+        return new String[] {"-n", "--", "bash", CASTLE_AGENT_SCRIPT, "stop", name,
+            String.valueOf(STOP_TIMEOUT_SECONDS), "'" + processPattern + "'"};
+    }
+
+    /**
+     * Stop a daemon, and log how long it took to exit.
+     *
+     * @param cluster           The castle cluster.
+     * @param node              The castle node.
+     * @param name              The name of the daemon.
+     * @param processPattern    A pattern used to search for the process.
+     */
+    public static void stop(CastleCluster cluster, CastleNode node, String name,
+                            String processPattern) throws Exception {
+        StringBuilder output = new StringBuilder();
+        node.uplink().command().
+            captureOutput(output).
+            args(stopArgs(name, processPattern)).
+            mustRun();
+        Stopped stopped = parseStopped(output.toString());
+        if (stopped == null) {
+            node.log().printf("*** %s was not running.%n", name);
+        } else {
+            cluster.clusterLog().printf("%s: %s (pid %s) stopped in %d ms%s%n",
+                node.nodeName(), name, stopped.pid(), stopped.durationMs(),
+                stopped.killed() ? ", after SIGKILL" : "");
+        }
+    }
+
+    /**
+     * Parse the output of stopArgs.
+     *
+     * @param output    The output.
+     * @return          How the daemon stopped, or null if it was not running.
+     */
+    static Stopped parseStopped(String output) {
+        Matcher matcher = STOPPED_PATTERN.matcher(output);
+        if (!matcher.find()) {
+            return null;
+        }
+        return new Stopped(matcher.group(1), Long.parseLong(matcher.group(2)),
+            matcher.group(3) != null);
+    }
+
+    /**
+     * Get the status of a daemon, and log it to the cluster log.  Daemons which the
+     * agent has no record of are looked for in the process list.
+     *
+     * @param cluster           The castle cluster.
+     * @param node              The castle node.
+     * @param name              The name of the daemon.
+     * @param processPattern    A pattern used to search for the process.
+     * @return                  The role status.
+     */
+    public static CastleReturnCode daemonStatus(CastleCluster cluster, CastleNode node,
+                                                String name, String processPattern) throws Exception {
+        ProbeCache.Output listing = cluster.probeCache().run(node, STATUS_ARGS);
+        if (listing.returnCode() != 0) {
+            return logUnknown(cluster, node, name);
+        }
+        DaemonState state = parseStatus(listing.output()).get(name);
+        if (state == null) {
+            return CastleUtil.checkProcessList(cluster, node, psListing(listing.output()),
+                processPattern);
+        }
+        switch (state.state()) {
+            case "running":
+                cluster.clusterLog().printf("%s: %s is running as pid %s%s%n",
+                    node.nodeName(), name, state.pid(),
+                    (state.restarts() == 0) ? "" :
+                        String.format(" (restarted %d time(s))", state.restarts()));
+                return CastleReturnCode.SUCCESS;
+            case "restarting":
+                cluster.clusterLog().printf("%s: %s exited with status %s, and is being restarted.%n",
+                    node.nodeName(), name, state.exitCode());
+                return CastleReturnCode.CLUSTER_FAILED;
+            default:
+                cluster.clusterLog().printf("%s: %s is not running.  Its last exit status was %s.%n",
+                    node.nodeName(), name, state.exitCode());
+                return CastleReturnCode.CLUSTER_FAILED;
+        }
+    }
+
+    /**
+     * Get the status of a process which is not run under the agent, and log it
+     * to the cluster log.  The process is looked for in the output of ps.
+     *
+     * @param cluster           The castle cluster.
+     * @param node              The castle node.
+     * @param processPattern    A pattern used to search for the process.
+     * @return                  The role status.
+     */
+    public static CastleReturnCode processStatus(CastleCluster cluster, CastleNode node,
+                                                 String processPattern) throws Exception {
+        ProbeCache.Output listing = cluster.probeCache().run(node, STATUS_ARGS);
+        if (listing.returnCode() != 0) {
+            return logUnknown(cluster, node, processPattern);
+        }
+        return CastleUtil.checkProcessList(cluster, node, psListing(listing.output()),
+            processPattern);
+    }
+
+    private static CastleReturnCode logUnknown(CastleCluster cluster, CastleNode node,
+                                               String what) {
+        cluster.clusterLog().printf("%s: Unable to determine if %s is running.%n",
+            node.nodeName(), what);
+        return CastleReturnCode.TOOL_FAILED;
+    }
+
+    /**
+     * Parse the agent status at the start of the output of STATUS_ARGS.
+     *
+     * @param listing   The output of STATUS_ARGS.
+     * @return          A map from daemon names to their states.
+     */
+    static Map<String, DaemonState> parseStatus(String listing) {
+        Map<String, DaemonState> states = new HashMap<>();
+        for (String line : listing.split("\n")) {
+            line = line.trim();
+            if (line.equals(PS_SEPARATOR)) {
+                break;
+            }
+            String[] fields = line.split(" ");
+            if (fields.length == 5) {
+                try {
+                    states.put(fields[0], new DaemonState(fields[1], fields[2], fields[3],
+                        Integer.parseInt(fields[4])));
+                } catch (NumberFormatException e) {
+                    // Ignore lines which the agent did not write.
+                }
+            }
+        }
+        return states;
+    }
+
+    /**
+     * Get the ps section of the output of STATUS_ARGS, which is in the format of
+     * "ps -eo pid,args".
+     *
+     * @param listing   The output of STATUS_ARGS.
+     * @return          The output of ps, or the empty string if there was none.
+     */
+    static String psListing(String listing) {
+        int index = listing.indexOf(PS_SEPARATOR + "\n");
+        if (index < 0) {
+            return "";
+        }
+        return listing.substring(index + PS_SEPARATOR.length() + 1);
+    }
+}
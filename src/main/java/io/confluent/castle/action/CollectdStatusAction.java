@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.CollectdRole;
 
 import static io.confluent.castle.action.ActionPaths.COLLECTD;
@@ -37,9 +36,14 @@ public final class CollectdStatusAction extends Action {
             0);
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getProcessStatus(cluster, node, COLLECTD));
+            CastleAgent.processStatus(cluster, node, COLLECTD));
     }
 }
@@ -21,6 +21,7 @@ import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.role.AdditionalFile;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -42,6 +43,33 @@ public final class CopyAdditionalFilesAction extends Action {
         this.files = files;
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 2000;
+    }
+
+    @Override
+    public long timeoutMs() {
+        return 1200000;
+    }
+
+    @Override
+    public int maxRetries() {
+        return 2;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        List<String> inputs = new ArrayList<>();
+        inputs.add(ActionJournal.uplinkJson(node));
+        for (AdditionalFile file : files) {
+            inputs.add(file.local());
+            inputs.add(file.remote());
+            inputs.add(cluster.journal().treeHash(file.local()));
+        }
+        return ActionJournal.hash(inputs.toArray(new String[0]));
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
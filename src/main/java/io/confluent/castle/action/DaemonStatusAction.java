@@ -36,4 +36,9 @@ public final class DaemonStatusAction extends Action {
             },
             0);
     }
+
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
 }
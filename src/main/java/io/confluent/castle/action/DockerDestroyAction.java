@@ -42,6 +42,7 @@ public final class DockerDestroyAction extends Action {
     }
 
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        cluster.journal().invalidateNode(node.nodeName());
         if (!node.uplink().started()) {
             node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
             return;
@@ -42,6 +42,11 @@ public final class DockerInitAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 10000;
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
         if (new File(cluster.env().clusterOutputPath()).exists()) {
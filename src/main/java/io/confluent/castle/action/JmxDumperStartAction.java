@@ -19,15 +19,12 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.jmx.JmxDumpersConfig;
 import io.confluent.castle.role.JmxDumperRole;
 import io.confluent.castle.tool.CastleTool;
 
-import java.io.File;
-import java.io.IOException;
-
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_LOGS;
+import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_PID;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_PROPERTIES;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_ROOT;
 import static io.confluent.castle.action.ActionPaths.JMX_DUMPER_START_SCRIPT;
@@ -50,17 +47,12 @@ public final class JmxDumperStartAction extends Action {
 
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null;
-        try {
-            configFile = writeJmxDumperConf(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, JmxDumperRole.CLASS_NAME, true);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                JMX_DUMPER_PROPERTIES).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-        }
+        node.uplink().command().batch().
+            args(CastleAgent.stopArgs(CastleAgent.JMX_DUMPER, JmxDumperRole.CLASS_NAME)).
+            args(createSetupPathsCommandLine()).
+            writeFile(JMX_DUMPER_PROPERTIES, CastleTool.JSON_SERDE.writeValueAsBytes(conf), 0644).
+            args(createRunDaemonCommandLine(cluster)).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -70,17 +62,9 @@ public final class JmxDumperStartAction extends Action {
             "sudo", "chown", "`whoami`", JMX_DUMPER_ROOT, JMX_DUMPER_LOGS};
     }
 
-    private File writeJmxDumperConf(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = new File(cluster.env().workingDirectory(),
-                String.format("jmx-dumper-%d.conf", node.nodeIndex()));
-        CastleTool.JSON_SERDE.writeValue(file, conf);
-        return file;
-    }
-
-    public static String[] createRunDaemonCommandLine() {
-        return new String[]{"-n", "--", "nohup",
-            JMX_DUMPER_START_SCRIPT, JMX_DUMPER_PROPERTIES,
-            "&>" + JMX_DUMPER_LOGS + "/stdout-stderr.txt", "</dev/null", "&"
-        };
+    public static String[] createRunDaemonCommandLine(CastleCluster cluster) {
+        return CastleAgent.startArgs(cluster, CastleAgent.JMX_DUMPER, JMX_DUMPER_PID,
+            JMX_DUMPER_LOGS + "/stdout-stderr.txt",
+            JMX_DUMPER_START_SCRIPT, JMX_DUMPER_PROPERTIES);
     }
 }
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.JmxDumperRole;
 
 /**
@@ -35,9 +34,15 @@ public final class JmxDumperStatusAction extends Action {
             0);
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, JmxDumperRole.CLASS_NAME));
+            CastleAgent.daemonStatus(cluster, node, CastleAgent.JMX_DUMPER,
+                JmxDumperRole.CLASS_NAME));
     }
 }
@@ -0,0 +1,569 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.Command;
+import io.confluent.castle.command.CommandBatch;
+import io.confluent.castle.command.CommandResultException;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Copies the logs on each node to the working directory while the cluster runs,
+ * so that saveLogs only has to copy what was written since the last copy.
+ *
+ * Every interval, we list the files in the logs directory of each node, with
+ * their inode numbers, sizes, and modification times.  Each file is copied from
+ * the size of our copy of it, so only the new part crosses the network, and it
+ * is compressed on the way.  We decompress each part and write it to our copy as
+ * it arrives, so only a small buffer per node is held in memory.  If the file was
+ * replaced or truncated, we copy it again from the start.  Once our copy is complete, we give it the modification
+ * time of the original, so that the rsync in saveLogs can skip it.
+ */
+public final class LogShipper implements AutoCloseable {
+    /**
+     * The line which starts the output for each file we copy.
+     */
+    static final String FILE_MARKER = "@@castle-log";
+
+    /**
+     * The most bytes of logs to copy from one node in one pass.  The rest is
+     * copied in the next pass.
+     */
+    static final long MAX_PASS_BYTES = 64L * 1024L * 1024L;
+
+    private static final int MAX_THREADS = 8;
+
+    private final CastleCluster cluster;
+
+    private ScheduledExecutorService executor = null;
+
+    private final Map<String, NodeShipper> shippers = new HashMap<>();
+
+    private final Map<String, ScheduledFuture<?>> futures = new HashMap<>();
+
+    public LogShipper(CastleCluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * Start copying logs in the background, if the cluster configuration asks
+     * for it.  Nodes whose logs we are already copying are left alone.
+     */
+    public synchronized void start() {
+        long intervalMs = TimeUnit.SECONDS.toMillis(cluster.conf().logShipIntervalSeconds());
+        if ((intervalMs <= 0) || cluster.nodes().isEmpty()) {
+            return;
+        }
+        if (executor == null) {
+            executor = Executors.newScheduledThreadPool(
+                Math.min(MAX_THREADS, cluster.nodes().size()),
+                CastleUtil.createThreadFactory("CastleLogShipper%d", true));
+        }
+        int started = 0;
+        for (final CastleNode node : cluster.nodes().values()) {
+            if (shippers.containsKey(node.nodeName()) || (!node.uplink().canLogin())) {
+                continue;
+            }
+            NodeShipper shipper = new NodeShipper(node.log(),
+                () -> node.uplink().command(), ActionPaths.LOGS_ROOT,
+                Paths.get(cluster.env().workingDirectory(), "logs", node.nodeName()));
+            shippers.put(node.nodeName(), shipper);
+            futures.put(node.nodeName(), executor.scheduleWithFixedDelay(
+                shipper::shipQuietly, 0, intervalMs, TimeUnit.MILLISECONDS));
+            started++;
+        }
+        if (started > 0) {
+            cluster.clusterLog().printf("*** Copying the logs of %d node(s) every %d second(s).%n",
+                started, cluster.conf().logShipIntervalSeconds());
+        }
+    }
+
+    /**
+     * Stop copying the logs of a node, and wait for any copy in progress to finish.
+     */
+    public void stop(String nodeName) {
+        NodeShipper shipper;
+        synchronized (this) {
+            ScheduledFuture<?> future = futures.remove(nodeName);
+            if (future != null) {
+                future.cancel(false);
+            }
+            shipper = shippers.remove(nodeName);
+        }
+        if (shipper != null) {
+            shipper.awaitIdle();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws InterruptedException {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+            executor = null;
+        }
+        futures.clear();
+        shippers.clear();
+    }
+
+    /**
+     * A file in the logs directory of a node.
+     */
+    static final class RemoteFile {
+        private final long inode;
+        private final long size;
+        private final FileTime modified;
+        private final String path;
+
+        RemoteFile(long inode, long size, FileTime modified, String path) {
+            this.inode = inode;
+            this.size = size;
+            this.modified = modified;
+            this.path = path;
+        }
+
+        /**
+         * Parse a line of the file listing.
+         *
+         * @return      The file, or null if the line could not be parsed.
+         */
+        static RemoteFile parse(String line) {
+            String[] fields = line.split(" ", 4);
+            if ((fields.length != 4) || fields[3].isEmpty()) {
+                return null;
+            }
+            try {
+                String[] time = fields[2].split("\\.", 2);
+                long nanos = 0;
+                if (time.length == 2) {
+                    String fraction = (time[1] + "000000000").substring(0, 9);
+                    nanos = Long.parseLong(fraction);
+                }
+                return new RemoteFile(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+                    FileTime.from(Instant.ofEpochSecond(Long.parseLong(time[0]), nanos)),
+                    fields[3]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        long inode() {
+            return inode;
+        }
+
+        long size() {
+            return size;
+        }
+
+        FileTime modified() {
+            return modified;
+        }
+
+        String path() {
+            return path;
+        }
+    }
+
+    /**
+     * A part of a file to copy in this pass.
+     */
+    private static final class Transfer {
+        private final RemoteFile file;
+        private final Path local;
+        private final long offset;
+        private final long length;
+
+        Transfer(RemoteFile file, Path local, long offset, long length) {
+            this.file = file;
+            this.local = local;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Decompresses the gzip output of a transfer as it arrives, and writes it to our
+     * copy of the file.
+     */
+    static final class TransferWriter implements AutoCloseable {
+        private static final int GZIP_TRAILER_SIZE = 8;
+
+        private final long offset;
+        private final FileChannel channel;
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buf = new byte[65536];
+        private ByteArrayOutputStream header = new ByteArrayOutputStream();
+        private final ByteArrayOutputStream trailer = new ByteArrayOutputStream();
+        private long written = 0;
+
+        TransferWriter(Path local, long offset) throws IOException {
+            this.offset = offset;
+            Files.createDirectories(local.getParent());
+            this.channel = FileChannel.open(local,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            try {
+                channel.truncate(offset);
+                channel.position(offset);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * Decompress and write the next part of the gzip stream.
+         */
+        void write(byte[] bytes) throws IOException {
+            int off = 0;
+            if (header != null) {
+                header.write(bytes, 0, bytes.length);
+                byte[] headerBytes = header.toByteArray();
+                int headerLength = gzipHeaderLength(headerBytes);
+                if (headerLength < 0) {
+                    return;
+                }
+                header = null;
+                bytes = headerBytes;
+                off = headerLength;
+            }
+            if (inflater.finished()) {
+                trailer.write(bytes, off, bytes.length - off);
+                return;
+            }
+            inflater.setInput(bytes, off, bytes.length - off);
+            try {
+                while ((!inflater.finished()) && (!inflater.needsInput())) {
+                    int len = inflater.inflate(buf);
+                    if (len == 0) {
+                        if (inflater.needsDictionary()) {
+                            throw new IOException("Unexpected dictionary in gzip stream.");
+                        }
+                        continue;
+                    }
+                    crc.update(buf, 0, len);
+                    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, len);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    written += len;
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Invalid gzip stream.", e);
+            }
+            if (inflater.finished()) {
+                int remaining = inflater.getRemaining();
+                trailer.write(bytes, bytes.length - remaining, remaining);
+            }
+        }
+
+        /**
+         * Check that we received the whole gzip stream, and that it matched its
+         * checksum.  If it did not match, we drop what we wrote, since it is wrong.
+         *
+         * @return      The number of bytes which were written.
+         */
+        long finish() throws IOException {
+            byte[] trailerBytes = trailer.toByteArray();
+            if ((!inflater.finished()) || (trailerBytes.length < GZIP_TRAILER_SIZE)) {
+                // What we wrote is correct, so keep it.  The next pass copies the rest.
+                throw new IOException("Truncated gzip stream.");
+            }
+            if ((littleEndianInt(trailerBytes, 0) != crc.getValue()) ||
+                    (littleEndianInt(trailerBytes, 4) != (written & 0xffffffffL))) {
+                channel.truncate(offset);
+                throw new IOException("Corrupt gzip stream.");
+            }
+            return written;
+        }
+
+        @Override
+        public void close() throws IOException {
+            inflater.end();
+            channel.close();
+        }
+
+        private static long littleEndianInt(byte[] bytes, int off) {
+            return (bytes[off] & 0xffL) | ((bytes[off + 1] & 0xffL) << 8) |
+                ((bytes[off + 2] & 0xffL) << 16) | ((bytes[off + 3] & 0xffL) << 24);
+        }
+
+        /**
+         * Find the length of a gzip header.
+         *
+         * @return      The length, or -1 if we do not have the whole header yet.
+         */
+        static int gzipHeaderLength(byte[] bytes) throws IOException {
+            if (bytes.length < 10) {
+                return -1;
+            }
+            if (((bytes[0] & 0xff) != 0x1f) || ((bytes[1] & 0xff) != 0x8b) || (bytes[2] != 8)) {
+                throw new IOException("Not in gzip format.");
+            }
+            int flags = bytes[3];
+            int pos = 10;
+            if ((flags & 4) != 0) {
+                // FEXTRA
+                if (bytes.length < pos + 2) {
+                    return -1;
+                }
+                pos += 2 + ((bytes[pos] & 0xff) | ((bytes[pos + 1] & 0xff) << 8));
+            }
+            for (int flag : new int[] {8, 16}) {
+                // FNAME and FCOMMENT are terminated by a zero byte.
+                if ((flags & flag) != 0) {
+                    while ((pos < bytes.length) && (bytes[pos] != 0)) {
+                        pos++;
+                    }
+                    pos++;
+                }
+            }
+            if ((flags & 2) != 0) {
+                // FHCRC
+                pos += 2;
+            }
+            return (pos <= bytes.length) ? pos : -1;
+        }
+    }
+
+    /**
+     * Copies the logs of one node.
+     */
+    static final class NodeShipper {
+        private final CastleLog log;
+        private final Supplier<Command> commands;
+        private final String remoteRoot;
+        private final Path localRoot;
+
+        /**
+         * The inode number of each file we copied, by path.  Protected by this
+         * shipper's lock.
+         */
+        private final Map<String, Long> inodes = new HashMap<>();
+
+        private boolean failing = false;
+
+        NodeShipper(CastleLog log, Supplier<Command> commands, String remoteRoot, Path localRoot) {
+            this.log = log;
+            this.commands = commands;
+            this.remoteRoot = remoteRoot;
+            this.localRoot = localRoot.toAbsolutePath().normalize();
+        }
+
+        void shipQuietly() {
+            try {
+                ship();
+                failing = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable e) {
+                // Only log the first failure, since the node may be gone for good.
+                if (!failing) {
+                    log.printf("*** Unable to copy the logs from %s: %s%n", remoteRoot, e);
+                }
+                failing = true;
+            }
+        }
+
+        /**
+         * Wait for the pass in progress, if there is one, to finish.
+         */
+        synchronized void awaitIdle() {
+            // Holding the lock is enough, since every pass holds it.
+        }
+
+        /**
+         * Copy whatever is new in the logs.
+         *
+         * @return      The number of bytes which were copied.
+         */
+        synchronized long ship() throws Exception {
+            List<Transfer> transfers = plan(list());
+            if (transfers.isEmpty()) {
+                return 0;
+            }
+            List<String> args = new ArrayList<>();
+            for (int i = 0; i < transfers.size(); i++) {
+                Transfer transfer = transfers.get(i);
+                args.addAll(Arrays.asList("echo", FILE_MARKER, Integer.toString(i), ";",
+                    "tail", "-c", "+" + (transfer.offset + 1),
+                    CommandBatch.quote(remoteRoot + "/" + transfer.file.path()), "|",
+                    "head", "-c", Long.toString(transfer.length), "|",
+                    "gzip", "-c", "|", "base64", ";"));
+            }
+            final Base64.Decoder decoder = Base64.getMimeDecoder();
+            final Transfer[] current = new Transfer[1];
+            final TransferWriter[] writer = new TransferWriter[1];
+            final IOException[] failure = new IOException[1];
+            final long[] copied = new long[1];
+            try {
+                int retCode = commands.get().
+                    setLogOutputOnSuccess(false).
+                    captureLines(line -> {
+                        try {
+                            if (line.startsWith(FILE_MARKER + " ")) {
+                                if (current[0] != null) {
+                                    copied[0] += finish(current[0], writer[0]);
+                                    current[0] = null;
+                                    writer[0] = null;
+                                }
+                                Transfer transfer = transfers.get(Integer.parseInt(
+                                    line.substring(FILE_MARKER.length() + 1).trim()));
+                                writer[0] = new TransferWriter(transfer.local, transfer.offset);
+                                current[0] = transfer;
+                            } else if (current[0] != null) {
+                                writer[0].write(decoder.decode(line));
+                            }
+                            return true;
+                        } catch (IOException e) {
+                            failure[0] = e;
+                            return false;
+                        }
+                    }).
+                    argList(args).
+                    run();
+                if (failure[0] != null) {
+                    throw failure[0];
+                }
+                if (retCode != 0) {
+                    throw new CommandResultException(args, retCode);
+                }
+                if (current[0] != null) {
+                    copied[0] += finish(current[0], writer[0]);
+                    current[0] = null;
+                    writer[0] = null;
+                }
+            } finally {
+                if (writer[0] != null) {
+                    writer[0].close();
+                }
+            }
+            return copied[0];
+        }
+
+        /**
+         * List the files in the remote logs directory.
+         */
+        List<RemoteFile> list() throws Exception {
+            final List<RemoteFile> files = new ArrayList<>();
+            int retCode = commands.get().
+                setLogOutputOnSuccess(false).
+                captureLines(line -> {
+                    RemoteFile file = RemoteFile.parse(line);
+                    if (file != null) {
+                        files.add(file);
+                    }
+                    return true;
+                }).
+                args("find", CommandBatch.quote(remoteRoot), "-type", "f",
+                    "-printf", "'%i %s %T@ %P\\n'", "2>/dev/null").
+                run();
+            if (retCode != 0) {
+                // There are no logs yet.
+                return new ArrayList<>();
+            }
+            return files;
+        }
+
+        /**
+         * Decide what to copy from each file.
+         */
+        private List<Transfer> plan(List<RemoteFile> files) throws IOException {
+            List<Transfer> transfers = new ArrayList<>();
+            long budget = MAX_PASS_BYTES;
+            for (RemoteFile file : files) {
+                Path local = localRoot.resolve(file.path()).normalize();
+                if (!local.startsWith(localRoot)) {
+                    continue;
+                }
+                long localSize = Files.isRegularFile(local) ? Files.size(local) : 0;
+                Long inode = inodes.get(file.path());
+                long offset = localSize;
+                if (((inode != null) && (inode != file.inode())) || (localSize > file.size())) {
+                    // The file was replaced or truncated.
+                    offset = 0;
+                } else if (inode == null) {
+                    // We have not seen this file before.  If we already have a copy
+                    // from an earlier run, we assume that the file was only appended
+                    // to since then.
+                    inodes.put(file.path(), file.inode());
+                }
+                long length = Math.min(file.size() - offset, budget);
+                if (length <= 0) {
+                    if ((offset == file.size()) && Files.isRegularFile(local)) {
+                        inodes.put(file.path(), file.inode());
+                        if (!Files.getLastModifiedTime(local).equals(file.modified())) {
+                            Files.setLastModifiedTime(local, file.modified());
+                        }
+                    }
+                    continue;
+                }
+                budget -= length;
+                transfers.add(new Transfer(file, local, offset, length));
+            }
+            return transfers;
+        }
+
+        /**
+         * Finish writing a copied part of a file to our copy.
+         *
+         * @return      The number of bytes which were written.
+         */
+        private long finish(Transfer transfer, TransferWriter writer) throws IOException {
+            long written;
+            try {
+                written = writer.finish();
+            } finally {
+                writer.close();
+            }
+            inodes.put(transfer.file.path(), transfer.file.inode());
+            if (transfer.offset + written == transfer.file.size()) {
+                Files.setLastModifiedTime(transfer.local, transfer.file.modified());
+            }
+            return written;
+        }
+    }
+}
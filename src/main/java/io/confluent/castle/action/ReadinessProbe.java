@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleLog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Checks whether a service started on a node is ready for the actions which depend
+ * on it.
+ *
+ * Start actions return a probe from Action#readinessProbe.  The scheduler does not
+ * consider the action complete until the probe passes, so dependents start as soon
+ * as the service is really ready, rather than after a fixed delay.
+ */
+public abstract class ReadinessProbe {
+    /**
+     * The default time to wait for a probe to pass.
+     */
+    public static final long DEFAULT_TIMEOUT_MS = 60000;
+
+    /**
+     * The initial time to wait between checks.  This doubles after each failed check.
+     */
+    static final long INITIAL_POLL_MS = 10;
+
+    /**
+     * The longest time to wait between checks.
+     */
+    static final long MAX_POLL_MS = 1000;
+
+    /**
+     * Check whether the service is ready.
+     *
+     * @param node      The node to check.
+     * @return          True if the service is ready.
+     */
+    public abstract boolean isReady(CastleNode node) throws Exception;
+
+    /**
+     * Get the time to wait for the probe to pass, in milliseconds.
+     */
+    public long timeoutMs() {
+        return DEFAULT_TIMEOUT_MS;
+    }
+
+    /**
+     * Wait for the probe to pass.  We check quickly at first, since most services
+     * come up within a second, and then back off so that slow services are not
+     * flooded with checks.
+     *
+     * @param node      The node to check.
+     */
+    public void await(CastleNode node) throws Exception {
+        long startMs = System.currentTimeMillis();
+        long pollMs = INITIAL_POLL_MS;
+        int numChecks = 0;
+        while (true) {
+            numChecks++;
+            if (isReady(node)) {
+                CastleLog.debugToAll(String.format("** %s: %s passed after %d ms and %d check(s).%n",
+                    node.nodeName(), this, System.currentTimeMillis() - startMs, numChecks),
+                    node.log());
+                return;
+            }
+            long elapsedMs = System.currentTimeMillis() - startMs;
+            if (elapsedMs >= timeoutMs()) {
+                throw new RuntimeException("Timed out after " + elapsedMs + " ms waiting for " +
+                    this + " on " + node.nodeName());
+            }
+            Thread.sleep(Math.min(pollMs, timeoutMs() - elapsedMs));
+            pollMs = Math.min(pollMs * 2, MAX_POLL_MS);
+        }
+    }
+
+    /**
+     * Create a probe which passes once something is listening on a local TCP port.
+     */
+    public static ReadinessProbe portOpen(final int port) {
+        return new ReadinessProbe() {
+            @Override
+            public boolean isReady(CastleNode node) throws Exception {
+                return 0 == node.uplink().command().args("-n", "--", "bash", "-c",
+                    String.format("'exec 3<>/dev/tcp/localhost/%d'", port)).run();
+            }
+
+            @Override
+            public String toString() {
+                return "port " + port;
+            }
+        };
+    }
+
+    /**
+     * Create a probe which passes once ZooKeeper answers the ruok command with imok.
+     */
+    public static ReadinessProbe zooKeeperOk(final int port) {
+        return new ReadinessProbe() {
+            @Override
+            public boolean isReady(CastleNode node) throws Exception {
+                StringBuilder output = new StringBuilder();
+                int returnCode = node.uplink().command().args("-n", "--", "bash", "-c",
+                    String.format("'exec 3<>/dev/tcp/localhost/%d && echo ruok >&3 && cat <&3'",
+                        port)).
+                    captureOutput(output).
+                    setCaptureStderr(false).
+                    run();
+                return (returnCode == 0) && output.toString().trim().equals("imok");
+            }
+
+            @Override
+            public String toString() {
+                return "ZooKeeper ruok on port " + port;
+            }
+        };
+    }
+
+    /**
+     * Create a probe which passes once a broker has registered itself in ZooKeeper.
+     *
+     * Rather than starting zookeeper-shell.sh, which is a whole JVM, this sends the
+     * dump four letter word to each ZooKeeper server, and looks for the broker's
+     * ephemeral znode in the output.  Only the leader lists the ephemeral znodes,
+     * so all the servers are asked in one shell command.
+     *
+     * @param zkConnect     The ZooKeeper connect string.
+     * @param brokerId      The ID of the broker.
+     */
+    public static ReadinessProbe brokerRegistered(final String zkConnect, final int brokerId) {
+        return new ReadinessProbe() {
+            @Override
+            public boolean isReady(CastleNode node) throws Exception {
+                StringBuilder output = new StringBuilder();
+                node.uplink().command().args("-n", "--", "bash", "-c",
+                    "'" + zooKeeperDumpScript(zkConnect) + "'").
+                    captureOutput(output).
+                    setCaptureStderr(false).
+                    run();
+                // The script fails if any server is down, so only the output matters.
+                return hasEphemeral(output.toString(),
+                    zooKeeperChroot(zkConnect) + "/brokers/ids/" + brokerId);
+            }
+
+            @Override
+            public String toString() {
+                return "broker " + brokerId + " registration in ZooKeeper";
+            }
+        };
+    }
+
+    /**
+     * Get a shell script which sends the dump four letter word to each server in a
+     * ZooKeeper connect string, and prints the replies.
+     */
+    static String zooKeeperDumpScript(String zkConnect) {
+        String servers = zkConnect;
+        int slash = servers.indexOf('/');
+        if (slash >= 0) {
+            servers = servers.substring(0, slash);
+        }
+        StringBuilder bld = new StringBuilder();
+        for (String server : servers.split(",")) {
+            int colon = server.lastIndexOf(':');
+            String host = (colon < 0) ? server : server.substring(0, colon);
+            String port = (colon < 0) ? "2181" : server.substring(colon + 1);
+            bld.append(String.format("(exec 3<>/dev/tcp/%s/%s && echo dump >&3 && cat <&3); ",
+                host, port));
+        }
+        return bld.toString().trim();
+    }
+
+    /**
+     * Get the chroot path at the end of a ZooKeeper connect string, or the empty
+     * string if there is none.
+     */
+    static String zooKeeperChroot(String zkConnect) {
+        int slash = zkConnect.indexOf('/');
+        if ((slash < 0) || (slash == zkConnect.length() - 1)) {
+            return "";
+        }
+        return zkConnect.substring(slash);
+    }
+
+    /**
+     * Return true if the output of the dump four letter word lists an ephemeral znode.
+     */
+    static boolean hasEphemeral(String dump, String path) {
+        for (String line : dump.split("\n")) {
+            if (line.trim().equals(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create a probe which passes once an HTTP endpoint on the node returns 200.
+     */
+    public static ReadinessProbe httpOk(final String url) {
+        return new ReadinessProbe() {
+            @Override
+            public boolean isReady(CastleNode node) throws Exception {
+                StringBuilder output = new StringBuilder();
+                int returnCode = node.uplink().command().args("-n", "--",
+                    "curl", "-s", "-o", "/dev/null", "-w", "%{http_code}", url).
+                    captureOutput(output).
+                    setCaptureStderr(false).
+                    run();
+                return (returnCode == 0) && output.toString().trim().equals("200");
+            }
+
+            @Override
+            public String toString() {
+                return "HTTP 200 from " + url;
+            }
+        };
+    }
+
+    /**
+     * Create a probe which passes once all of the given probes pass, in order.
+     * Probes which have passed are not checked again.
+     */
+    public static ReadinessProbe all(ReadinessProbe... probes) {
+        final List<ReadinessProbe> list =
+            Collections.unmodifiableList(new ArrayList<>(Arrays.asList(probes)));
+        return new ReadinessProbe() {
+            private int numPassed = 0;
+
+            @Override
+            public synchronized boolean isReady(CastleNode node) throws Exception {
+                while (numPassed < list.size()) {
+                    if (!list.get(numPassed).isReady(node)) {
+                        return false;
+                    }
+                    numPassed++;
+                }
+                return true;
+            }
+
+            @Override
+            public long timeoutMs() {
+                long timeoutMs = 0;
+                for (ReadinessProbe probe : list) {
+                    timeoutMs = Math.max(timeoutMs, probe.timeoutMs());
+                }
+                return timeoutMs;
+            }
+
+            @Override
+            public String toString() {
+                return list.toString();
+            }
+        };
+    }
+}
@@ -42,6 +42,9 @@ public final class SaveLogsAction extends Action {
 
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        // The logs which the log shipper already copied are left in place, and
+        // rsync only copies what changed since.
+        cluster.logShipper().stop(node.nodeName());
         if (!node.uplink().canLogin()) {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
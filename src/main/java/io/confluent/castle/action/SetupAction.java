@@ -29,6 +29,7 @@ public final class SetupAction extends Action {
                 new TargetId(InitAction.TYPE, scope)
             },
             new String[] {
+                SourceSeedAction.TYPE,
                 SourceSetupAction.TYPE,
                 LinuxSetupAction.TYPE,
                 CopyAdditionalFilesAction.TYPE,
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.role.AwsNodeRole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Copies the source directories to every node through the cluster's own network.
+ *
+ * When sourceDistribution is "tree", the first node is the seed.  We rsync the
+ * source directories to the seed, and the seed runs bin/distribute.sh to pass them
+ * on to the other nodes.  The source setup actions come after this action, and
+ * only rsync from this machine to nodes which did not receive a copy.  On every
+ * other node, and in the default mode, this action does nothing.
+ */
+public final class SourceSeedAction extends Action {
+    public final static String TYPE = "sourceSeed";
+
+    public final static String DISTRIBUTE_SCRIPT = ActionPaths.CASTLE_SRC + "/bin/distribute.sh";
+
+    /**
+     * One copy from a node to another node, as reported by bin/distribute.sh.
+     */
+    static final class Hop {
+        private final String from;
+        private final String to;
+        private final int exitCode;
+        private final long durationMs;
+        private final long bytes;
+
+        Hop(String from, String to, int exitCode, long durationMs, long bytes) {
+            this.from = from;
+            this.to = to;
+            this.exitCode = exitCode;
+            this.durationMs = durationMs;
+            this.bytes = bytes;
+        }
+
+        String from() {
+            return from;
+        }
+
+        String to() {
+            return to;
+        }
+
+        int exitCode() {
+            return exitCode;
+        }
+
+        long durationMs() {
+            return durationMs;
+        }
+
+        long bytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            if (exitCode != 0) {
+                return String.format("%s -> %s: failed with exit status %d after %d ms",
+                    from, to, exitCode, durationMs);
+            }
+            double megabytes = bytes / (1024.0 * 1024.0);
+            double seconds = Math.max(durationMs, 1) / 1000.0;
+            return String.format("%s -> %s: %.1f MB in %d ms (%.1f MB/s)",
+                from, to, megabytes, durationMs, megabytes / seconds);
+        }
+    }
+
+    public SourceSeedAction(String scope) {
+        super(new ActionId(TYPE, scope),
+            new TargetId[] {
+                new TargetId(LinuxSetupAction.TYPE)
+            },
+            new String[] {},
+            0);
+    }
+
+    @Override
+    public long timeoutMs() {
+        return 1200000;
+    }
+
+    @Override
+    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (!cluster.conf().sourceDistribution().
+                equals(CastleClusterConf.SOURCE_DISTRIBUTION_TREE)) {
+            return;
+        }
+        List<CastleNode> nodes = new ArrayList<>();
+        for (String nodeName : cluster.nodesWithRole(AwsNodeRole.class).values()) {
+            CastleNode other = cluster.nodes().get(nodeName);
+            if (other.uplink().canLogin()) {
+                nodes.add(other);
+            }
+        }
+        if (nodes.isEmpty() || (!nodes.get(0).nodeName().equals(node.nodeName()))) {
+            return;
+        }
+        cluster.conf().validateKafkaPath();
+        cluster.conf().validateCastlePath();
+        long startMs = System.currentTimeMillis();
+        SourceSetupAction.syncFromLocal(cluster, node);
+        node.log().printf("*** %s: copied the source directories to %s in %d ms.%n",
+            TYPE, node.nodeName(), System.currentTimeMillis() - startMs);
+        StringBuilder stdin = new StringBuilder();
+        for (CastleNode other : nodes.subList(1, nodes.size())) {
+            stdin.append(other.nodeName()).append(' ').
+                append(other.uplink().internalDns()).append('\n');
+        }
+        TreeMap<String, Hop> hops = new TreeMap<>();
+        node.uplink().command().
+            args("bash", DISTRIBUTE_SCRIPT, node.nodeName(), ActionPaths.SOURCE_HASH,
+                ActionPaths.KAFKA_SRC, ActionPaths.CASTLE_SRC).
+            setStdin(stdin.toString().getBytes(StandardCharsets.UTF_8)).
+            setCaptureStderr(false).
+            captureLines(line -> {
+                Hop hop = parseHop(line);
+                if (hop != null) {
+                    hops.put(hop.to(), hop);
+                    node.log().printf("*** %s: %s%n", TYPE, hop);
+                }
+                return true;
+            }).
+            run();
+        int copied = 0;
+        for (Hop hop : hops.values()) {
+            if (hop.exitCode() == 0) {
+                copied++;
+            }
+        }
+        cluster.clusterLog().printf("*** %s: copied the source directories from %s to " +
+                "%d of %d other node(s) in %d ms.%n", TYPE, node.nodeName(), copied,
+            nodes.size() - 1, System.currentTimeMillis() - startMs);
+    }
+
+    /**
+     * Parse a line of output from bin/distribute.sh, or return null if it is not
+     * a hop line.
+     */
+    static Hop parseHop(String line) {
+        String[] fields = line.trim().split(" ");
+        if ((fields.length != 6) || (!fields[0].equals("hop"))) {
+            return null;
+        }
+        try {
+            return new Hop(fields[1], fields[2], Integer.parseInt(fields[3]),
+                Long.parseLong(fields[4]), Long.parseLong(fields[5]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
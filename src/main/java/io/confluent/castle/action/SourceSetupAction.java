@@ -18,31 +18,106 @@
 package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.command.CommandBatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Rsyncs the Kafka source directory to the cluster node.
+ *
+ * When sourceDistribution is "tree", SourceSeedAction has usually copied the
+ * directories to the node already, and we only check the marker file it left.
+ *
+ * When sourceDistribution is "artifact", we install a Kafka release tarball instead
+ * of the Kafka source directory.  Nodes cache the tarballs they receive by content
+ * hash, so a node which already has the same build does not need a new copy.
  */
 public final class SourceSetupAction extends Action {
     public final static String TYPE = "sourceSetup";
 
+    /**
+     * How many Kafka artifacts each node keeps in its cache.
+     */
+    private final static int CACHED_ARTIFACTS = 3;
+
     public SourceSetupAction(String scope) {
         super(new ActionId(TYPE, scope),
             new TargetId[] {
-                new TargetId(LinuxSetupAction.TYPE, scope)
+                new TargetId(LinuxSetupAction.TYPE, scope),
+                new TargetId(SourceSeedAction.TYPE)
             },
             new String[] {},
             0);
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 60000;
+    }
+
+    @Override
+    public long timeoutMs() {
+        return 1200000;
+    }
+
+    @Override
+    public int maxRetries() {
+        return 2;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        if (cluster.conf().sourceDistribution().
+                equals(CastleClusterConf.SOURCE_DISTRIBUTION_ARTIFACT)) {
+            return ActionJournal.hash(ActionJournal.uplinkJson(node),
+                cluster.artifactCache().kafkaArtifact(cluster, node).hash(),
+                cluster.journal().treeHash(cluster.conf().castlePath()));
+        }
+        return ActionJournal.hash(ActionJournal.uplinkJson(node),
+            cluster.journal().treeHash(cluster.conf().kafkaPath()),
+            cluster.journal().treeHash(cluster.conf().castlePath()));
+    }
+
+    @Override
+    public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+        return 0 == node.uplink().command().args("-n", "--",
+            "test", "-d", ActionPaths.KAFKA_SRC, "-a", "-d", ActionPaths.CASTLE_SRC).run();
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
         }
-        cluster.conf().validateKafkaPath();
         cluster.conf().validateCastlePath();
+        if (cluster.conf().sourceDistribution().
+                equals(CastleClusterConf.SOURCE_DISTRIBUTION_ARTIFACT)) {
+            installArtifact(cluster, node);
+            return;
+        }
+        cluster.conf().validateKafkaPath();
+        if (cluster.conf().sourceDistribution().
+                equals(CastleClusterConf.SOURCE_DISTRIBUTION_TREE)) {
+            if (sourceHash(cluster).equals(readMarker(node, ActionPaths.SOURCE_HASH))) {
+                node.log().printf("*** %s: the source directories were copied from " +
+                    "another node.%n", TYPE);
+                return;
+            }
+            node.log().printf("*** %s: the source directories were not copied from " +
+                "another node.  Copying them from here.%n", TYPE);
+        }
+        syncFromLocal(cluster, node);
+    }
+
+    /**
+     * Rsync the source directories from this machine to a node, and then write the
+     * marker file which shows which version of the source directories it has.
+     */
+    static void syncFromLocal(CastleCluster cluster, CastleNode node) throws Throwable {
         node.uplink().command().args(setupDirectoriesCommand()).mustRun();
         node.uplink().command().
             syncTo(cluster.conf().kafkaPath() + "/", ActionPaths.KAFKA_SRC + "/").
@@ -50,11 +125,78 @@ public final class SourceSetupAction extends Action {
         node.uplink().command().
             syncTo(cluster.conf().castlePath() + "/", ActionPaths.CASTLE_SRC + "/").
             mustRun();
+        node.uplink().command().writeRemoteFile(ActionPaths.SOURCE_HASH,
+            (sourceHash(cluster) + "\n").getBytes(StandardCharsets.UTF_8), 0644);
+    }
+
+    /**
+     * Install the Kafka artifact on a node, and rsync the castle source directory.
+     * We only copy the artifact if the node's cache does not already have it, and
+     * only unpack it if the node's Kafka directory does not already hold it.
+     */
+    private static void installArtifact(CastleCluster cluster, CastleNode node)
+            throws Throwable {
+        ArtifactCache.Artifact artifact = cluster.artifactCache().kafkaArtifact(cluster, node);
+        node.uplink().command().args(setupDirectoriesCommand()).mustRun();
+        if (artifact.hash().equals(readMarker(node, ActionPaths.KAFKA_ARTIFACT_HASH))) {
+            node.log().printf("*** %s: %s already holds Kafka artifact %s.%n",
+                TYPE, ActionPaths.KAFKA_SRC, artifact.hash());
+        } else {
+            String remotePath = artifact.remotePath();
+            String tmpPath = remotePath + ".tmp";
+            CommandBatch batch = node.uplink().command().batch();
+            if (0 == node.uplink().command().args("-n", "--", "test", "-f", remotePath).run()) {
+                node.log().printf("*** %s: unpacking cached Kafka artifact %s.%n",
+                    TYPE, artifact.hash());
+            } else {
+                node.log().printf("*** %s: copying Kafka artifact %s.%n", TYPE, artifact.hash());
+                node.uplink().command().syncTo(artifact.path(), tmpPath).mustRun();
+                batch.args("printf", "'%s  %s\\n'", artifact.hash(), tmpPath, "|",
+                        "sha256sum", "-c", "--quiet").
+                    args("mv", tmpPath, remotePath);
+            }
+            // Write the marker last, so that it is only present once the whole
+            // artifact has been unpacked.
+            batch.args("find", ActionPaths.KAFKA_SRC, "-mindepth", "1", "-delete").
+                args("tar", "-xzf", remotePath, "--strip-components=1",
+                    "-C", ActionPaths.KAFKA_SRC).
+                args("echo", artifact.hash(), ">", ActionPaths.KAFKA_ARTIFACT_HASH).
+                args("ls", "-t", ActionPaths.KAFKA_ARTIFACTS + "/*.tgz", "|",
+                    "tail", "-n", "+" + (CACHED_ARTIFACTS + 1), "|", "xargs", "-r", "rm", "-f").
+                mustRun();
+        }
+        node.uplink().command().
+            syncTo(cluster.conf().castlePath() + "/", ActionPaths.CASTLE_SRC + "/").
+            mustRun();
+    }
+
+    /**
+     * Get a hash of the local source directories.
+     */
+    static String sourceHash(CastleCluster cluster) throws Throwable {
+        return ActionJournal.hash(cluster.journal().treeHash(cluster.conf().kafkaPath()),
+            cluster.journal().treeHash(cluster.conf().castlePath()));
+    }
+
+    /**
+     * Get the contents of a marker file on a node, or the empty string if there is none.
+     */
+    private static String readMarker(CastleNode node, String path) throws Throwable {
+        AtomicReference<String> hash = new AtomicReference<>("");
+        node.uplink().command().args("-n", "--", "cat", path).
+            setCaptureStderr(false).
+            captureLines(line -> {
+                hash.set(line.trim());
+                return false;
+            }).
+            run();
+        return hash.get();
     }
 
     public static String[] setupDirectoriesCommand() {
         return new String[] {"sudo", "mkdir", "-p", ActionPaths.KAFKA_SRC, ActionPaths.CASTLE_SRC,
-            ActionPaths.LOGS_ROOT, "&&", "sudo", "chown", "-R", "`whoami`",
-            ActionPaths.KAFKA_SRC, ActionPaths.CASTLE_SRC, ActionPaths.LOGS_ROOT};
+            ActionPaths.KAFKA_ARTIFACTS, ActionPaths.LOGS_ROOT, "&&", "sudo", "chown", "-R",
+            "`whoami`", ActionPaths.KAFKA_SRC, ActionPaths.CASTLE_SRC,
+            ActionPaths.KAFKA_ARTIFACTS, ActionPaths.LOGS_ROOT};
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Runs an ssh command on a group of nodes, through the first node in the group.
+ *
+ * The first node runs bin/fanout.sh from the castle source.  The script runs the
+ * command on that node, and passes the rest of the group on to further relays, so
+ * that the number of connections each node makes stays small.  Nodes with the same
+ * exit code and output are reported together.
+ */
+public final class SshRelayAction extends Action {
+    public final static String TYPE = "sshRelay";
+
+    public final static String FANOUT_SCRIPT = ActionPaths.CASTLE_SRC + "/bin/fanout.sh";
+
+    /**
+     * The exit code and output which one or more nodes had.
+     */
+    public static final class Result {
+        private final int exitCode;
+        private final String output;
+        private final List<String> nodeNames;
+
+        public Result(int exitCode, String output, List<String> nodeNames) {
+            this.exitCode = exitCode;
+            this.output = output;
+            this.nodeNames = Collections.unmodifiableList(new ArrayList<>(nodeNames));
+        }
+
+        public int exitCode() {
+            return exitCode;
+        }
+
+        public String output() {
+            return output;
+        }
+
+        public List<String> nodeNames() {
+            return nodeNames;
+        }
+    }
+
+    private final List<String> group;
+
+    private final List<String> command;
+
+    private final int fanOut;
+
+    private final Collection<Result> results;
+
+    /**
+     * Create a new relay action.
+     *
+     * @param group     The names of the nodes to run the command on.  The first
+     *                  node is the relay.
+     * @param command   The command to run.
+     * @param fanOut    How many further relays each relay should contact.
+     * @param results   The collection to add the results to.  This must be safe
+     *                  to use from several threads.
+     */
+    public SshRelayAction(List<String> group, Collection<String> command, int fanOut,
+                          Collection<Result> results) {
+        super(new ActionId(TYPE, group.get(0)),
+            new TargetId[] {},
+            new String[] {},
+            0);
+        this.group = Collections.unmodifiableList(new ArrayList<>(group));
+        this.command = Collections.unmodifiableList(new ArrayList<>(command));
+        this.fanOut = fanOut;
+        this.results = results;
+    }
+
+    @Override
+    public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
+        if (!node.uplink().canLogin()) {
+            node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
+            results.add(new Result(255, String.format("%s is not accessible.%n",
+                node.nodeName()), group));
+            return;
+        }
+        List<Result> found = new ArrayList<>();
+        int status = node.uplink().command().
+            args("bash", FANOUT_SCRIPT).
+            setStdin(createSpec(cluster)).
+            setCaptureStderr(false).
+            captureLines(line -> {
+                if (!line.isEmpty()) {
+                    found.add(parseResult(line));
+                }
+                return true;
+            }).
+            run();
+        if (found.isEmpty()) {
+            found.add(new Result(status, String.format("Unable to run %s on %s.%n",
+                FANOUT_SCRIPT, node.nodeName()), group));
+        }
+        results.addAll(found);
+    }
+
+    private byte[] createSpec(CastleCluster cluster) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(fanOut).append('\n');
+        bld.append(Base64.getEncoder().encodeToString(
+            String.join(" ", command).getBytes(StandardCharsets.UTF_8))).append('\n');
+        for (String nodeName : group) {
+            bld.append(nodeName).append(' ').
+                append(cluster.nodes().get(nodeName).uplink().internalDns()).append('\n');
+        }
+        return bld.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Parse a line of output from bin/fanout.sh.
+     */
+    static Result parseResult(String line) {
+        String[] fields = line.trim().split(" ", 3);
+        if ((fields.length != 3) || (!fields[1].startsWith("o"))) {
+            throw new RuntimeException("Unable to parse relay output: " + line);
+        }
+        String output = new String(Base64.getDecoder().decode(fields[1].substring(1)),
+            StandardCharsets.UTF_8);
+        List<String> nodeNames = new ArrayList<>();
+        Collections.addAll(nodeNames, fields[2].split(","));
+        return new Result(Integer.parseInt(fields[0]), output, nodeNames);
+    }
+
+    /**
+     * Split a list into at most numGroups groups of equal size, except for the last
+     * group, which may be smaller.  bin/fanout.sh splits groups the same way.
+     */
+    public static <T> List<List<T>> split(List<T> items, int numGroups) {
+        List<List<T>> groups = new ArrayList<>();
+        if (items.isEmpty() || (numGroups <= 0)) {
+            return groups;
+        }
+        int groupSize = (items.size() + numGroups - 1) / numGroups;
+        for (int start = 0; start < items.size(); start += groupSize) {
+            groups.add(new ArrayList<>(
+                items.subList(start, Math.min(items.size(), start + groupSize))));
+        }
+        return groups;
+    }
+}
@@ -32,4 +32,9 @@ public final class StatusAction extends Action {
             },
             0);
     }
+
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
 }
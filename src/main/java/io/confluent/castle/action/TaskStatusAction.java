@@ -44,6 +44,11 @@ public class TaskStatusAction extends Action  {
         this.role = role;
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(final CastleCluster cluster, CastleNode node) throws Throwable {
         if (!node.uplink().canLogin()) {
@@ -88,6 +93,10 @@ public class TaskStatusAction extends Action  {
                     cluster.clusterLog().printf("** %s: Task %s is in progress with status %s%n",
                         node.nodeName(), taskId, statusNode);
                     cluster.shutdownManager().changeReturnCode(CastleReturnCode.IN_PROGRESS);
+                    long expectedDoneMs = expectedDoneMs(state);
+                    if (expectedDoneMs > 0) {
+                        cluster.shutdownManager().expectDoneAt(expectedDoneMs);
+                    }
                 }
             }
         } catch (CommandResultException e) {
@@ -103,4 +112,27 @@ public class TaskStatusAction extends Action  {
             cluster.shutdownManager().changeReturnCode(CastleReturnCode.TOOL_FAILED);
         }
     }
+
+    /**
+     * Get the time at which a task which has not finished should finish, or -1 if
+     * we can't tell.  Running tasks have a startedMs field.  Pending tasks will start
+     * at the startMs of their spec, or as soon as possible if that is in the past.
+     */
+    static long expectedDoneMs(JsonNode state) {
+        JsonNode spec = state.get("spec");
+        if ((spec == null) || (!spec.has("durationMs"))) {
+            return -1;
+        }
+        long startMs;
+        if (state.has("startedMs")) {
+            startMs = state.get("startedMs").asLong();
+        } else {
+            startMs = Math.max(System.currentTimeMillis(), spec.path("startMs").asLong());
+        }
+        long durationMs = spec.get("durationMs").asLong();
+        if (durationMs > Long.MAX_VALUE - startMs) {
+            return -1;
+        }
+        return startMs + durationMs;
+    }
 };
@@ -46,7 +46,7 @@ public class TaskStopAction extends Action  {
             node.log().printf("*** Skipping %s, because the node is not running.%n", TYPE);
             return;
         }
-        if (CastleUtil.getJavaProcessStatus(cluster, node,
+        if (CastleAgent.daemonStatus(cluster, node, TrogdorDaemonType.COORDINATOR.agentName(),
                 TrogdorDaemonType.COORDINATOR.className()) != CastleReturnCode.SUCCESS) {
             node.log().printf("*** Ignoring TaskStopAction because the Trogdor " +
                 "coordinator process does not appear to be running.%n");
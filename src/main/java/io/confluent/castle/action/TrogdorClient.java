@@ -36,6 +36,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Trogdor client which uses curl to send JSON requests.
@@ -47,39 +48,47 @@ public class TrogdorClient {
         this.node = node;
     }
 
-    private static String coordinatorUrl(String endpoint) {
+    static String coordinatorUrl(String endpoint) {
         return String.format("http://localhost:%d/coordinator/%s",
             TrogdorCoordinatorRole.PORT, endpoint);
     }
 
     private JsonNode coordinatorCurl(String endpoint, String op, JsonNode input) throws Exception {
+        // curl prints the HTTP status on a line of its own after the response body.
         List<String> cmd = new ArrayList<>(Arrays.asList("curl",
             "-H", "Content-Type:application/json",
-            "-w", "_%{http_code}",
+            "-w", "'\\n%{http_code}'",
             "-X", op, coordinatorUrl(endpoint)
         ));
         if (input != null) {
             cmd.addAll(Arrays.asList("-d", "@-"));
         }
-        StringBuilder stringBuilder = new StringBuilder();
+        // We don't know which line is the last one until the output ends, so hold
+        // each line back until we see the next one.
+        StringBuilder json = new StringBuilder();
+        AtomicReference<String> lastLine = new AtomicReference<>(null);
         Command command = node.uplink().command().
             argList(cmd).
-            captureOutput(stringBuilder).
+            captureLines(line -> {
+                String prev = lastLine.getAndSet(line);
+                if (prev != null) {
+                    json.append(prev).append('\n');
+                }
+                return true;
+            }).
             setCaptureStderr(false);
         if (input != null) {
             command.setStdin(CastleTool.JSON_SERDE.writeValueAsBytes(input));
         }
         command.mustRun();
 
-        String output = stringBuilder.toString().trim();
-        int atIndex = output.lastIndexOf("_");
-        if (atIndex < 0) {
+        String statusString = lastLine.get();
+        if (statusString == null) {
             throw new RuntimeException("HTTP status not found on stdout for curl command.");
         }
-        String portString = output.substring(atIndex + 1);
         int httpReturnCode;
         try {
-            httpReturnCode = Integer.parseInt(portString);
+            httpReturnCode = Integer.parseInt(statusString.trim());
         } catch (NumberFormatException e) {
             throw new RuntimeException(String.format("%s: failed to parse HTTP status " +
                 "code for curl command %s", node.nodeName(), Command.joinArgs(cmd)));
@@ -88,9 +97,8 @@ public class TrogdorClient {
             throw new RuntimeException(String.format("%s: got HTTP error %d when sending: %s%n",
                 node.nodeName(), httpReturnCode, input));
         }
-        String json = output.substring(0, atIndex);
         try {
-            return CastleTool.JSON_SERDE.readTree(json);
+            return CastleTool.JSON_SERDE.readTree(json.toString());
         } catch (IOException e) {
             throw new RuntimeException(String.format("%s: JSON parse error when " +
                 "handling the return value '%s' from %s", node.nodeName(), json,
@@ -22,6 +22,7 @@ import static io.confluent.castle.action.ActionPaths.TROGDOR_AGENT_ROOT;
 import static io.confluent.castle.action.ActionPaths.TROGDOR_CONF_SUFFIX;
 import static io.confluent.castle.action.ActionPaths.TROGDOR_COORDIINATOR_ROOT;
 import static io.confluent.castle.action.ActionPaths.TROGDOR_LOG4J_SUFFIX;
+import static io.confluent.castle.action.ActionPaths.TROGDOR_PID_SUFFIX;
 import static io.confluent.castle.action.ActionPaths.TROGDOR_PROPERTIES_SUFFIX;
 
 public class TrogdorDaemonType {
@@ -49,6 +50,13 @@ public class TrogdorDaemonType {
         return className;
     }
 
+    /**
+     * The name which the castle agent knows this daemon by.
+     */
+    public String agentName() {
+        return "trogdor-" + name;
+    }
+
     public final String startType() {
         return typePrefix + "Start";
     }
@@ -73,6 +81,10 @@ public class TrogdorDaemonType {
         return String.format("%s%s%s", root, TROGDOR_CONF_SUFFIX, TROGDOR_LOG4J_SUFFIX);
     }
 
+    public String pidPath() {
+        return String.format("%s/%s%s", root, name, TROGDOR_PID_SUFFIX);
+    }
+
     public String logDir() {
         return String.format("%s/trogdor-%s", LOGS_ROOT, name);
     }
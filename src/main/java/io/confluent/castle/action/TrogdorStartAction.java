@@ -19,17 +19,11 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.TrogdorAgentRole;
 import io.confluent.castle.role.TrogdorCoordinatorRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.TROGDOR_START_SCRIPT;
 
@@ -50,30 +44,42 @@ public class TrogdorStartAction extends Action  {
     }
 
     @Override
-    public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeTrogdorConfig(cluster, node);
-            log4jFile = writeTrogdorLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, daemonType.className(), false);
-            node.uplink().command().args(createSetupPathsCommandLine(daemonType)).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                daemonType.propertiesPath()).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                daemonType.log4jConfPath()).mustRun();
-            node.uplink().command().args(
-                runDaemonCommandLine(daemonType, node.nodeName())).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
+    public long estimatedDurationMs() {
+        return 5000;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        return ActionJournal.hash(ActionJournal.uplinkJson(node),
+            cluster.journal().treeHash(cluster.conf().kafkaPath()),
+            trogdorConfig(cluster),
+            trogdorLog4j());
+    }
+
+    @Override
+    public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+        return readinessProbe(cluster, node).isReady(node);
+    }
+
+    @Override
+    public ReadinessProbe readinessProbe(CastleCluster cluster, CastleNode node) {
+        if (daemonType == TrogdorDaemonType.COORDINATOR) {
+            return ReadinessProbe.httpOk(TrogdorClient.coordinatorUrl("status"));
         }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(daemonType.className())).run();
-            }
-        });
+        return ReadinessProbe.portOpen(TrogdorAgentRole.PORT);
+    }
+
+    @Override
+    public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
+        node.uplink().command().batch().
+            args(CastleAgent.stopArgs(daemonType.agentName(), daemonType.className())).
+            args(createSetupPathsCommandLine(daemonType)).
+            writeFile(daemonType.propertiesPath(),
+                trogdorConfig(cluster).getBytes(StandardCharsets.UTF_8), 0644).
+            writeFile(daemonType.log4jConfPath(),
+                trogdorLog4j().getBytes(StandardCharsets.UTF_8), 0644).
+            args(runDaemonCommandLine(cluster, daemonType, node.nodeName())).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine(TrogdorDaemonType daemonType) {
@@ -85,99 +91,62 @@ public class TrogdorStartAction extends Action  {
         };
     }
 
-    public static String[] runDaemonCommandLine(TrogdorDaemonType daemonType, String nodeName) {
-        return new String[] {"-n", "--", "nohup", "env",
+    public static String[] runDaemonCommandLine(CastleCluster cluster,
+                                                TrogdorDaemonType daemonType, String nodeName) {
+        return CastleAgent.startArgs(cluster, daemonType.agentName(), daemonType.pidPath(),
+            daemonType.logDir() + "/stdout-stderr.txt", "env",
             String.format("KAFKA_LOG4J_OPTS=\"-Dlog4j.configuration=file:%s\"",
                 daemonType.log4jConfPath()),
             TROGDOR_START_SCRIPT, daemonType.name(), "--" + daemonType.name() + ".config",
-            daemonType.propertiesPath(), "--node-name", nodeName,
-            ">" + daemonType.logDir() + "/stdout-stderr.txt", "2>&1", "</dev/null", "&"
-        };
+            daemonType.propertiesPath(), "--node-name", nodeName);
     }
 
-    private File writeTrogdorConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-%d.conf", daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("{%n"));
-            osw.write(String.format("  \"platform\": \"org.apache.kafka.trogdor.basic.BasicPlatform\",%n"));
-            osw.write(String.format("  \"nodes\": {%n"));
-            String prefix = String.format("%n");
-            for (Map.Entry<String, CastleNode> entry : cluster.nodes().entrySet()) {
-                String nodeName = entry.getKey();
-                CastleNode castleNode = entry.getValue();
-                if ((castleNode.getRole(TrogdorAgentRole.class) != null) ||
-                        (castleNode.getRole(TrogdorCoordinatorRole.class) != null)) {
-                    osw.write(String.format("%s    \"%s\": {%n", prefix, nodeName));
-                    prefix = String.format(",%n");
-                    if (castleNode.getRole(TrogdorAgentRole.class) == null) {
-                        osw.write(String.format("      \"trogdor.agent.port\": 0,%n"));
-                    } else {
-                        osw.write(String.format("      \"trogdor.agent.port\": %d,%n",
-                            TrogdorAgentRole.PORT));
-                    }
-                    if (castleNode.getRole(TrogdorCoordinatorRole.class) != null) {
-                        osw.write(String.format("      \"trogdor.coordinator.port\": %d,%n",
-                            TrogdorCoordinatorRole.PORT));
-                    }
-                    osw.write(String.format("      \"hostname\": \"%s\"%n",
-                        castleNode.uplink().internalDns()));
-                    osw.write(String.format("    }"));
+    private String trogdorConfig(CastleCluster cluster) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("{%n"));
+        bld.append(String.format("  \"platform\": \"org.apache.kafka.trogdor.basic.BasicPlatform\",%n"));
+        bld.append(String.format("  \"nodes\": {%n"));
+        String prefix = String.format("%n");
+        for (Map.Entry<String, CastleNode> entry : cluster.nodes().entrySet()) {
+            String nodeName = entry.getKey();
+            CastleNode castleNode = entry.getValue();
+            if ((castleNode.getRole(TrogdorAgentRole.class) != null) ||
+                    (castleNode.getRole(TrogdorCoordinatorRole.class) != null)) {
+                bld.append(String.format("%s    \"%s\": {%n", prefix, nodeName));
+                prefix = String.format(",%n");
+                if (castleNode.getRole(TrogdorAgentRole.class) == null) {
+                    bld.append(String.format("      \"trogdor.agent.port\": 0,%n"));
+                } else {
+                    bld.append(String.format("      \"trogdor.agent.port\": %d,%n",
+                        TrogdorAgentRole.PORT));
                 }
-            }
-            osw.write(String.format("%n"));
-            osw.write(String.format("  }%n"));
-            osw.write(String.format("}%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary trogdor agent file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary trogdor agent file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
+                if (castleNode.getRole(TrogdorCoordinatorRole.class) != null) {
+                    bld.append(String.format("      \"trogdor.coordinator.port\": %d,%n",
+                        TrogdorCoordinatorRole.PORT));
+                }
+                bld.append(String.format("      \"hostname\": \"%s\"%n",
+                    castleNode.uplink().internalDns()));
+                bld.append(String.format("    }"));
             }
         }
+        bld.append(String.format("%n"));
+        bld.append(String.format("  }%n"));
+        bld.append(String.format("}%n"));
+        return bld.toString();
     }
 
-    private File writeTrogdorLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("trogdor-%s-log4j-%d.properties",
-                    daemonType.name(), node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=WARN, kafkaAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.File=%s%n",
-                daemonType.logPath()));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
-                "[%d] %p %m (%c)%n"));
-            osw.write(String.format("log4j.logger.org.apache.kafka=DEBUG%n")); //INFO%n"));
-            osw.write(String.format("%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(), osw,
-                "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(), fos,
-                "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    private String trogdorLog4j() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=WARN, kafkaAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.File=%s%n",
+            daemonType.logPath()));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
+            "[%d] %p %m (%c)%n"));
+        bld.append(String.format("log4j.logger.org.apache.kafka=DEBUG%n")); //INFO%n"));
+        bld.append(String.format("%n"));
+        return bld.toString();
     }
 };
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 
 public class TrogdorStatusAction extends Action {
     private final TrogdorDaemonType daemonType;
@@ -32,9 +31,15 @@ public class TrogdorStatusAction extends Action {
         this.daemonType = daemonType;
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, daemonType.className()));
+            CastleAgent.daemonStatus(cluster, node, daemonType.agentName(),
+                daemonType.className()));
     }
 };
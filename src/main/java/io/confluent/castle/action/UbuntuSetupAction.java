@@ -37,6 +37,36 @@ public final class UbuntuSetupAction extends Action {
         this.role = role;
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 120000;
+    }
+
+    @Override
+    public long timeoutMs() {
+        return 1800000;
+    }
+
+    /**
+     * Package mirrors are sometimes briefly unavailable, so we retry, with a
+     * long enough wait for the mirror to recover.
+     */
+    @Override
+    public int maxRetries() {
+        return 2;
+    }
+
+    @Override
+    public long retryBackoffMs() {
+        return 10000;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        return ActionJournal.hash(ActionJournal.uplinkJson(node),
+            ActionJournal.roleJson(role));
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         node.log().printf("*** %s: Beginning UbuntuSetup...%n", node.nodeName());
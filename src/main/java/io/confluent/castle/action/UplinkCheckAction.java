@@ -33,6 +33,11 @@ public final class UplinkCheckAction extends Action {
             0);
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         node.log().printf("*** %s: Checking uplink.%n", node.nodeName());
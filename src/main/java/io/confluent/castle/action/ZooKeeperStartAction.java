@@ -19,15 +19,9 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.ZooKeeperRole;
 
-import java.io.File;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.concurrent.Callable;
 
 import static io.confluent.castle.action.ActionPaths.ZK_CONF;
 import static io.confluent.castle.action.ActionPaths.ZK_LOGS;
@@ -48,30 +42,42 @@ public class ZooKeeperStartAction extends Action  {
             role.initialDelayMs());
     }
 
+    @Override
+    public long estimatedDurationMs() {
+        return 5000;
+    }
+
+    @Override
+    public String inputHash(CastleCluster cluster, CastleNode node) throws Throwable {
+        return ActionJournal.hash(ActionJournal.uplinkJson(node),
+            cluster.journal().treeHash(cluster.conf().kafkaPath()),
+            zooKeeperConfig(cluster),
+            zooKeeperLog4j());
+    }
+
+    @Override
+    public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+        return readinessProbe(cluster, node).isReady(node);
+    }
+
+    @Override
+    public ReadinessProbe readinessProbe(CastleCluster cluster, CastleNode node) {
+        return ReadinessProbe.all(ReadinessProbe.portOpen(ZooKeeperRole.PORT),
+            ReadinessProbe.zooKeeperOk(ZooKeeperRole.PORT));
+    }
+
     @Override
     public void call(final CastleCluster cluster, final CastleNode node) throws Throwable {
-        File configFile = null, log4jFile = null;
-        try {
-            configFile = writeZooKeeperConfig(cluster, node);
-            log4jFile = writeZooKeeperLog4j(cluster, node);
-            CastleUtil.killJavaProcess(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false);
-            node.uplink().command().args(createSetupPathsCommandLine()).mustRun();
-            node.uplink().command().syncTo(configFile.getAbsolutePath(),
-                ActionPaths.ZK_PROPERTIES).mustRun();
-            node.uplink().command().syncTo(log4jFile.getAbsolutePath(),
-                ActionPaths.ZK_LOG4J).mustRun();
-            node.uplink().command().args(createRunDaemonCommandLine()).mustRun();
-        } finally {
-            CastleUtil.deleteFileOrLog(node.log(), configFile);
-            CastleUtil.deleteFileOrLog(node.log(), log4jFile);
-        }
-        CastleUtil.waitFor(5, 30000, new Callable<Boolean>() {
-            @Override
-            public Boolean call() throws Exception {
-                return 0 == node.uplink().command().args(
-                    CastleUtil.checkJavaProcessStatusArgs(ZooKeeperRole.ZOOKEEPER_CLASS_NAME)).run();
-            }
-        });
+        node.uplink().command().batch().
+            args(CastleAgent.stopArgs(CastleAgent.ZOOKEEPER,
+                ZooKeeperRole.ZOOKEEPER_CLASS_NAME)).
+            args(createSetupPathsCommandLine()).
+            writeFile(ActionPaths.ZK_PROPERTIES,
+                zooKeeperConfig(cluster).getBytes(StandardCharsets.UTF_8), 0644).
+            writeFile(ActionPaths.ZK_LOG4J,
+                zooKeeperLog4j().getBytes(StandardCharsets.UTF_8), 0644).
+            args(createRunDaemonCommandLine(cluster)).
+            mustRun();
     }
 
     public static String[] createSetupPathsCommandLine() {
@@ -82,72 +88,40 @@ public class ZooKeeperStartAction extends Action  {
         };
     }
 
-    public static String[] createRunDaemonCommandLine() {
-        return new String[] {"nohup", "env", "KAFKA_LOG4J_OPTS=\"-Dlog4j.configuration=file:" + ActionPaths.ZK_LOG4J + "\"",
-            ActionPaths.ZK_START_SCRIPT, ActionPaths.ZK_PROPERTIES,
-            ">" + ActionPaths.ZK_LOGS + "/stdout-stderr.txt", "2>&1", "</dev/null", "&"};
+    public static String[] createRunDaemonCommandLine(CastleCluster cluster) {
+        return CastleAgent.startArgs(cluster, CastleAgent.ZOOKEEPER, ActionPaths.ZK_PID,
+            ActionPaths.ZK_LOGS + "/stdout-stderr.txt",
+            "env", "KAFKA_LOG4J_OPTS=\"-Dlog4j.configuration=file:" + ActionPaths.ZK_LOG4J + "\"",
+            ActionPaths.ZK_START_SCRIPT, ActionPaths.ZK_PROPERTIES);
     }
 
-    private File writeZooKeeperConfig(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("dataDir=%s%n", ZK_OPLOGS));
-            osw.write(String.format("clientPort=2181%n"));
-            osw.write(String.format("maxClientCnxns=0%n"));
-            int serverIdx = 1;
-            for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
-                osw.write(String.format("server.%d=%s:2888:3888%n", serverIdx++,
-                    cluster.nodes().get(nodeName).uplink().internalDns()));
-            }
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary ZooKeeper config file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary ZooKeeper config file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
+    private String zooKeeperConfig(CastleCluster cluster) {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("dataDir=%s%n", ZK_OPLOGS));
+        bld.append(String.format("clientPort=%d%n", ZooKeeperRole.PORT));
+        // ZooKeeper 3.5 and later only answer four letter words which are whitelisted.
+        // The readiness probes use ruok, and dump to find registered brokers.
+        bld.append(String.format("4lw.commands.whitelist=ruok,dump%n"));
+        bld.append(String.format("maxClientCnxns=0%n"));
+        int serverIdx = 1;
+        for (String nodeName : cluster.nodesWithRole(ZooKeeperRole.class).values()) {
+            bld.append(String.format("server.%d=%s:2888:3888%n", serverIdx++,
+                cluster.nodes().get(nodeName).uplink().internalDns()));
         }
+        return bld.toString();
     }
 
-    static File writeZooKeeperLog4j(CastleCluster cluster, CastleNode node) throws IOException {
-        File file = null;
-        FileOutputStream fos = null;
-        OutputStreamWriter osw = null;
-        boolean success = false;
-        try {
-            file = new File(cluster.env().workingDirectory(),
-                String.format("zookeeper-log4j-%d.properties", node.nodeIndex()));
-            fos = new FileOutputStream(file, false);
-            osw = new OutputStreamWriter(fos, StandardCharsets.UTF_8);
-            osw.write(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.File=%s/server.log%n", ZK_LOGS));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
-            osw.write(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
-                "[%d] %p %m (%c)%n"));
-            osw.write(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
-            osw.write(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
-            success = true;
-            return file;
-        } finally {
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                osw, "temporary broker file OutputStreamWriter");
-            CastleUtil.closeQuietly(cluster.clusterLog(),
-                fos, "temporary broker file FileOutputStream");
-            if (!success) {
-                CastleUtil.deleteFileOrLog(node.log(), file);
-            }
-        }
+    static String zooKeeperLog4j() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(String.format("log4j.rootLogger=INFO, kafkaAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender=org.apache.log4j.DailyRollingFileAppender%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.DatePattern='.'yyyy-MM-dd-HH%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.File=%s/server.log%n", ZK_LOGS));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout=org.apache.log4j.PatternLayout%n"));
+        bld.append(String.format("log4j.appender.kafkaAppender.layout.ConversionPattern=%s%n%n",
+            "[%d] %p %m (%c)%n"));
+        bld.append(String.format("log4j.logger.org.I0Itec.zkclient.ZkClient=INFO%n"));
+        bld.append(String.format("log4j.logger.org.apache.zookeeper=INFO%n"));
+        return bld.toString();
     }
 };
@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.ZooKeeperRole;
 
 /**
@@ -35,9 +34,15 @@ public final class ZooKeeperStatusAction extends Action {
             0);
     }
 
+    @Override
+    public boolean readOnly() {
+        return true;
+    }
+
     @Override
     public void call(CastleCluster cluster, CastleNode node) throws Throwable {
         cluster.shutdownManager().changeReturnCode(
-            CastleUtil.getJavaProcessStatus(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME));
+            CastleAgent.daemonStatus(cluster, node, CastleAgent.ZOOKEEPER,
+                ZooKeeperRole.ZOOKEEPER_CLASS_NAME));
     }
 }
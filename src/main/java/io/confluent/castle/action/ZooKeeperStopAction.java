@@ -19,7 +19,6 @@ package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
-import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.ZooKeeperRole;
 
 /**
@@ -43,6 +42,7 @@ public final class ZooKeeperStopAction extends Action {
             node.log().printf("*** Skipping %s, because the node is not accessible.%n", TYPE);
             return;
         }
-        CastleUtil.killJavaProcess(cluster, node, ZooKeeperRole.ZOOKEEPER_CLASS_NAME, false);
+        CastleAgent.stop(cluster, node, CastleAgent.ZOOKEEPER,
+            ZooKeeperRole.ZOOKEEPER_CLASS_NAME);
     }
 }
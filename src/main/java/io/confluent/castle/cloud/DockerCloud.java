@@ -21,6 +21,7 @@ import io.confluent.castle.action.ActionPaths;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.NodeShellRunner;
+import io.confluent.castle.command.OutputConsumer;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.role.DockerNodeRole;
@@ -192,19 +193,18 @@ public final class DockerCloud implements AutoCloseable {
      */
     public TreeSet<String> listContainers(CastleNode node) throws Exception {
         getNetworkCheckFuture(node).get();
-        StringBuilder stringBuilder = new StringBuilder();
+        TreeSet<String> containers = new TreeSet<>();
         new NodeShellRunner(node,
             Arrays.asList(new String[] { "docker", "ps", "-a", "--no-trunc",
                 "-f=network=" + NETWORK, "-q", "--format", "{{.Names}}"})).
-            setCaptureOutput(stringBuilder).
+            setOutputConsumer(OutputConsumer.forLines(line -> {
+                if (!line.trim().isEmpty()) {
+                    containers.add(line.trim());
+                }
+                return true;
+            })).
             setCaptureStderr(false).
             mustRun();
-        TreeSet<String> containers = new TreeSet<>();
-        for (String line : stringBuilder.toString().trim().split(System.lineSeparator())) {
-            if (!line.isEmpty()) {
-                containers.add(line);
-            }
-        }
         return containers;
     }
 
@@ -19,9 +19,16 @@ package io.confluent.castle.cluster;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import io.confluent.castle.action.Action;
+import io.confluent.castle.action.ActionDurations;
+import io.confluent.castle.action.ArtifactCache;
+import io.confluent.castle.action.ActionJournal;
 import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.LogShipper;
 import io.confluent.castle.cloud.CloudCache;
+import io.confluent.castle.command.ProbeCache;
+import io.confluent.castle.command.SshMultiplexer;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleTrace;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.JsonMerger;
 import io.confluent.castle.role.BrokerRole;
@@ -54,6 +61,13 @@ public final class CastleCluster implements AutoCloseable {
     private final Map<String, CastleNode> nodes;
     private final CastleShutdownManager shutdownManager;
     private final Map<String, Role> originalRoles;
+    private final ActionJournal journal;
+    private final ActionDurations durations;
+    private final CastleTrace trace;
+    private final SshMultiplexer sshMultiplexer;
+    private final ArtifactCache artifactCache;
+    private final ProbeCache probeCache;
+    private final LogShipper logShipper;
 
     public CastleCluster(CastleEnvironment env, CastleLog clusterLog,
             CastleShutdownManager shutdownManager, CastleClusterSpec spec) throws Exception {
@@ -61,14 +75,19 @@ public final class CastleCluster implements AutoCloseable {
         this.env = env;
         this.clusterLog = clusterLog;
         this.cloudCache = new CloudCache();
+        this.trace = new CastleTrace();
+        this.sshMultiplexer = new SshMultiplexer(clusterLog, conf.sshMultiplexing());
+        this.artifactCache = new ArtifactCache();
+        this.probeCache = new ProbeCache();
         TreeMap<String, CastleNode> nodes = new TreeMap<>();
         int nodeIndex = 0;
         Map<String, Map<Class<? extends Role>, Role>> nodesToRoles = spec.nodesToRoles();
         for (Map.Entry<String, Map<Class<? extends Role>, Role>> e : nodesToRoles.entrySet()) {
             String nodeName = e.getKey();
             Map<Class<? extends Role>, Role> roleMap = e.getValue();
-            CastleLog castleLog = env.createCastleLog(nodeName);
-            CastleNode node = new CastleNode(clusterLog, nodeIndex, nodeName, castleLog, roleMap);
+            CastleLog castleLog = env.createCastleLog(nodeName, conf);
+            CastleNode node = new CastleNode(clusterLog, nodeIndex, nodeName, castleLog,
+                trace, roleMap);
             nodes.put(nodeName, node);
             node.setUplink(getNodeUplink(nodeName, node, roleMap.values()));
             nodeIndex++;
@@ -76,6 +95,9 @@ public final class CastleCluster implements AutoCloseable {
         this.nodes = Collections.unmodifiableMap(nodes);
         this.shutdownManager = shutdownManager;
         this.originalRoles = spec.roles();
+        this.journal = env.createActionJournal();
+        this.durations = env.createActionDurations();
+        this.logShipper = new LogShipper(this);
     }
 
     private Uplink getNodeUplink(String nodeName, CastleNode node, Collection<Role> roles)  {
@@ -103,6 +125,38 @@ public final class CastleCluster implements AutoCloseable {
         return cloudCache;
     }
 
+    public ActionJournal journal() {
+        return journal;
+    }
+
+    public ActionDurations durations() {
+        return durations;
+    }
+
+    public CastleTrace trace() {
+        return trace;
+    }
+
+    public SshMultiplexer sshMultiplexer() {
+        return sshMultiplexer;
+    }
+
+    public ArtifactCache artifactCache() {
+        return artifactCache;
+    }
+
+    public ProbeCache probeCache() {
+        return probeCache;
+    }
+
+    /**
+     * Get the log shipper, which copies the node logs in the background once it
+     * is started.
+     */
+    public LogShipper logShipper() {
+        return logShipper;
+    }
+
     public CastleLog clusterLog() {
         return clusterLog;
     }
@@ -149,7 +203,7 @@ public final class CastleCluster implements AutoCloseable {
             bld.append(prefix);
             prefix = ",";
             CastleNode node = nodes.get(nodeName);
-            bld.append(String.format("%s:9092", node.uplink().internalDns()));
+            bld.append(String.format("%s:%d", node.uplink().internalDns(), BrokerRole.PORT));
         }
         return bld.toString();
     }
@@ -160,7 +214,8 @@ public final class CastleCluster implements AutoCloseable {
         for (String nodeName : nodesWithRole(ZooKeeperRole.class).values()) {
             bld.append(prefix);
             prefix = ",";
-            bld.append(nodes().get(nodeName).uplink().internalDns()).append(":2181");
+            bld.append(nodes().get(nodeName).uplink().internalDns()).
+                append(":").append(ZooKeeperRole.PORT);
         }
         return bld.toString();
     }
@@ -251,6 +306,19 @@ public final class CastleCluster implements AutoCloseable {
      */
     public ActionScheduler createScheduler(List<String> targetNames,
                 Collection<Action> additionalActions) throws Exception {
+        return createSchedulerBuilder(targetNames, additionalActions).build();
+    }
+
+    /**
+     * Create a builder for a new action scheduler.
+     *
+     * @param targetNames           The targets to execute.
+     * @param additionalActions     Some additional actions to add to our scheduler.  We will
+     *                              also add the actions corresponding to the cluster roles.
+     * @return                      The new scheduler builder.
+     */
+    public ActionScheduler.Builder createSchedulerBuilder(List<String> targetNames,
+                Collection<Action> additionalActions) throws Exception {
         ActionScheduler.Builder builder = new ActionScheduler.Builder(this);
         builder.addTargetNames(targetNames);
         builder.addActions(additionalActions);
@@ -259,16 +327,49 @@ public final class CastleCluster implements AutoCloseable {
                 builder.addActions(role.createActions(node.nodeName()));
             }
         }
-        return builder.build();
+        return builder;
     }
 
     public CastleShutdownManager shutdownManager() {
         return shutdownManager;
     }
 
+    /**
+     * Save the action durations, write out the trace of what we have run since the
+     * last call, and flush the node logs.  The castle daemon calls this after each
+     * request.
+     */
+    public void saveRunOutputs() {
+        try {
+            durations.save();
+        } catch (Throwable e) {
+            clusterLog.error("Unable to save the action durations", e);
+        }
+        String tracePath = env.tracePath();
+        if ((tracePath != null) && (!trace.isEmpty())) {
+            try {
+                trace.write(tracePath);
+            } catch (Throwable e) {
+                clusterLog.error("Unable to write the trace to {}", tracePath, e);
+            }
+        }
+        trace.clear();
+        artifactCache.clear();
+        for (CastleNode node : nodes.values()) {
+            try {
+                node.log().flush();
+            } catch (Throwable e) {
+                clusterLog.error("Unable to flush the log for {}", node.nodeName(), e);
+            }
+        }
+    }
+
     @Override
     public void close() {
+        CastleUtil.closeQuietly(clusterLog, logShipper, "logShipper");
+        saveRunOutputs();
         CastleUtil.closeQuietly(clusterLog, cloudCache, "cloudCache");
+        CastleUtil.closeQuietly(clusterLog, sshMultiplexer, "sshMultiplexer");
         for (Map.Entry<String, CastleNode> entry : nodes.entrySet()) {
             CastleUtil.closeQuietly(clusterLog, entry.getValue(), "cluster castleLogs");
         }
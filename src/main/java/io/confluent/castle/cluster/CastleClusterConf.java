@@ -19,24 +19,92 @@ package io.confluent.castle.cluster;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import io.confluent.castle.common.LogRotation;
 
 import java.io.File;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 
 public class CastleClusterConf {
     private final static int DEFAULT_GLOBAL_TIMEOUT = 3600;
 
+    /**
+     * Copy the source trees from this machine to every node.
+     */
+    public final static String SOURCE_DISTRIBUTION_DIRECT = "direct";
+
+    /**
+     * Copy the source trees from this machine to one node, which passes them on
+     * to the other nodes.
+     */
+    public final static String SOURCE_DISTRIBUTION_TREE = "tree";
+
+    /**
+     * Copy a Kafka release tarball to each node which does not already have it,
+     * rather than the Kafka source directory.
+     */
+    public final static String SOURCE_DISTRIBUTION_ARTIFACT = "artifact";
+
     private final String kafkaPath;
     private final String castlePath;
     private final int globalTimeout;
+    private final int maxConcurrentActions;
+    private final boolean virtualThreads;
+    private final boolean sshMultiplexing;
+    private final int sshFanOut;
+    private final String sourceDistribution;
+    private final String kafkaArtifact;
+    private final int daemonRestarts;
+    private final boolean structuredLogs;
+    private final int maxLogMegabytes;
+    private final int maxLogHours;
+    private final int maxLogSegments;
+    private final int logShipIntervalSeconds;
 
     @JsonCreator
     public CastleClusterConf(@JsonProperty("kafkaPath") String kafkaPath,
                              @JsonProperty("castlePath") String castlePath,
-                             @JsonProperty("globalTimeout") int globalTimeout) {
+                             @JsonProperty("globalTimeout") int globalTimeout,
+                             @JsonProperty("maxConcurrentActions") int maxConcurrentActions,
+                             @JsonProperty("virtualThreads") boolean virtualThreads,
+                             @JsonProperty("sshMultiplexing") Boolean sshMultiplexing,
+                             @JsonProperty("sshFanOut") int sshFanOut,
+                             @JsonProperty("sourceDistribution") String sourceDistribution,
+                             @JsonProperty("kafkaArtifact") String kafkaArtifact,
+                             @JsonProperty("daemonRestarts") int daemonRestarts,
+                             @JsonProperty("structuredLogs") boolean structuredLogs,
+                             @JsonProperty("maxLogMegabytes") int maxLogMegabytes,
+                             @JsonProperty("maxLogHours") int maxLogHours,
+                             @JsonProperty("maxLogSegments") int maxLogSegments,
+                             @JsonProperty("logShipIntervalSeconds") int logShipIntervalSeconds) {
         this.kafkaPath = (kafkaPath == null) ? "" : kafkaPath;
         this.castlePath = (castlePath == null) ? "" : castlePath;
         this.globalTimeout = (globalTimeout <= 0) ? DEFAULT_GLOBAL_TIMEOUT : globalTimeout;
+        this.maxConcurrentActions = (maxConcurrentActions < 0) ? 0 : maxConcurrentActions;
+        this.virtualThreads = virtualThreads;
+        this.sshMultiplexing = (sshMultiplexing == null) ? false : sshMultiplexing;
+        this.sshFanOut = (sshFanOut < 0) ? 0 : sshFanOut;
+        if ((sourceDistribution == null) || sourceDistribution.isEmpty()) {
+            this.sourceDistribution = SOURCE_DISTRIBUTION_DIRECT;
+        } else if (sourceDistribution.equals(SOURCE_DISTRIBUTION_DIRECT) ||
+                sourceDistribution.equals(SOURCE_DISTRIBUTION_TREE) ||
+                sourceDistribution.equals(SOURCE_DISTRIBUTION_ARTIFACT)) {
+            this.sourceDistribution = sourceDistribution;
+        } else {
+            throw new RuntimeException("Unknown sourceDistribution " + sourceDistribution +
+                ".  Expected " + SOURCE_DISTRIBUTION_DIRECT + ", " +
+                SOURCE_DISTRIBUTION_TREE + ", or " + SOURCE_DISTRIBUTION_ARTIFACT + ".");
+        }
+        this.kafkaArtifact = (kafkaArtifact == null) ? "" : kafkaArtifact;
+        this.daemonRestarts = (daemonRestarts < 0) ? 0 : daemonRestarts;
+        this.structuredLogs = structuredLogs;
+        this.maxLogMegabytes = (maxLogMegabytes <= 0) ?
+            (int) (LogRotation.DEFAULT_MAX_BYTES / (1024L * 1024L)) : maxLogMegabytes;
+        this.maxLogHours = (maxLogHours <= 0) ?
+            (int) TimeUnit.MILLISECONDS.toHours(LogRotation.DEFAULT_MAX_AGE_MS) : maxLogHours;
+        this.maxLogSegments = (maxLogSegments <= 0) ?
+            LogRotation.DEFAULT_MAX_SEGMENTS : maxLogSegments;
+        this.logShipIntervalSeconds = (logShipIntervalSeconds < 0) ? 0 : logShipIntervalSeconds;
     }
 
     @JsonProperty
@@ -69,4 +137,113 @@ public class CastleClusterConf {
     public int globalTimeout() {
         return globalTimeout;
     }
+
+    /**
+     * The maximum number of actions which may run at once across the whole
+     * cluster, or 0 if there is no limit.  No matter what this is set to, only
+     * one action runs at a time on each node.
+     */
+    @JsonProperty
+    public int maxConcurrentActions() {
+        return maxConcurrentActions;
+    }
+
+    /**
+     * True if actions should run in virtual threads, when the JVM supports them.
+     */
+    @JsonProperty
+    public boolean virtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * True if ssh and rsync commands to the same node should share one connection.
+     */
+    @JsonProperty
+    public boolean sshMultiplexing() {
+        return sshMultiplexing;
+    }
+
+    /**
+     * How many relay nodes each node should contact when running an ssh command on
+     * many nodes, or 0 if the command should be run on each node directly.
+     */
+    @JsonProperty
+    public int sshFanOut() {
+        return sshFanOut;
+    }
+
+    /**
+     * How to copy the source trees to the nodes: SOURCE_DISTRIBUTION_DIRECT or
+     * SOURCE_DISTRIBUTION_TREE.
+     */
+    @JsonProperty
+    public String sourceDistribution() {
+        return sourceDistribution;
+    }
+
+    /**
+     * The path to a Kafka release tarball to use when sourceDistribution is
+     * SOURCE_DISTRIBUTION_ARTIFACT, or the empty string to build one from kafkaPath.
+     */
+    @JsonProperty
+    public String kafkaArtifact() {
+        return kafkaArtifact;
+    }
+
+    /**
+     * How many times the castle agent on a node should restart a daemon which
+     * exits without being stopped.
+     */
+    @JsonProperty
+    public int daemonRestarts() {
+        return daemonRestarts;
+    }
+
+    /**
+     * True if the node logs should hold structured records, one JSON object per
+     * line, rather than text.
+     */
+    @JsonProperty
+    public boolean structuredLogs() {
+        return structuredLogs;
+    }
+
+    /**
+     * The size in megabytes at which a node log is rotated.
+     */
+    @JsonProperty
+    public int maxLogMegabytes() {
+        return maxLogMegabytes;
+    }
+
+    /**
+     * The age in hours at which a node log is rotated.
+     */
+    @JsonProperty
+    public int maxLogHours() {
+        return maxLogHours;
+    }
+
+    /**
+     * The number of rotated segments to keep for each node log.
+     */
+    @JsonProperty
+    public int maxLogSegments() {
+        return maxLogSegments;
+    }
+
+    /**
+     * How often to copy the logs on each node to the working directory while
+     * castle is watching or serving the cluster, or 0 to only copy them in saveLogs.
+     */
+    @JsonProperty
+    public int logShipIntervalSeconds() {
+        return logShipIntervalSeconds;
+    }
+
+    public LogRotation logRotation() {
+        return new LogRotation(maxLogMegabytes * 1024L * 1024L,
+            TimeUnit.HOURS.toMillis(maxLogHours), maxLogSegments);
+    }
 }
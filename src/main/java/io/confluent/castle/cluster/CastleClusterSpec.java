@@ -41,7 +41,7 @@ public class CastleClusterSpec {
                              @JsonProperty("nodes") Map<String, CastleNodeSpec> nodes,
                              @JsonProperty("roles") Map<String, Role> roles) throws Exception {
         this.conf = (conf == null) ?
-            new CastleClusterConf(null, null, 0) : conf;
+            new CastleClusterConf(null, null, 0, 0, false, null, 0, null, null, 0, false, 0, 0, 0, 0) : conf;
         if (nodes == null) {
             this.nodes = Collections.emptyMap();
         } else {
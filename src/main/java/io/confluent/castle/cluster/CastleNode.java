@@ -20,6 +20,7 @@ package io.confluent.castle.cluster;
 import io.confluent.castle.uplink.Uplink;
 import io.confluent.castle.common.CastleUtil;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleTrace;
 import io.confluent.castle.role.Role;
 import org.slf4j.Logger;
 
@@ -48,6 +49,11 @@ public final class CastleNode implements AutoCloseable {
      */
     private final CastleLog castleLog;
 
+    /**
+     * The trace which records what we ran on this node.
+     */
+    private final CastleTrace trace;
+
     /**
      * The roles supported by this node.
      */
@@ -59,11 +65,12 @@ public final class CastleNode implements AutoCloseable {
     private Uplink uplink;
 
     CastleNode(Logger clusterLog, int nodeIndex, String nodeName, CastleLog castleLog,
-               Map<Class<? extends Role>, Role> roles) {
+               CastleTrace trace, Map<Class<? extends Role>, Role> roles) {
         this.clusterLog = clusterLog;
         this.nodeIndex = nodeIndex;
         this.nodeName = nodeName;
         this.castleLog = castleLog;
+        this.trace = trace;
         this.roles = Collections.unmodifiableMap(roles);
         this.uplink = null;
     }
@@ -80,6 +87,10 @@ public final class CastleNode implements AutoCloseable {
         return castleLog;
     }
 
+    public CastleTrace trace() {
+        return trace;
+    }
+
     @SuppressWarnings("unchecked")
     public <R extends Role> R getRole(Class<? extends Role> clazz) {
         Role role = roles.get(clazz);
@@ -67,6 +67,14 @@ public interface Command {
      */
     Command syncFrom(String remote, String local);
 
+    /**
+     * Pass the output to the given consumer as it arrives.
+     *
+     * @param consumer              The consumer, or null.  By default, the output
+     *                              is not captured.
+     */
+    Command setOutputConsumer(OutputConsumer consumer);
+
     /**
      * Capture the output to the given StringBuilder.
      *
@@ -74,13 +82,35 @@ public interface Command {
      *                              captured to.  By default, the output is not
      *                              captured.
      */
-    Command captureOutput(StringBuilder stringBuilder);
+    default Command captureOutput(StringBuilder stringBuilder) {
+        return setOutputConsumer((stringBuilder == null) ? null :
+            new OutputCapture(stringBuilder, OutputCapture.UNLIMITED, 0));
+    }
+
+    /**
+     * Pass the output to the given handler one line at a time, as it arrives.
+     * Only the current line is held in memory.
+     *
+     * @param handler               The line handler.
+     */
+    default Command captureLines(LineHandler handler) {
+        return setOutputConsumer(OutputConsumer.forLines(handler));
+    }
 
     /**
      * Set whether we should capture the command output.
      */
     Command setCaptureStderr(boolean captureStderr);
 
+    /**
+     * Set whether the output should be copied to the node log when the command
+     * succeeds.  By default, it is.  Commands which do not log their output
+     * ignore this.
+     */
+    default Command setLogOutputOnSuccess(boolean logOutputOnSuccess) {
+        return this;
+    }
+
     /**
      * Sets the stdin to use for the command.
      *
@@ -88,6 +118,25 @@ public interface Command {
      */
     Command setStdin(byte[] stdin);
 
+    /**
+     * Write a file on the node, and wait for the write to complete.
+     *
+     * The contents are streamed over stdin to a temporary file next to the
+     * target, which is then renamed over it, so readers never see a partly
+     * written file.  This replaces any arguments which were set.
+     *
+     * @param path                  The remote path to write.
+     * @param contents              The file contents.
+     * @param mode                  The permissions to give the file, such as 0644.
+     *
+     * @throws Exception            If the write fails.
+     */
+    default void writeRemoteFile(String path, byte[] contents, int mode) throws Exception {
+        setStdin(contents).
+            argList(CommandBatch.writeFileArgs(path, mode)).
+            mustRun();
+    }
+
     /**
      * Runs the command.
      *
@@ -110,6 +159,13 @@ public interface Command {
      */
     void exec() throws Exception;
 
+    /**
+     * Create a batch which runs several steps as one script, using this command.
+     */
+    default CommandBatch batch() {
+        return new CommandBatch(this);
+    }
+
     /**
      * Translate a list of command-line arguments into a human-readable string.
      * Arguments which contain whitespace will be quoted.
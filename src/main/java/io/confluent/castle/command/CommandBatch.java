@@ -0,0 +1,259 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sequence of shell steps and file writes which are run on a node as one script,
+ * over a single connection.
+ *
+ * The steps run in the order they were added, each in its own subshell with stdin
+ * redirected from /dev/null.  The batch stops at the first step which fails.  Files
+ * are written from in-memory bytes, so they do not need to be staged locally first.
+ */
+public final class CommandBatch {
+    private static final String MARKER = "@@castle-batch";
+
+    /**
+     * The suffix of the temporary file which a file write goes to before it is
+     * renamed into place.  The shell expands $$ to its process ID.
+     */
+    private static final String TMP_SUFFIX = ".castle-tmp.$$";
+
+    private static final class Step {
+        private final List<String> args;
+        private final byte[] contents;
+
+        Step(List<String> args, byte[] contents) {
+            this.args = args;
+            this.contents = contents;
+        }
+    }
+
+    /**
+     * The results of running a batch.
+     */
+    public static final class Results {
+        private final int returnCode;
+        private final List<Integer> exitCodes;
+        private final List<String> outputs;
+
+        Results(int returnCode, List<Integer> exitCodes, List<String> outputs) {
+            this.returnCode = returnCode;
+            this.exitCodes = Collections.unmodifiableList(exitCodes);
+            this.outputs = Collections.unmodifiableList(outputs);
+        }
+
+        /**
+         * The exit status of the whole batch.  This is the exit code of the first
+         * step which failed, or 0 if every step succeeded.
+         */
+        public int returnCode() {
+            return returnCode;
+        }
+
+        /**
+         * The exit codes of the steps which ran, in order.
+         */
+        public List<Integer> exitCodes() {
+            return exitCodes;
+        }
+
+        /**
+         * The output of the steps which ran, in order.
+         */
+        public List<String> outputs() {
+            return outputs;
+        }
+    }
+
+    private final Command command;
+
+    private final List<Step> steps = new ArrayList<>();
+
+    private final String nonce;
+
+    public CommandBatch(Command command) {
+        this.command = command;
+        this.nonce = Long.toHexString(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Add a shell step.  The arguments are joined with spaces, the same way as
+     * the arguments to an ssh command.
+     *
+     * Leading ssh options (-n and --) are dropped, so argument lists built for
+     * Command#args can be added unchanged.
+     */
+    public CommandBatch args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    /**
+     * Add a shell step.  See args.
+     */
+    public CommandBatch argList(List<String> args) {
+        int start = 0;
+        if ((start < args.size()) && args.get(start).equals("-n")) {
+            start++;
+        }
+        if ((start < args.size()) && args.get(start).equals("--")) {
+            start++;
+        }
+        if (start == args.size()) {
+            throw new RuntimeException("You must supply arguments for each step.");
+        }
+        steps.add(new Step(new ArrayList<>(args.subList(start, args.size())), null));
+        return this;
+    }
+
+    /**
+     * Add a step which writes a file on the node.  The file is written to a
+     * temporary path and renamed into place, as in Command#writeRemoteFile.
+     *
+     * @param path          The remote path to write.
+     * @param contents      The file contents.
+     * @param mode          The permissions to give the file, such as 0644.
+     */
+    public CommandBatch writeFile(String path, byte[] contents, int mode) {
+        steps.add(new Step(Arrays.asList("write", path, String.format("%04o", mode)),
+            Arrays.copyOf(contents, contents.length)));
+        return this;
+    }
+
+    /**
+     * Run the batch.
+     *
+     * @return      The results.
+     */
+    public Results run() throws Exception {
+        StringBuilder output = new StringBuilder();
+        int returnCode = command.
+            captureOutput(output).
+            setStdin(script()).
+            args("bash", "-s").
+            run();
+        return parse(returnCode, output.toString());
+    }
+
+    /**
+     * Run the batch, throwing an exception if any step fails.
+     *
+     * @return      The results.
+     */
+    public Results mustRun() throws Exception {
+        Results results = run();
+        if (results.returnCode() != 0) {
+            int failed = results.exitCodes().size() - 1;
+            if ((failed >= 0) && (results.exitCodes().get(failed) != 0)) {
+                throw new CommandResultException(steps.get(failed).args, results.returnCode());
+            }
+            throw new CommandResultException(Arrays.asList("bash", "-s"), results.returnCode());
+        }
+        return results;
+    }
+
+    /**
+     * Create the script which runs the batch.  Each step is followed by a marker line
+     * containing its index and exit code, which parse uses to split up the output.
+     */
+    byte[] script() {
+        // The script runs on the node, so always use Unix line endings.
+        StringBuilder bld = new StringBuilder();
+        bld.append("echo '").append(MARKER).append(" ").append(nonce).append("'\n");
+        for (int i = 0; i < steps.size(); i++) {
+            Step step = steps.get(i);
+            bld.append("(\n");
+            if (step.contents == null) {
+                bld.append(String.join(" ", step.args)).append("\n");
+            } else {
+                String eof = "CASTLE_EOF_" + nonce;
+                String path = quote(step.args.get(1));
+                String tmpPath = path + TMP_SUFFIX;
+                bld.append("base64 -d > ").append(tmpPath).
+                    append(" <<'").append(eof).append("' && chmod ").append(step.args.get(2)).
+                    append(" ").append(tmpPath).append(" && mv -f ").append(tmpPath).
+                    append(" ").append(path).append("\n");
+                bld.append(Base64.getMimeEncoder(76, new byte[] {'\n'}).
+                    encodeToString(step.contents)).append("\n");
+                bld.append(eof).append("\n");
+            }
+            bld.append(") </dev/null 2>&1\n");
+            bld.append("r=$?\n");
+            bld.append("printf '\\n").append(MARKER).append(" ").append(nonce).
+                append(" ").append(i).append(" %d\\n' \"$r\"\n");
+            bld.append("[ \"$r\" -eq 0 ] || exit \"$r\"\n");
+        }
+        return bld.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    Results parse(int returnCode, String output) {
+        List<Integer> exitCodes = new ArrayList<>();
+        List<String> outputs = new ArrayList<>();
+        String startMarker = MARKER + " " + nonce + "\n";
+        int start = output.indexOf(startMarker);
+        if (start >= 0) {
+            start += startMarker.length();
+            String stepMarker = "\n" + MARKER + " " + nonce + " ";
+            while (true) {
+                int end = output.indexOf(stepMarker, start);
+                if (end < 0) {
+                    break;
+                }
+                int lineEnd = output.indexOf('\n', end + stepMarker.length());
+                if (lineEnd < 0) {
+                    lineEnd = output.length();
+                }
+                String[] fields = output.substring(end + stepMarker.length(), lineEnd).split(" ");
+                outputs.add(output.substring(start, end));
+                exitCodes.add(Integer.parseInt(fields[1]));
+                start = Math.min(lineEnd + 1, output.length());
+            }
+        }
+        return new Results(returnCode, exitCodes, outputs);
+    }
+
+    /**
+     * Get the arguments of a command which copies its stdin to a file, and then
+     * renames the file into place.
+     *
+     * @param path          The path to write.
+     * @param mode          The permissions to give the file.
+     */
+    static List<String> writeFileArgs(String path, int mode) {
+        String quotedPath = quote(path);
+        String tmpPath = quotedPath + TMP_SUFFIX;
+        return Arrays.asList("--", "cat", ">", tmpPath, "&&",
+            "chmod", String.format("%04o", mode), tmpPath, "&&",
+            "mv", "-f", tmpPath, quotedPath);
+    }
+
+    /**
+     * Quote a string for the shell.
+     */
+    public static String quote(String str) {
+        return "'" + str.replace("'", "'\\''") + "'";
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+/**
+ * Splits command output into lines.  Only the current partial line is buffered.
+ */
+final class LineSplitter implements OutputConsumer {
+    private final LineHandler handler;
+    private final StringBuilder line = new StringBuilder();
+    private boolean done = false;
+
+    LineSplitter(LineHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public synchronized void append(CharSequence chars) {
+        int start = 0;
+        for (int i = 0; (i < chars.length()) && (!done); i++) {
+            if (chars.charAt(i) == '\n') {
+                line.append(chars, start, i);
+                start = i + 1;
+                handle();
+            }
+        }
+        if (!done) {
+            line.append(chars, start, chars.length());
+        }
+    }
+
+    @Override
+    public synchronized void finish() {
+        if ((!done) && (line.length() > 0)) {
+            handle();
+        }
+        done = true;
+    }
+
+    private void handle() {
+        int length = line.length();
+        if ((length > 0) && (line.charAt(length - 1) == '\r')) {
+            line.setLength(length - 1);
+        }
+        if (!handler.handleLine(line.toString())) {
+            done = true;
+        }
+        line.setLength(0);
+    }
+}
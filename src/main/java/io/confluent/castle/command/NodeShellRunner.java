@@ -22,75 +22,37 @@ import io.confluent.castle.common.CastleLog;
 
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Runs a shell command for a node and captures the output to a log file, and
  * possibly a stringbuilder.
  */
 public class NodeShellRunner {
-    private static final int OUTPUT_REDIRECTOR_BUFFER_SIZE = 32768;
-
     /**
-     * A thread which reads the stdout from the process we're running.
+     * How much of the start and end of the output of a failed command to log, when
+     * we are not logging the output of successful commands.
      */
-    private static final class OutputHandler implements Runnable {
-        private final InputStream stream;
-        private final List<StringBuilder> stringBuilders;
-        private final CastleLog castleLog;
-        private final boolean newlineTerminate;
+    private static final int ERROR_OUTPUT_HEAD_CHARS = 16384;
+    private static final int ERROR_OUTPUT_TAIL_CHARS = 16384;
 
-        OutputHandler(InputStream stream, List<StringBuilder> stringBuilders,
-                      CastleLog castleLog, boolean newlineTerminate) {
-            this.stream = stream;
-            this.stringBuilders = stringBuilders;
-            this.castleLog = castleLog;
-            this.newlineTerminate = newlineTerminate;
-        }
+    private static final int MAX_TRACE_NAME_LENGTH = 80;
 
-        @Override
-        public void run() {
-            byte[] arr = new byte[OUTPUT_REDIRECTOR_BUFFER_SIZE];
-            boolean endedWithNewline = true;
-            try {
-                while (true) {
-                    int ret = stream.read(arr, 0, arr.length - 1);
-                    if (ret == -1) {
-                        break;
-                    }
-                    for (StringBuilder stringBuilder : stringBuilders) {
-                        synchronized (stringBuilder) {
-                            stringBuilder.append(new String(arr, 0, ret, StandardCharsets.UTF_8));
-                        }
-                    }
-                    if (castleLog != null) {
-                        synchronized (castleLog) {
-                            castleLog.write(arr, 0, ret);
-                        }
-                        if (ret >= 0) {
-                            endedWithNewline = (arr[ret] == '\n');
-                        }
-                    }
-                }
-                if (newlineTerminate && (!endedWithNewline)) {
-                    synchronized (castleLog) {
-                        castleLog.write(new byte[] {'\n'});
-                    }
-                }
-            } catch (EOFException e) {
-            } catch (IOException e) {
-                castleLog.printf("OutputRedirectory IOException: %s%n", e.getMessage());
-            }
-        }
-    }
+    /**
+     * How long to wait for a cancelled command to exit before killing it.
+     */
+    private static final long DESTROY_GRACE_MS = 5000;
 
     /**
-     * A thread which writes to a process' stdin.
+     * Writes to a process' stdin.
      */
     private static final class StdinHandler implements Runnable {
         private final byte[] data;
@@ -121,12 +83,20 @@ public class NodeShellRunner {
 
     private StringBuilder captureOutput = null;
 
+    private int captureHeadLimit = OutputCapture.UNLIMITED;
+
+    private int captureTailLimit = 0;
+
+    private OutputConsumer outputConsumer = null;
+
     private boolean captureStderr = true;
 
     private boolean logOutputOnSuccess = true;
 
     private byte[] stdin = null;
 
+    private String traceName = null;
+
     public NodeShellRunner(CastleNode node, List<String> commandLine) {
         this.node = node;
         this.commandLine = commandLine;
@@ -137,6 +107,27 @@ public class NodeShellRunner {
         return this;
     }
 
+    /**
+     * Limit how much of the output we capture.  By default, we capture all of it.
+     *
+     * @param headLimit     How many characters to capture from the start of the
+     *                      output, or OutputCapture.UNLIMITED.
+     * @param tailLimit     How many characters to capture from the end of the output.
+     */
+    public NodeShellRunner setCaptureLimits(int headLimit, int tailLimit) {
+        this.captureHeadLimit = headLimit;
+        this.captureTailLimit = tailLimit;
+        return this;
+    }
+
+    /**
+     * Pass the output to a consumer as it arrives.
+     */
+    public NodeShellRunner setOutputConsumer(OutputConsumer outputConsumer) {
+        this.outputConsumer = outputConsumer;
+        return this;
+    }
+
     public NodeShellRunner setCaptureStderr(boolean captureStderr) {
         this.captureStderr = captureStderr;
         return this;
@@ -156,75 +147,158 @@ public class NodeShellRunner {
         return this;
     }
 
+    /**
+     * Set the name to show for this command in the trace.  By default, we use
+     * the whole command line.
+     */
+    public NodeShellRunner setTraceName(String traceName) {
+        this.traceName = traceName;
+        return this;
+    }
+
     public int run() throws Exception {
         ProcessBuilder builder = new ProcessBuilder(commandLine);
-        builder.redirectErrorStream(false);
+        // If stdout and stderr are going to the same place anyway, let the process
+        // merge them, so that we only need one pump to read the output.
+        boolean capturing = (captureOutput != null) || (outputConsumer != null);
+        boolean mergeStderr = (!capturing) || captureStderr;
+        builder.redirectErrorStream(mergeStderr);
         int retCode = 1;
-        // Set up the string builders which will log the output.
-        List<StringBuilder> stdoutBuilders = new ArrayList<>();
-        List<StringBuilder> stderrBuilders = new ArrayList<>();
+        // Set up the consumers for the output.
+        List<OutputConsumer> stdoutConsumers = new ArrayList<>();
+        List<OutputConsumer> stderrConsumers = new ArrayList<>();
+        List<OutputConsumer> allConsumers = new ArrayList<>();
         if (captureOutput != null) {
-            stdoutBuilders.add(captureOutput);
-            if (captureStderr) {
-                stderrBuilders.add(captureOutput);
-            }
+            allConsumers.add(
+                new OutputCapture(captureOutput, captureHeadLimit, captureTailLimit));
+        }
+        if (outputConsumer != null) {
+            allConsumers.add(outputConsumer);
+        }
+        stdoutConsumers.addAll(allConsumers);
+        if (captureStderr) {
+            stderrConsumers.addAll(allConsumers);
         }
-        OutputHandler stdoutHandler = null, stderrHandler = null;
-        StdinHandler stdinHandler = null;
         StringBuilder errorStringBuilder = null;
-        Thread stdoutThread = null, stderrThread = null, stdinThread = null;
+        if (!logOutputOnSuccess) {
+            errorStringBuilder = new StringBuilder();
+            OutputCapture capture = new OutputCapture(errorStringBuilder,
+                ERROR_OUTPUT_HEAD_CHARS, ERROR_OUTPUT_TAIL_CHARS);
+            allConsumers.add(capture);
+            stdoutConsumers.add(capture);
+            stderrConsumers.add(capture);
+        }
+        CastleLog pumpLog = logOutputOnSuccess ? node.log() : null;
+        Future<?> stdoutPump = null, stderrPump = null, stdinWriter = null;
         Process process = null;
+        long startUs = node.trace().nowUs();
         try {
-            node.log().printf("** %s: RUNNING %s%n", node.nodeName(), Command.joinArgs(commandLine));
+            node.log().record(Command.joinArgs(commandLine), null, null,
+                String.format("** %s: RUNNING %s%n", node.nodeName(), Command.joinArgs(commandLine)));
             process = builder.start();
             if (stdin != null) {
-                stdinHandler = new StdinHandler(process.getOutputStream(), stdin, node.log());
-                stdinThread = new Thread(stdinHandler, "CastleSshStdin_" + node.nodeName());
-                stdinThread.start();
+                stdinWriter = OutputPump.submit(
+                    new StdinHandler(process.getOutputStream(), stdin, node.log()));
             }
-            if (logOutputOnSuccess) {
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, node.log(), true);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, node.log(), false);
-            } else {
-                errorStringBuilder = new StringBuilder();
-                stdoutBuilders.add(errorStringBuilder);
-                stderrBuilders.add(errorStringBuilder);
-                stdoutHandler = new OutputHandler(process.getInputStream(), stdoutBuilders, null, false);
-                stderrHandler = new OutputHandler(process.getErrorStream(), stderrBuilders, null, false);
+            stdoutPump = OutputPump.start(process.getInputStream(), stdoutConsumers, pumpLog, true);
+            if (!mergeStderr) {
+                stderrPump = OutputPump.start(process.getErrorStream(), stderrConsumers, pumpLog, false);
             }
-            stdoutThread = new Thread(stdoutHandler, "CastleSshStdout_" + node.nodeName());
-            stdoutThread.start();
-            stderrThread = new Thread(stderrHandler, "CastleSshStderr_" + node.nodeName());
-            stderrThread.start();
             retCode = process.waitFor();
-            stdoutThread.join();
-            stderrThread.join();
-            if (stdinThread != null) {
-                stdinThread.join();
+            stdoutPump.get();
+            if (stderrPump != null) {
+                stderrPump.get();
             }
-            node.log().printf("** %s: FINISHED %s with RESULT %d%n",
-                node.nodeName(), Command.joinArgs(commandLine), retCode);
+            if (stdinWriter != null) {
+                stdinWriter.get();
+            }
+            node.log().record(Command.joinArgs(commandLine), retCode,
+                (node.trace().nowUs() - startUs) / 1000L,
+                String.format("** %s: FINISHED %s with RESULT %d%n",
+                    node.nodeName(), Command.joinArgs(commandLine), retCode));
+        } catch (InterruptedException e) {
+            node.log().printf("** %s: CANCELLED %s%n", node.nodeName(), Command.joinArgs(commandLine));
+            throw e;
         } finally {
             if (process != null) {
-                process.destroy();
-                process.waitFor();
-            }
-            if (stdoutThread != null) {
-                stdoutThread.join();
+                stopProcess(process);
             }
-            if (stderrThread != null) {
-                stderrThread.join();
-            }
-            if (stdinThread != null) {
-                stdinThread.join();
+            awaitUninterruptibly(stdoutPump);
+            awaitUninterruptibly(stderrPump);
+            awaitUninterruptibly(stdinWriter);
+            for (OutputConsumer consumer : allConsumers) {
+                consumer.finish();
             }
             if ((errorStringBuilder != null) && (retCode != 0)) {
                 node.log().print(errorStringBuilder.toString());
             }
+            traceCommand(startUs, retCode);
         }
         return retCode;
     }
 
+    /**
+     * Stop a process, if it is still running.  We ask it to exit first, and kill
+     * it if it has not exited after DESTROY_GRACE_MS.  If the calling thread was
+     * interrupted, it stays interrupted.
+     */
+    private static void stopProcess(Process process) {
+        if (!process.isAlive()) {
+            return;
+        }
+        process.destroy();
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (!process.waitFor(DESTROY_GRACE_MS, TimeUnit.MILLISECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            interrupted = true;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Wait for a pump to finish.  Once the process is gone, the pumps which handle
+     * its input and output finish quickly, even if we were interrupted.
+     */
+    private static void awaitUninterruptibly(Future<?> future) {
+        if (future == null) {
+            return;
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                future.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void traceCommand(long startUs, int retCode) {
+        String command = Command.joinArgs(commandLine);
+        String name = (traceName == null) ? command : traceName;
+        if (name.length() > MAX_TRACE_NAME_LENGTH) {
+            name = name.substring(0, MAX_TRACE_NAME_LENGTH) + "...";
+        }
+        Map<String, String> args = new HashMap<>();
+        args.put("command", command);
+        args.put("result", Integer.toString(retCode));
+        node.trace().span(node.nodeName(), "command", name,
+            startUs, node.trace().nowUs(), args);
+    }
+
     public void mustRun() throws Exception {
         int returnCode = run();
         if (returnCode != 0) {
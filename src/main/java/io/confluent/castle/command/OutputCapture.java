@@ -0,0 +1,98 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+/**
+ * Captures the output of a command, keeping at most a fixed number of characters
+ * from the start of the output and from the end.  The characters in between are
+ * replaced with a note saying how many were omitted.
+ */
+public final class OutputCapture implements OutputConsumer {
+    /**
+     * A limit which keeps everything.
+     */
+    public static final int UNLIMITED = -1;
+
+    private final StringBuilder head;
+    private final int headLimit;
+    private final char[] tail;
+    private int tailStart = 0;
+    private int tailLength = 0;
+    private long omitted = 0;
+
+    /**
+     * Create a new capture.
+     *
+     * @param head          The StringBuilder to capture to.
+     * @param headLimit     How many characters to keep from the start of the output,
+     *                      or UNLIMITED to keep everything.
+     * @param tailLimit     How many characters to keep from the end of the output,
+     *                      once the head is full.
+     */
+    public OutputCapture(StringBuilder head, int headLimit, int tailLimit) {
+        this.head = head;
+        this.headLimit = headLimit;
+        this.tail = new char[(headLimit == UNLIMITED) ? 0 : Math.max(0, tailLimit)];
+    }
+
+    @Override
+    public synchronized void append(CharSequence chars) {
+        int start = 0;
+        if ((headLimit == UNLIMITED) || (head.length() < headLimit)) {
+            start = (headLimit == UNLIMITED) ? chars.length() :
+                Math.min(chars.length(), headLimit - head.length());
+            head.append(chars, 0, start);
+        }
+        for (int i = start; i < chars.length(); i++) {
+            if (tail.length == 0) {
+                omitted += chars.length() - i;
+                break;
+            }
+            if (tailLength < tail.length) {
+                tail[(tailStart + tailLength) % tail.length] = chars.charAt(i);
+                tailLength++;
+            } else {
+                tail[tailStart] = chars.charAt(i);
+                tailStart = (tailStart + 1) % tail.length;
+                omitted++;
+            }
+        }
+    }
+
+    /**
+     * Get how many characters were dropped from the middle of the output.
+     */
+    public synchronized long omitted() {
+        return omitted;
+    }
+
+    /**
+     * Add the tail of the output to the StringBuilder we are capturing to.  This
+     * should be called once, after all the output has been appended.
+     */
+    @Override
+    public synchronized void finish() {
+        if (omitted > 0) {
+            head.append(String.format("%n[... %d characters omitted ...]%n", omitted));
+        }
+        for (int i = 0; i < tailLength; i++) {
+            head.append(tail[(tailStart + i) % tail.length]);
+        }
+        tailLength = 0;
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+/**
+ * Receives the output of a command as it arrives.
+ */
+public interface OutputConsumer {
+    /**
+     * Receive the next piece of output.  The characters may be reused after this
+     * call returns, so implementations must copy anything they want to keep.
+     */
+    void append(CharSequence chars);
+
+    /**
+     * Called once, after all the output has been received.
+     */
+    void finish();
+
+    /**
+     * Create a consumer which passes the output to a handler one line at a time.
+     */
+    static OutputConsumer forLines(LineHandler handler) {
+        return new LineSplitter(handler);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleUtil;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Copies the output of a running process to the node log, and to any consumers.
+ *
+ * The pumps for every running process share one pool of threads, so starting a
+ * command does not start new threads unless all the pooled ones are busy.  The
+ * bytes we read are written to a text log as they are.  They are only decoded if
+ * someone is consuming the output, or if the log is structured.  A structured log
+ * gets one record per line, so that records never end part of the way through a
+ * line.  The decoder keeps any partial character at the end of a read until the
+ * next read, so multi-byte characters are never split.
+ * The pump runs as part of the action which started it, so structured logs
+ * attribute the output to that action.
+ */
+final class OutputPump implements Runnable {
+    private static final int BUFFER_SIZE = 32768;
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+        CastleUtil.createThreadFactory("CastleOutputPump%d", true));
+
+    private final InputStream stream;
+    private final List<OutputConsumer> consumers;
+    private final CastleLog castleLog;
+    private final OutputConsumer logLines;
+    private final boolean newlineTerminate;
+    private final String action;
+
+    /**
+     * Start pumping a stream.
+     *
+     * @param stream            The stream to read until EOF.
+     * @param consumers         The consumers to decode the output into.
+     * @param castleLog         The log to copy the output to, or null.
+     * @param newlineTerminate  True if we should add a newline to the log if the
+     *                          output does not end with one.
+     * @return                  A future which completes once the stream is done.
+     */
+    static Future<?> start(InputStream stream, List<OutputConsumer> consumers,
+                           CastleLog castleLog, boolean newlineTerminate) {
+        return EXECUTOR.submit(new OutputPump(stream, consumers, castleLog, newlineTerminate));
+    }
+
+    /**
+     * Run a task in the pump threads.  We use this to write to the process' stdin.
+     */
+    static Future<?> submit(Runnable runnable) {
+        return EXECUTOR.submit(runnable);
+    }
+
+    private OutputPump(InputStream stream, List<OutputConsumer> consumers,
+                       CastleLog castleLog, boolean newlineTerminate) {
+        this.stream = stream;
+        if ((castleLog != null) && castleLog.structured()) {
+            this.logLines = OutputConsumer.forLines(line -> {
+                castleLog.print(line);
+                return true;
+            });
+            this.consumers = new ArrayList<>(consumers);
+            this.consumers.add(logLines);
+        } else {
+            this.logLines = null;
+            this.consumers = consumers;
+        }
+        this.castleLog = castleLog;
+        this.newlineTerminate = newlineTerminate;
+        this.action = CastleLog.currentAction();
+    }
+
+    @Override
+    public void run() {
+        String prevAction = CastleLog.setCurrentAction(action);
+        try {
+            pump();
+        } finally {
+            CastleLog.setCurrentAction(prevAction);
+        }
+    }
+
+    private void pump() {
+        CharsetDecoder decoder = consumers.isEmpty() ? null : StandardCharsets.UTF_8.newDecoder().
+            onMalformedInput(CodingErrorAction.REPLACE).
+            onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+        CharBuffer out = (decoder == null) ? null : CharBuffer.allocate(BUFFER_SIZE);
+        boolean endedWithNewline = true;
+        try {
+            while (true) {
+                int ret = stream.read(in.array(), in.position(), in.remaining());
+                if (ret == -1) {
+                    break;
+                }
+                if (ret == 0) {
+                    continue;
+                }
+                if ((castleLog != null) && (logLines == null)) {
+                    castleLog.write(in.array(), in.position(), ret);
+                    endedWithNewline = (in.array()[in.position() + ret - 1] == '\n');
+                }
+                in.position(in.position() + ret);
+                if (decoder == null) {
+                    in.clear();
+                } else {
+                    in.flip();
+                    decode(decoder, in, out, false);
+                    in.compact();
+                }
+            }
+            if (decoder != null) {
+                in.flip();
+                decode(decoder, in, out, true);
+                while (decoder.flush(out).isOverflow()) {
+                    emit(out);
+                }
+                emit(out);
+            }
+            if (newlineTerminate && (castleLog != null) && (logLines == null) &&
+                    (!endedWithNewline)) {
+                castleLog.write(new byte[] {'\n'});
+            }
+        } catch (EOFException e) {
+        } catch (IOException e) {
+            if (castleLog != null) {
+                castleLog.printf("OutputPump IOException: %s%n", e.getMessage());
+            }
+        }
+        if (logLines != null) {
+            // Log the last line, even if it has no newline.
+            logLines.finish();
+        }
+    }
+
+    private void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out,
+                        boolean endOfInput) {
+        while (true) {
+            CoderResult result = decoder.decode(in, out, endOfInput);
+            emit(out);
+            if (result.isUnderflow()) {
+                return;
+            }
+        }
+    }
+
+    private void emit(CharBuffer out) {
+        out.flip();
+        if (out.hasRemaining()) {
+            for (OutputConsumer consumer : consumers) {
+                consumer.append(out);
+            }
+        }
+        out.clear();
+    }
+}
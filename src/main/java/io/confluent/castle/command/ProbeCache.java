@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleNode;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Remembers the results of read-only probes, such as process listings, so that
+ * the actions in a scheduler run which ask a node the same question only run one
+ * command between them.
+ *
+ * The scheduler clears the cache when it is created and closed, and invalidates a
+ * node's entries around every action which may change the node.  Probes which
+ * run on this machine, such as "docker ps", are kept under LOCAL, and are
+ * invalidated together with every node.
+ */
+public final class ProbeCache {
+    /**
+     * The scope of probes which run on this machine rather than on a node.
+     */
+    public static final String LOCAL = "";
+
+    /**
+     * The result of a probe command.
+     */
+    public static final class Output {
+        private final int returnCode;
+        private final String output;
+
+        Output(int returnCode, String output) {
+            this.returnCode = returnCode;
+            this.output = output;
+        }
+
+        public int returnCode() {
+            return returnCode;
+        }
+
+        public String output() {
+            return output;
+        }
+    }
+
+    /**
+     * Maps scopes to maps of probe keys to probes.
+     */
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, FutureTask<Object>>> scopes =
+        new ConcurrentHashMap<>();
+
+    /**
+     * Get the result of a probe, running it if it has not run since the scope
+     * was last invalidated.  If several threads ask for the same probe at once,
+     * it only runs once.  Probes which throw an exception are not cached.
+     *
+     * @param scope     The node name, or LOCAL.
+     * @param key       Identifies the probe within the scope.
+     * @param probe     Runs the probe.
+     *
+     * @return          The result of the probe.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String scope, String key, Callable<T> probe) throws Exception {
+        ConcurrentHashMap<String, FutureTask<Object>> probes =
+            scopes.computeIfAbsent(scope, s -> new ConcurrentHashMap<>());
+        FutureTask<Object> task = new FutureTask<>(probe::call);
+        FutureTask<Object> existing = probes.putIfAbsent(key, task);
+        if (existing == null) {
+            task.run();
+        } else {
+            task = existing;
+        }
+        try {
+            return (T) task.get();
+        } catch (ExecutionException e) {
+            probes.remove(key, task);
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Run a read-only command on a node, or return the result of the last time it ran.
+     *
+     * @param node      The node.
+     * @param args      The command arguments.
+     *
+     * @return          The exit status and output of the command.
+     */
+    public Output run(CastleNode node, String... args) throws Exception {
+        return get(node.nodeName(), Command.joinArgs(Arrays.asList(args)), () -> {
+            StringBuilder output = new StringBuilder();
+            int returnCode = node.uplink().command().
+                captureOutput(output).
+                args(args).
+                run();
+            return new Output(returnCode, output.toString());
+        });
+    }
+
+    /**
+     * Forget the probes which ran on a node, and on this machine.
+     */
+    public void invalidate(String nodeName) {
+        scopes.remove(nodeName);
+        scopes.remove(LOCAL);
+    }
+
+    /**
+     * Forget all probes.
+     */
+    public void clear() {
+        scopes.clear();
+    }
+}
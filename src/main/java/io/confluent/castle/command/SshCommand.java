@@ -38,6 +38,8 @@ public class SshCommand implements Command {
 
     private final String sshIdentityFile;
 
+    private final SshMultiplexer multiplexer;
+
     private Operation operation = Operation.SSH;
 
     private List<String> args = null;
@@ -48,16 +50,20 @@ public class SshCommand implements Command {
 
     private boolean captureStderr = false;
 
-    private StringBuilder stringBuilder = null;
+    private OutputConsumer outputConsumer = null;
 
     private byte[] stdin = null;
 
-    public SshCommand(CastleNode node, String dns, String sshUser, int sshPort, String sshIdentityFile) {
+    private boolean logOutputOnSuccess = true;
+
+    public SshCommand(CastleNode node, String dns, String sshUser, int sshPort,
+                      String sshIdentityFile, SshMultiplexer multiplexer) {
         this.node = node;
         this.dns = dns;
         this.sshUser = sshUser;
         this.sshPort = sshPort;
         this.sshIdentityFile = sshIdentityFile;
+        this.multiplexer = multiplexer;
     }
 
     @Override
@@ -93,8 +99,8 @@ public class SshCommand implements Command {
     }
 
     @Override
-    public Command captureOutput(StringBuilder stringBuilder) {
-        this.stringBuilder = stringBuilder;
+    public Command setOutputConsumer(OutputConsumer outputConsumer) {
+        this.outputConsumer = outputConsumer;
         return this;
     }
 
@@ -104,6 +110,12 @@ public class SshCommand implements Command {
         return this;
     }
 
+    @Override
+    public Command setLogOutputOnSuccess(boolean logOutputOnSuccess) {
+        this.logOutputOnSuccess = logOutputOnSuccess;
+        return this;
+    }
+
     @Override
     public Command setStdin(byte[] stdin) {
         if (stdin == null) {
@@ -117,30 +129,47 @@ public class SshCommand implements Command {
     @Override
     public int run() throws Exception {
         return new NodeShellRunner(node, makeCommandLine()).
-            setCaptureOutput(stringBuilder).
+            setOutputConsumer(outputConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setLogOutputOnSuccess(logOutputOnSuccess).
+            setTraceName(traceName()).
             run();
     }
 
     @Override
     public void mustRun() throws Exception {
         new NodeShellRunner(node, makeCommandLine()).
-            setCaptureOutput(stringBuilder).
+            setOutputConsumer(outputConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setLogOutputOnSuccess(logOutputOnSuccess).
+            setTraceName(traceName()).
             mustRun();
     }
 
     @Override
     public void exec() throws Exception {
         new NodeShellRunner(node, makeCommandLine()).
-            setCaptureOutput(stringBuilder).
+            setOutputConsumer(outputConsumer).
             setCaptureStderr(captureStderr).
             setStdin(stdin).
+            setLogOutputOnSuccess(logOutputOnSuccess).
+            setTraceName(traceName()).
             exec();
     }
 
+    private String traceName() {
+        switch (operation) {
+            case RSYNC_TO:
+                return "rsync " + local + " " + remote;
+            case RSYNC_FROM:
+                return "rsync " + remote + " " + local;
+            default:
+                return (args == null) ? "ssh" : Command.joinArgs(args);
+        }
+    }
+
     private List<String> makeCommandLine() {
         List<String> commandLine = new ArrayList<>();
         if (dns.isEmpty()) {
@@ -213,6 +242,9 @@ public class SshCommand implements Command {
         commandLine.add("-o");
         commandLine.add("UserKnownHostsFile=/dev/null");
 
+        // Share one connection to the node between all of our commands.
+        commandLine.addAll(multiplexer.sshOptions());
+
         return commandLine;
     }
 
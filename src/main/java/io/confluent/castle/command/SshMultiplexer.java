@@ -0,0 +1,132 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import org.slf4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares one authenticated ssh connection per node between all of our ssh and rsync
+ * commands, using OpenSSH connection multiplexing.
+ *
+ * The first command to each node starts a master connection, which keeps running in
+ * the background after the command finishes.  Later commands open a channel on the
+ * master instead of making a new TCP connection and key exchange.  The control sockets
+ * live in a temporary directory, which is created the first time it is needed.
+ * Closing the multiplexer stops all the masters and removes the directory.
+ */
+public final class SshMultiplexer implements AutoCloseable {
+    /**
+     * How long an idle master keeps running.  This only matters if we exit without
+     * closing the multiplexer.
+     */
+    static final int CONTROL_PERSIST_SECONDS = 120;
+
+    /**
+     * How long to wait for a master to exit.
+     */
+    private static final long EXIT_TIMEOUT_MS = 5000;
+
+    private final Logger log;
+    private final boolean enabled;
+    private Path controlDir = null;
+    private boolean closed = false;
+
+    public SshMultiplexer(Logger log, boolean enabled) {
+        this.log = log;
+        this.enabled = enabled;
+    }
+
+    /**
+     * Get the ssh options which make a command use the shared connection.
+     */
+    public synchronized List<String> sshOptions() {
+        if ((!enabled) || closed) {
+            return Collections.emptyList();
+        }
+        if (controlDir == null) {
+            try {
+                controlDir = createControlDir();
+            } catch (IOException e) {
+                log.error("Unable to create a directory for ssh control sockets.  " +
+                    "Not sharing ssh connections.", e);
+                closed = true;
+                return Collections.emptyList();
+            }
+        }
+        return Arrays.asList(
+            "-o", "ControlMaster=auto",
+            // %C is a hash of the host, port, and user.  Unix socket paths are limited
+            // to about 100 bytes, so we can't use anything longer.
+            "-o", "ControlPath=" + controlDir + File.separator + "%C",
+            "-o", "ControlPersist=" + CONTROL_PERSIST_SECONDS);
+    }
+
+    private static Path createControlDir() throws IOException {
+        // The default temporary directory can have a long path on some systems, which
+        // would not leave enough room for the socket name.
+        Path tmp = Paths.get("/tmp");
+        if (Files.isDirectory(tmp)) {
+            return Files.createTempDirectory(tmp, "castle-ssh");
+        }
+        return Files.createTempDirectory("castle-ssh");
+    }
+
+    @Override
+    public void close() throws Exception {
+        Path dir;
+        synchronized (this) {
+            closed = true;
+            dir = controlDir;
+            controlDir = null;
+        }
+        if (dir == null) {
+            return;
+        }
+        File[] sockets = dir.toFile().listFiles();
+        if (sockets != null) {
+            List<Process> processes = new ArrayList<>();
+            for (File socket : sockets) {
+                processes.add(new ProcessBuilder("ssh", "-o", "ControlPath=" + socket,
+                    "-O", "exit", "castle").
+                    redirectErrorStream(true).
+                    redirectOutput(ProcessBuilder.Redirect.to(new File("/dev/null"))).
+                    start());
+            }
+            for (Process process : processes) {
+                if (!process.waitFor(EXIT_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                    process.destroyForcibly();
+                }
+            }
+            for (File socket : sockets) {
+                Files.deleteIfExists(socket.toPath());
+            }
+        }
+        Files.deleteIfExists(dir);
+    }
+}
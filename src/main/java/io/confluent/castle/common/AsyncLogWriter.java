@@ -0,0 +1,266 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes CastleLog output to files from a single background thread.
+ *
+ * Each log has its own lock-free queue of pending writes.  Threads which log only
+ * append to the queue, so they never wait for each other or for the disk.  The
+ * writer thread drains each log which has pending writes into a buffered stream,
+ * and flushes the stream once per batch.  If a log falls more than its limit of
+ * queued bytes behind, the threads which write to it block until the writer has
+ * caught up, so that a flood of process output cannot use up the heap.
+ */
+final class AsyncLogWriter {
+    /**
+     * The default limit on the number of bytes queued for one log.
+     */
+    static final long DEFAULT_MAX_QUEUED_BYTES = 8L * 1024L * 1024L;
+
+    /**
+     * The most bytes the writer copies from one log before moving on to the others.
+     */
+    private static final long MAX_BATCH_BYTES = 1024L * 1024L;
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final AsyncLogWriter INSTANCE = new AsyncLogWriter();
+
+    /**
+     * Sinks which have pending writes.
+     */
+    private final LinkedBlockingQueue<Sink> ready = new LinkedBlockingQueue<>();
+
+    /**
+     * All open sinks.
+     */
+    private final Set<Sink> sinks = ConcurrentHashMap.newKeySet();
+
+    static AsyncLogWriter get() {
+        return INSTANCE;
+    }
+
+    private AsyncLogWriter() {
+        CastleUtil.createThreadFactory("CastleLogWriter", true).
+            newThread(this::run).start();
+        // Write out whatever is still queued if the JVM exits without closing the logs.
+        Runtime.getRuntime().addShutdownHook(
+            CastleUtil.createThreadFactory("CastleLogWriterShutdown", false).
+                newThread(this::drainAll));
+    }
+
+    /**
+     * Open a sink which writes to a stream.  The sink owns the stream, and closes
+     * it when it is closed.
+     */
+    Sink open(OutputStream outputStream, long maxQueuedBytes) {
+        Sink sink = new Sink(outputStream, maxQueuedBytes);
+        sinks.add(sink);
+        return sink;
+    }
+
+    private void run() {
+        while (true) {
+            Sink sink;
+            try {
+                sink = ready.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            sink.drain();
+        }
+    }
+
+    private void drainAll() {
+        for (Sink sink : sinks) {
+            sink.drain();
+        }
+    }
+
+    /**
+     * The queue of pending writes for one log.
+     */
+    final class Sink {
+        private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+
+        /**
+         * The number of bytes in pending.
+         */
+        private final AtomicLong queuedBytes = new AtomicLong(0);
+
+        /**
+         * The number of writes which have been added to pending, or are about to be.
+         */
+        private final AtomicLong enqueued = new AtomicLong(0);
+
+        /**
+         * True if this sink is in the ready queue.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        private final OutputStream outputStream;
+
+        private final long maxQueuedBytes;
+
+        /**
+         * The number of writes which have been written and flushed.  Protected by
+         * this sink's lock.
+         */
+        private long written = 0;
+
+        private volatile boolean closed = false;
+
+        private volatile IOException error = null;
+
+        private Sink(OutputStream outputStream, long maxQueuedBytes) {
+            this.outputStream = new BufferedOutputStream(outputStream, BUFFER_SIZE);
+            this.maxQueuedBytes = maxQueuedBytes;
+        }
+
+        /**
+         * Queue a write.  The sink takes ownership of the buffer.  Writes to a
+         * closed sink are dropped.
+         */
+        void write(byte[] buf) throws IOException {
+            IOException error = this.error;
+            if (error != null) {
+                throw new IOException("Unable to write to the log", error);
+            }
+            if (closed) {
+                return;
+            }
+            if (queuedBytes.get() >= maxQueuedBytes) {
+                awaitSpace();
+            }
+            // Count the write before adding it, so that flush waits for every write
+            // which was queued before it was called.
+            enqueued.incrementAndGet();
+            queuedBytes.addAndGet(buf.length);
+            pending.add(buf);
+            schedule();
+        }
+
+        private synchronized void awaitSpace() throws IOException {
+            while ((queuedBytes.get() >= maxQueuedBytes) && (!closed)) {
+                schedule();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+
+        /**
+         * Wait until every write queued before this call has been written and flushed.
+         */
+        void flush() throws IOException {
+            long target = enqueued.get();
+            schedule();
+            synchronized (this) {
+                while ((written < target) && (!closed)) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+            }
+            IOException error = this.error;
+            if (error != null) {
+                throw new IOException("Unable to write to the log", error);
+            }
+        }
+
+        /**
+         * Flush the sink, and close its stream.
+         */
+        void close() throws IOException {
+            try {
+                flush();
+            } finally {
+                synchronized (this) {
+                    if (!closed) {
+                        closed = true;
+                        pending.clear();
+                        notifyAll();
+                        outputStream.close();
+                    }
+                }
+                sinks.remove(this);
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+            }
+        }
+
+        /**
+         * Write out a batch of pending writes.  Called from the writer thread.
+         */
+        private synchronized void drain() {
+            scheduled.set(false);
+            if (closed) {
+                return;
+            }
+            long count = 0;
+            long bytes = 0;
+            byte[] buf;
+            while ((bytes < MAX_BATCH_BYTES) && ((buf = pending.poll()) != null)) {
+                count++;
+                bytes += buf.length;
+                if (error == null) {
+                    try {
+                        outputStream.write(buf);
+                    } catch (IOException e) {
+                        error = e;
+                    }
+                }
+            }
+            if ((count > 0) && (error == null)) {
+                try {
+                    outputStream.flush();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+            written += count;
+            queuedBytes.addAndGet(-bytes);
+            notifyAll();
+            if (!pending.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+}
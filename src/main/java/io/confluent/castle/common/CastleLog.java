@@ -24,36 +24,85 @@ import org.slf4j.helpers.FormattingTuple;
 import org.slf4j.helpers.MessageFormatter;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
 
+/**
+ * A log for a node, or for the whole cluster.
+ *
+ * Logs which are backed by files are written asynchronously by AsyncLogWriter, so
+ * that the threads which print to them do not contend on a lock or wait for the
+ * disk.  Other logs write to their stream directly.  Log files are rotated, as
+ * described by RotatingLogFile.
+ *
+ * A structured log writes each message as a CastleLogRecord, with the time, the
+ * node, and the action which the printing thread is running.  Output which is
+ * written to the log directly becomes a record of its own.
+ */
 public final class CastleLog implements AutoCloseable, Logger {
     private static final Logger log = LoggerFactory.getLogger(CastleLog.class);
 
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss ").withZone(ZoneId.systemDefault());
+
+    /**
+     * The timestamp prefix for a given second.
+     */
+    private static final class Timestamp {
+        private final long second;
+        private final byte[] prefix;
+
+        Timestamp(long second, byte[] prefix) {
+            this.second = second;
+            this.prefix = prefix;
+        }
+    }
+
+    /**
+     * The most recently used timestamp prefix.  Every log shares it, so the prefix
+     * is only formatted once a second.
+     */
+    private static volatile Timestamp timestamp = new Timestamp(Long.MIN_VALUE, new byte[0]);
+
+    /**
+     * The ID of the action which the current thread is running, or null.
+     */
+    private static final ThreadLocal<String> CURRENT_ACTION = new ThreadLocal<>();
+
+    /**
+     * Decides which messages a CastleLog prints.
+     */
+    public interface Filter {
+        /**
+         * Return true if the message should be printed.
+         *
+         * @param str       The message, without the timestamp.
+         */
+        boolean shouldPrint(String str);
+    }
+
     private final String name;
     private OutputStream outputStream;
-    private final boolean enableDebug;
+    private final AsyncLogWriter.Sink sink;
+    private volatile boolean enableDebug;
+    private final boolean structured;
+    private volatile Filter filter = null;
 
     public static CastleLog fromFile(String logBase, String nodeName, boolean enableDebug) throws IOException {
+        return fromFile(logBase, nodeName, enableDebug, false, LogRotation.DEFAULT);
+    }
+
+    public static CastleLog fromFile(String logBase, String nodeName, boolean enableDebug,
+                                     boolean structured, LogRotation rotation) throws IOException {
         File file = new File(new File(logBase), nodeName + ".clog");
-        FileOutputStream outputStream = new FileOutputStream(file, true);
-        CastleLog log = null;
-        try {
-            log = new CastleLog(nodeName, outputStream, enableDebug);
-        } finally {
-            if (log == null) {
-                try {
-                    outputStream.close();
-                } catch (Throwable throwable) {
-                    // Nowhere to log to
-                }
-            }
-        }
-        return log;
+        RotatingLogFile outputStream = new RotatingLogFile(file.toPath(), rotation);
+        return new CastleLog(nodeName, AsyncLogWriter.get().
+            open(outputStream, AsyncLogWriter.DEFAULT_MAX_QUEUED_BYTES), enableDebug, structured);
     }
 
     public static CastleLog fromStdout(String name, boolean enableDebug) throws IOException {
@@ -70,9 +119,25 @@ public final class CastleLog implements AutoCloseable, Logger {
     }
 
     public CastleLog(String name, OutputStream outputStream, boolean enableDebug) {
+        this(name, outputStream, enableDebug, false);
+    }
+
+    public CastleLog(String name, OutputStream outputStream, boolean enableDebug,
+                     boolean structured) {
         this.name = name;
         this.outputStream = outputStream;
+        this.sink = null;
+        this.enableDebug = enableDebug;
+        this.structured = structured;
+    }
+
+    private CastleLog(String name, AsyncLogWriter.Sink sink, boolean enableDebug,
+                      boolean structured) {
+        this.name = name;
+        this.outputStream = null;
+        this.sink = sink;
         this.enableDebug = enableDebug;
+        this.structured = structured;
     }
 
     public static void debugToAll(String str, CastleLog... logs) {
@@ -87,11 +152,103 @@ public final class CastleLog implements AutoCloseable, Logger {
         }
     }
 
+    /**
+     * Set the ID of the action which the current thread is running.  Structured
+     * logs record it with every message which the thread prints.
+     *
+     * @param action    The action ID, or null if the thread is not running one.
+     * @return          The previous action ID of the thread.
+     */
+    public static String setCurrentAction(String action) {
+        String prev = CURRENT_ACTION.get();
+        if (action == null) {
+            CURRENT_ACTION.remove();
+        } else {
+            CURRENT_ACTION.set(action);
+        }
+        return prev;
+    }
+
+    /**
+     * Get the ID of the action which the current thread is running, or null.
+     */
+    public static String currentAction() {
+        return CURRENT_ACTION.get();
+    }
+
+    /**
+     * Return true if this log writes structured records.
+     */
+    public boolean structured() {
+        return structured;
+    }
+
+    /**
+     * Set the filter for printed messages, or null to print every message.
+     */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Return true if debug messages are printed.
+     */
+    public boolean enableDebug() {
+        return enableDebug;
+    }
+
+    /**
+     * Set whether debug messages are printed.
+     */
+    public void setEnableDebug(boolean enableDebug) {
+        this.enableDebug = enableDebug;
+    }
+
+    /**
+     * Get the timestamp prefix for a time.
+     *
+     * @param timeMs    The time in milliseconds since the epoch.
+     * @return          The prefix.  The caller must not modify it.
+     */
+    static byte[] timestampPrefix(long timeMs) {
+        long second = Math.floorDiv(timeMs, 1000L);
+        Timestamp cur = timestamp;
+        if (cur.second != second) {
+            cur = new Timestamp(second, TIMESTAMP_FORMAT.
+                format(Instant.ofEpochSecond(second)).getBytes(StandardCharsets.UTF_8));
+            timestamp = cur;
+        }
+        return cur.prefix;
+    }
+
     public void print(String str) {
+        record(null, null, null, str);
+    }
+
+    /**
+     * Print the result of a command.  A structured log stores the command, its
+     * exit code, and its duration in the record.  Other logs just print the message.
+     *
+     * @param command       The command, or null.
+     * @param exitCode      The exit code of the command, or null.
+     * @param durationMs    How long the command took, or null.
+     * @param str           The message.
+     */
+    public void record(String command, Integer exitCode, Long durationMs, String str) {
+        Filter filter = this.filter;
+        if ((filter != null) && (!filter.shouldPrint(str))) {
+            return;
+        }
         try {
-            String prefix = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").
-                format(new Date()) + " ";
-            write((prefix + str).getBytes(StandardCharsets.UTF_8));
+            if (structured) {
+                writeRecord(command, exitCode, durationMs, str);
+                return;
+            }
+            byte[] prefix = timestampPrefix(System.currentTimeMillis());
+            byte[] body = str.getBytes(StandardCharsets.UTF_8);
+            byte[] line = Arrays.copyOf(prefix, prefix.length + body.length);
+            System.arraycopy(body, 0, line, prefix.length, body.length);
+            write(line);
             if (log.isTraceEnabled()) {
                 if ((str.length() > 0) && (str.charAt(str.length() - 1) == '\n')) {
                     str = str.substring(0, str.length() - 1);
@@ -103,6 +260,24 @@ public final class CastleLog implements AutoCloseable, Logger {
         }
     }
 
+    private void writeRecord(String command, Integer exitCode, Long durationMs,
+                             String str) throws IOException {
+        int end = str.length();
+        while ((end > 0) && ((str.charAt(end - 1) == '\n') || (str.charAt(end - 1) == '\r'))) {
+            end--;
+        }
+        if ((end == 0) && (command == null)) {
+            return;
+        }
+        byte[] line = new CastleLogRecord(System.currentTimeMillis(), name, CURRENT_ACTION.get(),
+            command, exitCode, durationMs, str.substring(0, end)).toJson();
+        if (sink != null) {
+            sink.write(line);
+        } else {
+            writeDirect(line, 0, line.length);
+        }
+    }
+
     public void printf(String format, Object... args) {
         print(String.format(format, args));
     }
@@ -120,20 +295,57 @@ public final class CastleLog implements AutoCloseable, Logger {
         print(msg + System.lineSeparator());
     }
 
-    public synchronized void write(byte[] buf) throws IOException {
-        if (outputStream != null) {
-            outputStream.write(buf);
+    public void write(byte[] buf) throws IOException {
+        write(buf, 0, buf.length);
+    }
+
+    /**
+     * Write raw bytes to the log.  In a structured log, they become the message of one
+     * record, so they should be whole lines of UTF-8.
+     */
+    public void write(byte[] buf, int off, int len) throws IOException {
+        if (structured) {
+            writeRecord(null, null, null, new String(buf, off, len, StandardCharsets.UTF_8));
+        } else if (sink != null) {
+            sink.write(Arrays.copyOfRange(buf, off, off + len));
+        } else {
+            writeDirect(buf, off, len);
         }
     }
 
-    public synchronized void write(byte[] buf, int off, int len) throws IOException {
+    private synchronized void writeDirect(byte[] buf, int off, int len) throws IOException {
         if (outputStream != null) {
             outputStream.write(buf, off, len);
         }
     }
 
+    /**
+     * Wait until everything printed to this log so far has been written out.
+     */
+    public void flush() throws IOException {
+        if (sink != null) {
+            sink.flush();
+        } else {
+            flushDirect();
+        }
+    }
+
+    private synchronized void flushDirect() throws IOException {
+        if (outputStream != null) {
+            outputStream.flush();
+        }
+    }
+
     @Override
-    public synchronized void close() throws IOException {
+    public void close() throws IOException {
+        if (sink != null) {
+            sink.close();
+        } else {
+            closeDirect();
+        }
+    }
+
+    private synchronized void closeDirect() throws IOException {
         if (outputStream != null) {
             outputStream.close();
         }
@@ -0,0 +1,566 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * An index of the records in a node log.
+ *
+ * The log is memory-mapped.  A structured record is a single line.  A text record
+ * is a line which starts with a timestamp, together with the lines after it which
+ * do not, such as the output of a command.  For each record, the index holds its
+ * offset, its time, and the action which printed it, so that a query only reads
+ * the records which match.
+ *
+ * The index is saved next to the log.  When the log has grown since then, only
+ * the new part of the log is read.
+ */
+public final class CastleLogIndex {
+    public static final String INDEX_SUFFIX = ".idx";
+
+    private static final int MAGIC = 0x434c4958;
+
+    private static final int VERSION = 1;
+
+    /**
+     * The number of bytes at the start of the log which we check to make sure that
+     * a saved index still belongs to it.
+     */
+    private static final int HEAD_BYTES = 256;
+
+    /**
+     * The length of the timestamp which starts each text record, "yyyy-MM-dd HH:mm:ss ".
+     */
+    private static final int TEXT_TIMESTAMP_LENGTH = 20;
+
+    /**
+     * Selects records from the node logs.
+     */
+    public static final class Query {
+        private final Set<String> nodes;
+        private final String action;
+        private final long sinceMs;
+        private final long untilMs;
+        private final String grep;
+
+        /**
+         * Create a query.
+         *
+         * @param nodes     The nodes to search, or the empty set to search them all.
+         * @param action    The action ID or action type to find, or null.
+         * @param sinceMs   The earliest record time to find.
+         * @param untilMs   The latest record time to find.
+         * @param grep      A string which the message must contain, or null.
+         */
+        public Query(Set<String> nodes, String action, long sinceMs, long untilMs, String grep) {
+            this.nodes = Collections.unmodifiableSet(new HashSet<>(nodes));
+            this.action = action;
+            this.sinceMs = sinceMs;
+            this.untilMs = untilMs;
+            this.grep = grep;
+        }
+
+        public Set<String> nodes() {
+            return nodes;
+        }
+
+        public String action() {
+            return action;
+        }
+
+        public long sinceMs() {
+            return sinceMs;
+        }
+
+        public long untilMs() {
+            return untilMs;
+        }
+
+        public String grep() {
+            return grep;
+        }
+
+        public boolean matchesNode(String nodeName) {
+            return nodes.isEmpty() || nodes.contains(nodeName);
+        }
+
+        /**
+         * Return true if an action ID matches the query.  An action ID matches if
+         * it is the one we are looking for, or if its type is.
+         */
+        public boolean matchesAction(String actionId) {
+            if (action == null) {
+                return true;
+            }
+            if (actionId == null) {
+                return false;
+            }
+            if (actionId.equals(action)) {
+                return true;
+            }
+            int colon = actionId.indexOf(':');
+            return (colon >= 0) && actionId.substring(0, colon).equals(action);
+        }
+    }
+
+    /**
+     * The index columns, which grow as we read the log.
+     */
+    private static final class Columns {
+        private long[] offsets;
+        private long[] timesMs;
+        private int[] actions;
+        private int size;
+
+        Columns(int capacity) {
+            capacity = Math.max(16, capacity);
+            this.offsets = new long[capacity];
+            this.timesMs = new long[capacity];
+            this.actions = new int[capacity];
+            this.size = 0;
+        }
+
+        void add(long offset, long timeMs, int action) {
+            if (size == offsets.length) {
+                int capacity = offsets.length * 2;
+                offsets = Arrays.copyOf(offsets, capacity);
+                timesMs = Arrays.copyOf(timesMs, capacity);
+                actions = Arrays.copyOf(actions, capacity);
+            }
+            offsets[size] = offset;
+            timesMs[size] = timeMs;
+            actions[size] = action;
+            size++;
+        }
+    }
+
+    /**
+     * Builds the index.
+     */
+    private static final class Builder {
+        private final ByteBuffer buffer;
+        private final List<String> actionIds = new ArrayList<>();
+        private final Map<String, Integer> actionIndexes = new HashMap<>();
+        private Columns columns = new Columns(0);
+        private long indexedBytes = 0;
+        private long scannedBytes = 0;
+        private byte[] scratch = new byte[256];
+        private long lastTextTimestampMs = 0;
+        private final byte[] lastTextTimestamp = new byte[TEXT_TIMESTAMP_LENGTH];
+
+        Builder(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        int actionIndex(String actionId) {
+            if (actionId == null) {
+                return -1;
+            }
+            Integer index = actionIndexes.get(actionId);
+            if (index == null) {
+                index = actionIds.size();
+                actionIds.add(actionId);
+                actionIndexes.put(actionId, index);
+            }
+            return index;
+        }
+
+        /**
+         * Load a saved index, if it still matches the log.
+         *
+         * @return      True if the index was loaded.
+         */
+        boolean load(Path indexPath) throws IOException {
+            try (DataInputStream input = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(indexPath)))) {
+                if ((input.readInt() != MAGIC) || (input.readInt() != VERSION)) {
+                    return false;
+                }
+                long savedBytes = input.readLong();
+                int headLength = input.readInt();
+                long headChecksum = input.readLong();
+                if ((savedBytes > buffer.limit()) || (headLength > savedBytes) ||
+                        (headChecksum(buffer, headLength) != headChecksum)) {
+                    // The log was rotated or rewritten since we saved the index.
+                    return false;
+                }
+                int numActions = input.readInt();
+                for (int i = 0; i < numActions; i++) {
+                    actionIndex(input.readUTF());
+                }
+                int numRecords = input.readInt();
+                columns = new Columns(numRecords);
+                for (int i = 0; i < numRecords; i++) {
+                    long offset = input.readLong();
+                    long timeMs = input.readLong();
+                    int action = input.readInt();
+                    if ((action < -1) || (action >= numActions)) {
+                        return false;
+                    }
+                    columns.add(offset, timeMs, action);
+                }
+                indexedBytes = savedBytes;
+                return true;
+            } catch (NoSuchFileException e) {
+                return false;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+
+        void reset() {
+            actionIds.clear();
+            actionIndexes.clear();
+            columns = new Columns(0);
+            indexedBytes = 0;
+        }
+
+        /**
+         * Index the complete lines of the log which are not yet indexed.
+         */
+        void scan() {
+            int limit = buffer.limit();
+            int lineStart = (int) indexedBytes;
+            for (int i = lineStart; i < limit; i++) {
+                if (buffer.get(i) == '\n') {
+                    indexLine(lineStart, i);
+                    lineStart = i + 1;
+                }
+            }
+            scannedBytes = lineStart - indexedBytes;
+            indexedBytes = lineStart;
+        }
+
+        private void indexLine(int start, int end) {
+            if ((end > start) && (buffer.get(start) == '{')) {
+                int length = end - start;
+                if (scratch.length < length) {
+                    scratch = new byte[Math.max(length, scratch.length * 2)];
+                }
+                for (int i = 0; i < length; i++) {
+                    scratch[i] = buffer.get(start + i);
+                }
+                String[] actionId = new String[1];
+                try {
+                    long timeMs = CastleLogRecord.readTimeAndAction(scratch, 0, length, actionId);
+                    columns.add(start, timeMs, actionIndex(actionId[0]));
+                    return;
+                } catch (IOException e) {
+                    // This is not a structured record, but a line of output which
+                    // looks like JSON.
+                }
+            }
+            long timeMs = textTimestampMs(start, end);
+            if (timeMs >= 0) {
+                columns.add(start, timeMs, -1);
+            } else if (columns.size == 0) {
+                // Lines before the first record make up a record of their own.
+                columns.add(start, 0, -1);
+            }
+        }
+
+        /**
+         * Get the time of a text record, or -1 if the line does not start with a
+         * timestamp.
+         */
+        private long textTimestampMs(int start, int end) {
+            if (end - start < TEXT_TIMESTAMP_LENGTH) {
+                return -1;
+            }
+            boolean same = true;
+            for (int i = 0; i < TEXT_TIMESTAMP_LENGTH; i++) {
+                byte b = buffer.get(start + i);
+                if (b != lastTextTimestamp[i]) {
+                    same = false;
+                    break;
+                }
+            }
+            if (same) {
+                return lastTextTimestampMs;
+            }
+            for (int i = 0; i < TEXT_TIMESTAMP_LENGTH; i++) {
+                byte b = buffer.get(start + i);
+                boolean ok;
+                switch (i) {
+                    case 4:
+                    case 7:
+                        ok = (b == '-');
+                        break;
+                    case 10:
+                    case 19:
+                        ok = (b == ' ');
+                        break;
+                    case 13:
+                    case 16:
+                        ok = (b == ':');
+                        break;
+                    default:
+                        ok = (b >= '0') && (b <= '9');
+                        break;
+                }
+                if (!ok) {
+                    return -1;
+                }
+            }
+            try {
+                LocalDateTime time = LocalDateTime.of(digits(start, 4), digits(start + 5, 2),
+                    digits(start + 8, 2), digits(start + 11, 2), digits(start + 14, 2),
+                    digits(start + 17, 2));
+                lastTextTimestampMs = time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            } catch (RuntimeException e) {
+                return -1;
+            }
+            for (int i = 0; i < TEXT_TIMESTAMP_LENGTH; i++) {
+                lastTextTimestamp[i] = buffer.get(start + i);
+            }
+            return lastTextTimestampMs;
+        }
+
+        private int digits(int start, int length) {
+            int value = 0;
+            for (int i = 0; i < length; i++) {
+                value = (value * 10) + (buffer.get(start + i) - '0');
+            }
+            return value;
+        }
+
+        void save(Path indexPath) throws IOException {
+            Path tmp = Paths.get(indexPath.toString() + ".tmp");
+            int headLength = (int) Math.min(HEAD_BYTES, indexedBytes);
+            try (DataOutputStream output = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(indexedBytes);
+                output.writeInt(headLength);
+                output.writeLong(headChecksum(buffer, headLength));
+                output.writeInt(actionIds.size());
+                for (String actionId : actionIds) {
+                    output.writeUTF(actionId);
+                }
+                output.writeInt(columns.size);
+                for (int i = 0; i < columns.size; i++) {
+                    output.writeLong(columns.offsets[i]);
+                    output.writeLong(columns.timesMs[i]);
+                    output.writeInt(columns.actions[i]);
+                }
+            }
+            Files.move(tmp, indexPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private final String nodeName;
+    private final ByteBuffer buffer;
+    private final long indexedBytes;
+    private final long scannedBytes;
+    private final List<String> actionIds;
+    private final Columns columns;
+
+    /**
+     * The greatest time of any record up to and including each record.  Records
+     * are written roughly in time order, but not exactly, since many threads print
+     * to a log.  This gives us a sorted column to search for the first record which
+     * may be in a time range.
+     */
+    private final long[] maxTimesMs;
+
+    /**
+     * Open the index for a log, updating it if the log has grown.
+     *
+     * @param logPath       The path to the log.
+     * @param nodeName      The name of the node which the log belongs to.
+     */
+    public static CastleLogIndex open(Path logPath, String nodeName) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(logPath, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Unable to map " + logPath + ", since it is " +
+                    size + " bytes long.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        Path indexPath = indexPath(logPath);
+        Builder builder = new Builder(buffer);
+        if (!builder.load(indexPath)) {
+            builder.reset();
+        }
+        builder.scan();
+        if (builder.scannedBytes > 0) {
+            builder.save(indexPath);
+        }
+        return new CastleLogIndex(nodeName, builder);
+    }
+
+    /**
+     * Get the path of the saved index for a log.
+     */
+    public static Path indexPath(Path logPath) {
+        return Paths.get(logPath.toString() + INDEX_SUFFIX);
+    }
+
+    private static long headChecksum(ByteBuffer buffer, int length) {
+        CRC32 crc = new CRC32();
+        ByteBuffer head = buffer.duplicate();
+        head.position(0);
+        head.limit(length);
+        crc.update(head);
+        return crc.getValue();
+    }
+
+    private CastleLogIndex(String nodeName, Builder builder) {
+        this.nodeName = nodeName;
+        this.buffer = builder.buffer;
+        this.indexedBytes = builder.indexedBytes;
+        this.scannedBytes = builder.scannedBytes;
+        this.actionIds = Collections.unmodifiableList(new ArrayList<>(builder.actionIds));
+        this.columns = builder.columns;
+        this.maxTimesMs = new long[columns.size];
+        long maxTimeMs = Long.MIN_VALUE;
+        for (int i = 0; i < columns.size; i++) {
+            maxTimeMs = Math.max(maxTimeMs, columns.timesMs[i]);
+            maxTimesMs[i] = maxTimeMs;
+        }
+    }
+
+    public String nodeName() {
+        return nodeName;
+    }
+
+    /**
+     * Get the number of records in the index.
+     */
+    public int size() {
+        return columns.size;
+    }
+
+    /**
+     * Get the number of bytes of the log which we had to read because they were not
+     * in the saved index.
+     */
+    public long scannedBytes() {
+        return scannedBytes;
+    }
+
+    /**
+     * Find the records which match a query, in the order they appear in the log.
+     */
+    public List<CastleLogRecord> find(Query query) throws IOException {
+        List<CastleLogRecord> results = new ArrayList<>();
+        if (!query.matchesNode(nodeName)) {
+            return results;
+        }
+        boolean[] actionMatches = new boolean[actionIds.size()];
+        boolean anyActionMatches = false;
+        for (int i = 0; i < actionIds.size(); i++) {
+            actionMatches[i] = query.matchesAction(actionIds.get(i));
+            anyActionMatches |= actionMatches[i];
+        }
+        boolean textMatches = query.action() == null;
+        if ((!anyActionMatches) && (!textMatches)) {
+            return results;
+        }
+        int first = Arrays.binarySearch(maxTimesMs, 0, columns.size, query.sinceMs());
+        if (first < 0) {
+            first = -(first + 1);
+        } else {
+            // Find the first of several records with the same maximum time.
+            while ((first > 0) && (maxTimesMs[first - 1] == query.sinceMs())) {
+                first--;
+            }
+        }
+        for (int i = first; i < columns.size; i++) {
+            long timeMs = columns.timesMs[i];
+            if ((timeMs < query.sinceMs()) || (timeMs > query.untilMs())) {
+                continue;
+            }
+            int action = columns.actions[i];
+            if (action < 0 ? (!textMatches) : (!actionMatches[action])) {
+                continue;
+            }
+            CastleLogRecord record = read(i);
+            if ((query.grep() != null) && (!record.message().contains(query.grep())) &&
+                    ((record.command() == null) || (!record.command().contains(query.grep())))) {
+                continue;
+            }
+            results.add(record);
+        }
+        return results;
+    }
+
+    /**
+     * Read a record from the log.
+     */
+    private CastleLogRecord read(int index) throws IOException {
+        int start = (int) columns.offsets[index];
+        int end = (int) ((index + 1 < columns.size) ? columns.offsets[index + 1] : indexedBytes);
+        byte[] bytes = new byte[end - start];
+        ByteBuffer record = buffer.duplicate();
+        record.position(start);
+        record.get(bytes);
+        int length = bytes.length;
+        if ((length > 0) && (bytes[length - 1] == '\n')) {
+            length--;
+        }
+        if ((columns.actions[index] >= 0) || ((length > 0) && (bytes[0] == '{'))) {
+            try {
+                CastleLogRecord parsed = CastleLogRecord.fromJson(bytes, 0, length);
+                return new CastleLogRecord(parsed.timeMs(),
+                    (parsed.node() == null) ? nodeName : parsed.node(), parsed.action(),
+                    parsed.command(), parsed.exitCode(), parsed.durationMs(), parsed.message());
+            } catch (IOException e) {
+                // Fall through, and treat it as text.
+            }
+        }
+        int skip = (textTimestamp(bytes, length)) ? TEXT_TIMESTAMP_LENGTH : 0;
+        return new CastleLogRecord(columns.timesMs[index], nodeName, null, null, null, null,
+            new String(bytes, skip, length - skip, StandardCharsets.UTF_8));
+    }
+
+    private static boolean textTimestamp(byte[] bytes, int length) {
+        return (length >= TEXT_TIMESTAMP_LENGTH) && (bytes[4] == '-') && (bytes[7] == '-') &&
+            (bytes[10] == ' ') && (bytes[13] == ':') && (bytes[16] == ':') && (bytes[19] == ' ');
+    }
+}
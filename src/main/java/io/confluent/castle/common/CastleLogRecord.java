@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * A structured record in a node log.
+ *
+ * Structured logs hold one record per line, as a JSON object.  The fields are
+ * always written in the same order, starting with ts, node, and action, so that
+ * CastleLogIndex can index a record without reading its message.
+ */
+public final class CastleLogRecord {
+    static final String TS = "ts";
+    static final String NODE = "node";
+    static final String ACTION = "action";
+    static final String COMMAND = "command";
+    static final String EXIT_CODE = "exitCode";
+    static final String DURATION_MS = "durationMs";
+    static final String MSG = "msg";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final DateTimeFormatter TIME_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private final long timeMs;
+    private final String node;
+    private final String action;
+    private final String command;
+    private final Integer exitCode;
+    private final Long durationMs;
+    private final String message;
+
+    public CastleLogRecord(long timeMs, String node, String action, String command,
+                           Integer exitCode, Long durationMs, String message) {
+        this.timeMs = timeMs;
+        this.node = node;
+        this.action = action;
+        this.command = command;
+        this.exitCode = exitCode;
+        this.durationMs = durationMs;
+        this.message = (message == null) ? "" : message;
+    }
+
+    /**
+     * Parse a record which was written by toJson.
+     *
+     * @param buf       The buffer holding the record.
+     * @param off       The offset of the record.
+     * @param len       The length of the record, not including the newline.
+     */
+    public static CastleLogRecord fromJson(byte[] buf, int off, int len) throws IOException {
+        long timeMs = 0;
+        String node = null;
+        String action = null;
+        String command = null;
+        Integer exitCode = null;
+        Long durationMs = null;
+        String message = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(buf, off, len)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Log record is not a JSON object.");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case TS:
+                        timeMs = parser.getLongValue();
+                        break;
+                    case NODE:
+                        node = parser.getText();
+                        break;
+                    case ACTION:
+                        action = parser.getText();
+                        break;
+                    case COMMAND:
+                        command = parser.getText();
+                        break;
+                    case EXIT_CODE:
+                        exitCode = parser.getIntValue();
+                        break;
+                    case DURATION_MS:
+                        durationMs = parser.getLongValue();
+                        break;
+                    case MSG:
+                        message = parser.getText();
+                        break;
+                    default:
+                        parser.skipChildren();
+                        break;
+                }
+            }
+        }
+        return new CastleLogRecord(timeMs, node, action, command, exitCode, durationMs, message);
+    }
+
+    /**
+     * Read the time and action of a record which was written by toJson, without
+     * decoding the rest of it.  Lines which do not start with a timestamp field
+     * are not records.
+     *
+     * @param buf       The buffer holding the record.
+     * @param off       The offset of the record.
+     * @param len       The length of the record, not including the newline.
+     * @param action    An array of length 1 which the action is stored into.
+     *
+     * @return          The time of the record, in milliseconds since the epoch.
+     */
+    static long readTimeAndAction(byte[] buf, int off, int len, String[] action) throws IOException {
+        long timeMs;
+        action[0] = null;
+        try (JsonParser parser = JSON_FACTORY.createParser(buf, off, len)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Log record is not a JSON object.");
+            }
+            if ((parser.nextToken() != JsonToken.FIELD_NAME) ||
+                    (!parser.getCurrentName().equals(TS)) ||
+                    (parser.nextToken() != JsonToken.VALUE_NUMBER_INT)) {
+                throw new IOException("Log record does not start with a timestamp.");
+            }
+            timeMs = parser.getLongValue();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals(ACTION)) {
+                    if (value != JsonToken.VALUE_NULL) {
+                        action[0] = parser.getText();
+                    }
+                    break;
+                } else if (!field.equals(NODE)) {
+                    // The action always comes before the other fields.
+                    break;
+                }
+            }
+        }
+        return timeMs;
+    }
+
+    /**
+     * Write this record as a line of JSON, including the terminating newline.
+     */
+    public byte[] toJson() throws IOException {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream(128 + message.length());
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(stream, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeNumberField(TS, timeMs);
+            if (node != null) {
+                generator.writeStringField(NODE, node);
+            }
+            if (action != null) {
+                generator.writeStringField(ACTION, action);
+            }
+            if (command != null) {
+                generator.writeStringField(COMMAND, command);
+            }
+            if (exitCode != null) {
+                generator.writeNumberField(EXIT_CODE, exitCode);
+            }
+            if (durationMs != null) {
+                generator.writeNumberField(DURATION_MS, durationMs);
+            }
+            generator.writeStringField(MSG, message);
+            generator.writeEndObject();
+        }
+        stream.write('\n');
+        return stream.toByteArray();
+    }
+
+    public long timeMs() {
+        return timeMs;
+    }
+
+    public String node() {
+        return node;
+    }
+
+    public String action() {
+        return action;
+    }
+
+    public String command() {
+        return command;
+    }
+
+    public Integer exitCode() {
+        return exitCode;
+    }
+
+    public Long durationMs() {
+        return durationMs;
+    }
+
+    public String message() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder bld = new StringBuilder();
+        bld.append(TIME_FORMAT.format(Instant.ofEpochMilli(timeMs)));
+        if (node != null) {
+            bld.append(" ").append(node);
+        }
+        if (action != null) {
+            bld.append(" [").append(action).append("]");
+        }
+        bld.append(" ").append(message);
+        if ((exitCode != null) || (durationMs != null)) {
+            bld.append(" (");
+            if (exitCode != null) {
+                bld.append("exit code ").append(exitCode);
+            }
+            if (durationMs != null) {
+                bld.append((exitCode != null) ? ", " : "").append(durationMs).append(" ms");
+            }
+            bld.append(")");
+        }
+        return bld.toString();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.confluent.castle.tool.CastleTool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records what castle spent its time on, in the Chrome trace event format.
+ *
+ * The resulting file can be loaded into chrome://tracing or Perfetto.  Each lane
+ * becomes a thread in the viewer.  Spans which were recorded on the same lane are
+ * nested by their start and end times.
+ */
+public final class CastleTrace {
+    public static final String TRACE_FILE_NAME = "trace.json";
+
+    private static final int PID = 1;
+
+    /**
+     * The monotonic time which trace timestamps are relative to.
+     */
+    private final long originNs = System.nanoTime();
+
+    /**
+     * The trace events we have recorded so far.
+     */
+    private final List<ObjectNode> events = new ArrayList<>();
+
+    /**
+     * Maps lane names to thread IDs.
+     */
+    private final Map<String, Integer> lanes = new LinkedHashMap<>();
+
+    /**
+     * Get the current trace time in microseconds.
+     */
+    public long nowUs() {
+        return (System.nanoTime() - originNs) / 1000;
+    }
+
+    /**
+     * Record a span on a lane.
+     *
+     * @param lane          The lane to put the span on, such as a node name.
+     * @param category      The span category.
+     * @param name          The span name.
+     * @param startUs       The start time, from nowUs.
+     * @param endUs         The end time, from nowUs.
+     * @param args          Extra information to show for the span, or null.
+     */
+    public synchronized void span(String lane, String category, String name,
+                                  long startUs, long endUs, Map<String, String> args) {
+        ObjectNode event = newEvent(category, name, "X", startUs);
+        event.put("tid", laneId(lane));
+        event.put("dur", Math.max(0, endUs - startUs));
+        putArgs(event, args);
+        events.add(event);
+    }
+
+    /**
+     * Record an asynchronous span.  Asynchronous spans with the same id are grouped
+     * together into their own track, rather than being attached to a lane.
+     *
+     * @param category      The span category.
+     * @param name          The span name.
+     * @param id            The id of the track.
+     * @param startUs       The start time, from nowUs.
+     * @param endUs         The end time, from nowUs.
+     */
+    public synchronized void asyncSpan(String category, String name, String id,
+                                       long startUs, long endUs) {
+        ObjectNode begin = newEvent(category, name, "b", startUs);
+        begin.put("id", id);
+        events.add(begin);
+        ObjectNode end = newEvent(category, name, "e", Math.max(startUs, endUs));
+        end.put("id", id);
+        events.add(end);
+    }
+
+    public synchronized boolean isEmpty() {
+        return events.isEmpty();
+    }
+
+    /**
+     * Discard the events we have recorded so far.
+     */
+    public synchronized void clear() {
+        events.clear();
+    }
+
+    /**
+     * Write out the trace.
+     *
+     * @param path          The path to write to.
+     */
+    public synchronized void write(String path) throws IOException {
+        ObjectNode root = CastleTool.JSON_SERDE.createObjectNode();
+        ArrayNode traceEvents = root.putArray("traceEvents");
+        for (Map.Entry<String, Integer> entry : lanes.entrySet()) {
+            ObjectNode event = traceEvents.addObject();
+            event.put("name", "thread_name");
+            event.put("ph", "M");
+            event.put("pid", PID);
+            event.put("tid", entry.getValue());
+            event.putObject("args").put("name", entry.getKey());
+        }
+        traceEvents.addAll(events);
+        root.put("displayTimeUnit", "ms");
+        CastleTool.JSON_SERDE.writeValue(new File(path), root);
+    }
+
+    private ObjectNode newEvent(String category, String name, String phase, long timeUs) {
+        ObjectNode event = CastleTool.JSON_SERDE.createObjectNode();
+        event.put("name", name);
+        event.put("cat", category);
+        event.put("ph", phase);
+        event.put("ts", timeUs);
+        event.put("pid", PID);
+        return event;
+    }
+
+    private int laneId(String lane) {
+        Integer id = lanes.get(lane);
+        if (id == null) {
+            id = lanes.size() + 1;
+            lanes.put(lane, id);
+        }
+        return id;
+    }
+
+    private static void putArgs(ObjectNode event, Map<String, String> args) {
+        if (args == null || args.isEmpty()) {
+            return;
+        }
+        ObjectNode argsNode = event.putObject("args");
+        for (Map.Entry<String, String> entry : args.entrySet()) {
+            argsNode.put(entry.getKey(), entry.getValue());
+        }
+    }
+};
@@ -36,6 +36,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Common utility functions for the castle tool.
@@ -169,57 +170,19 @@ public final class CastleUtil {
     }
 
     /**
-     * Kill any java processes which match the provided pattern.
+     * Look for a process in the output of "ps -eo pid,args", and log whether it
+     * is running to the cluster log.
      *
      * @param cluster           The castle cluster.
      * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @param force             Use SIGKILL rather than SIGTERM
-     * @throws Exception
-     */
-    public static final void killJavaProcess(CastleCluster cluster,
-                                             CastleNode node, String processPattern, boolean force) throws Exception {
-        node.uplink().command().
-            argList(killJavaProcessArgs(processPattern, force)).
-            mustRun();
-    }
-
-    public static List<String> killJavaProcessArgs(String processPattern, boolean force) {
-        List<String> argsList = new ArrayList<>(Arrays.asList(new String[] {
-            "-n", "--", "jcmd", "|", "awk", "'/" + processPattern +
-                "/ { print $1 }'", "|", "xargs", "-r", "kill"
-        }));
-        if (force) {
-            argsList.add("-9");
-        }
-        argsList.add("--");
-        return argsList;
-    }
-
-    /**
-     * Get the status of a process running on a node.
-     *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
+     * @param listing           The output of "ps -eo pid,args".
+     * @param processPattern    A pattern used to search for the process.
      * @return                  The role status.
-     * @throws Exception
      */
-    public static final CastleReturnCode getProcessStatus(CastleCluster cluster,
-                                                        CastleNode node, String processPattern) throws Exception {
-        String effectivePattern = "[" + processPattern.substring(0, 1) + "]" + processPattern.substring(1);
-        StringBuilder stringBuilder = new StringBuilder();
-        int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
-            args("-n", "--", "ps", "aux", "|", "awk", "'/" + effectivePattern + "/ { print $2 }'").
-            run();
-        if (retVal != 0) {
-            cluster.clusterLog().printf("%s: Unable to determine if %s is running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.TOOL_FAILED;
-        }
-        String pidString = stringBuilder.toString().trim();
-        if (pidString.isEmpty()) {
+    public static CastleReturnCode checkProcessList(CastleCluster cluster, CastleNode node,
+                                                    String listing, String processPattern) {
+        String pidString = findPid(listing, processPattern);
+        if (pidString == null) {
             cluster.clusterLog().printf("%s: %s is not running.%n",
                 node.nodeName(), processPattern);
             return CastleReturnCode.CLUSTER_FAILED;
@@ -230,42 +193,23 @@ public final class CastleUtil {
     }
 
     /**
-     * Get the status of a java process running on a node.
+     * Find the pid of the first process matching a pattern in the output of
+     * "ps -eo pid,args".
      *
-     * @param cluster           The castle cluster.
-     * @param node              The castle node.
-     * @param processPattern    A pattern used to search for the process
-     * @return                  The role status.
-     * @throws Exception
+     * @param listing           The output of "ps -eo pid,args".
+     * @param processPattern    A regular expression to search for.
+     * @return                  The pid, or null if no process matched.
      */
-    public static final CastleReturnCode getJavaProcessStatus(CastleCluster cluster,
-                                                            CastleNode node, String processPattern) throws Exception {
-        StringBuilder stringBuilder = new StringBuilder();
-        int retVal = node.uplink().command().
-            captureOutput(stringBuilder).
-            args("-n", "--", "jcmd", "|", "grep", processPattern).
-            run();
-        if (retVal == 255) {
-            cluster.clusterLog().printf("%s: Unable to determine if %s is running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.TOOL_FAILED;
-        } else if (retVal == 1) {
-            cluster.clusterLog().printf("%s: %s is not running.%n",
-                node.nodeName(), processPattern);
-            return CastleReturnCode.CLUSTER_FAILED;
-        }
-        String pidString = stringBuilder.toString();
-        int firstSpace = pidString.indexOf(" ");
-        if (firstSpace != -1) {
-            pidString = pidString.substring(0, firstSpace - 1);
+    static String findPid(String listing, String processPattern) {
+        Pattern pattern = Pattern.compile(processPattern);
+        for (String line : listing.split("\n")) {
+            line = line.trim();
+            if (pattern.matcher(line).find()) {
+                int firstSpace = line.indexOf(' ');
+                return (firstSpace == -1) ? line : line.substring(0, firstSpace);
+            }
         }
-        cluster.clusterLog().printf("%s: %s is running as pid %s%n",
-            node.nodeName(), processPattern, pidString);
-        return CastleReturnCode.SUCCESS;
-    }
-
-    public static String[] checkJavaProcessStatusArgs(String processPattern) {
-        return new String[] {"-n", "--", "jcmd", "|", "grep", "-q", processPattern};
+        return null;
     }
 
     /**
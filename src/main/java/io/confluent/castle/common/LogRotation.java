@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+/**
+ * Decides when a node log file is rotated, and how many old segments are kept.
+ */
+public final class LogRotation {
+    public static final long DEFAULT_MAX_BYTES = 100L * 1024L * 1024L;
+
+    public static final long DEFAULT_MAX_AGE_MS = 24L * 60L * 60L * 1000L;
+
+    public static final int DEFAULT_MAX_SEGMENTS = 10;
+
+    public static final LogRotation DEFAULT =
+        new LogRotation(DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_MS, DEFAULT_MAX_SEGMENTS);
+
+    private final long maxBytes;
+    private final long maxAgeMs;
+    private final int maxSegments;
+
+    /**
+     * Create a rotation policy.
+     *
+     * @param maxBytes      The size at which the log is rotated.
+     * @param maxAgeMs      The age at which the log is rotated.
+     * @param maxSegments   The number of rotated segments to keep.
+     */
+    public LogRotation(long maxBytes, long maxAgeMs, int maxSegments) {
+        this.maxBytes = maxBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.maxSegments = maxSegments;
+    }
+
+    public long maxBytes() {
+        return maxBytes;
+    }
+
+    public long maxAgeMs() {
+        return maxAgeMs;
+    }
+
+    public int maxSegments() {
+        return maxSegments;
+    }
+
+    /**
+     * Return true if a log of the given size and age should be rotated.
+     */
+    boolean shouldRotate(long bytes, long ageMs) {
+        return (bytes > 0) && ((bytes >= maxBytes) || (ageMs >= maxAgeMs));
+    }
+}
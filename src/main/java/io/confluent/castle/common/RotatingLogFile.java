@@ -0,0 +1,319 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file which is rotated once it gets too big or too old.
+ *
+ * The log is only rotated at the end of a line, so that no line is split between
+ * segments.  A rotated segment is renamed to name.N, where N is one more than the
+ * newest segment, and then compressed to name.N.gz in the background.  Once there
+ * are more segments than the rotation policy allows, the oldest are deleted.
+ *
+ * The time at which the current segment was started is kept in name.start, since
+ * most file systems do not record when a file was created.
+ *
+ * More than one process can have the log open, such as castle.sh and a castle daemon.
+ * Processes rotate the log while holding a lock on name.lock, and only if nobody else
+ * has rotated it since they opened it.  Each process checks every second whether the
+ * log was rotated under it, and if so, opens the new log.  Segments are compressed a
+ * little later, so that the other processes are done writing to them.
+ *
+ * This stream is not thread-safe.  AsyncLogWriter only writes to it while holding
+ * the lock of its sink.
+ */
+final class RotatingLogFile extends OutputStream {
+    private static final Logger log = LoggerFactory.getLogger(RotatingLogFile.class);
+
+    static final String COMPRESSED_SUFFIX = ".gz";
+
+    static final String START_SUFFIX = ".start";
+
+    static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * How often we check whether another process has rotated the log.
+     */
+    static final long ROTATION_CHECK_INTERVAL_MS = 1000;
+
+    /**
+     * Compresses the rotated segments of every log, one at a time.
+     */
+    private static final ScheduledExecutorService COMPRESSOR =
+        Executors.newSingleThreadScheduledExecutor(
+            CastleUtil.createThreadFactory("CastleLogCompressor", true));
+
+    private final Path path;
+    private final Path startPath;
+    private final Path lockPath;
+    private final LogRotation rotation;
+    private FileOutputStream outputStream;
+    private Object fileKey;
+    private long size;
+    private long openedMs;
+    private long nextRotationCheckMs;
+    private boolean lastByteWasNewline = true;
+
+    RotatingLogFile(Path path, LogRotation rotation) throws IOException {
+        this.path = path;
+        this.startPath = path.resolveSibling(path.getFileName().toString() + START_SUFFIX);
+        this.lockPath = path.resolveSibling(path.getFileName().toString() + LOCK_SUFFIX);
+        this.rotation = rotation;
+        reopen(false);
+        if (rotation.shouldRotate(size, System.currentTimeMillis() - openedMs)) {
+            reopen(true);
+        }
+    }
+
+    /**
+     * Open the current log, while holding the rotation lock.
+     *
+     * @param rotate    True if we should rotate the log first, unless another process
+     *                  has already rotated it since we opened it.
+     */
+    private void reopen(boolean rotate) throws IOException {
+        // FileLock only excludes other processes, so also exclude other threads.
+        synchronized (RotatingLogFile.class) {
+            try (FileChannel channel = FileChannel.open(lockPath,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                FileLock lock = channel.lock();
+                try {
+                    reopenLocked(rotate);
+                } finally {
+                    lock.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Rename the current log to a new segment, unless another process has already
+     * done so, and open the new log.  Number the segment after the newest one on
+     * disk, since another process may have added segments.
+     */
+    private void reopenLocked(boolean rotate) throws IOException {
+        if (outputStream != null) {
+            outputStream.close();
+        }
+        if (rotate && Objects.equals(fileKey, fileKey(path))) {
+            TreeMap<Long, Path> segments = segments(path);
+            long number = segments.isEmpty() ? 1 : segments.lastKey() + 1;
+            Path segment = path.resolveSibling(path.getFileName().toString() + "." + number);
+            Files.move(path, segment, StandardCopyOption.ATOMIC_MOVE);
+            final Path logPath = path;
+            COMPRESSOR.schedule(() -> compressAndExpire(logPath, rotation.maxSegments()),
+                2 * ROTATION_CHECK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+        open();
+    }
+
+    private void open() throws IOException {
+        this.outputStream = new FileOutputStream(path.toFile(), true);
+        this.size = outputStream.getChannel().size();
+        this.fileKey = fileKey(path);
+        long nowMs = System.currentTimeMillis();
+        this.nextRotationCheckMs = nowMs + ROTATION_CHECK_INTERVAL_MS;
+        Long startMs = (size == 0) ? null : readStartTime();
+        if (startMs != null) {
+            this.openedMs = Math.min(nowMs, startMs);
+        } else {
+            // This is a new log, or one from before we kept start times.  For the
+            // latter, we can only use the creation time, which is the modification
+            // time on file systems which do not record it.
+            this.openedMs = (size == 0) ? nowMs : Math.min(nowMs,
+                Files.readAttributes(path, BasicFileAttributes.class).creationTime().toMillis());
+            writeStartTime(openedMs);
+        }
+    }
+
+    /**
+     * Return the key which identifies a file, or null if the file does not exist or
+     * the file system has no such keys.
+     */
+    private static Object fileKey(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private Long readStartTime() throws IOException {
+        try {
+            return Long.parseLong(new String(Files.readAllBytes(startPath),
+                StandardCharsets.UTF_8).trim());
+        } catch (NoSuchFileException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void writeStartTime(long startMs) throws IOException {
+        Path tmpPath = startPath.resolveSibling(startPath.getFileName().toString() + ".tmp");
+        Files.write(tmpPath, String.format("%d%n", startMs).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, startPath, StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Find the rotated segments of a log.
+     *
+     * @return      A map from segment numbers to their paths.
+     */
+    static TreeMap<Long, Path> segments(Path path) throws IOException {
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        String prefix = path.getFileName().toString() + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path.toAbsolutePath().getParent(),
+                 path.getFileName().toString() + ".*")) {
+            for (Path segment : stream) {
+                String suffix = segment.getFileName().toString().substring(prefix.length());
+                boolean compressed = suffix.endsWith(COMPRESSED_SUFFIX);
+                if (compressed) {
+                    suffix = suffix.substring(0, suffix.length() - COMPRESSED_SUFFIX.length());
+                }
+                if (suffix.isEmpty() || (!suffix.chars().allMatch(Character::isDigit)) ||
+                        (suffix.length() > 18)) {
+                    continue;
+                }
+                long number = Long.parseLong(suffix);
+                // If both forms exist, compression was interrupted, and the
+                // uncompressed segment is the complete one.
+                if ((!compressed) || (!segments.containsKey(number))) {
+                    segments.put(number, segment);
+                }
+            }
+        }
+        return segments;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws IOException {
+        long nowMs = System.currentTimeMillis();
+        if ((nowMs >= nextRotationCheckMs) && lastByteWasNewline) {
+            nextRotationCheckMs = nowMs + ROTATION_CHECK_INTERVAL_MS;
+            if (!Objects.equals(fileKey, fileKey(path))) {
+                // Another process rotated the log.
+                reopen(false);
+            }
+        }
+        if (rotation.shouldRotate(size, nowMs - openedMs)) {
+            // Finish the current line before rotating.
+            int head = lastByteWasNewline ? 0 : -1;
+            for (int i = off; (head < 0) && (i < off + len); i++) {
+                if (buf[i] == '\n') {
+                    head = i + 1 - off;
+                }
+            }
+            if (head >= 0) {
+                writeCurrent(buf, off, head);
+                reopen(true);
+                off += head;
+                len -= head;
+            }
+        }
+        writeCurrent(buf, off, len);
+    }
+
+    private void writeCurrent(byte[] buf, int off, int len) throws IOException {
+        if (len > 0) {
+            outputStream.write(buf, off, len);
+            size += len;
+            lastByteWasNewline = buf[off + len - 1] == '\n';
+        }
+    }
+
+    /**
+     * Compress the uncompressed segments of a log, and delete the oldest segments.
+     */
+    static void compressAndExpire(Path path, int maxSegments) {
+        try {
+            TreeMap<Long, Path> segments = segments(path);
+            while (segments.size() > maxSegments) {
+                Path segment = path.resolveSibling(path.getFileName().toString() + "." +
+                    segments.pollFirstEntry().getKey());
+                Files.deleteIfExists(segment);
+                Files.deleteIfExists(segment.resolveSibling(
+                    segment.getFileName().toString() + COMPRESSED_SUFFIX));
+            }
+            for (Path segment : segments.values()) {
+                if (!segment.getFileName().toString().endsWith(COMPRESSED_SUFFIX)) {
+                    compress(segment);
+                }
+            }
+        } catch (Throwable e) {
+            log.error("Unable to compress or expire the rotated segments of {}", path, e);
+        }
+    }
+
+    private static void compress(Path segment) throws IOException {
+        Path target = segment.resolveSibling(segment.getFileName().toString() + COMPRESSED_SUFFIX);
+        Path tmp = segment.resolveSibling(target.getFileName().toString() + ".tmp");
+        try (InputStream input = Files.newInputStream(segment);
+                OutputStream output = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+            byte[] buf = new byte[65536];
+            int len;
+            while ((len = input.read(buf)) > 0) {
+                output.write(buf, 0, len);
+            }
+        } catch (NoSuchFileException e) {
+            // Another process already compressed or deleted the segment.
+            Files.deleteIfExists(tmp);
+            return;
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.deleteIfExists(segment);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        outputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+    }
+}
@@ -25,6 +25,7 @@ import io.confluent.castle.action.AwsInitAction;
 import io.confluent.castle.action.CopyAdditionalFilesAction;
 import io.confluent.castle.action.DestroyNodesAction;
 import io.confluent.castle.action.SaveLogsAction;
+import io.confluent.castle.action.SourceSeedAction;
 import io.confluent.castle.action.SourceSetupAction;
 import io.confluent.castle.action.UplinkCheckAction;
 import io.confluent.castle.cloud.Ec2Cloud;
@@ -231,6 +232,7 @@ public class AwsNodeRole implements Role, UplinkRole {
         actions.add(new AwsInitAction(nodeName, this));
         actions.add(new DestroyNodesAction(nodeName));
         actions.add(new SaveLogsAction(nodeName));
+        actions.add(new SourceSeedAction(nodeName));
         actions.add(new SourceSetupAction(nodeName));
         actions.add(new UplinkCheckAction(nodeName));
         if (!additionalFiles.isEmpty()) {
@@ -33,6 +33,8 @@ import java.util.Map;
 public class BrokerRole implements Role {
     public static final String KAFKA_CLASS_NAME = "kafka.Kafka";
 
+    public static final int PORT = 9092;
+
     private static final String DEFAULT_JVM_PERFORMANCE_OPTS = "-Xmx3g -Xms3g";
 
     private static final String DEFAULT_EXTERNAL_AUTH = "PLAINTEXT";
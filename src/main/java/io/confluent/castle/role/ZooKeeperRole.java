@@ -31,6 +31,8 @@ public class ZooKeeperRole implements Role {
     public static final String ZOOKEEPER_CLASS_NAME =
         "org.apache.zookeeper.server.quorum.QuorumPeerMain";
 
+    public static final int PORT = 2181;
+
     private final int initialDelayMs;
 
     @JsonCreator
@@ -17,7 +17,11 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.action.ActionDurations;
+import io.confluent.castle.action.ActionJournal;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleTrace;
 
 import java.io.IOException;
 import java.nio.file.Paths;
@@ -37,8 +41,9 @@ public class CastleEnvironment {
         return Paths.get(path).toAbsolutePath().toString();
     }
 
-    public CastleLog createCastleLog(String nodeName) throws IOException {
-        return CastleLog.fromFile(workingDirectory, nodeName, true);
+    public CastleLog createCastleLog(String nodeName, CastleClusterConf conf) throws IOException {
+        return CastleLog.fromFile(workingDirectory, nodeName, true,
+            conf.structuredLogs(), conf.logRotation());
     }
 
     public String workingDirectory() {
@@ -48,4 +53,34 @@ public class CastleEnvironment {
     public String clusterOutputPath() {
         return Paths.get(workingDirectory, CLUSTER_FILE_NAME).toAbsolutePath().toString();
     }
+
+    public String journalPath() {
+        return Paths.get(workingDirectory, ActionJournal.JOURNAL_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    /**
+     * Get the path to write the execution trace to, or null if it should not be written.
+     */
+    public String tracePath() {
+        return Paths.get(workingDirectory, CastleTrace.TRACE_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    /**
+     * Get the path of the file which tells castle.sh how to reach the castle daemon.
+     */
+    public String servePath() {
+        return Paths.get(workingDirectory, CastleServe.SERVE_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    public ActionJournal createActionJournal() throws IOException {
+        return ActionJournal.load(journalPath());
+    }
+
+    public String durationsPath() {
+        return Paths.get(workingDirectory, ActionDurations.DURATIONS_FILE_NAME).toAbsolutePath().toString();
+    }
+
+    public ActionDurations createActionDurations() throws IOException {
+        return ActionDurations.load(durationsPath());
+    }
 };
@@ -0,0 +1,199 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleLogIndex;
+import io.confluent.castle.common.CastleLogRecord;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the records in the node logs which match some filters.
+ *
+ * The filters are given as name=value targets, since castle's own options start
+ * with dashes.  Each node log is indexed by CastleLogIndex, so only the records
+ * which match are read.
+ */
+public final class CastleLogs {
+    final static String COMMAND = "logs";
+
+    final static String NODE = "node";
+    final static String ACTION = "action";
+    final static String SINCE = "since";
+    final static String UNTIL = "until";
+    final static String GREP = "grep";
+
+    private final static String LOG_SUFFIX = ".clog";
+
+    private final static Pattern DURATION_PATTERN = Pattern.compile("(\\d+)(ms|s|m|h|d)");
+
+    static CastleLogIndex.Query parse(List<String> targets, long nowMs) {
+        List<String> filters = new ArrayList<>(targets);
+        if (!filters.remove(COMMAND)) {
+            throw new RuntimeException("Logs command not found.");
+        }
+        Set<String> nodes = new HashSet<>();
+        String action = null;
+        long sinceMs = Long.MIN_VALUE;
+        long untilMs = Long.MAX_VALUE;
+        String grep = null;
+        for (String filter : filters) {
+            int equals = filter.indexOf('=');
+            if (equals < 0) {
+                throw new RuntimeException("Invalid logs filter " + filter + ".  Filters " +
+                    "look like " + NODE + "=node1, " + ACTION + "=brokerStart, " +
+                    SINCE + "=10m, " + UNTIL + "=5m, or " + GREP + "=text.");
+            }
+            String name = filter.substring(0, equals);
+            String value = filter.substring(equals + 1);
+            switch (name) {
+                case NODE:
+                    for (String node : value.split(",")) {
+                        if (!node.isEmpty()) {
+                            nodes.add(node);
+                        }
+                    }
+                    break;
+                case ACTION:
+                    action = value;
+                    break;
+                case SINCE:
+                    sinceMs = parseTimeMs(value, nowMs);
+                    break;
+                case UNTIL:
+                    untilMs = parseTimeMs(value, nowMs);
+                    break;
+                case GREP:
+                    grep = value;
+                    break;
+                default:
+                    throw new RuntimeException("Unknown logs filter " + name + ".");
+            }
+        }
+        return new CastleLogIndex.Query(nodes, action, sinceMs, untilMs, grep);
+    }
+
+    /**
+     * Parse a time, which is either a duration before now, such as 10m, or a local
+     * date and time, such as 2018-06-01T12:00:00.
+     */
+    static long parseTimeMs(String value, long nowMs) {
+        Matcher matcher = DURATION_PATTERN.matcher(value);
+        if (matcher.matches()) {
+            long amount = Long.parseLong(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "ms":
+                    return nowMs - amount;
+                case "s":
+                    return nowMs - TimeUnit.SECONDS.toMillis(amount);
+                case "m":
+                    return nowMs - TimeUnit.MINUTES.toMillis(amount);
+                case "h":
+                    return nowMs - TimeUnit.HOURS.toMillis(amount);
+                default:
+                    return nowMs - TimeUnit.DAYS.toMillis(amount);
+            }
+        }
+        try {
+            return LocalDateTime.parse(value).atZone(ZoneId.systemDefault()).
+                toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new RuntimeException("Unable to parse time " + value + ".  Expected a " +
+                "duration such as 10m, or a date and time such as 2018-06-01T12:00:00.", e);
+        }
+    }
+
+    /**
+     * Find the node logs in a directory, by node name.
+     */
+    static Set<String> findNodeLogs(Path directory) throws IOException {
+        Set<String> nodeNames = new TreeSet<>();
+        try (DirectoryStream<Path> stream =
+                 Files.newDirectoryStream(directory, "*" + LOG_SUFFIX)) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                nodeNames.add(fileName.substring(0, fileName.length() - LOG_SUFFIX.length()));
+            }
+        }
+        return nodeNames;
+    }
+
+    /**
+     * Find the records in the node logs in a directory which match a query,
+     * in time order.
+     */
+    static List<CastleLogRecord> find(Path directory, CastleLogIndex.Query query,
+                                      long[] scannedBytes) throws IOException {
+        List<CastleLogRecord> records = new ArrayList<>();
+        for (String nodeName : findNodeLogs(directory)) {
+            if (!query.matchesNode(nodeName)) {
+                continue;
+            }
+            CastleLogIndex index = CastleLogIndex.
+                open(directory.resolve(nodeName + LOG_SUFFIX), nodeName);
+            records.addAll(index.find(query));
+            scannedBytes[0] += index.scannedBytes();
+        }
+        Collections.sort(records, new Comparator<CastleLogRecord>() {
+            @Override
+            public int compare(CastleLogRecord a, CastleLogRecord b) {
+                return Long.compare(a.timeMs(), b.timeMs());
+            }
+        });
+        return records;
+    }
+
+    public static void run(CastleCluster cluster, List<String> targets) throws Throwable {
+        CastleLogIndex.Query query = parse(targets, System.currentTimeMillis());
+        long startNs = System.nanoTime();
+        // Make sure that everything this process printed to the node logs is on disk.
+        for (CastleNode node : cluster.nodes().values()) {
+            node.log().flush();
+        }
+        long[] scannedBytes = new long[1];
+        List<CastleLogRecord> records = find(Paths.get(cluster.env().workingDirectory()),
+            query, scannedBytes);
+        CastleLog log = cluster.clusterLog();
+        for (CastleLogRecord record : records) {
+            log.printf("%s%n", record);
+        }
+        log.printf("*** Found %d record(s) in %d ms, after indexing %d new byte(s) of logs.%n",
+            records.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs),
+            scannedBytes[0]);
+    }
+};
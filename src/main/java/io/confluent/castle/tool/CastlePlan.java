@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.action.ActionDurations;
+import io.confluent.castle.action.ActionPlan;
+import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.UpAction;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.common.CastleLog;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Predicts how long running some targets will take, without running them.
+ */
+public final class CastlePlan {
+    final static String COMMAND = "plan";
+
+    /**
+     * The number of nodes to list when printing how busy each node will be.
+     */
+    private final static int MAX_NODES_TO_PRINT = 5;
+
+    static List<String> parse(List<String> targets) {
+        List<String> planTargets = new ArrayList<>(targets);
+        if (!planTargets.remove(COMMAND)) {
+            throw new RuntimeException("Plan command not found.");
+        }
+        if (planTargets.isEmpty()) {
+            planTargets.add(UpAction.TYPE);
+        }
+        return planTargets;
+    }
+
+    public static void run(CastleCluster cluster, List<String> targets) throws Throwable {
+        List<String> planTargets = parse(targets);
+        ActionPlan plan = cluster.createSchedulerBuilder(planTargets,
+            ActionRegistry.INSTANCE.actions(cluster.nodes().keySet())).plan();
+        CastleLog log = cluster.clusterLog();
+        log.printf("*** Predicted time to run %s: %d ms%n",
+            String.join(" ", planTargets), plan.makespanMs());
+        log.printf("*** Critical path:%n");
+        ActionDurations durations = cluster.durations();
+        for (ActionPlan.Step step : plan.criticalPath()) {
+            log.printf("    %-40s start %8d ms, finish %8d ms%s%n",
+                step.id(), step.startMs(), step.finishMs(),
+                durations.get(step.id().type()) == null ? " (no recorded durations)" : "");
+        }
+        List<Map.Entry<String, Long>> nodes = new ArrayList<>(plan.nodeBusyMs().entrySet());
+        Collections.sort(nodes, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        log.printf("*** Busiest nodes:%n");
+        for (int i = 0; i < Math.min(MAX_NODES_TO_PRINT, nodes.size()); i++) {
+            log.printf("    %-40s %8d ms%n", nodes.get(i).getKey(), nodes.get(i).getValue());
+        }
+    }
+};
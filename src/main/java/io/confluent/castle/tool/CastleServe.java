@@ -0,0 +1,377 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.common.CastleUtil;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.ArgumentParserException;
+import net.sourceforge.argparse4j.inf.Namespace;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The castle daemon.
+ *
+ * The daemon keeps the cluster, its uplinks, and the cloud cache loaded, and runs the
+ * targets which castle.sh forwards to it.  This saves starting a JVM and loading the
+ * cluster for every command, which adds up when polling the cluster status.
+ *
+ * Java 8 has no Unix domain sockets, so the daemon listens on an ephemeral loopback
+ * port.  It writes the port and a random token to castle.serve in the working
+ * directory.  Only the current user can read that file, and requests which do not
+ * start with the token are dropped.  Requests are run one at a time.
+ *
+ * A request is the token, the number of arguments, and then the arguments, each on its
+ * own line.  The daemon replies with the output of the request, with "o " at the start
+ * of each line, and then "x " followed by the exit code.  Requests which need the
+ * terminal, such as an ssh session on a single node, and watches, which would hold
+ * up other requests for as long as they run, get the reply "l" instead, which tells
+ * the client to run them itself.
+ *
+ * The daemon does not use its own CASTLE_VERBOSE and CASTLE_FORCE settings for
+ * requests.  castle.sh passes the client's settings as -v and -f, and -v only applies
+ * to the request which passed it.
+ */
+public final class CastleServe {
+    static final String COMMAND = "serve";
+
+    public static final String SERVE_FILE_NAME = "castle.serve";
+
+    private static final String STOP = "stop";
+
+    /**
+     * How long we wait for a client to send its request.
+     */
+    private static final int REQUEST_READ_TIMEOUT_MS = 30000;
+
+    /**
+     * The exit code which tells the client to run the request itself.
+     */
+    static final int RUN_LOCALLY = -1;
+
+    private final CastleCluster cluster;
+    private final Output output;
+    private final ArgumentParser parser;
+    private final String token;
+    private boolean stopping = false;
+
+    /**
+     * Replace System.out with a stream which goes to the client of the current request.
+     * This must be called before anything captures System.out.
+     */
+    static Output redirectStdout() throws IOException {
+        Output output = new Output(System.out);
+        System.setOut(new PrintStream(output, true, StandardCharsets.UTF_8.name()));
+        return output;
+    }
+
+    static void run(CastleCluster cluster, List<String> targets, Output output) throws Exception {
+        if (targets.size() != 1) {
+            throw new RuntimeException("The serve target cannot be combined with other targets.");
+        }
+        cluster.logShipper().start();
+        new CastleServe(cluster, output).serve();
+    }
+
+    CastleServe(CastleCluster cluster, Output output) {
+        this.cluster = cluster;
+        this.output = output;
+        this.parser = CastleTool.createParser(false);
+        this.token = createToken();
+    }
+
+    private static String createToken() {
+        byte[] bytes = new byte[16];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder bld = new StringBuilder();
+        for (byte b : bytes) {
+            bld.append(String.format("%02x", b & 0xff));
+        }
+        return bld.toString();
+    }
+
+    /**
+     * Handle requests until we are asked to stop.
+     */
+    void serve() throws Exception {
+        Path servePath = Paths.get(cluster.env().servePath());
+        try (ServerSocket serverSocket =
+                 new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            writeServeFile(servePath, serverSocket.getLocalPort());
+            servePath.toFile().deleteOnExit();
+            try {
+                cluster.clusterLog().printf("*** Serving %s on port %d.%n",
+                    cluster.env().workingDirectory(), serverSocket.getLocalPort());
+                while (!stopping) {
+                    try (Socket socket = serverSocket.accept()) {
+                        handleConnection(socket);
+                    } catch (IOException e) {
+                        cluster.clusterLog().error("Error handling a castle request", e);
+                    }
+                }
+            } finally {
+                Files.deleteIfExists(servePath);
+            }
+        }
+    }
+
+    private void writeServeFile(Path path, int port) throws IOException {
+        // Any existing file was left behind by a daemon which is no longer running,
+        // since castle.sh would otherwise have forwarded the serve target to it.
+        Files.deleteIfExists(path);
+        // Write a temporary file and rename it, so that clients never see a partial file.
+        Path tmpPath = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpPath);
+        try {
+            Files.createFile(tmpPath, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(tmpPath);
+        }
+        Files.write(tmpPath, String.format("%d %s%n", port, token).getBytes(StandardCharsets.UTF_8));
+        Files.move(tmpPath, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void handleConnection(Socket socket) throws IOException {
+        socket.setSoTimeout(REQUEST_READ_TIMEOUT_MS);
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        List<String> args = readRequest(reader);
+        if (args == null) {
+            cluster.clusterLog().printf("*** Dropping a request with the wrong token.%n");
+            return;
+        }
+        socket.setSoTimeout(0);
+        OutputStream client = new BufferedOutputStream(socket.getOutputStream());
+        int exitCode;
+        output.attach(client);
+        try {
+            exitCode = handleRequest(args);
+        } finally {
+            output.detach();
+        }
+        if (exitCode == RUN_LOCALLY) {
+            client.write(String.format("l%n").getBytes(StandardCharsets.UTF_8));
+        } else {
+            client.write(String.format("x %d%n", exitCode).getBytes(StandardCharsets.UTF_8));
+        }
+        client.flush();
+    }
+
+    /**
+     * Read a request.
+     *
+     * @return      The request arguments, or null if the token was wrong.
+     */
+    private List<String> readRequest(BufferedReader reader) throws IOException {
+        String requestToken = reader.readLine();
+        if ((requestToken == null) || (!MessageDigest.isEqual(
+                token.getBytes(StandardCharsets.UTF_8),
+                requestToken.getBytes(StandardCharsets.UTF_8)))) {
+            return null;
+        }
+        int numArgs;
+        try {
+            numArgs = Integer.parseInt(String.valueOf(reader.readLine()));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid argument count in castle request.", e);
+        }
+        List<String> args = new ArrayList<>();
+        for (int i = 0; i < numArgs; i++) {
+            String arg = reader.readLine();
+            if (arg == null) {
+                throw new IOException("Truncated castle request.");
+            }
+            args.add(arg);
+        }
+        return args;
+    }
+
+    /**
+     * Run a request.  Anything printed to System.out goes to the client.
+     *
+     * @return      The exit code for the client.
+     */
+    int handleRequest(List<String> args) {
+        Namespace res;
+        try {
+            res = parser.parseArgs(args.toArray(new String[0]));
+        } catch (ArgumentParserException e) {
+            System.out.printf("%s%n", e.getMessage());
+            return 1;
+        }
+        List<String> targets = res.<String>getList(CastleTool.CASTLE_TARGETS);
+        if (targets.isEmpty()) {
+            PrintWriter writer = new PrintWriter(
+                new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+            parser.printHelp(writer);
+            writer.flush();
+            return 0;
+        }
+        if (targets.contains(COMMAND)) {
+            if (targets.equals(Arrays.asList(COMMAND, STOP))) {
+                System.out.printf("Stopping the castle daemon for %s.%n",
+                    cluster.env().workingDirectory());
+                stopping = true;
+                return 0;
+            }
+            System.out.printf("A castle daemon is already serving %s.%n",
+                cluster.env().workingDirectory());
+            return 1;
+        }
+        if (needsTerminal(targets) || targets.contains(CastleWatch.COMMAND)) {
+            // Requests are run one at a time, so a watch, which can run for as long
+            // as the tasks do, would hold up every other request.
+            return RUN_LOCALLY;
+        }
+        // -v applies to this request only.
+        boolean enableDebug = cluster.clusterLog().enableDebug();
+        cluster.clusterLog().setEnableDebug(res.getBoolean(CastleTool.CASTLE_VERBOSE));
+        int exitCode;
+        try {
+            if (res.getBoolean(CastleTool.CASTLE_FORCE)) {
+                cluster.journal().clear();
+            }
+            CastleTool.runTargets(cluster, targets);
+            exitCode = cluster.shutdownManager().completeRequest().code();
+        } catch (Throwable e) {
+            System.out.printf("Exiting with exception: %s%n", CastleUtil.fullStackTrace(e));
+            cluster.shutdownManager().changeReturnCode(CastleReturnCode.TOOL_FAILED);
+            cluster.shutdownManager().completeRequest();
+            exitCode = 1;
+        } finally {
+            cluster.clusterLog().setEnableDebug(enableDebug);
+        }
+        cluster.saveRunOutputs();
+        // Copy the logs of any nodes which the request brought up.
+        cluster.logShipper().start();
+        return exitCode;
+    }
+
+    /**
+     * Return true if the targets need the terminal of the client.
+     */
+    private boolean needsTerminal(List<String> targets) {
+        if (!targets.contains(CastleSsh.COMMAND)) {
+            return false;
+        }
+        try {
+            return CastleSsh.parse(cluster.nodes().keySet(), targets).nodeNames().size() == 1;
+        } catch (RuntimeException e) {
+            // Let CastleSsh#run report the problem.
+            return false;
+        }
+    }
+
+    /**
+     * The stream which replaces System.out.  While a request is running, it sends
+     * each complete line to the client.  Otherwise, it writes to the original stdout.
+     */
+    static final class Output extends OutputStream {
+        private static final byte[] LINE_PREFIX = "o ".getBytes(StandardCharsets.UTF_8);
+
+        private final OutputStream stdout;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+        private OutputStream client = null;
+        private boolean clientLost = false;
+
+        Output(OutputStream stdout) {
+            this.stdout = stdout;
+        }
+
+        synchronized void attach(OutputStream client) {
+            this.client = client;
+            this.clientLost = false;
+        }
+
+        synchronized void detach() {
+            if (line.size() > 0) {
+                writeLine();
+            }
+            client = null;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            if (client == null) {
+                stdout.write(b);
+            } else if (b == '\n') {
+                writeLine();
+            } else {
+                line.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void write(byte[] buf, int off, int len) throws IOException {
+            if (client == null) {
+                stdout.write(buf, off, len);
+                return;
+            }
+            for (int i = off; i < off + len; i++) {
+                write(buf[i]);
+            }
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            if (client == null) {
+                stdout.flush();
+            }
+        }
+
+        private void writeLine() {
+            if (!clientLost) {
+                try {
+                    client.write(LINE_PREFIX);
+                    line.writeTo(client);
+                    client.write('\n');
+                    client.flush();
+                } catch (IOException e) {
+                    // The client went away.  Keep running the request, but stop sending
+                    // it output.
+                    clientLost = true;
+                }
+            }
+            line.reset();
+        }
+    }
+}
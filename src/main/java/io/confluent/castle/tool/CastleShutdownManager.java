@@ -33,6 +33,7 @@ public class CastleShutdownManager {
     private Thread shutdownThread = null;
     private HashMap<String, CastleShutdownHook> hooks;
     private CastleReturnCode returnCode = CastleReturnCode.SUCCESS;
+    private long expectedDoneMs = -1;
 
     public CastleShutdownManager(Logger log) {
         this.log = log;
@@ -72,6 +73,22 @@ public class CastleShutdownManager {
         runHooks();
     }
 
+    /**
+     * Finish one request made to the castle daemon.  This runs the hooks which the
+     * request added, and then starts again with no hooks and a successful return code.
+     *
+     * @return      The return code of the request.
+     */
+    public CastleReturnCode completeRequest() {
+        runHooks();
+        synchronized (this) {
+            CastleReturnCode requestReturnCode = returnCode;
+            returnCode = CastleReturnCode.SUCCESS;
+            hooks = new HashMap<>();
+            return requestReturnCode;
+        }
+    }
+
     void runHooks() {
         Map<String, CastleShutdownHook> toRun = null;
         synchronized (this) {
@@ -98,4 +115,30 @@ public class CastleShutdownManager {
     public synchronized CastleReturnCode returnCode() {
         return returnCode;
     }
+
+    /**
+     * Get the return code, and start again with a successful return code.
+     */
+    public synchronized CastleReturnCode takeReturnCode() {
+        CastleReturnCode result = returnCode;
+        returnCode = CastleReturnCode.SUCCESS;
+        return result;
+    }
+
+    /**
+     * Note the wall-clock time in milliseconds at which something which is in
+     * progress is expected to finish.  We keep the latest such time.
+     */
+    public synchronized void expectDoneAt(long doneMs) {
+        expectedDoneMs = Math.max(expectedDoneMs, doneMs);
+    }
+
+    /**
+     * Get the latest time passed to expectDoneAt, or -1 if there is none, and forget it.
+     */
+    public synchronized long takeExpectedDoneMs() {
+        long result = expectedDoneMs;
+        expectedDoneMs = -1;
+        return result;
+    }
 }
@@ -20,6 +20,7 @@ package io.confluent.castle.tool;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.action.ActionScheduler;
 import io.confluent.castle.action.SshAction;
+import io.confluent.castle.action.SshRelayAction;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
@@ -27,10 +28,15 @@ import io.confluent.castle.command.Command;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
 public final class CastleSsh {
@@ -119,6 +125,11 @@ public final class CastleSsh {
     }
 
     public static void sshToMany(CastleCluster cluster, CastleSshArgs args) throws Throwable {
+        int fanOut = cluster.conf().sshFanOut();
+        if ((fanOut > 0) && (args.nodeNames().size() > fanOut)) {
+            sshThroughRelays(cluster, args, fanOut);
+            return;
+        }
         ActionScheduler.Builder builder = new ActionScheduler.Builder(cluster);
         for (String nodeName : args.nodeNames()) {
             Action action = new SshAction(nodeName, args.command());
@@ -129,4 +140,71 @@ public final class CastleSsh {
             actionScheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
         }
     }
+
+    /**
+     * Run a command on many nodes through a tree of relay nodes.  We only contact
+     * fanOut nodes directly, and each of them contacts at most fanOut more.
+     */
+    static void sshThroughRelays(CastleCluster cluster, CastleSshArgs args,
+                                 int fanOut) throws Throwable {
+        Collection<SshRelayAction.Result> results = new ConcurrentLinkedQueue<>();
+        ActionScheduler.Builder builder = new ActionScheduler.Builder(cluster);
+        for (List<String> group : SshRelayAction.split(args.nodeNames(), fanOut)) {
+            Action action = new SshRelayAction(group, args.command(), fanOut, results);
+            builder.addAction(action);
+            builder.addTargetName(action.id().toString());
+        }
+        try (ActionScheduler actionScheduler = builder.build()) {
+            actionScheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+        }
+        SshRelayAction.Result missing = missingResult(args.nodeNames(), results);
+        if (missing != null) {
+            results.add(missing);
+        }
+        // Each relay merges the identical results in its own subtree.  Merge the
+        // results from different relays as well.
+        Map<String, Set<String>> merged = new LinkedHashMap<>();
+        Map<String, SshRelayAction.Result> examples = new HashMap<>();
+        for (SshRelayAction.Result result : results) {
+            String key = result.exitCode() + " " + result.output();
+            Set<String> nodeNames = merged.get(key);
+            if (nodeNames == null) {
+                nodeNames = new TreeSet<>();
+                merged.put(key, nodeNames);
+                examples.put(key, result);
+            }
+            nodeNames.addAll(result.nodeNames());
+        }
+        for (Map.Entry<String, Set<String>> entry : merged.entrySet()) {
+            SshRelayAction.Result result = examples.get(entry.getKey());
+            String output = result.output();
+            if ((!output.isEmpty()) && (!output.endsWith("\n"))) {
+                output = output + String.format("%n");
+            }
+            cluster.clusterLog().printf("** %s: exit status %d%n%s",
+                String.join(", ", entry.getValue()), result.exitCode(), output);
+            if (result.exitCode() != 0) {
+                cluster.shutdownManager().changeReturnCode(CastleReturnCode.CLUSTER_FAILED);
+            }
+        }
+    }
+
+    /**
+     * Return a failed result for the nodes which do not appear in any of the results,
+     * or null if every node does.  A relay which fails part of the way through can
+     * lose the results of some of the nodes under it.
+     */
+    static SshRelayAction.Result missingResult(List<String> nodeNames,
+                                               Collection<SshRelayAction.Result> results) {
+        Set<String> missing = new TreeSet<>(nodeNames);
+        for (SshRelayAction.Result result : results) {
+            missing.removeAll(result.nodeNames());
+        }
+        if (missing.isEmpty()) {
+            return null;
+        }
+        return new SshRelayAction.Result(255,
+            String.format("No result was received from these nodes.%n"),
+            new ArrayList<>(missing));
+    }
 };
@@ -63,10 +63,12 @@ public final class CastleTool {
     }
 
     private static final String CASTLE_CLUSTER_INPUT_PATH = "CASTLE_CLUSTER_INPUT_PATH";
-    private static final String CASTLE_TARGETS = "CASTLE_TARGETS";
+    static final String CASTLE_TARGETS = "CASTLE_TARGETS";
     private static final String CASTLE_WORKING_DIRECTORY = "CASTLE_WORKING_DIRECTORY";
-    private static final String CASTLE_VERBOSE = "CASTLE_VERBOSE";
+    static final String CASTLE_VERBOSE = "CASTLE_VERBOSE";
     private static final boolean CASTLE_VERBOSE_DEFAULT = false;
+    static final String CASTLE_FORCE = "CASTLE_FORCE";
+    private static final boolean CASTLE_FORCE_DEFAULT = false;
     private static final String CASTLE_PREFIX = "CASTLE_";
 
     private static final String CASTLE_DESCRIPTION = String.format(
@@ -90,6 +92,19 @@ public final class CastleTool {
         "destroyNodes:    Destroy all nodes.%n" +
         "%n" +
         "ssh [nodes] [cmd]: Ssh to the given node(s)%n" +
+        "%n" +
+        "plan [targets]:    Predict how long the given targets (default: up)%n" +
+        "                   will take, using the durations of previous runs.%n" +
+        "%n" +
+        "watch [targets]:   Run the given status targets (default: taskStatus)%n" +
+        "                   until they are no longer in progress.%n" +
+        "%n" +
+        "logs [filters]:    Print the node log records which match the given%n" +
+        "                   filters, such as node=node1 action=brokerStart since=10m.%n" +
+        "%n" +
+        "serve:             Keep the cluster loaded, and run the targets which%n" +
+        "                   castle.sh forwards to us.%n" +
+        "  serve stop:      Stop the running castle daemon.%n" +
         "%n");
 
     private static String getEnv(String name, String defaultValue) {
@@ -156,7 +171,19 @@ public final class CastleTool {
         }
     }
 
-    public static void main(String[] args) throws Throwable {
+    static ArgumentParser createParser() {
+        return createParser(true);
+    }
+
+    /**
+     * Create the argument parser.
+     *
+     * @param envDefaults   True if CASTLE_VERBOSE and CASTLE_FORCE should supply the
+     *                      defaults of -v and -f.  The daemon passes false, since its
+     *                      environment is not the client's.  castle.sh passes the
+     *                      client's settings as -v and -f instead.
+     */
+    static ArgumentParser createParser(boolean envDefaults) {
         ArgumentParser parser = ArgumentParsers
             .newArgumentParser("castle-tool")
             .defaultHelp(true)
@@ -182,8 +209,18 @@ public final class CastleTool {
             .required(false)
             .dest(CASTLE_VERBOSE)
             .metavar(CASTLE_VERBOSE)
-            .setDefault(getEnvBoolean(CASTLE_VERBOSE, CASTLE_VERBOSE_DEFAULT))
+            .setDefault(envDefaults ?
+                getEnvBoolean(CASTLE_VERBOSE, CASTLE_VERBOSE_DEFAULT) : CASTLE_VERBOSE_DEFAULT)
             .help("Enable verbose logging.");
+        parser.addArgument("-f", "--force")
+            .action(storeTrue())
+            .type(Boolean.class)
+            .required(false)
+            .dest(CASTLE_FORCE)
+            .metavar(CASTLE_FORCE)
+            .setDefault(envDefaults ?
+                getEnvBoolean(CASTLE_FORCE, CASTLE_FORCE_DEFAULT) : CASTLE_FORCE_DEFAULT)
+            .help("Run every action, even if the journal shows that its inputs have not changed.");
         parser.addArgument("target")
             .nargs("*")
             .action(store())
@@ -191,8 +228,37 @@ public final class CastleTool {
             .dest(CASTLE_TARGETS)
             .metavar(CASTLE_TARGETS)
             .help("The target action(s) to run.");
+        return parser;
+    }
 
+    /**
+     * Run the given targets on the cluster.
+     */
+    static void runTargets(CastleCluster cluster, List<String> targets) throws Throwable {
+        if (targets.contains(CastleSsh.COMMAND)) {
+            CastleSsh.run(cluster, targets);
+        } else if (targets.contains(CastlePlan.COMMAND)) {
+            CastlePlan.run(cluster, targets);
+        } else if (targets.contains(CastleWatch.COMMAND)) {
+            CastleWatch.run(cluster, targets);
+        } else if (targets.contains(CastleLogs.COMMAND)) {
+            CastleLogs.run(cluster, targets);
+        } else {
+            try (ActionScheduler scheduler = cluster.createScheduler(targets,
+                ActionRegistry.INSTANCE.actions(cluster.nodes().keySet()))) {
+                scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Throwable {
+        ArgumentParser parser = createParser();
         final Namespace res = parser.parseArgsOrFail(args);
+        CastleServe.Output serveOutput = null;
+        if (res.<String>getList(CASTLE_TARGETS).contains(CastleServe.COMMAND)) {
+            // Send everything which we print to the client of the current request.
+            serveOutput = CastleServe.redirectStdout();
+        }
         final CastleLog clusterLog = CastleLog.
             fromStdout("cluster", res.getBoolean(CASTLE_VERBOSE));
         CastleShutdownManager shutdownManager = new CastleShutdownManager(clusterLog);
@@ -228,13 +294,13 @@ public final class CastleTool {
 
             try (CastleCluster cluster = new CastleCluster(env, clusterLog,
                     shutdownManager, clusterSpec)) {
-                if (targets.contains(CastleSsh.COMMAND)) {
-                    CastleSsh.run(cluster, targets);
+                if (res.getBoolean(CASTLE_FORCE)) {
+                    cluster.journal().clear();
+                }
+                if (serveOutput != null) {
+                    CastleServe.run(cluster, targets, serveOutput);
                 } else {
-                    try (ActionScheduler scheduler = cluster.createScheduler(targets,
-                        ActionRegistry.INSTANCE.actions(cluster.nodes().keySet()))) {
-                        scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
-                    }
+                    runTargets(cluster, targets);
                 }
             }
             shutdownManager.shutdownNormally();
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.action.ActionRegistry;
+import io.confluent.castle.action.ActionScheduler;
+import io.confluent.castle.action.TaskStatusAction;
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.common.CastleLog;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs some status targets over and over, until they stop returning IN_PROGRESS.
+ *
+ * Only the status lines which changed since the previous check are printed.  We check
+ * often at first, back off while nothing is expected to happen, and check often again
+ * around the time when the tasks in progress are expected to finish.
+ */
+public final class CastleWatch {
+    final static String COMMAND = "watch";
+
+    /**
+     * The shortest time to wait between checks.
+     */
+    final static long MIN_INTERVAL_MS = 500;
+
+    /**
+     * The longest time to wait between checks.
+     */
+    final static long MAX_INTERVAL_MS = 15000;
+
+    static List<String> parse(List<String> targets) {
+        List<String> watchTargets = new ArrayList<>(targets);
+        if (!watchTargets.remove(COMMAND)) {
+            throw new RuntimeException("Watch command not found.");
+        }
+        if (watchTargets.isEmpty()) {
+            watchTargets.add(TaskStatusAction.TYPE);
+        }
+        return watchTargets;
+    }
+
+    /**
+     * Suppresses messages which were also printed in the previous check.
+     */
+    static final class DeltaFilter implements CastleLog.Filter {
+        private Set<String> previous = new HashSet<>();
+        private Set<String> current = new HashSet<>();
+
+        @Override
+        public synchronized boolean shouldPrint(String str) {
+            current.add(str);
+            return !previous.contains(str);
+        }
+
+        synchronized void nextCheck() {
+            previous = current;
+            current = new HashSet<>();
+        }
+    }
+
+    /**
+     * Get how long to wait before the next check.
+     *
+     * @param intervalMs        The current interval, which doubles after each check.
+     * @param nowMs             The current wall-clock time.
+     * @param expectedDoneMs    When the work in progress is expected to finish, or -1.
+     */
+    static long nextDelayMs(long intervalMs, long nowMs, long expectedDoneMs) {
+        long delayMs = Math.max(MIN_INTERVAL_MS, Math.min(intervalMs, MAX_INTERVAL_MS));
+        if (expectedDoneMs > nowMs) {
+            delayMs = Math.min(delayMs, Math.max(MIN_INTERVAL_MS, expectedDoneMs - nowMs));
+        }
+        return delayMs;
+    }
+
+    public static void run(CastleCluster cluster, List<String> targets) throws Throwable {
+        List<String> watchTargets = parse(targets);
+        CastleShutdownManager shutdownManager = cluster.shutdownManager();
+        DeltaFilter filter = new DeltaFilter();
+        cluster.logShipper().start();
+        cluster.clusterLog().setFilter(filter);
+        try {
+            long intervalMs = MIN_INTERVAL_MS;
+            long lastCheckMs = System.currentTimeMillis();
+            long lastExpectedDoneMs = -1;
+            while (true) {
+                try (ActionScheduler scheduler = cluster.createScheduler(watchTargets,
+                        ActionRegistry.INSTANCE.actions(cluster.nodes().keySet()))) {
+                    scheduler.await(cluster.conf().globalTimeout(), TimeUnit.SECONDS);
+                }
+                filter.nextCheck();
+                CastleReturnCode returnCode = shutdownManager.takeReturnCode();
+                long expectedDoneMs = shutdownManager.takeExpectedDoneMs();
+                if (returnCode != CastleReturnCode.IN_PROGRESS) {
+                    shutdownManager.changeReturnCode(returnCode);
+                    return;
+                }
+                long nowMs = System.currentTimeMillis();
+                if ((lastExpectedDoneMs > lastCheckMs) && (lastExpectedDoneMs <= nowMs)) {
+                    // We just passed the expected finish time, so start checking often again.
+                    intervalMs = MIN_INTERVAL_MS;
+                }
+                lastCheckMs = nowMs;
+                lastExpectedDoneMs = expectedDoneMs;
+                long delayMs = nextDelayMs(intervalMs, nowMs, expectedDoneMs);
+                cluster.clusterLog().debug("Checking {} again in {} ms.", watchTargets, delayMs);
+                Thread.sleep(delayMs);
+                intervalMs = Math.min(intervalMs * 2, MAX_INTERVAL_MS);
+            }
+        } finally {
+            cluster.clusterLog().setFilter(null);
+        }
+    }
+};
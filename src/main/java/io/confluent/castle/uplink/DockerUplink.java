@@ -21,6 +21,7 @@ import io.confluent.castle.cloud.DockerCloud;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.command.Command;
+import io.confluent.castle.command.ProbeCache;
 import io.confluent.castle.command.SshCommand;
 import io.confluent.castle.common.CastleLog;
 import io.confluent.castle.common.CastleUtil;
@@ -55,7 +56,7 @@ public class DockerUplink implements Uplink {
     @Override
     public Command command() {
         return new SshCommand(node, "localhost", role.dockerUser(),
-            role.sshPort(), role.sshIdentityPath());
+            role.sshPort(), role.sshIdentityPath(), cluster.sshMultiplexer());
     }
 
     @Override
@@ -99,7 +100,9 @@ public class DockerUplink implements Uplink {
 
     @Override
     public void check() throws Exception {
-        Set<String> containerNames = cloud.listContainers(node);
+        // Every node lists the same local containers, so share one listing.
+        Set<String> containerNames = cluster.probeCache().get(ProbeCache.LOCAL,
+            "docker ps", () -> cloud.listContainers(node));
         node.log().printf("*** Found container name(s): %s%n", String.join(", ", containerNames));
         if (role.containerName().isEmpty()) {
             CastleLog.printToAll(String.format("*** %s: No docker container name.%n", node.nodeName()),
@@ -65,7 +65,8 @@ public class Ec2Uplink implements Uplink {
             role.dns(),
             role.sshUser(),
             role.sshPort(),
-            role.sshIdentityFile());
+            role.sshIdentityFile(),
+            cluster.sshMultiplexer());
     }
 
     @Override
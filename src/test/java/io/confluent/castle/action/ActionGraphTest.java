@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ActionGraphTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static Action createAction(String type, String nodeName,
+                                       TargetId[] comesAfter, final long estimatedMs) {
+        return new Action(new ActionId(type, nodeName), comesAfter, new String[0], 0) {
+            @Override
+            public long estimatedDurationMs() {
+                return estimatedMs;
+            }
+        };
+    }
+
+    private static ActionGraph createGraph(List<Action> actions, List<String> nodeNames) {
+        Set<ActionId> targets = new HashSet<>();
+        for (Action action : actions) {
+            targets.add(action.id());
+        }
+        return new ActionGraph(actions, targets, nodeNames,
+            new ActionDurations(null, new HashMap<String, ActionDurations.Stats>()));
+    }
+
+    @Test
+    public void testGlobalDependencyIsNotExpanded() throws Exception {
+        List<String> nodeNames = new ArrayList<>();
+        List<Action> actions = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            String nodeName = String.format("node%02d", i);
+            nodeNames.add(nodeName);
+            actions.add(createAction("first", nodeName, new TargetId[0], 1000));
+            actions.add(createAction("second", nodeName,
+                new TargetId[] {new TargetId("first")}, 500));
+        }
+        ActionGraph graph = createGraph(actions, nodeNames);
+        assertEquals(200, graph.size());
+        int first = graph.index(new ActionId("first", "node42"));
+        int second = graph.index(new ActionId("second", "node42"));
+        assertEquals(0, graph.comesBefore(first).length);
+        assertEquals(1, graph.numComesAfter(second));
+        assertEquals(100, graph.typeMembers(graph.type(first)).length);
+        assertEquals(100, graph.typeWaiters(graph.type(first)).length);
+        assertEquals(1500, graph.weightMs(first));
+        assertEquals(500, graph.weightMs(second));
+        assertEquals(Arrays.asList(new ActionId("first", "node00"),
+            new ActionId("second", "node00")), graph.predictedPath());
+    }
+
+    @Test
+    public void testIndicesFollowActionIdOrder() throws Exception {
+        List<Action> actions = new ArrayList<>();
+        actions.add(createAction("b", "node1", new TargetId[0], 0));
+        actions.add(createAction("a", "node1", new TargetId[0], 0));
+        actions.add(createAction("b", "node0", new TargetId[0], 0));
+        ActionGraph graph = createGraph(actions, Arrays.asList("node0", "node1"));
+        assertEquals(new ActionId("a", "node1"), graph.id(0));
+        assertEquals(new ActionId("b", "node0"), graph.id(1));
+        assertEquals(new ActionId("b", "node1"), graph.id(2));
+        assertEquals(1, graph.node(0));
+        assertEquals(ActionGraph.NONE, graph.index(new ActionId("c", "node0")));
+    }
+
+    @Test
+    public void testCircularDependencies() throws Exception {
+        try {
+            createGraph(Arrays.asList(
+                createAction("a", "node0", new TargetId[] {new TargetId("b", "node0")}, 0),
+                createAction("b", "node0", new TargetId[] {new TargetId("a", "node0")}, 0)),
+                Collections.singletonList("node0"));
+            fail("Expected to get an exception about a circular dependency.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Circular dependency"));
+        }
+        try {
+            createGraph(Arrays.asList(
+                createAction("a", "node0", new TargetId[] {new TargetId("a")}, 0),
+                createAction("a", "node1", new TargetId[0], 0)),
+                Arrays.asList("node0", "node1"));
+            fail("Expected to get an exception about a circular dependency.");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Circular dependency"));
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class ActionJournalTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testRecordAndLoad() throws Throwable {
+        Path dir = Files.createTempDirectory("ActionJournalTest");
+        try {
+            String path = new File(dir.toFile(), ActionJournal.JOURNAL_FILE_NAME).getAbsolutePath();
+            ActionJournal journal = ActionJournal.load(path);
+            assertNull(journal.get(new ActionId("foo", "node0")));
+            journal.record(new ActionId("foo", "node0"), "abc");
+            journal.record(new ActionId("foo", "node1"), "def");
+            journal.record(new ActionId("bar", "node1"), "ghi");
+
+            ActionJournal journal2 = ActionJournal.load(path);
+            assertEquals("abc", journal2.get(new ActionId("foo", "node0")));
+            assertEquals("def", journal2.get(new ActionId("foo", "node1")));
+            journal2.invalidateNode("node1");
+            assertEquals("abc", journal2.get(new ActionId("foo", "node0")));
+            assertNull(journal2.get(new ActionId("foo", "node1")));
+            assertNull(journal2.get(new ActionId("bar", "node1")));
+
+            ActionJournal journal3 = ActionJournal.load(path);
+            assertNull(journal3.get(new ActionId("bar", "node1")));
+            journal3.clear();
+            assertNull(ActionJournal.load(path).get(new ActionId("foo", "node0")));
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTreeHash() throws Throwable {
+        Path dir = Files.createTempDirectory("ActionJournalTest");
+        try {
+            File file = new File(dir.toFile(), "a.txt");
+            Files.write(file.toPath(), "hello".getBytes("UTF-8"));
+            String hash1 = new ActionJournal(null, Collections.emptyMap()).
+                treeHash(dir.toString());
+            assertEquals(hash1, new ActionJournal(null, Collections.emptyMap()).
+                treeHash(dir.toString()));
+            Files.write(file.toPath(), "hello world".getBytes("UTF-8"));
+            assertNotEquals(hash1, new ActionJournal(null, Collections.emptyMap()).
+                treeHash(dir.toString()));
+        } finally {
+            for (File file : dir.toFile().listFiles()) {
+                Files.delete(file.toPath());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testHash() throws Throwable {
+        assertEquals(ActionJournal.hash("a", "b"), ActionJournal.hash("a", "b"));
+        assertNotEquals(ActionJournal.hash("ab"), ActionJournal.hash("a", "b"));
+    }
+}
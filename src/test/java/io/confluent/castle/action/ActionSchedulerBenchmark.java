@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how the scheduler scales with the number of cluster nodes.
+ *
+ * Each node gets a synthetic "up" target shaped like the real one: a handful of
+ * init actions, then setup actions which wait for every node to finish init, then
+ * a chain of start actions, each of which waits for the previous start action to
+ * finish on every node.  The actions themselves do nothing, so we are measuring
+ * only the scheduler.
+ *
+ * To run:
+ *     mvn test-compile exec:java -Dexec.classpathScope=test \
+ *         -Dexec.mainClass=io.confluent.castle.action.ActionSchedulerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ActionSchedulerBenchmark {
+    private static final int NUM_INIT = 5;
+    private static final int NUM_SETUP = 15;
+    private static final int NUM_START = 15;
+    private static final int MAX_CONCURRENT_ACTIONS = 64;
+
+    @Param({"10", "100", "1000", "5000"})
+    public int numNodes;
+
+    private CastleCluster cluster;
+
+    /**
+     * Each invocation gets a new cluster, since running actions adds to the
+     * cluster's trace and durations.
+     */
+    @Setup(Level.Invocation)
+    public void setup() throws Exception {
+        Map<String, CastleNodeSpec> map = new HashMap<>();
+        map.put(String.format("node[0-%d]", numNodes - 1), new CastleNodeSpec(
+            Arrays.asList(new String[] {"mockCloud"}), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleClusterSpec spec = new CastleClusterSpec(
+            new CastleClusterConf(null, null, 0, MAX_CONCURRENT_ACTIONS, false, null, 0, null, null, 0, false, 0, 0, 0, 0), map, roles);
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        cluster.close();
+    }
+
+    private static String[] numberedTypes(String prefix, int count) {
+        String[] types = new String[count];
+        for (int i = 0; i < count; i++) {
+            types[i] = prefix + i;
+        }
+        return types;
+    }
+
+    private static Action createAction(String type, String nodeName,
+                                       TargetId[] comesAfter, String[] contains) {
+        return new Action(new ActionId(type, nodeName), comesAfter, contains, 0) {
+            @Override
+            public long estimatedDurationMs() {
+                return 10;
+            }
+        };
+    }
+
+    private ActionScheduler.Builder createBuilder() {
+        ActionScheduler.Builder builder = new ActionScheduler.Builder(cluster);
+        for (String nodeName : cluster.nodes().keySet()) {
+            builder.addAction(createAction("up", nodeName, new TargetId[0],
+                new String[] {"init", "setup", "start"}));
+            builder.addAction(createAction("init", nodeName, new TargetId[0],
+                numberedTypes("init", NUM_INIT)));
+            builder.addAction(createAction("setup", nodeName, new TargetId[0],
+                numberedTypes("setup", NUM_SETUP)));
+            builder.addAction(createAction("start", nodeName, new TargetId[0],
+                numberedTypes("start", NUM_START)));
+            for (String type : numberedTypes("init", NUM_INIT)) {
+                builder.addAction(createAction(type, nodeName, new TargetId[0], new String[0]));
+            }
+            for (String type : numberedTypes("setup", NUM_SETUP)) {
+                builder.addAction(createAction(type, nodeName,
+                    new TargetId[] {new TargetId("init")}, new String[0]));
+            }
+            for (int i = 0; i < NUM_START; i++) {
+                builder.addAction(createAction("start" + i, nodeName,
+                    new TargetId[] {new TargetId((i == 0) ? "setup" : "start" + (i - 1))},
+                    new String[0]));
+            }
+        }
+        builder.addTargetName("up");
+        return builder;
+    }
+
+    /**
+     * Build a scheduler, and shut it down without waiting for the actions.
+     */
+    @Benchmark
+    public void build() throws Exception {
+        createBuilder().build().close();
+    }
+
+    /**
+     * Build the action graph and simulate a run, without starting any threads.
+     */
+    @Benchmark
+    public ActionPlan plan() throws Exception {
+        return createBuilder().plan();
+    }
+
+    /**
+     * Build a scheduler and run every action to completion.
+     */
+    @Benchmark
+    public void run() throws Throwable {
+        try (ActionScheduler scheduler = createBuilder().build()) {
+            scheduler.await(1, TimeUnit.HOURS);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().
+            include(ActionSchedulerBenchmark.class.getSimpleName()).
+            build();
+        new Runner(options).run();
+    }
+}
@@ -18,6 +18,7 @@
 package io.confluent.castle.action;
 
 import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.cluster.CastleClusterSpec;
 import io.confluent.castle.cluster.CastleNode;
 import io.confluent.castle.cluster.CastleNodeSpec;
@@ -26,15 +27,23 @@ import io.confluent.castle.role.MockCloudRole;
 import io.confluent.castle.role.Role;
 import io.confluent.castle.tool.CastleEnvironment;
 import io.confluent.castle.tool.MockCastleEnvironment;
+import io.confluent.castle.uplink.MockUplink;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -47,13 +56,17 @@ public class ActionSchedulerTest {
     final public Timeout globalTimeout = Timeout.millis(120000);
 
     private CastleCluster createCluster(int numNodes) throws Exception {
+        return createCluster(numNodes, null);
+    }
+
+    private CastleCluster createCluster(int numNodes, CastleClusterConf conf) throws Exception {
         Map<String, CastleNodeSpec> map = new HashMap<>();
         CastleNodeSpec specA = new CastleNodeSpec(
             Arrays.asList(new String[] {"mockCloud"}), null);
         map.put(String.format("node[0-%d]", numNodes - 1), specA);
         Map<String, Role> roles = new HashMap<>();
         roles.put("mockCloud", new MockCloudRole());
-        CastleClusterSpec spec = new CastleClusterSpec(null, map, roles);
+        CastleClusterSpec spec = new CastleClusterSpec(conf, map, roles);
         return new CastleCluster(new MockCastleEnvironment(),
             CastleLog.fromDevNull("cluster", false), null, spec);
     }
@@ -246,4 +259,506 @@ public class ActionSchedulerTest {
         }
         assertEquals(3, numBars.get());
     }
+
+    @Test
+    public void testCriticalPathFirst() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        final List<String> order = Collections.synchronizedList(new ArrayList<>());
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("root", "node0"),
+            new TargetId[0],
+            new String[] {
+                "light1",
+                "light2",
+                "heavy"
+            },
+            0) {
+        });
+        for (final String type : new String[] {"light1", "light2", "heavy", "heavyNext"}) {
+            schedulerBuilder.addAction(new Action(
+                new ActionId(type, "node0"),
+                type.equals("heavyNext") ? new TargetId[] {new TargetId("heavy")} : new TargetId[0],
+                new String[0],
+                0) {
+                @Override
+                public long estimatedDurationMs() {
+                    return type.startsWith("heavy") ? 10000 : 1;
+                }
+
+                @Override
+                public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                    order.add(type);
+                }
+            });
+        }
+        schedulerBuilder.addTargetName("root");
+        schedulerBuilder.addTargetName("heavyNext");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1000, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(4, order.size());
+        assertEquals("heavy", order.get(0));
+    }
+
+    private void runJournaledAction(CastleCluster cluster, final String inputHash,
+                                    final AtomicInteger numCalls) throws Throwable {
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("journaled", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public String inputHash(CastleCluster cluster, CastleNode node) {
+                return inputHash;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                numCalls.incrementAndGet();
+            }
+        });
+        schedulerBuilder.addTargetName("journaled");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1000, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Test
+    public void testSkipUnchangedActions() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        AtomicInteger numCalls = new AtomicInteger(0);
+        runJournaledAction(cluster, "hash1", numCalls);
+        assertEquals(1, numCalls.get());
+        runJournaledAction(cluster, "hash1", numCalls);
+        assertEquals(1, numCalls.get());
+        runJournaledAction(cluster, "hash2", numCalls);
+        assertEquals(2, numCalls.get());
+        cluster.journal().invalidateNode("node0");
+        runJournaledAction(cluster, "hash2", numCalls);
+        assertEquals(3, numCalls.get());
+    }
+
+    @Test
+    public void testJournalCheckHasTimeoutAndRetries() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        runJournaledAction(cluster, "hash1", numCalls);
+        assertEquals(1, numCalls.get());
+        // The first check hangs, as it would on an unresponsive node.  It is
+        // cancelled by the timeout, and the retry finds that the call can be skipped.
+        final AtomicInteger numChecks = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("journaled", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public String inputHash(CastleCluster cluster, CastleNode node) {
+                return "hash1";
+            }
+
+            @Override
+            public boolean stillValid(CastleCluster cluster, CastleNode node) throws Throwable {
+                if (numChecks.incrementAndGet() == 1) {
+                    Thread.sleep(TimeUnit.DAYS.toMillis(1));
+                }
+                return true;
+            }
+
+            @Override
+            public long timeoutMs() {
+                return 100;
+            }
+
+            @Override
+            public int maxRetries() {
+                return 1;
+            }
+
+            @Override
+            public long retryBackoffMs() {
+                return 1;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                numCalls.incrementAndGet();
+            }
+        });
+        schedulerBuilder.addTargetName("journaled");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+        }
+        assertEquals(2, numChecks.get());
+        assertEquals(1, numCalls.get());
+    }
+
+    private ActionScheduler.Builder createPlanBuilder(CastleCluster cluster) {
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(new ActionId("a", "node0"),
+            new TargetId[0], new String[0], 0) {
+            @Override
+            public long estimatedDurationMs() {
+                return 1000;
+            }
+        });
+        schedulerBuilder.addAction(new Action(new ActionId("b", "node0"),
+            new TargetId[0], new String[0], 0) {
+            @Override
+            public long estimatedDurationMs() {
+                return 500;
+            }
+        });
+        schedulerBuilder.addAction(new Action(new ActionId("c", "node1"),
+            new TargetId[] {new TargetId("a")}, new String[0], 100) {
+            @Override
+            public long estimatedDurationMs() {
+                return 2000;
+            }
+        });
+        schedulerBuilder.addTargetName("a");
+        schedulerBuilder.addTargetName("b");
+        schedulerBuilder.addTargetName("c");
+        return schedulerBuilder;
+    }
+
+    private static List<String> stepIds(ActionPlan plan) {
+        List<String> ids = new ArrayList<>();
+        for (ActionPlan.Step step : plan.criticalPath()) {
+            ids.add(step.id().toString());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testPlan() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        ActionPlan plan = createPlanBuilder(cluster).plan();
+        // a runs first on node0, because c is waiting for it.  c waits out its
+        // initial delay, and then runs on node1 while b runs on node0.
+        assertEquals(3100, plan.makespanMs());
+        assertEquals(Arrays.asList("a:node0", "c:node1"), stepIds(plan));
+        assertEquals(1100, plan.criticalPath().get(1).startMs());
+        assertEquals(Long.valueOf(1500), plan.nodeBusyMs().get("node0"));
+        assertEquals(Long.valueOf(2000), plan.nodeBusyMs().get("node1"));
+        assertEquals("node1", plan.busiestNode());
+
+        // Once we have seen b take 5 seconds, it becomes the critical path, and
+        // a has to wait for it.
+        cluster.durations().record("b", 5000);
+        plan = createPlanBuilder(cluster).plan();
+        assertEquals(8100, plan.makespanMs());
+        assertEquals(Arrays.asList("b:node0", "a:node0", "c:node1"), stepIds(plan));
+        assertEquals("node0", plan.busiestNode());
+    }
+
+    private void runWithPolicy(CastleCluster cluster, final long timeoutMs, final int maxRetries,
+                               final boolean hedge, final Callable<Void> callable) throws Throwable {
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("flaky", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public long timeoutMs() {
+                return timeoutMs;
+            }
+
+            @Override
+            public int maxRetries() {
+                return maxRetries;
+            }
+
+            @Override
+            public long retryBackoffMs() {
+                return 1;
+            }
+
+            @Override
+            public boolean hedge(CastleCluster cluster) {
+                return hedge;
+            }
+
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                callable.call();
+            }
+        });
+        schedulerBuilder.addTargetName("flaky");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testRetries() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        runWithPolicy(cluster, 0, 2, false, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (numCalls.incrementAndGet() < 3) {
+                    throw new RuntimeException("flaky failure");
+                }
+                return null;
+            }
+        });
+        assertEquals(3, numCalls.get());
+
+        numCalls.set(0);
+        try {
+            runWithPolicy(cluster, 0, 1, false, new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    numCalls.incrementAndGet();
+                    throw new RuntimeException("permanent failure");
+                }
+            });
+            fail("Expected the action to fail once it ran out of retries.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("permanent failure"));
+        }
+        assertEquals(2, numCalls.get());
+        assertEquals(1000, ActionRunner.backoffMs(1000, 1));
+        assertEquals(4000, ActionRunner.backoffMs(1000, 3));
+        assertEquals(300000, ActionRunner.backoffMs(1000, 30));
+    }
+
+    @Test
+    public void testTimeoutInterruptsAction() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        final AtomicInteger numInterrupted = new AtomicInteger(0);
+        runWithPolicy(cluster, 100, 1, false, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (numCalls.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(TimeUnit.DAYS.toMillis(1));
+                    } catch (InterruptedException e) {
+                        numInterrupted.incrementAndGet();
+                        throw e;
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(2, numCalls.get());
+        assertEquals(1, numInterrupted.get());
+    }
+
+    @Test
+    public void testDurationsOnlyRecordTheSuccessfulAttempt() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        runWithPolicy(cluster, 0, 1, false, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (numCalls.incrementAndGet() == 1) {
+                    Thread.sleep(500);
+                    throw new RuntimeException("slow failure");
+                }
+                return null;
+            }
+        });
+        assertEquals(2, numCalls.get());
+        long recordedMs = cluster.durations().p95Ms("flaky");
+        assertTrue("Recorded " + recordedMs + " ms.", recordedMs < 500);
+    }
+
+    @Test
+    public void testHedgeStragglers() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        for (int i = 0; i < 10; i++) {
+            cluster.durations().record("flaky", 10);
+        }
+        assertEquals(10, cluster.durations().p95Ms("flaky"));
+        final AtomicInteger numCalls = new AtomicInteger(0);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        runWithPolicy(cluster, 0, 0, true, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                if (numCalls.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(TimeUnit.DAYS.toMillis(1));
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                        throw e;
+                    }
+                }
+                return null;
+            }
+        });
+        assertEquals(2, numCalls.get());
+        // The straggling first copy is cancelled once the hedged copy wins.
+        assertTrue(interrupted.await(1, TimeUnit.MINUTES));
+    }
+
+    /**
+     * A probe which passes once it has been checked a given number of times.
+     */
+    private static ReadinessProbe countingProbe(final AtomicInteger numChecks,
+                                                final int readyAfter, final long timeoutMs) {
+        return new ReadinessProbe() {
+            @Override
+            public boolean isReady(CastleNode node) {
+                return numChecks.incrementAndGet() >= readyAfter;
+            }
+
+            @Override
+            public long timeoutMs() {
+                return timeoutMs;
+            }
+
+            @Override
+            public String toString() {
+                return "countingProbe";
+            }
+        };
+    }
+
+    private void runWithProbe(CastleCluster cluster, final ReadinessProbe probe,
+                              final Callable<Void> dependent) throws Throwable {
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        schedulerBuilder.addAction(new Action(
+            new ActionId("daemonStart", "node0"),
+            new TargetId[0],
+            new String[0],
+            0) {
+            @Override
+            public ReadinessProbe readinessProbe(CastleCluster cluster, CastleNode node) {
+                return probe;
+            }
+        });
+        schedulerBuilder.addAction(new Action(
+            new ActionId("taskStart", "node1"),
+            new TargetId[] {new TargetId("daemonStart")},
+            new String[0],
+            0) {
+            @Override
+            public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                dependent.call();
+            }
+        });
+        schedulerBuilder.addTargetName("daemonStart");
+        schedulerBuilder.addTargetName("taskStart");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.MINUTES);
+        }
+    }
+
+    @Test
+    public void testReadinessProbeGatesDependents() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final AtomicInteger numChecks = new AtomicInteger(0);
+        final AtomicInteger checksSeenByDependent = new AtomicInteger(-1);
+        runWithProbe(cluster, countingProbe(numChecks, 4, 60000), new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                checksSeenByDependent.set(numChecks.get());
+                return null;
+            }
+        });
+        assertEquals(4, checksSeenByDependent.get());
+    }
+
+    @Test
+    public void testReadinessProbeTimeout() throws Throwable {
+        CastleCluster cluster = createCluster(2);
+        final AtomicInteger numDependentCalls = new AtomicInteger(0);
+        try {
+            runWithProbe(cluster, countingProbe(new AtomicInteger(0), Integer.MAX_VALUE, 50),
+                new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        numDependentCalls.incrementAndGet();
+                        return null;
+                    }
+                });
+            fail("Expected the probe to time out.");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().contains("Timed out"));
+        }
+        assertEquals(0, numDependentCalls.get());
+    }
+
+    @Test
+    public void testAllReadinessProbes() throws Throwable {
+        CastleCluster cluster = createCluster(1);
+        CastleNode node = cluster.nodes().get("node0");
+        AtomicInteger numFirstChecks = new AtomicInteger(0);
+        AtomicInteger numSecondChecks = new AtomicInteger(0);
+        ReadinessProbe probe = ReadinessProbe.all(
+            countingProbe(numFirstChecks, 2, 100),
+            countingProbe(numSecondChecks, 3, 200));
+        assertEquals(200, probe.timeoutMs());
+        probe.await(node);
+        // The first probe is not checked again once it has passed.
+        assertEquals(2, numFirstChecks.get());
+        assertEquals(3, numSecondChecks.get());
+    }
+
+    private int runOnSharedExecutor(int numNodes, int maxConcurrentActions) throws Throwable {
+        CastleCluster cluster = createCluster(numNodes,
+            new CastleClusterConf(null, null, 0, maxConcurrentActions, false, null, 0, null, null, 0, false, 0, 0, 0, 0));
+        final Set<Thread> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        ActionScheduler.Builder schedulerBuilder =
+            new ActionScheduler.Builder(cluster);
+        for (final String nodeName : cluster.nodes().keySet()) {
+            for (final String type : new String[] {"first", "second"}) {
+                schedulerBuilder.addAction(new Action(
+                    new ActionId(type, nodeName),
+                    type.equals("second") ? new TargetId[] {new TargetId("first", nodeName)} :
+                        new TargetId[0],
+                    new String[0],
+                    0) {
+                    @Override
+                    public void call(CastleCluster cluster, CastleNode node) throws Throwable {
+                        threads.add(Thread.currentThread());
+                        int cur = running.incrementAndGet();
+                        while (true) {
+                            int prev = maxRunning.get();
+                            if ((cur <= prev) || maxRunning.compareAndSet(prev, cur)) {
+                                break;
+                            }
+                        }
+                        node.uplink().command().args("true").mustRun();
+                        Thread.sleep(1);
+                        running.decrementAndGet();
+                    }
+                });
+            }
+        }
+        schedulerBuilder.addTargetName("first");
+        schedulerBuilder.addTargetName("second");
+        try (ActionScheduler scheduler = schedulerBuilder.build()) {
+            scheduler.await(1, TimeUnit.DAYS);
+        }
+        for (CastleNode node : cluster.nodes().values()) {
+            assertEquals(2, ((MockUplink) node.uplink()).numCommands());
+        }
+        assertTrue(maxRunning.get() <= maxConcurrentActions);
+        return threads.size();
+    }
+
+    @Test
+    public void testThreadCountStaysFlat() throws Throwable {
+        for (int numNodes : new int[] {10, 100, 500}) {
+            int numThreads = runOnSharedExecutor(numNodes, 4);
+            assertTrue("Used " + numThreads + " threads for " + numNodes + " nodes.",
+                numThreads <= 4);
+        }
+    }
 };
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ArtifactCacheTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testHashFile() throws Exception {
+        File file = tempFolder.newFile("artifact.tgz");
+        Files.write(file.toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        assertEquals("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad",
+            ArtifactCache.hashFile(file));
+    }
+
+    @Test
+    public void testNewestTarball() throws Exception {
+        File dir = tempFolder.newFolder();
+        try {
+            ArtifactCache.newestTarball(dir);
+            fail("Expected an exception for an empty directory");
+        } catch (RuntimeException e) {
+            assertTrue(e.getMessage().contains("Unable to find"));
+        }
+        File older = new File(dir, "kafka_2.12-2.0.0.tgz");
+        File newer = new File(dir, "kafka_2.12-2.1.0.tgz");
+        File docs = new File(dir, "kafka_2.12-2.1.0-site-docs.tgz");
+        for (File file : new File[] {older, newer, docs}) {
+            assertTrue(file.createNewFile());
+        }
+        assertTrue(older.setLastModified(1000000));
+        assertTrue(newer.setLastModified(2000000));
+        assertTrue(docs.setLastModified(3000000));
+        assertEquals(newer, ArtifactCache.newestTarball(dir));
+    }
+}
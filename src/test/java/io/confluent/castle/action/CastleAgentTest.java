@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CastleAgentTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final String LISTING = String.join("\n",
+        "broker running 1234 - 0",
+        "zookeeper restarting - 1 2",
+        "trogdor-agent stopped - 143 0",
+        "bash: warning: something unexpected",
+        "@@castle-ps",
+        "  PID COMMAND",
+        "    1 /sbin/init",
+        "  456 collectd -f -C /mnt/collectd/collectd.conf",
+        "  999 bash /mnt/castle/src/bin/castle-agent.sh supervise broker",
+        " 1234 java -cp /mnt/kafka/src/libs/* kafka.Kafka /mnt/kafka/conf/broker.properties",
+        "");
+
+    @Test
+    public void testParseStatus() throws Exception {
+        Map<String, CastleAgent.DaemonState> states = CastleAgent.parseStatus(LISTING);
+        assertEquals(3, states.size());
+        CastleAgent.DaemonState broker = states.get(CastleAgent.BROKER);
+        assertEquals("running", broker.state());
+        assertEquals("1234", broker.pid());
+        assertEquals("-", broker.exitCode());
+        assertEquals(0, broker.restarts());
+        CastleAgent.DaemonState zooKeeper = states.get(CastleAgent.ZOOKEEPER);
+        assertEquals("restarting", zooKeeper.state());
+        assertEquals("1", zooKeeper.exitCode());
+        assertEquals(2, zooKeeper.restarts());
+        assertEquals("stopped",
+            states.get(TrogdorDaemonType.AGENT.agentName()).state());
+        assertNull(states.get(CastleAgent.JMX_DUMPER));
+        assertTrue(CastleAgent.parseStatus("").isEmpty());
+    }
+
+    @Test
+    public void testPsListing() throws Exception {
+        String ps = CastleAgent.psListing(LISTING);
+        assertTrue(ps.startsWith("  PID COMMAND\n"));
+        assertFalse(ps.contains("trogdor-agent stopped"));
+        assertTrue(ps.contains(" 1234 java -cp"));
+        assertEquals("", CastleAgent.psListing("broker running 1234 - 0\n"));
+        assertEquals("", CastleAgent.psListing(""));
+    }
+
+    @Test
+    public void testParseStopped() throws Exception {
+        CastleAgent.Stopped stopped = CastleAgent.parseStopped(
+            "broker: stopped pid 1234 in 2150 ms\n");
+        assertEquals("1234", stopped.pid());
+        assertEquals(2150, stopped.durationMs());
+        assertFalse(stopped.killed());
+
+        stopped = CastleAgent.parseStopped(String.join("\n",
+            "sudo: unable to resolve host node1",
+            "trogdor-agent: stopped pid 77 in 30104 ms after SIGKILL",
+            ""));
+        assertEquals("77", stopped.pid());
+        assertEquals(30104, stopped.durationMs());
+        assertTrue(stopped.killed());
+
+        assertNull(CastleAgent.parseStopped(""));
+        assertNull(CastleAgent.parseStopped("castle-agent: unknown command 'stop'"));
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import io.confluent.castle.command.LocalCommand;
+import io.confluent.castle.common.CastleLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogShipperTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static void append(Path path, String str) throws Exception {
+        Files.write(path, str.getBytes(StandardCharsets.UTF_8),
+            StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    @Test
+    public void testParseRemoteFile() throws Exception {
+        LogShipper.RemoteFile file =
+            LogShipper.RemoteFile.parse("1234 5678 1528000000.5 broker/server log.txt");
+        assertEquals(1234L, file.inode());
+        assertEquals(5678L, file.size());
+        assertEquals(1528000000500L, file.modified().toMillis());
+        assertEquals("broker/server log.txt", file.path());
+        assertNull(LogShipper.RemoteFile.parse("1234 5678"));
+        assertNull(LogShipper.RemoteFile.parse("a b c d"));
+    }
+
+    @Test
+    public void testShipIncrementally() throws Exception {
+        File remote = tempFolder.newFolder();
+        File local = tempFolder.newFolder();
+        Path remoteLog = remote.toPath().resolve("broker/server.log");
+        Path localLog = local.toPath().resolve("broker/server.log");
+        Files.createDirectories(remoteLog.getParent());
+        LogShipper.NodeShipper shipper = new LogShipper.NodeShipper(
+            CastleLog.fromDevNull("node0", false), LocalCommand::new,
+            remote.getAbsolutePath(), local.toPath());
+
+        // Nothing to copy yet.
+        assertEquals(0, shipper.ship());
+        append(remoteLog, "first line\n");
+        append(remote.toPath().resolve("gc.log"), "gc\n");
+        assertEquals(14, shipper.ship());
+        assertEquals("first line\n", new String(Files.readAllBytes(localLog), StandardCharsets.UTF_8));
+        assertEquals(Files.getLastModifiedTime(remoteLog), Files.getLastModifiedTime(localLog));
+
+        // Only the new part is copied.
+        append(remoteLog, "second line\n");
+        assertEquals(12, shipper.ship());
+        assertEquals(0, shipper.ship());
+        assertEquals("first line\nsecond line\n",
+            new String(Files.readAllBytes(localLog), StandardCharsets.UTF_8));
+
+        // A replaced file is copied again from the start.
+        Files.move(remoteLog, remoteLog.resolveSibling("server.log.1"));
+        append(remoteLog, "new\n");
+        assertEquals(4 + 23, shipper.ship());
+        assertEquals("new\n", new String(Files.readAllBytes(localLog), StandardCharsets.UTF_8));
+        assertEquals("first line\nsecond line\n", new String(Files.readAllBytes(
+            localLog.resolveSibling("server.log.1")), StandardCharsets.UTF_8));
+
+        // A new shipper picks up where the copies left off.
+        append(remoteLog, "more\n");
+        shipper = new LogShipper.NodeShipper(CastleLog.fromDevNull("node0", false),
+            LocalCommand::new, remote.getAbsolutePath(), local.toPath());
+        assertEquals(5, shipper.ship());
+
+        // Binary data survives the trip.
+        byte[] binary = new byte[200000];
+        for (int i = 0; i < binary.length; i++) {
+            binary[i] = (byte) (i * 31);
+        }
+        Files.write(remote.toPath().resolve("binary"), binary);
+        assertEquals(binary.length, shipper.ship());
+        assertArrayEquals(binary, Files.readAllBytes(local.toPath().resolve("binary")));
+    }
+
+    private static byte[] gzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(output)) {
+            gzip.write(bytes);
+        }
+        return output.toByteArray();
+    }
+
+    @Test
+    public void testTransferWriter() throws Exception {
+        Path path = tempFolder.getRoot().toPath().resolve("broker/server.log");
+        byte[] text = "first line\nsecond line\n".getBytes(StandardCharsets.UTF_8);
+        byte[] compressed = gzip(text);
+
+        // The compressed data can arrive in pieces of any size, even the header.
+        try (LogShipper.TransferWriter writer = new LogShipper.TransferWriter(path, 0)) {
+            for (int i = 0; i < compressed.length; i++) {
+                writer.write(Arrays.copyOfRange(compressed, i, i + 1));
+            }
+            assertEquals(text.length, writer.finish());
+        }
+        assertArrayEquals(text, Files.readAllBytes(path));
+
+        // A transfer replaces whatever comes after its offset.
+        try (LogShipper.TransferWriter writer = new LogShipper.TransferWriter(path, 11)) {
+            writer.write(gzip("more\n".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(5, writer.finish());
+        }
+        assertEquals("first line\nmore\n",
+            new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+
+        // Data which does not match its checksum is dropped.
+        compressed[compressed.length - 8]++;
+        try (LogShipper.TransferWriter writer = new LogShipper.TransferWriter(path, 11)) {
+            writer.write(compressed);
+            writer.finish();
+            fail("Expected an exception for a bad checksum");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("Corrupt"));
+        }
+        assertEquals("first line\n", new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGzipHeaderLength() throws Exception {
+        byte[] header = new byte[] {0x1f, (byte) 0x8b, 8, 8, 0, 0, 0, 0, 0, 3, 'l', 'o', 'g', 0};
+        assertEquals(-1, LogShipper.TransferWriter.gzipHeaderLength(Arrays.copyOf(header, 9)));
+        assertEquals(-1, LogShipper.TransferWriter.gzipHeaderLength(Arrays.copyOf(header, 13)));
+        assertEquals(14, LogShipper.TransferWriter.gzipHeaderLength(header));
+        header[3] = 0;
+        assertEquals(10, LogShipper.TransferWriter.gzipHeaderLength(header));
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReadinessProbeTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    private static final String DUMP = String.join("\n",
+        "SessionTracker dump:",
+        "Session Sets (3):",
+        "0 expire at Fri Jun 01 12:00:06 UTC 2018:",
+        "1 expire at Fri Jun 01 12:00:09 UTC 2018:",
+        "\t0x100000a8c6b0000",
+        "ephemeral nodes dump:",
+        "Sessions with Ephemerals (1):",
+        "0x100000a8c6b0000:",
+        "\t/controller",
+        "\t/brokers/ids/1",
+        "");
+
+    @Test
+    public void testHasEphemeral() throws Exception {
+        assertTrue(ReadinessProbe.hasEphemeral(DUMP, "/brokers/ids/1"));
+        assertFalse(ReadinessProbe.hasEphemeral(DUMP, "/brokers/ids/10"));
+        assertFalse(ReadinessProbe.hasEphemeral(DUMP, "/brokers/ids/2"));
+        assertFalse(ReadinessProbe.hasEphemeral("", "/brokers/ids/1"));
+    }
+
+    @Test
+    public void testZooKeeperDumpScript() throws Exception {
+        assertEquals("(exec 3<>/dev/tcp/zk1/2181 && echo dump >&3 && cat <&3); " +
+            "(exec 3<>/dev/tcp/zk2/2182 && echo dump >&3 && cat <&3);",
+            ReadinessProbe.zooKeeperDumpScript("zk1:2181,zk2:2182/kafka"));
+        assertEquals("", ReadinessProbe.zooKeeperChroot("zk1:2181,zk2:2182"));
+        assertEquals("/kafka", ReadinessProbe.zooKeeperChroot("zk1:2181,zk2:2182/kafka"));
+    }
+}
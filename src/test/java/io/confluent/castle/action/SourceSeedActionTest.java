@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SourceSeedActionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testParseHop() throws Exception {
+        SourceSeedAction.Hop hop = SourceSeedAction.parseHop("hop node0 node3 0 2000 4194304");
+        assertEquals("node0", hop.from());
+        assertEquals("node3", hop.to());
+        assertEquals(0, hop.exitCode());
+        assertEquals(2000, hop.durationMs());
+        assertEquals(4194304, hop.bytes());
+        assertEquals("node0 -> node3: 4.0 MB in 2000 ms (2.0 MB/s)", hop.toString());
+
+        hop = SourceSeedAction.parseHop("hop node3 node4 1 15 0");
+        assertEquals(1, hop.exitCode());
+        assertEquals("node3 -> node4: failed with exit status 1 after 15 ms", hop.toString());
+
+        assertNull(SourceSeedAction.parseHop(""));
+        assertNull(SourceSeedAction.parseHop("rsync: connection unexpectedly closed"));
+        assertNull(SourceSeedAction.parseHop("hop node0 node3 0 2000"));
+        assertNull(SourceSeedAction.parseHop("hop node0 node3 0 2000 many"));
+    }
+
+    @Test
+    public void testDistributeCopiesMarkerLast() throws Exception {
+        List<String> sshCommands = new ArrayList<>();
+        List<SourceSeedAction.Hop> hops = runDistribute(0, sshCommands);
+        assertEquals(2, hops.size());
+        for (SourceSeedAction.Hop hop : hops) {
+            assertEquals(0, hop.exitCode());
+            assertEquals(1024, hop.bytes());
+        }
+        assertEquals(2, countMarkerWrites(sshCommands));
+    }
+
+    @Test
+    public void testDistributeSkipsMarkerWhenRsyncFails() throws Exception {
+        List<String> sshCommands = new ArrayList<>();
+        // 23 is the status rsync uses for a partial transfer.
+        List<SourceSeedAction.Hop> hops = runDistribute(23, sshCommands);
+        assertEquals(2, hops.size());
+        for (SourceSeedAction.Hop hop : hops) {
+            assertTrue(hop.exitCode() != 0);
+        }
+        assertFalse(sshCommands.isEmpty());
+        assertEquals(0, countMarkerWrites(sshCommands));
+    }
+
+    /**
+     * Runs bin/distribute.sh for two nodes, with stub ssh and rsync commands.
+     * The stub ssh only records its arguments, and the stub rsync reports 1024
+     * bytes sent and then exits with the given status.
+     */
+    private List<SourceSeedAction.Hop> runDistribute(int rsyncStatus,
+                                                     List<String> sshCommands) throws Exception {
+        File stubs = tempFolder.newFolder("stubs");
+        File sshLog = new File(tempFolder.getRoot(), "ssh.log");
+        writeStub(new File(stubs, "ssh"),
+            "cat > /dev/null",
+            "echo \"$*\" >> \"" + sshLog.getAbsolutePath() + "\"");
+        writeStub(new File(stubs, "rsync"),
+            "echo \"Total bytes sent: 1,024\"",
+            "exit " + rsyncStatus);
+        File marker = tempFolder.newFile("marker");
+        File source = tempFolder.newFolder("source");
+        ProcessBuilder builder = new ProcessBuilder("bash",
+            new File("bin/distribute.sh").getAbsolutePath(),
+            "node0", marker.getAbsolutePath(), source.getAbsolutePath());
+        builder.environment().put("PATH",
+            stubs.getAbsolutePath() + File.pathSeparator + System.getenv("PATH"));
+        builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        Process process = builder.start();
+        try (OutputStream os = process.getOutputStream()) {
+            os.write("node1 10.0.0.1\nnode2 10.0.0.2\n".getBytes(StandardCharsets.UTF_8));
+        }
+        List<SourceSeedAction.Hop> hops = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                SourceSeedAction.Hop hop = SourceSeedAction.parseHop(line);
+                assertNotNull("Unexpected output line " + line, hop);
+                hops.add(hop);
+            }
+        }
+        assertEquals(0, process.waitFor());
+        if (sshLog.exists()) {
+            sshCommands.addAll(Files.readAllLines(sshLog.toPath(), StandardCharsets.UTF_8));
+        }
+        return hops;
+    }
+
+    private static void writeStub(File file, String... lines) throws Exception {
+        List<String> script = new ArrayList<>();
+        script.add("#!/usr/bin/env bash");
+        script.addAll(Arrays.asList(lines));
+        Files.write(file.toPath(), script, StandardCharsets.UTF_8);
+        assertTrue(file.setExecutable(true));
+    }
+
+    private static int countMarkerWrites(List<String> sshCommands) {
+        int count = 0;
+        for (String command : sshCommands) {
+            if (command.contains("cat > ")) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
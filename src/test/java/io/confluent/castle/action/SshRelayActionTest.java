@@ -0,0 +1,63 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.action;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+
+public class SshRelayActionTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testSplit() throws Exception {
+        assertEquals(Collections.emptyList(),
+            SshRelayAction.split(Collections.<String>emptyList(), 3));
+        assertEquals(Arrays.asList(Arrays.asList("a"), Arrays.asList("b")),
+            SshRelayAction.split(Arrays.asList("a", "b"), 3));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("d", "e", "f"),
+                Arrays.asList("g")),
+            SshRelayAction.split(Arrays.asList("a", "b", "c", "d", "e", "f", "g"), 3));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Arrays.asList("c", "d")),
+            SshRelayAction.split(Arrays.asList("a", "b", "c", "d"), 3));
+    }
+
+    @Test
+    public void testParseResult() throws Exception {
+        String output = Base64.getEncoder().encodeToString(
+            "hello\nworld\n".getBytes(StandardCharsets.UTF_8));
+        SshRelayAction.Result result =
+            SshRelayAction.parseResult("3 o" + output + " node1,node2");
+        assertEquals(3, result.exitCode());
+        assertEquals("hello\nworld\n", result.output());
+        assertEquals(Arrays.asList("node1", "node2"), result.nodeNames());
+
+        result = SshRelayAction.parseResult("0 o node0");
+        assertEquals(0, result.exitCode());
+        assertEquals("", result.output());
+        assertEquals(Arrays.asList("node0"), result.nodeNames());
+    }
+}
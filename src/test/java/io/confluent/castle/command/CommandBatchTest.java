@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class CommandBatchTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testStepsAndFiles() throws Exception {
+        File dir = tempFolder.newFolder();
+        String path = new File(dir, "it's a file.properties").getAbsolutePath();
+        byte[] contents = new byte[1000];
+        for (int i = 0; i < contents.length; i++) {
+            contents[i] = (byte) i;
+        }
+        LocalCommand command = new LocalCommand();
+        CommandBatch.Results results = command.batch().
+            args("-n", "--", "echo", "hello", "&&", "echo", "world").
+            writeFile(path, contents, 0600).
+            args("printf", "no-newline").
+            args("cat", CommandBatch.quote(path), "|", "wc", "-c").
+            // Steps must not read the rest of the script from stdin.
+            args("cat").
+            mustRun();
+        assertEquals(1, command.numRuns());
+        assertEquals(0, results.returnCode());
+        assertEquals(Arrays.asList(0, 0, 0, 0, 0), results.exitCodes());
+        assertEquals(Arrays.asList("hello\nworld\n", "", "no-newline", "1000\n", ""),
+            results.outputs());
+        assertArrayEquals(contents, Files.readAllBytes(new File(path).toPath()));
+        assertEquals(PosixFilePermissions.fromString("rw-------"),
+            Files.getPosixFilePermissions(new File(path).toPath()));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void testWriteRemoteFile() throws Exception {
+        File dir = tempFolder.newFolder();
+        File file = new File(dir, "it's a file.conf");
+        Files.write(file.toPath(), "old contents".getBytes(StandardCharsets.UTF_8));
+        LocalCommand command = new LocalCommand();
+        command.writeRemoteFile(file.getAbsolutePath(),
+            "new contents\n".getBytes(StandardCharsets.UTF_8), 0640);
+        assertEquals(1, command.numRuns());
+        assertEquals("new contents\n",
+            new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+        assertEquals(PosixFilePermissions.fromString("rw-r-----"),
+            Files.getPosixFilePermissions(file.toPath()));
+        assertEquals(1, dir.list().length);
+    }
+
+    @Test
+    public void testStopsAtFirstFailure() throws Exception {
+        File marker = new File(tempFolder.getRoot(), "marker");
+        LocalCommand command = new LocalCommand();
+        CommandBatch batch = command.batch().
+            args("echo", "one").
+            args("echo", "two", "&&", "exit", "3").
+            args("touch", marker.getAbsolutePath());
+        CommandBatch.Results results = batch.run();
+        assertEquals(3, results.returnCode());
+        assertEquals(Arrays.asList(0, 3), results.exitCodes());
+        assertEquals(Arrays.asList("one\n", "two\n"), results.outputs());
+        assertFalse(marker.exists());
+        try {
+            batch.mustRun();
+            fail("Expected the batch to fail.");
+        } catch (CommandResultException e) {
+            assertEquals(3, e.returnCode());
+            assertEquals(Arrays.asList("echo", "two", "&&", "exit", "3"), e.commandLine());
+        }
+    }
+}
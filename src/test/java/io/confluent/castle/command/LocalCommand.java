@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A command which runs its arguments on this machine.  Like ssh, it drops the
+ * leading -n and -- options, joins the rest of the arguments with spaces, and runs
+ * them with a shell.
+ */
+public class LocalCommand implements Command {
+    private final AtomicInteger numRuns = new AtomicInteger(0);
+
+    private List<String> args = null;
+
+    private OutputConsumer output = null;
+
+    private boolean captureStderr = false;
+
+    private byte[] stdin = new byte[0];
+
+    /**
+     * Return how many times the command was run.
+     */
+    public int numRuns() {
+        return numRuns.get();
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.args = new ArrayList<>(args);
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Command setOutputConsumer(OutputConsumer consumer) {
+        this.output = consumer;
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        this.captureStderr = captureStderr;
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        this.stdin = stdin;
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        numRuns.incrementAndGet();
+        int start = 0;
+        if ((start < args.size()) && args.get(start).equals("-n")) {
+            start++;
+        }
+        if ((start < args.size()) && args.get(start).equals("--")) {
+            start++;
+        }
+        ProcessBuilder builder = new ProcessBuilder("bash", "-c",
+            String.join(" ", args.subList(start, args.size())));
+        if (captureStderr) {
+            builder.redirectErrorStream(true);
+        } else {
+            builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+        }
+        Process process = builder.start();
+        try (OutputStream os = process.getOutputStream()) {
+            os.write(stdin);
+        }
+        try (Reader reader = new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8)) {
+            char[] buf = new char[4096];
+            int ret;
+            while ((ret = reader.read(buf)) != -1) {
+                if (output != null) {
+                    output.append(CharBuffer.wrap(buf, 0, ret));
+                }
+            }
+        }
+        if (output != null) {
+            output.finish();
+        }
+        return process.waitFor();
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        int returnCode = run();
+        if (returnCode != 0) {
+            throw new CommandResultException(args, returnCode);
+        }
+    }
+
+    @Override
+    public void exec() throws Exception {
+        throw new UnsupportedOperationException();
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A command which doesn't run anything, but counts how many times it was run.
+ */
+public class MockCommand implements Command {
+    private final AtomicInteger numRuns;
+
+    private List<String> args = null;
+
+    public MockCommand(AtomicInteger numRuns) {
+        this.numRuns = numRuns;
+    }
+
+    @Override
+    public Command args(String... args) {
+        return argList(Arrays.asList(args));
+    }
+
+    @Override
+    public Command argList(List<String> args) {
+        this.args = new ArrayList<>(args);
+        return this;
+    }
+
+    @Override
+    public Command syncTo(String local, String remote) {
+        this.args = Arrays.asList("rsync", local, remote);
+        return this;
+    }
+
+    @Override
+    public Command syncFrom(String remote, String local) {
+        this.args = Arrays.asList("rsync", remote, local);
+        return this;
+    }
+
+    @Override
+    public Command setOutputConsumer(OutputConsumer consumer) {
+        return this;
+    }
+
+    @Override
+    public Command setCaptureStderr(boolean captureStderr) {
+        return this;
+    }
+
+    @Override
+    public Command setStdin(byte[] stdin) {
+        return this;
+    }
+
+    @Override
+    public int run() throws Exception {
+        if (args == null) {
+            throw new RuntimeException("You must supply arguments.");
+        }
+        numRuns.incrementAndGet();
+        return 0;
+    }
+
+    @Override
+    public void mustRun() throws Exception {
+        run();
+    }
+
+    @Override
+    public void exec() throws Exception {
+        throw new UnsupportedOperationException();
+    }
+};
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.common.CastleLogRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutputPumpTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    /**
+     * A stream which returns at most one byte per read.
+     */
+    private static final class TrickleInputStream extends InputStream {
+        private final byte[] data;
+        private int position = 0;
+
+        TrickleInputStream(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read() {
+            return (position < data.length) ? (data[position++] & 0xff) : -1;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (position >= data.length) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            buf[off] = data[position++];
+            return 1;
+        }
+    }
+
+    @Test
+    public void testMultiByteCharactersAcrossReads() throws Exception {
+        String text = "café 日本 😀 done";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        StringBuilder captured = new StringBuilder();
+        OutputCapture capture = new OutputCapture(captured, OutputCapture.UNLIMITED, 0);
+        ByteArrayOutputStream logged = new ByteArrayOutputStream();
+        CastleLog log = new CastleLog("test", logged, false);
+        OutputPump.start(new TrickleInputStream(bytes),
+            Collections.singletonList(capture), log, true).get();
+        capture.finish();
+        assertEquals(text, captured.toString());
+        // The log gets the raw bytes, plus a terminating newline.
+        byte[] expectedLog = Arrays.copyOf(bytes, bytes.length + 1);
+        expectedLog[bytes.length] = '\n';
+        assertEquals(new String(expectedLog, StandardCharsets.UTF_8),
+            new String(logged.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * A stream which returns the given chunks, one per read.
+     */
+    private static final class ChunkedInputStream extends InputStream {
+        private final byte[][] chunks;
+        private int index = 0;
+
+        ChunkedInputStream(byte[]... chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int read() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (index >= chunks.length) {
+                return -1;
+            }
+            byte[] chunk = chunks[index++];
+            System.arraycopy(chunk, 0, buf, off, chunk.length);
+            return chunk.length;
+        }
+    }
+
+    @Test
+    public void testStructuredLogGetsWholeLines() throws Exception {
+        byte[] bytes = "first line\nsecond 日本 line\nlast".getBytes(StandardCharsets.UTF_8);
+        // Split the reads in the middle of the second line, and of a character.
+        int split = "first line\nsecond 日".getBytes(StandardCharsets.UTF_8).length - 1;
+        ByteArrayOutputStream logged = new ByteArrayOutputStream();
+        CastleLog log = new CastleLog("test", logged, false, true);
+        OutputPump.start(new ChunkedInputStream(Arrays.copyOfRange(bytes, 0, split),
+                Arrays.copyOfRange(bytes, split, bytes.length)),
+            Collections.<OutputConsumer>emptyList(), log, true).get();
+        List<String> messages = new ArrayList<>();
+        for (String line : new String(logged.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+            byte[] record = line.getBytes(StandardCharsets.UTF_8);
+            messages.add(CastleLogRecord.fromJson(record, 0, record.length).message());
+        }
+        assertEquals(Arrays.asList("first line", "second 日本 line", "last"), messages);
+    }
+
+    @Test
+    public void testHeadAndTailLimits() throws Exception {
+        StringBuilder bld = new StringBuilder();
+        OutputCapture capture = new OutputCapture(bld, 4, 3);
+        capture.append("ab");
+        capture.append("cdefg");
+        capture.append("hij");
+        assertEquals(3, capture.omitted());
+        capture.finish();
+        assertEquals(String.format("abcd%n[... 3 characters omitted ...]%nhij"), bld.toString());
+    }
+
+    @Test
+    public void testNoTail() throws Exception {
+        StringBuilder bld = new StringBuilder();
+        OutputCapture capture = new OutputCapture(bld, 2, 0);
+        capture.append("abcdef");
+        capture.finish();
+        assertEquals(String.format("ab%n[... 4 characters omitted ...]%n"), bld.toString());
+    }
+
+    @Test
+    public void testUnderLimits() throws Exception {
+        StringBuilder bld = new StringBuilder();
+        OutputCapture capture = new OutputCapture(bld, 4, 3);
+        capture.append("abcd");
+        capture.append("ef");
+        capture.finish();
+        assertEquals("abcdef", bld.toString());
+    }
+
+    @Test
+    public void testLineSplitter() throws Exception {
+        List<String> lines = new ArrayList<>();
+        OutputConsumer consumer = OutputConsumer.forLines(line -> lines.add(line));
+        consumer.append("fir");
+        consumer.append("st\r\nsecond\n\nth");
+        consumer.append("ird");
+        consumer.finish();
+        assertEquals(Arrays.asList("first", "second", "", "third"), lines);
+    }
+
+    @Test
+    public void testLineSplitterStopsEarly() throws Exception {
+        List<String> lines = new ArrayList<>();
+        OutputConsumer consumer = OutputConsumer.forLines(line -> {
+            lines.add(line);
+            return !line.equals("stop");
+        });
+        consumer.append("a\nstop\nb\n");
+        consumer.append("c\nd");
+        consumer.finish();
+        assertEquals(Arrays.asList("a", "stop"), lines);
+    }
+}
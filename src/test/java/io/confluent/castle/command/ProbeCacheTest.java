@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ProbeCacheTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testCachesUntilInvalidated() throws Exception {
+        ProbeCache cache = new ProbeCache();
+        AtomicInteger runs = new AtomicInteger(0);
+        assertEquals(Integer.valueOf(1), cache.get("node0", "jcmd", runs::incrementAndGet));
+        assertEquals(Integer.valueOf(1), cache.get("node0", "jcmd", runs::incrementAndGet));
+        assertEquals(Integer.valueOf(2), cache.get("node1", "jcmd", runs::incrementAndGet));
+        assertEquals(Integer.valueOf(3), cache.get(ProbeCache.LOCAL, "docker ps",
+            runs::incrementAndGet));
+        cache.invalidate("node1");
+        assertEquals(Integer.valueOf(1), cache.get("node0", "jcmd", runs::incrementAndGet));
+        assertEquals(Integer.valueOf(4), cache.get("node1", "jcmd", runs::incrementAndGet));
+        assertEquals(Integer.valueOf(5), cache.get(ProbeCache.LOCAL, "docker ps",
+            runs::incrementAndGet));
+        cache.clear();
+        assertEquals(Integer.valueOf(6), cache.get("node0", "jcmd", runs::incrementAndGet));
+    }
+
+    @Test
+    public void testFailuresAreNotCached() throws Exception {
+        ProbeCache cache = new ProbeCache();
+        try {
+            cache.get("node0", "ls", () -> {
+                throw new CommandResultException(Collections.singletonList("ls"), 255);
+            });
+            fail("Expected the probe to fail.");
+        } catch (CommandResultException e) {
+            assertEquals(255, e.returnCode());
+        }
+        assertEquals("ok", cache.get("node0", "ls", () -> "ok"));
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneRun() throws Exception {
+        ProbeCache cache = new ProbeCache();
+        AtomicInteger runs = new AtomicInteger(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> cache.get("node0", "jcmd", () -> {
+                started.countDown();
+                release.await();
+                return runs.incrementAndGet();
+            })));
+            started.await();
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() ->
+                    cache.get("node0", "jcmd", runs::incrementAndGet)));
+            }
+            release.countDown();
+            for (Future<Integer> future : futures) {
+                assertEquals(Integer.valueOf(1), future.get());
+            }
+            assertEquals(1, runs.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
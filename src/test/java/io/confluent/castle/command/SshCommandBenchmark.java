@@ -0,0 +1,110 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterConf;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import io.confluent.castle.tool.MockCastleEnvironment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long a trivial ssh command takes, with and without sharing one
+ * connection between commands.
+ *
+ * This needs a node to ssh to.  A node started by the Docker uplink works well: pass
+ * its ssh port, user, and identity file as system properties.  For example:
+ *     mvn test-compile exec:java -Dexec.classpathScope=test \
+ *         -Dexec.mainClass=io.confluent.castle.command.SshCommandBenchmark \
+ *         -Dcastle.bench.port=9100 -Dcastle.bench.user=ducker \
+ *         -Dcastle.bench.identity=/tmp/mycluster/keys/id_rsa
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+public class SshCommandBenchmark {
+    @Param({"false", "true"})
+    public boolean sshMultiplexing;
+
+    private CastleCluster cluster;
+
+    private SshCommand command;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Map<String, CastleNodeSpec> map = new HashMap<>();
+        map.put("node0", new CastleNodeSpec(Collections.singletonList("mockCloud"), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleClusterSpec spec = new CastleClusterSpec(
+            new CastleClusterConf(null, null, 0, 0, false, sshMultiplexing, 0, null, null, 0, false, 0, 0, 0, 0), map, roles);
+        cluster = new CastleCluster(new MockCastleEnvironment(),
+            CastleLog.fromDevNull("cluster", false), null, spec);
+        command = new SshCommand(cluster.nodes().get("node0"),
+            System.getProperty("castle.bench.host", "localhost"),
+            System.getProperty("castle.bench.user", ""),
+            Integer.getInteger("castle.bench.port", 0),
+            System.getProperty("castle.bench.identity", ""),
+            cluster.sshMultiplexer());
+        command.args("true");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cluster.close();
+    }
+
+    @Benchmark
+    public void ssh() throws Exception {
+        command.mustRun();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().
+            include(SshCommandBenchmark.class.getSimpleName()).
+            build();
+        new Runner(options).run();
+    }
+}
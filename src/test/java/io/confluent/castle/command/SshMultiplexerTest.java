@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.command;
+
+import io.confluent.castle.common.CastleLog;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SshMultiplexerTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testDisabled() throws Exception {
+        try (SshMultiplexer multiplexer =
+                 new SshMultiplexer(CastleLog.fromDevNull("cluster", false), false)) {
+            assertTrue(multiplexer.sshOptions().isEmpty());
+        }
+    }
+
+    @Test
+    public void testOptionsAndClose() throws Exception {
+        SshMultiplexer multiplexer =
+            new SshMultiplexer(CastleLog.fromDevNull("cluster", false), true);
+        List<String> options = multiplexer.sshOptions();
+        assertEquals(6, options.size());
+        assertEquals("ControlMaster=auto", options.get(1));
+        assertEquals("ControlPersist=" + SshMultiplexer.CONTROL_PERSIST_SECONDS,
+            options.get(5));
+        String controlPath = options.get(3);
+        assertTrue(controlPath.startsWith("ControlPath="));
+        assertTrue(controlPath.endsWith("%C"));
+        Path controlDir = Paths.get(controlPath.substring("ControlPath=".length())).getParent();
+        assertTrue(Files.isDirectory(controlDir));
+
+        // Every command should use the same control directory.
+        assertEquals(options, multiplexer.sshOptions());
+
+        multiplexer.close();
+        assertFalse(Files.exists(controlDir));
+        assertTrue(multiplexer.sshOptions().isEmpty());
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes to print a line to a node log while many threads
+ * print to it at once.
+ *
+ * With writer=direct, each line goes straight to an unbuffered file stream under
+ * the log's lock, which is how every log used to be written.  With writer=async,
+ * the log is opened the way node logs are, and lines are queued for the
+ * background writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Threads(8)
+public class CastleLogBenchmark {
+    private static final String LINE = String.format(
+        "Get:42 http://us-west-2.ec2.archive.ubuntu.com/ubuntu bionic/main amd64 " +
+        "libsnappy1v5 amd64 1.1.7-1 [16.0 kB]%n");
+
+    @Param({"direct", "async"})
+    public String writer;
+
+    private File dir;
+
+    private CastleLog log;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        dir = Files.createTempDirectory("CastleLogBenchmark").toFile();
+        if (writer.equals("direct")) {
+            log = new CastleLog("node0",
+                new FileOutputStream(new File(dir, "node0.clog"), true), false);
+        } else {
+            log = CastleLog.fromFile(dir.getAbsolutePath(), "node0", false);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        log.close();
+        Files.delete(new File(dir, "node0.clog").toPath());
+        Files.delete(dir.toPath());
+    }
+
+    @Benchmark
+    public void print() {
+        log.print(LINE);
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder().
+            include(CastleLogBenchmark.class.getSimpleName()).
+            build();
+        new Runner(options).run();
+    }
+}
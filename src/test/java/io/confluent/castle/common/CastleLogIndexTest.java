@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CastleLogIndexTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final CastleLogIndex.Query ALL = query(null, Long.MIN_VALUE, Long.MAX_VALUE, null);
+
+    private static CastleLogIndex.Query query(String action, long sinceMs, long untilMs, String grep) {
+        return new CastleLogIndex.Query(Collections.<String>emptySet(), action, sinceMs, untilMs, grep);
+    }
+
+    private static byte[] structuredLog(long startMs, int numRecords) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int i = 0; i < numRecords; i++) {
+            String action = (i % 2 == 0) ? "brokerStart:node1" : "zooKeeperStart:node1";
+            stream.write(new CastleLogRecord(startMs + i * 1000L, "node1", action,
+                null, null, null, "record " + i).toJson());
+        }
+        return stream.toByteArray();
+    }
+
+    @Test
+    public void testFindStructuredRecords() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        Files.write(path, structuredLog(100000L, 10));
+        CastleLogIndex index = CastleLogIndex.open(path, "node1");
+        assertEquals(10, index.size());
+        assertEquals(10, index.find(ALL).size());
+        List<CastleLogRecord> records = index.find(query("brokerStart", 103000L, 107000L, null));
+        assertEquals(2, records.size());
+        assertEquals("record 4", records.get(0).message());
+        assertEquals("record 6", records.get(1).message());
+        assertEquals("brokerStart:node1", records.get(1).action());
+        assertEquals(1, index.find(query("zooKeeperStart:node1", 0, Long.MAX_VALUE, "record 9")).size());
+        assertEquals(0, index.find(query("brokerStart:node2", 0, Long.MAX_VALUE, null)).size());
+        assertEquals(0, index.find(new CastleLogIndex.Query(Collections.singleton("node2"),
+            null, Long.MIN_VALUE, Long.MAX_VALUE, null)).size());
+    }
+
+    @Test
+    public void testFindTextRecords() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        String text = "2018-06-01 12:00:00 ** node1: RUNNING echo hi\n" +
+            "hi\n" +
+            "{\"not\": \"a record\"}\n" +
+            "2018-06-01 12:00:05 ** node1: FINISHED echo hi with RESULT 0\n";
+        Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+        CastleLogIndex index = CastleLogIndex.open(path, "node1");
+        assertEquals(2, index.size());
+        List<CastleLogRecord> records = index.find(ALL);
+        assertEquals("** node1: RUNNING echo hi\nhi\n{\"not\": \"a record\"}",
+            records.get(0).message());
+        assertEquals("node1", records.get(0).node());
+        assertNull(records.get(0).action());
+        assertEquals(5000L, records.get(1).timeMs() - records.get(0).timeMs());
+        assertEquals(1, index.find(query(null, records.get(1).timeMs(),
+            Long.MAX_VALUE, null)).size());
+        assertEquals(0, index.find(query("brokerStart", Long.MIN_VALUE,
+            Long.MAX_VALUE, null)).size());
+    }
+
+    @Test
+    public void testSavedIndex() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        byte[] first = structuredLog(100000L, 5);
+        Files.write(path, first);
+        assertEquals(first.length, CastleLogIndex.open(path, "node1").scannedBytes());
+        assertTrue(Files.exists(CastleLogIndex.indexPath(path)));
+        assertEquals(0, CastleLogIndex.open(path, "node1").scannedBytes());
+
+        // Only the new records are read, and a partial line is left for later.
+        byte[] second = structuredLog(200000L, 3);
+        Files.write(path, second, StandardOpenOption.APPEND);
+        Files.write(path, "{\"ts\":".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        CastleLogIndex index = CastleLogIndex.open(path, "node1");
+        assertEquals(second.length, index.scannedBytes());
+        assertEquals(8, index.size());
+        assertEquals(3, index.find(query(null, 200000L, Long.MAX_VALUE, null)).size());
+
+        // A rewritten log is indexed from scratch.
+        byte[] rewritten = structuredLog(300000L, 20);
+        Files.write(path, rewritten);
+        index = CastleLogIndex.open(path, "node1");
+        assertEquals(rewritten.length, index.scannedBytes());
+        assertEquals(20, index.size());
+        assertEquals(0, index.find(query(null, Long.MIN_VALUE, 299999L, null)).size());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CastleLogTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testTimestampPrefix() throws Exception {
+        byte[] prefix = CastleLog.timestampPrefix(1500000000000L);
+        assertEquals("yyyy-MM-dd HH:mm:ss ".length(), prefix.length);
+        assertSame(prefix, CastleLog.timestampPrefix(1500000000999L));
+        byte[] next = CastleLog.timestampPrefix(1500000001000L);
+        assertTrue(next != prefix);
+        assertEquals(prefix.length, next.length);
+    }
+
+    @Test
+    public void testPrintToStream() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (CastleLog log = new CastleLog("test", stream, false)) {
+            log.printf("hello %s%n", "world");
+            log.write("raw\n".getBytes(StandardCharsets.UTF_8));
+        }
+        String[] lines = new String(stream.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].endsWith(" hello world"));
+        assertEquals("raw", lines[1]);
+    }
+
+    @Test
+    public void testStructuredRecords() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        String prevAction = CastleLog.setCurrentAction("brokerStart:node1");
+        try (CastleLog log = new CastleLog("node1", stream, false, true)) {
+            log.printf("hello %s%n", "world");
+            log.record("ls -l", 2, 150L, "listed\n");
+            log.write("raw \"output\"\n".getBytes(StandardCharsets.UTF_8));
+            CastleLog.setCurrentAction(null);
+            log.print("no action\n");
+        } finally {
+            CastleLog.setCurrentAction(prevAction);
+        }
+        String[] lines = new String(stream.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(4, lines.length);
+        List<CastleLogRecord> records = new ArrayList<>();
+        for (String line : lines) {
+            byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+            records.add(CastleLogRecord.fromJson(bytes, 0, bytes.length));
+        }
+        assertEquals("node1", records.get(0).node());
+        assertEquals("brokerStart:node1", records.get(0).action());
+        assertEquals("hello world", records.get(0).message());
+        assertNull(records.get(0).exitCode());
+        assertEquals("ls -l", records.get(1).command());
+        assertEquals(Integer.valueOf(2), records.get(1).exitCode());
+        assertEquals(Long.valueOf(150L), records.get(1).durationMs());
+        assertEquals("raw \"output\"", records.get(2).message());
+        assertEquals("brokerStart:node1", records.get(2).action());
+        assertNull(records.get(3).action());
+        assertTrue(records.get(0).timeMs() > 0);
+    }
+
+    @Test
+    public void testConcurrentWritersToFile() throws Exception {
+        File dir = tempFolder.newFolder();
+        final int numThreads = 8;
+        final int numLines = 2000;
+        final CastleLog log = CastleLog.fromFile(dir.getAbsolutePath(), "node0", false);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < numThreads; i++) {
+            final int threadIndex = i;
+            threads.add(new Thread(() -> {
+                for (int j = 0; j < numLines; j++) {
+                    log.printf("thread %d line %d%n", threadIndex, j);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        log.flush();
+        File file = new File(dir, "node0.clog");
+        List<String> lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        assertEquals(numThreads * numLines, lines.size());
+        // Each thread's lines are written whole, and in the order it printed them.
+        int[] next = new int[numThreads];
+        for (String line : lines) {
+            String[] fields = line.split(" ");
+            int threadIndex = Integer.parseInt(fields[3]);
+            assertEquals(next[threadIndex], Integer.parseInt(fields[5]));
+            next[threadIndex]++;
+        }
+        log.close();
+        log.printf("dropped after close%n");
+        assertEquals(numThreads * numLines,
+            Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        AsyncLogWriter.Sink sink = AsyncLogWriter.get().open(stream, 16);
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 1000; i++) {
+            byte[] buf = String.format("%d,", i).getBytes(StandardCharsets.UTF_8);
+            expected.write(buf);
+            sink.write(buf);
+        }
+        sink.close();
+        assertArrayEquals(expected.toByteArray(), stream.toByteArray());
+    }
+}
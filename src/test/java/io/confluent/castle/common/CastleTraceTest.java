@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.confluent.castle.tool.CastleTool;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CastleTraceTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testWriteTrace() throws Exception {
+        CastleTrace trace = new CastleTrace();
+        assertTrue(trace.isEmpty());
+        trace.span("node0", "action", "foo:node0", 10, 50, null);
+        trace.span("node0", "command", "ls", 20, 30,
+            Collections.singletonMap("result", "0"));
+        trace.span("node1", "action", "foo:node1", 15, 25, null);
+        trace.asyncSpan("scheduler", "RUNNABLE", "foo:node0", 0, 10);
+        File file = File.createTempFile("CastleTraceTest", ".json");
+        try {
+            trace.write(file.getAbsolutePath());
+            JsonNode root = CastleTool.JSON_SERDE.readTree(file);
+            JsonNode events = root.get("traceEvents");
+            // Two thread name events, three spans, and an async begin and end.
+            assertEquals(7, events.size());
+            assertEquals("thread_name", events.get(0).get("name").asText());
+            assertEquals("node0", events.get(0).get("args").get("name").asText());
+            assertEquals("node1", events.get(1).get("args").get("name").asText());
+            JsonNode command = events.get(3);
+            assertEquals("X", command.get("ph").asText());
+            assertEquals(20, command.get("ts").asLong());
+            assertEquals(10, command.get("dur").asLong());
+            assertEquals(1, command.get("tid").asInt());
+            assertEquals("0", command.get("args").get("result").asText());
+            assertEquals("b", events.get(5).get("ph").asText());
+            assertEquals("e", events.get(6).get("ph").asText());
+            assertEquals("foo:node0", events.get(6).get("id").asText());
+        } finally {
+            Files.delete(file.toPath());
+        }
+    }
+}
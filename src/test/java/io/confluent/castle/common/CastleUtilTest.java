@@ -28,6 +28,7 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class CastleUtilTest {
@@ -127,4 +128,19 @@ public class CastleUtilTest {
         assertEquals("1", map3.get("bar"));
         assertEquals("2", map3.get("quux"));
     }
+
+    @Test
+    public void testFindPid() throws Exception {
+        String listing = String.join("\n",
+            "  PID COMMAND",
+            "    1 /sbin/init",
+            "  456 collectd -f -C /mnt/collectd/collectd.conf",
+            " 1234 java -cp /mnt/kafka/src/libs/* kafka.Kafka /mnt/kafka/conf/broker.properties",
+            "");
+        assertEquals("456", CastleUtil.findPid(listing, "collectd"));
+        assertEquals("1234", CastleUtil.findPid(listing, "kafka.Kafka"));
+        assertNull(CastleUtil.findPid(listing,
+            "org.apache.zookeeper.server.quorum.QuorumPeerMain"));
+        assertNull(CastleUtil.findPid("", "kafka.Kafka"));
+    }
 }
@@ -0,0 +1,216 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class RotatingLogFileTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static void write(RotatingLogFile file, String str) throws Exception {
+        byte[] buf = str.getBytes(StandardCharsets.UTF_8);
+        file.write(buf, 0, buf.length);
+    }
+
+    private static String read(Path path) throws Exception {
+        if (!path.getFileName().toString().endsWith(RotatingLogFile.COMPRESSED_SUFFIX)) {
+            return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(path))) {
+            byte[] buf = new byte[1024];
+            int len;
+            while ((len = input.read(buf)) > 0) {
+                output.write(buf, 0, len);
+            }
+        }
+        return new String(output.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Wait until every rotated segment has been compressed.
+     */
+    private static TreeMap<Long, Path> awaitCompressed(Path path) throws Exception {
+        while (true) {
+            TreeMap<Long, Path> segments = RotatingLogFile.segments(path);
+            boolean done = true;
+            for (Path segment : segments.values()) {
+                if (!segment.getFileName().toString().endsWith(RotatingLogFile.COMPRESSED_SUFFIX)) {
+                    done = false;
+                }
+            }
+            if (done) {
+                return segments;
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testRotateBySize() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        RotatingLogFile file = new RotatingLogFile(path, new LogRotation(10, Long.MAX_VALUE, 10));
+        write(file, "0123456789");
+        // The log is full, but the line is not finished yet.
+        write(file, "ab");
+        write(file, "c\ndef\n");
+        write(file, "ghi\n");
+        file.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        assertEquals(Arrays.asList(1L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("0123456789abc\n", read(segments.get(1L)));
+        assertEquals("def\nghi\n", read(path));
+    }
+
+    @Test
+    public void testRotateByAge() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        RotatingLogFile file = new RotatingLogFile(path, new LogRotation(Long.MAX_VALUE, 1, 10));
+        write(file, "first\n");
+        Thread.sleep(10);
+        write(file, "second\n");
+        file.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        assertEquals(1, segments.size());
+        assertEquals("first\n", read(segments.get(1L)));
+        assertEquals("second\n", read(path));
+    }
+
+    @Test
+    public void testRetention() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        LogRotation rotation = new LogRotation(4, Long.MAX_VALUE, 2);
+        RotatingLogFile file = new RotatingLogFile(path, rotation);
+        for (int i = 0; i < 6; i++) {
+            write(file, String.format("%03d\n", i));
+        }
+        file.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        while (segments.size() > 2) {
+            Thread.sleep(5);
+            segments = awaitCompressed(path);
+        }
+        assertEquals(Arrays.asList(4L, 5L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("003\n", read(segments.get(4L)));
+        assertEquals("004\n", read(segments.get(5L)));
+        assertEquals("005\n", read(path));
+        assertFalse(Files.exists(path.resolveSibling("node1.clog.3.gz")));
+
+        // Reopening a full log rotates it, and continues the segment numbers.
+        file = new RotatingLogFile(path, rotation);
+        write(file, "006\n");
+        file.close();
+        segments = awaitCompressed(path);
+        while (segments.size() > 2) {
+            Thread.sleep(5);
+            segments = awaitCompressed(path);
+        }
+        assertEquals(Arrays.asList(5L, 6L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("005\n", read(segments.get(6L)));
+        assertEquals("006\n", read(path));
+    }
+
+    @Test
+    public void testStartTimeSurvivesReopen() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        Path startPath = path.resolveSibling("node1.clog" + RotatingLogFile.START_SUFFIX);
+        LogRotation rotation = new LogRotation(Long.MAX_VALUE, TimeUnit.HOURS.toMillis(1), 10);
+        RotatingLogFile file = new RotatingLogFile(path, rotation);
+        write(file, "first\n");
+        file.close();
+        String start = read(startPath);
+        file = new RotatingLogFile(path, rotation);
+        write(file, "second\n");
+        file.close();
+        assertEquals(start, read(startPath));
+        assertEquals(0, RotatingLogFile.segments(path).size());
+
+        // The log was just modified, but it was started two hours ago.
+        Files.write(startPath, String.format("%d%n", System.currentTimeMillis() -
+            TimeUnit.HOURS.toMillis(2)).getBytes(StandardCharsets.UTF_8));
+        file = new RotatingLogFile(path, rotation);
+        write(file, "third\n");
+        file.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        assertEquals(Arrays.asList(1L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("first\nsecond\n", read(segments.get(1L)));
+        assertEquals("third\n", read(path));
+    }
+
+    @Test
+    public void testRotationByAnotherWriter() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        LogRotation rotation = new LogRotation(4, Long.MAX_VALUE, 10);
+        RotatingLogFile file1 = new RotatingLogFile(path, rotation);
+        write(file1, "a1\n");
+        RotatingLogFile file2 = new RotatingLogFile(path, rotation);
+        write(file1, "a2\n");
+        write(file2, "b1\n");
+        // The first writer rotates the log.  The second writer also thinks that the
+        // log is full, but it only opens the new log, rather than rotating it again.
+        write(file1, "a3\n");
+        write(file2, "b2\n");
+        file1.close();
+        file2.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        assertEquals(Arrays.asList(1L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("a1\na2\nb1\n", read(segments.get(1L)));
+        assertEquals("a3\nb2\n", read(path));
+    }
+
+    @Test
+    public void testReopenAfterRotationByAnotherWriter() throws Exception {
+        Path path = new File(tempFolder.newFolder(), "node1.clog").toPath();
+        RotatingLogFile file1 = new RotatingLogFile(path, new LogRotation(4, Long.MAX_VALUE, 10));
+        RotatingLogFile file2 = new RotatingLogFile(path, LogRotation.DEFAULT);
+        write(file1, "a1\n");
+        write(file2, "b1\n");
+        write(file1, "a2\n");
+        write(file1, "a3\n");
+        // The second writer notices that the log was rotated within a second.
+        Thread.sleep(RotatingLogFile.ROTATION_CHECK_INTERVAL_MS + 10);
+        write(file2, "b2\n");
+        file1.close();
+        file2.close();
+        TreeMap<Long, Path> segments = awaitCompressed(path);
+        assertEquals(Arrays.asList(1L), Arrays.asList(segments.keySet().toArray()));
+        assertEquals("a1\nb1\na2\n", read(segments.get(1L)));
+        assertEquals("a3\nb2\n", read(path));
+    }
+}
@@ -21,6 +21,7 @@ import com.fasterxml.jackson.annotation.JsonCreator;
 import io.confluent.castle.action.Action;
 import io.confluent.castle.cluster.CastleCluster;
 import io.confluent.castle.cluster.CastleNode;
+import io.confluent.castle.uplink.MockUplink;
 import io.confluent.castle.uplink.Uplink;
 
 import java.util.Collection;
@@ -38,6 +39,6 @@ public class MockCloudRole implements Role, UplinkRole {
 
     @Override
     public Uplink createUplink(CastleCluster cluster, CastleNode node) {
-        return null;
+        return new MockUplink();
     }
 };
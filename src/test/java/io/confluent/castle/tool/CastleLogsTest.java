@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.common.CastleLogIndex;
+import io.confluent.castle.common.CastleLogRecord;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class CastleLogsTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Test
+    public void testParse() throws Exception {
+        long nowMs = 1000000000L;
+        CastleLogIndex.Query query = CastleLogs.parse(Arrays.asList("logs",
+            "node=node3", "action=brokerStart", "since=10m", "grep=ERROR"), nowMs);
+        assertEquals(Collections.singleton("node3"), query.nodes());
+        assertEquals("brokerStart", query.action());
+        assertEquals(nowMs - 600000L, query.sinceMs());
+        assertEquals(Long.MAX_VALUE, query.untilMs());
+        assertEquals("ERROR", query.grep());
+
+        query = CastleLogs.parse(Arrays.asList("logs", "node=node1,node2", "until=30s"), nowMs);
+        assertEquals(new HashSet<>(Arrays.asList("node1", "node2")), query.nodes());
+        assertNull(query.action());
+        assertEquals(Long.MIN_VALUE, query.sinceMs());
+        assertEquals(nowMs - 30000L, query.untilMs());
+
+        query = CastleLogs.parse(Arrays.asList("logs"), nowMs);
+        assertEquals(Collections.emptySet(), query.nodes());
+    }
+
+    @Test
+    public void testParseTime() throws Exception {
+        assertEquals(9500L, CastleLogs.parseTimeMs("500ms", 10000L));
+        assertEquals(0L, CastleLogs.parseTimeMs("2h", 7200000L));
+        assertEquals(0L, CastleLogs.parseTimeMs("1d", 86400000L));
+        assertEquals(LocalDateTime.of(2018, 6, 1, 12, 0, 0).
+                atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(),
+            CastleLogs.parseTimeMs("2018-06-01T12:00:00", 0L));
+        try {
+            CastleLogs.parseTimeMs("yesterday", 0L);
+            fail("Expected an exception");
+        } catch (RuntimeException e) {
+        }
+        try {
+            CastleLogs.parse(Arrays.asList("logs", "node3"), 0L);
+            fail("Expected an exception");
+        } catch (RuntimeException e) {
+        }
+    }
+
+    @Test
+    public void testFindAcrossNodes() throws Exception {
+        File dir = tempFolder.newFolder();
+        for (int node = 0; node < 3; node++) {
+            StringBuilder bld = new StringBuilder();
+            for (int i = 0; i < 4; i++) {
+                bld.append(new String(new CastleLogRecord(1000L * i + node, "node" + node,
+                    "brokerStart:node" + node, null, null, null, "line " + i).toJson(), "UTF-8"));
+            }
+            Files.write(new File(dir, "node" + node + ".clog").toPath(), bld.toString().getBytes("UTF-8"));
+        }
+        long[] scannedBytes = new long[1];
+        List<CastleLogRecord> records = CastleLogs.find(dir.toPath(),
+            CastleLogs.parse(Arrays.asList("logs", "node=node0,node2", "grep=line 1"), 0L),
+            scannedBytes);
+        assertEquals(2, records.size());
+        assertEquals("node0", records.get(0).node());
+        assertEquals("node2", records.get(1).node());
+        records = CastleLogs.find(dir.toPath(),
+            CastleLogs.parse(Arrays.asList("logs", "action=brokerStart"), 0L), scannedBytes);
+        assertEquals(12, records.size());
+        for (int i = 1; i < records.size(); i++) {
+            assertEquals(true, records.get(i - 1).timeMs() <= records.get(i).timeMs());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import io.confluent.castle.cluster.CastleCluster;
+import io.confluent.castle.cluster.CastleClusterSpec;
+import io.confluent.castle.cluster.CastleNodeSpec;
+import io.confluent.castle.common.CastleLog;
+import io.confluent.castle.role.MockCloudRole;
+import io.confluent.castle.role.Role;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CastleServeTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Rule
+    final public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private CastleCluster createCluster(final File servePath) throws Exception {
+        Map<String, CastleNodeSpec> map = new HashMap<>();
+        map.put("node[0-1]", new CastleNodeSpec(Arrays.asList("mockCloud"), null));
+        Map<String, Role> roles = new HashMap<>();
+        roles.put("mockCloud", new MockCloudRole());
+        CastleLog clusterLog = CastleLog.fromDevNull("cluster", false);
+        return new CastleCluster(new MockCastleEnvironment() {
+                @Override
+                public String servePath() {
+                    return servePath.getAbsolutePath();
+                }
+            }, clusterLog, new CastleShutdownManager(clusterLog),
+            new CastleClusterSpec(null, map, roles));
+    }
+
+    /**
+     * Send a request to the daemon, and return the lines of its reply.
+     */
+    private static List<String> request(File servePath, String token,
+                                        String... args) throws Exception {
+        String[] serveFile = new String(Files.readAllBytes(servePath.toPath()),
+            StandardCharsets.UTF_8).trim().split(" ");
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(serveFile[0]))) {
+            OutputStream out = socket.getOutputStream();
+            StringBuilder bld = new StringBuilder();
+            bld.append(token == null ? serveFile[1] : token).append('\n');
+            bld.append(args.length).append('\n');
+            for (String arg : args) {
+                bld.append(arg).append('\n');
+            }
+            out.write(bld.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> lines = new ArrayList<>();
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                lines.add(line);
+            }
+            return lines;
+        }
+    }
+
+    private static String lastLine(List<String> lines) {
+        return lines.get(lines.size() - 1);
+    }
+
+    @Test
+    public void testServeRequests() throws Throwable {
+        final File servePath = new File(tempFolder.getRoot(), CastleServe.SERVE_FILE_NAME);
+        PrintStream stdout = System.out;
+        final CastleServe.Output output = CastleServe.redirectStdout();
+        try (final CastleCluster cluster = createCluster(servePath)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        CastleServe.run(cluster, Arrays.asList(CastleServe.COMMAND), output);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            thread.start();
+            while (!servePath.exists()) {
+                Thread.sleep(1);
+            }
+
+            // Requests with the wrong token get no reply.
+            assertEquals(new ArrayList<String>(), request(servePath, "wrongToken", "status"));
+
+            List<String> reply = request(servePath, null);
+            assertTrue(reply.get(0).startsWith("o usage: castle-tool"));
+            assertEquals("x 0", lastLine(reply));
+
+            reply = request(servePath, null, "ssh", "node0", "node1", "echo");
+            assertEquals("x 0", lastLine(reply));
+
+            // -v only applies to the request which passed it.
+            reply = request(servePath, null, "-v", "ssh", "node0", "node1", "echo");
+            assertEquals("x 0", lastLine(reply));
+            assertFalse(cluster.clusterLog().enableDebug());
+
+            // An ssh session on a single node runs in the client.
+            assertEquals(Arrays.asList("l"), request(servePath, null, "ssh", "node0"));
+
+            // So does a watch, which would hold up other requests.
+            assertEquals(Arrays.asList("l"), request(servePath, null, "watch"));
+
+            reply = request(servePath, null, CastleServe.COMMAND);
+            assertTrue(reply.get(0).startsWith("o A castle daemon is already serving"));
+            assertEquals("x 1", lastLine(reply));
+
+            reply = request(servePath, null, CastleServe.COMMAND, "stop");
+            assertEquals("x 0", lastLine(reply));
+            thread.join();
+            assertFalse(servePath.exists());
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+}
@@ -17,6 +17,7 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.action.SshRelayAction;
 import org.hamcrest.CoreMatchers;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -28,6 +29,7 @@ import java.util.Collections;
 import java.util.TreeSet;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
 
 public class CastleSshTest {
@@ -56,4 +58,19 @@ public class CastleSshTest {
                 args2.nodeNames());
         assertEquals(Arrays.asList(new String[] {"echo"}), args2.command());
     }
+
+    @Test
+    public void testMissingResult() throws Exception {
+        SshRelayAction.Result result1 = new SshRelayAction.Result(0, "",
+            Arrays.asList("node0", "node2"));
+        SshRelayAction.Result result2 = new SshRelayAction.Result(1, "error",
+            Collections.singletonList("node3"));
+        assertNull(CastleSsh.missingResult(Arrays.asList("node0", "node2", "node3"),
+            Arrays.asList(result1, result2)));
+        SshRelayAction.Result missing = CastleSsh.missingResult(
+            Arrays.asList("node4", "node0", "node1", "node2", "node3"),
+            Arrays.asList(result1, result2));
+        assertEquals(255, missing.exitCode());
+        assertEquals(Arrays.asList("node1", "node4"), missing.nodeNames());
+    }
 };
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.tool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CastleWatchTest {
+    @Rule
+    final public Timeout globalTimeout = Timeout.millis(120000);
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(Collections.singletonList("taskStatus"),
+            CastleWatch.parse(Arrays.asList("watch")));
+        assertEquals(Arrays.asList("daemonStatus", "taskStatus"),
+            CastleWatch.parse(Arrays.asList("daemonStatus", "watch", "taskStatus")));
+    }
+
+    @Test
+    public void testDeltaFilter() throws Exception {
+        CastleWatch.DeltaFilter filter = new CastleWatch.DeltaFilter();
+        assertTrue(filter.shouldPrint("task1 is in progress"));
+        assertTrue(filter.shouldPrint("task2 is in progress"));
+        filter.nextCheck();
+        assertFalse(filter.shouldPrint("task1 is in progress"));
+        assertTrue(filter.shouldPrint("task2 is done"));
+        filter.nextCheck();
+        // Messages are compared with the previous check only.
+        assertFalse(filter.shouldPrint("task2 is done"));
+        assertTrue(filter.shouldPrint("task2 is in progress"));
+    }
+
+    @Test
+    public void testNextDelay() throws Exception {
+        assertEquals(CastleWatch.MIN_INTERVAL_MS, CastleWatch.nextDelayMs(0, 1000, -1));
+        assertEquals(4000, CastleWatch.nextDelayMs(4000, 1000, -1));
+        assertEquals(CastleWatch.MAX_INTERVAL_MS,
+            CastleWatch.nextDelayMs(Long.MAX_VALUE, 1000, -1));
+        // Wake up when the work in progress is expected to finish.
+        assertEquals(2500, CastleWatch.nextDelayMs(8000, 1000, 3500));
+        assertEquals(CastleWatch.MIN_INTERVAL_MS, CastleWatch.nextDelayMs(8000, 1000, 1001));
+        assertEquals(8000, CastleWatch.nextDelayMs(8000, 1000, 500));
+    }
+};
@@ -17,9 +17,13 @@
 
 package io.confluent.castle.tool;
 
+import io.confluent.castle.action.ActionDurations;
+import io.confluent.castle.action.ActionJournal;
+import io.confluent.castle.cluster.CastleClusterConf;
 import io.confluent.castle.common.CastleLog;
 
 import java.io.IOException;
+import java.util.Collections;
 
 public class MockCastleEnvironment extends CastleEnvironment {
     public MockCastleEnvironment() {
@@ -27,7 +31,22 @@ public class MockCastleEnvironment extends CastleEnvironment {
     }
 
     @Override
-    public CastleLog createCastleLog(String nodeName) throws IOException {
+    public CastleLog createCastleLog(String nodeName, CastleClusterConf conf) throws IOException {
         return CastleLog.fromDevNull(nodeName, false);
     }
+
+    @Override
+    public String tracePath() {
+        return null;
+    }
+
+    @Override
+    public ActionJournal createActionJournal() {
+        return new ActionJournal(null, Collections.emptyMap());
+    }
+
+    @Override
+    public ActionDurations createActionDurations() {
+        return new ActionDurations(null, Collections.emptyMap());
+    }
 };
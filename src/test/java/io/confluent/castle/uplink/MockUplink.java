@@ -0,0 +1,82 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.confluent.castle.uplink;
+
+import io.confluent.castle.command.Command;
+import io.confluent.castle.command.MockCommand;
+import io.confluent.castle.common.CastleUtil;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An uplink to a node which doesn't exist.  Commands always succeed.
+ */
+public class MockUplink implements Uplink {
+    private final AtomicInteger numCommands = new AtomicInteger(0);
+
+    @Override
+    public Command command() {
+        return new MockCommand(numCommands);
+    }
+
+    /**
+     * Get the number of commands which have been run through this uplink.
+     */
+    public int numCommands() {
+        return numCommands.get();
+    }
+
+    @Override
+    public String internalDns() {
+        return "localhost";
+    }
+
+    @Override
+    public boolean started() {
+        return true;
+    }
+
+    @Override
+    public boolean canLogin() {
+        return true;
+    }
+
+    @Override
+    public void startup() throws Exception {
+    }
+
+    @Override
+    public void check() throws Exception {
+    }
+
+    @Override
+    public CompletableFuture<Void> shutdown() throws Exception {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        CastleUtil.completeNull(future);
+        return future;
+    }
+
+    @Override
+    public void shutdownAll() throws Exception {
+    }
+
+    @Override
+    public void close() throws Exception {
+    }
+};